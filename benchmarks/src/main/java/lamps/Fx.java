@@ -0,0 +1,127 @@
+package lamps;
+
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Startet JavaFX ohne Bildschirm (Monocle) und führt die Messungen im JavaFX-Thread aus
+ */
+final class Fx {
+    private static boolean started = false;
+
+    private Fx() {
+    }
+
+    /**
+     * Startet JavaFX, falls das noch nicht geschehen ist
+     */
+    static synchronized void start() {
+        if (started)
+            return;
+
+        // ohne Bildschirm, falls nicht schon beim Start der JVM festgelegt
+        setDefault("glass.platform", "Monocle");
+        setDefault("monocle.platform", "Headless");
+        setDefault("prism.order", "sw");
+
+        var latch = new CountDownLatch(1);
+        Platform.startup(latch::countDown);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        Platform.setImplicitExit(false);
+        started = true;
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null)
+            System.setProperty(key, value);
+    }
+
+    /**
+     * Führt eine Aktion im JavaFX-Thread aus und wartet auf sie
+     * @param action die Aktion
+     */
+    static void run(Runnable action) {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Führt eine Berechnung im JavaFX-Thread aus und wartet auf ihr Ergebnis
+     * @param action die Berechnung
+     * @param <T> die Art des Ergebnisses
+     * @return das Ergebnis
+     */
+    static <T> T call(Supplier<T> action) {
+        if (Platform.isFxApplicationThread())
+            return action.get();
+
+        var result = new CompletableFuture<T>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(action.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Erstellt einen angezeigten Container mit Lampen in einem Gitter
+     * @param lampCount die Anzahl der Lampen
+     * @return der Container
+     */
+    static LampsContainer createContainer(int lampCount) {
+        start();
+        return call(() -> {
+            var container = new LampsContainer();
+            var stage = new Stage();
+            stage.setScene(new Scene(container, 800, 600));
+            stage.show();
+            container.getLamps().addAll(createLamps(lampCount));
+            return container;
+        });
+    }
+
+    /**
+     * Erstellt Lampen in einem quadratischen Gitter
+     * @param lampCount die Anzahl der Lampen
+     * @return die Lampen
+     */
+    static List<Lamp> createLamps(int lampCount) {
+        var columns = (int) Math.ceil(Math.sqrt(lampCount));
+        var lamps = new ArrayList<Lamp>(lampCount);
+        for (int i = 0; i < lampCount; i++) {
+            var lamp = new Lamp();
+            lamp.setPosition(i % columns * 3 * Lamp.RADIUS, i / columns * 3 * Lamp.RADIUS);
+            lamps.add(lamp);
+        }
+        return lamps;
+    }
+
+    /**
+     * Schließt alle Fenster eines Containers
+     * @param container der Container
+     */
+    static void close(LampsContainer container) {
+        run(() -> ((Stage) container.getScene().getWindow()).close());
+    }
+}
@@ -0,0 +1,100 @@
+package lamps;
+
+import javafx.beans.InvalidationListener;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst die Gruppenoperationen der Gruppentoolbar und das Zuordnen aller ausgewählten Lampen zu einer Gruppe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw"})
+public class GroupBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int lampCount;
+
+    private LampsContainer container;
+    private final ObservableList<Group> groups = FXCollections.observableArrayList();
+    private final GroupTree tree = new GroupTree(groups);
+    private Group group, otherGroup;
+
+    /**
+     * wie oft {@link GroupsChangeObservable} eine Änderung gemeldet hat, wie für die Knöpfe der Toolbar
+     */
+    private int groupsChanges = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        container = Fx.createContainer(lampCount);
+        Fx.run(() -> {
+            var groupsChange = new GroupsChangeObservable(container);
+            groupsChange.addListener((InvalidationListener) observable -> groupsChanges++);
+
+            group = new Group("Flur");
+            otherGroup = new Group("Küche");
+            groups.setAll(group, otherGroup);
+            container.getSelectedLamps().setAll(container.getLamps());
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fx.close(container);
+    }
+
+    @Setup(Level.Invocation)
+    public void fillGroup() {
+        // vor jeder Messung gehören alle Lampen zur Gruppe, auch nachdem sie entfernt wurde
+        Fx.run(() -> {
+            if (!groups.contains(group))
+                groups.add(0, group);
+            if (group.getLampCount() != lampCount)
+                assign(group);
+        });
+    }
+
+    /**
+     * Schaltet eine Gruppe mit allen Lampen um
+     */
+    @Benchmark
+    public int toggleGroup() {
+        return Fx.call(() -> {
+            Main.toggleGroups(container, List.of(group));
+            return group.getOnCount();
+        });
+    }
+
+    /**
+     * Entfernt eine Gruppe mit allen Lampen
+     */
+    @Benchmark
+    public int removeGroup() {
+        return Fx.call(() -> {
+            Main.removeGroups(container, tree, List.of(group));
+            return groups.size();
+        });
+    }
+
+    /**
+     * Ordnet alle ausgewählten Lampen einer anderen Gruppe zu, wie "Zur Gruppe hinzufügen"
+     */
+    @Benchmark
+    public int setGroup() {
+        return Fx.call(() -> {
+            assign(otherGroup);
+            return groupsChanges;
+        });
+    }
+
+    private void assign(Group target) {
+        Main.assignGroup(container, container.getSelectedLamps().getLamps(), target);
+    }
+}
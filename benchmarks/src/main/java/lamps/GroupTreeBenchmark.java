@@ -0,0 +1,93 @@
+package lamps;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeView;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst das Verwalten vieler Gruppen im Gruppenbaum: Entfernen, Wiederherstellen, Umbenennen und Suchen nach Namen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw"})
+public class GroupTreeBenchmark {
+    @Param({"1000", "10000"})
+    public int groupCount;
+
+    private LampsContainer container;
+    private final ObservableList<Group> groups = FXCollections.observableArrayList();
+    private final GroupTree tree = new GroupTree(groups);
+
+    /**
+     * jede zweite Gruppe, verteilt über den ganzen Baum
+     */
+    private final List<Group> half = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        container = Fx.createContainer(1000);
+        Fx.run(() -> {
+            // Stockwerke mit je 99 Räumen, im Baum angezeigt; ohne Fokus wie nach den Knöpfen der Gruppentoolbar
+            var treeView = new TreeView<>(new GroupTreeItem(null, tree.getRoots()));
+            treeView.getFocusModel().focus(-1);
+            var all = new ArrayList<Group>(groupCount);
+            Group floor = null;
+            for (int i = 0; i < groupCount; i++) {
+                var group = new Group(i % 100 == 0 ? "Stockwerk " + i / 100 : "Raum " + i);
+                if (i % 100 == 0)
+                    floor = group;
+                else
+                    group.setParent(floor);
+                all.add(group);
+                if (i % 2 == 1)
+                    half.add(group);
+            }
+            groups.setAll(all);
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fx.close(container);
+    }
+
+    /**
+     * Entfernt die Hälfte der Gruppen wie "Entfernen" und stellt sie wieder her
+     */
+    @Benchmark
+    public int removeAndUndo() {
+        return Fx.call(() -> {
+            Main.removeGroups(container, tree, half);
+            container.getHistory().undo();
+            return groups.size();
+        });
+    }
+
+    /**
+     * Benennt alle Gruppen wie "Umbenennen" fortlaufend um und macht das rückgängig
+     */
+    @Benchmark
+    public int renameAndUndo() {
+        return Fx.call(() -> {
+            Main.renameGroups(container.getHistory(), groups, "Raum #");
+            container.getHistory().undo();
+            return groups.size();
+        });
+    }
+
+    /**
+     * Sucht die Gruppen zu einem Namen wie eine Abfrage {@code group:Name}
+     */
+    @Benchmark
+    public int findGroups() {
+        return Fx.call(() -> tree.findGroups("raum 4711").size());
+    }
+}
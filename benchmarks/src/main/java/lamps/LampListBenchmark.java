@@ -0,0 +1,111 @@
+package lamps;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst das Hinzufügen, Erzeugen, Duplizieren und Entfernen vieler Lampen über die Liste des Containers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw"})
+public class LampListBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int lampCount;
+
+    private LampsContainer container;
+    private List<Lamp> lamps;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        container = Fx.createContainer(0);
+        lamps = Fx.createLamps(lampCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fx.close(container);
+    }
+
+    /**
+     * Fügt alle Lampen mit einer einzigen Änderung der Liste hinzu
+     */
+    @Benchmark
+    public int addLamps(Empty empty) {
+        return Fx.call(() -> {
+            container.getLamps().addAll(lamps);
+            return container.getLamps().size();
+        });
+    }
+
+    /**
+     * Erzeugt die Lampen in einem quadratischen Raster und fügt sie ein, wie "Erzeugen"
+     */
+    @Benchmark
+    public int generateGrid(Empty empty) {
+        return Fx.call(() -> {
+            var columns = (int) Math.ceil(Math.sqrt(lampCount));
+            var generated = LampGenerator.grid(columns, (lampCount + columns - 1) / columns, 0, 0,
+                    LampGenerator.DEFAULT_SPACING);
+            container.addAndSelectLamps(generated);
+            return container.getLamps().size();
+        });
+    }
+
+    /**
+     * Dupliziert alle Lampen mit ihrem Zustand, wie "Duplizieren" mit allen Lampen ausgewählt
+     */
+    @Benchmark
+    public int duplicateLamps(Filled filled) {
+        return Fx.call(() -> {
+            container.duplicateSelection();
+            return container.getLamps().size();
+        });
+    }
+
+    /**
+     * Entfernt alle Lampen, wie "Entfernen" mit allen Lampen ausgewählt
+     */
+    @Benchmark
+    public int removeLamps(Filled filled) {
+        return Fx.call(() -> {
+            container.removeLamps(container.getSelectedLamps().getLamps());
+            return container.getLamps().size();
+        });
+    }
+
+    /**
+     * Vor jeder Messung ist der Container leer
+     */
+    @State(Scope.Thread)
+    public static class Empty {
+        @Setup(Level.Invocation)
+        public void clear(LampListBenchmark benchmark) {
+            Fx.run(() -> {
+                benchmark.container.getSelectedLamps().clear();
+                benchmark.container.getLamps().clear();
+            });
+        }
+    }
+
+    /**
+     * Vor jeder Messung enthält der Container alle Lampen, sie sind alle ausgewählt
+     */
+    @State(Scope.Thread)
+    public static class Filled {
+        @Setup(Level.Invocation)
+        public void fill(LampListBenchmark benchmark) {
+            Fx.run(() -> {
+                var container = benchmark.container;
+                if (container.getLamps().size() != benchmark.lamps.size())
+                    container.getLamps().setAll(benchmark.lamps);
+                container.getSelectedLamps().setAll(container.getLamps());
+            });
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package lamps;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst das Auswählen aller Lampen (Strg + A)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw"})
+public class SelectionBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int lampCount;
+
+    private LampsContainer container;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        container = Fx.createContainer(lampCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fx.close(container);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearSelection() {
+        Fx.run(() -> container.getSelectedLamps().clear());
+    }
+
+    @Benchmark
+    public int selectAll() {
+        return Fx.call(() -> {
+            var selection = container.getSelectedLamps();
+            selection.setAll(container.getLamps());
+            return selection.size();
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package lamps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ein einfaches Programm zum Ausprobieren des {@link ControlServer}s.
+ * Aufruf: {@code ControlClient [port] [befehl ...]}, z.B. {@code ControlClient 4711 "GROUP TOGGLE Flur" COUNT}.
+ * Ohne Befehle werden die Befehle zeilenweise von der Standardeingabe gelesen.
+ */
+public class ControlClient {
+    public static void main(String[] args) throws IOException {
+        var port = args.length > 0 ? Integer.parseInt(args[0]) : ControlServer.DEFAULT_PORT;
+
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            var out = new PrintWriter(writer(socket), true);
+            var in = reader(socket);
+
+            if (args.length > 1) {
+                for (int i = 1; i < args.length; i++) {
+                    out.println(args[i]);
+                    System.out.println(in.readLine());
+                }
+                return;
+            }
+
+            var console = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = console.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                out.println(line);
+                System.out.println(in.readLine());
+            }
+        }
+    }
+
+    static Writer writer(Socket socket) throws IOException {
+        return new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+    }
+
+    static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,116 @@
+package lamps;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Erzeugt Last auf einem {@link ControlServer}: mehrere Verbindungen senden ohne Pause Befehle für zufällige Lampen
+ * und zählen die Antworten.
+ * Aufruf: {@code ControlLoadGenerator [port] [verbindungen] [befehle je verbindung]}.
+ * Bricht eine Verbindung ab, endet das Programm nach der Auswertung mit dem Exit-Code 1.
+ */
+public class ControlLoadGenerator {
+    public static void main(String[] args) throws Exception {
+        var port = args.length > 0 ? Integer.parseInt(args[0]) : ControlServer.DEFAULT_PORT;
+        var connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        var commands = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        // die Anzahl der Lampen erfragen
+        int lamps;
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            var out = ControlClient.writer(socket);
+            out.write("COUNT\n");
+            out.flush();
+            var reply = ControlClient.reader(socket).readLine();
+            if (reply == null)
+                throw new IOException("keine Antwort auf COUNT");
+            lamps = Integer.parseInt(reply.split(" ")[1]);
+        } catch (IOException e) {
+            System.err.println("Server auf Port " + port + " nicht erreichbar: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (lamps == 0) {
+            System.out.println("Keine Lampen vorhanden");
+            return;
+        }
+
+        var start = System.nanoTime();
+        var threads = new ArrayList<Thread>();
+        var errors = new int[connections];
+        var broken = new boolean[connections];
+        for (int c = 0; c < connections; c++) {
+            var index = c;
+            var thread = new Thread(() -> {
+                try {
+                    errors[index] = run(port, lamps, commands, new Random(index));
+                } catch (IOException e) {
+                    System.err.println("Verbindung " + (index + 1) + " abgebrochen: " + e.getMessage());
+                    errors[index] = commands;
+                    broken[index] = true;
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        var seconds = (System.nanoTime() - start) / 1e9;
+
+        var total = (long) connections * commands;
+        var failed = 0;
+        for (var e : errors) {
+            failed += e;
+        }
+        System.out.printf("%d Befehle in %.2f s: %.0f Befehle/s, %d Fehler%n", total, seconds, total / seconds, failed);
+        for (var b : broken) {
+            if (b)
+                System.exit(1);
+        }
+    }
+
+    /**
+     * Sendet die Befehle über eine Verbindung und liest gleichzeitig die Antworten
+     * @return die Anzahl der Fehler
+     */
+    private static int run(int port, int lamps, int commands, Random random) throws IOException {
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            var in = ControlClient.reader(socket);
+
+            var sender = new Thread(() -> {
+                try {
+                    var out = new BufferedWriter(ControlClient.writer(socket), 1 << 16);
+                    for (int i = 0; i < commands; i++) {
+                        out.write("TOGGLE ");
+                        out.write(Integer.toString(random.nextInt(lamps)));
+                        out.write('\n');
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    // beim Lesen fehlen dann Antworten, das Ende der Eingabe beendet auch das Warten darauf
+                    System.err.println("Senden fehlgeschlagen: " + e.getMessage());
+                    try {
+                        socket.shutdownInput();
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+            sender.start();
+
+            var errors = 0;
+            for (int i = 0; i < commands; i++) {
+                var reply = in.readLine();
+                if (reply == null)
+                    return errors + commands - i;
+                if (!reply.equals("OK"))
+                    errors++;
+            }
+            return errors;
+        }
+    }
+}
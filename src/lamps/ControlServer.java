@@ -0,0 +1,456 @@
+package lamps;
+
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ein Server auf einem lokalen Port, über den andere Programme die Lampen eines laufenden Programms steuern können.
+ * <p>
+ * Das Protokoll besteht aus Zeilen (UTF-8), jeder Befehl wird mit genau einer Zeile beantwortet:
+ * <pre>
+ * ON|OFF|TOGGLE n            Lampe mit dem Index n in {@link LampsContainer#getLamps()}   -> OK
+ * GROUP ON|OFF|TOGGLE name   alle Lampen der Gruppe und ihrer Untergruppen                 -> OK
+ * GET n                      Zustand der Lampe                                             -> ON | OFF
+ * GET GROUP name             angeschaltete und alle Lampen der Gruppe und Untergruppen     -> an gesamt
+ * COUNT                      angeschaltete und alle Lampen                                 -> an gesamt
+ * </pre>
+ * Statt des Namens kann eine Gruppe auch über {@code #} und ihre Kennung angegeben werden, z.B. {@code #42}.
+ * Bei Fehlern lautet die Antwort {@code ERR} und eine Beschreibung.
+ * Befehle dürfen gesendet werden, ohne auf die Antworten zu warten.
+ * <p>
+ * Gelesen wird in einem eigenen Thread mit einem {@link Selector}. Die Befehle werden gesammelt und im JavaFX-Thread
+ * gemeinsam in einem {@link LampsContainer#batch(Runnable)} ausgeführt, es steht immer höchstens ein
+ * {@link Platform#runLater(Runnable)} aus. Stauen sich zu viele Befehle, wird nicht weiter gelesen, bis sie
+ * abgearbeitet sind.
+ */
+public class ControlServer {
+    /**
+     * der Port, wenn nichts anderes angegeben ist
+     */
+    public static final int DEFAULT_PORT = 4711;
+
+    /**
+     * höchstens so viele Befehle werden in einem Durchlauf im JavaFX-Thread ausgeführt
+     */
+    private static final int MAX_COMMANDS_PER_BATCH = 50_000;
+
+    /**
+     * ab so vielen wartenden Befehlen wird nicht mehr gelesen
+     */
+    private static final int MAX_PENDING_COMMANDS = 4 * MAX_COMMANDS_PER_BATCH;
+
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    // die Arten der Befehle
+
+    private static final int ON = 0;
+    private static final int OFF = 1;
+    private static final int TOGGLE = 2;
+    private static final int GET = 3;
+    private static final int COUNT = 4;
+    private static final int INVALID = 5;
+
+    /**
+     * Ein gelesener Befehl
+     */
+    private static class Command {
+        final Connection connection;
+        final int type;
+        final boolean group;
+        final int lamp;
+        final String argument;
+
+        Command(Connection connection, int type, boolean group, int lamp, String argument) {
+            this.connection = connection;
+            this.type = type;
+            this.group = group;
+            this.lamp = lamp;
+            this.argument = argument;
+        }
+    }
+
+    /**
+     * Eine Verbindung zu einem Programm
+     */
+    private static class Connection {
+        final SocketChannel channel;
+        final ByteBuffer input = ByteBuffer.allocate(8192);
+
+        /**
+         * die Bytes der angefangenen Zeile, erst eine vollständige Zeile wird als UTF-8 gelesen
+         */
+        final ByteBuffer line = ByteBuffer.allocate(MAX_LINE_LENGTH);
+
+        /**
+         * die noch zu sendenden Antworten, geschützt durch sich selbst
+         */
+        final StringBuilder replies = new StringBuilder();
+        ByteBuffer output = null;
+
+        boolean paused = false;
+        volatile boolean closed = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final LampsContainer container;
+    private final GroupTree tree;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread thread;
+
+    private final ConcurrentLinkedQueue<Command> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCommands = new AtomicInteger();
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
+
+    /**
+     * Verbindungen mit neuen Antworten, werden vom Selector-Thread zum Schreiben angemeldet
+     */
+    private final ConcurrentLinkedQueue<Connection> writable = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    private ControlServer(int port, LampsContainer container, GroupTree tree) throws IOException {
+        this.container = container;
+        this.tree = tree;
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        thread = new Thread(this::run, "Lampen-Steuerung");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Startet den Server, er nimmt nur Verbindungen vom eigenen Rechner an
+     * @param port der Port
+     * @param container der Container mit den Lampen
+     * @param tree der Baum der Gruppen, darin werden Gruppenbefehle nach Name oder Kennung aufgelöst
+     * @return der laufende Server
+     * @throws IOException wenn der Port nicht geöffnet werden kann
+     */
+    public static ControlServer start(int port, LampsContainer container, GroupTree tree) throws IOException {
+        return new ControlServer(port, container, tree);
+    }
+
+    /**
+     * Gibt den Port zurück, auf dem der Server Verbindungen annimmt
+     * @return der Port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Beendet den Server und alle Verbindungen
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // im Selector-Thread
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                // Antworten aus dem JavaFX-Thread zum Schreiben anmelden
+                Connection connection;
+                while ((connection = writable.poll()) != null) {
+                    var key = connection.channel.keyFor(selector);
+                    if (key != null && key.isValid())
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+
+                // angehaltene Verbindungen weiterlesen, sobald die Befehle abgearbeitet sind
+                if (pendingCommands.get() < MAX_PENDING_COMMANDS)
+                    resumeReading();
+
+                var keys = selector.selectedKeys();
+                for (var key : keys) {
+                    try {
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable())
+                            accept();
+                        if (key.isValid() && key.isReadable())
+                            read(key);
+                        if (key.isValid() && key.isWritable())
+                            write(key);
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+                keys.clear();
+            }
+        } catch (IOException e) {
+            // der Selector selbst ist nicht mehr verwendbar, der Server endet
+        } finally {
+            for (var key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignorieren, der Server wird ohnehin beendet
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        var channel = serverChannel.accept();
+        if (channel == null)
+            return;
+
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        var connection = (Connection) key.attachment();
+        if (pendingCommands.get() >= MAX_PENDING_COMMANDS) {
+            // nicht weiterlesen, bis der JavaFX-Thread aufgeholt hat
+            connection.paused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            return;
+        }
+
+        var input = connection.input;
+        var read = connection.channel.read(input);
+        if (read < 0) {
+            close(key);
+            return;
+        }
+
+        input.flip();
+        var line = connection.line;
+        while (input.hasRemaining()) {
+            var b = input.get();
+            if (b == '\n') {
+                var text = new String(line.array(), 0, line.position(), StandardCharsets.UTF_8).trim();
+                line.clear();
+                if (!text.isEmpty())
+                    enqueue(parse(connection, text));
+            } else if (line.hasRemaining()) {
+                line.put(b);
+            } else { // zu lange Zeile
+                close(key);
+                return;
+            }
+        }
+        input.clear();
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        var connection = (Connection) key.attachment();
+        if (connection.output == null || !connection.output.hasRemaining()) {
+            synchronized (connection.replies) {
+                if (connection.replies.length() == 0) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+                connection.output = ByteBuffer.wrap(connection.replies.toString().getBytes(StandardCharsets.UTF_8));
+                connection.replies.setLength(0);
+            }
+        }
+        connection.channel.write(connection.output);
+    }
+
+    private void resumeReading() {
+        for (var key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connection) {
+                var connection = (Connection) key.attachment();
+                if (connection.paused) {
+                    connection.paused = false;
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof Connection)
+            ((Connection) key.attachment()).closed = true;
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // die Verbindung ist ohnehin weg
+        }
+    }
+
+    /**
+     * Zerlegt eine Zeile in einen Befehl, ungültige Zeilen werden im JavaFX-Thread mit einem Fehler beantwortet,
+     * damit die Antworten in der Reihenfolge der Befehle bleiben
+     */
+    private static Command parse(Connection connection, String line) {
+        var parts = line.split("\\s+", 3);
+        var keyword = parts[0].toUpperCase();
+        try {
+            switch (keyword) {
+                case "ON":
+                case "OFF":
+                case "TOGGLE":
+                case "GET": {
+                    var type = keyword.equals("ON") ? ON : keyword.equals("OFF") ? OFF
+                            : keyword.equals("TOGGLE") ? TOGGLE : GET;
+                    if (parts.length == 2)
+                        return new Command(connection, type, false, Integer.parseInt(parts[1]), null);
+                    if (type == GET && parts.length == 3 && parts[1].equalsIgnoreCase("GROUP"))
+                        return new Command(connection, GET, true, -1, parts[2]);
+                    break;
+                }
+                case "GROUP": {
+                    if (parts.length == 3) {
+                        var action = parts[1].toUpperCase();
+                        var type = action.equals("ON") ? ON : action.equals("OFF") ? OFF
+                                : action.equals("TOGGLE") ? TOGGLE : INVALID;
+                        if (type != INVALID)
+                            return new Command(connection, type, true, -1, parts[2]);
+                    }
+                    break;
+                }
+                case "COUNT":
+                    if (parts.length == 1)
+                        return new Command(connection, COUNT, false, -1, null);
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            return new Command(connection, INVALID, false, -1, "Ungültige Lampe: " + parts[1]);
+        }
+        return new Command(connection, INVALID, false, -1, "Unbekannter Befehl: " + line);
+    }
+
+    private void enqueue(Command command) {
+        commands.add(command);
+        pendingCommands.incrementAndGet();
+
+        // höchstens ein Durchlauf im JavaFX-Thread steht aus, er übernimmt alle bis dahin gelesenen Befehle
+        if (applyScheduled.compareAndSet(false, true))
+            Platform.runLater(this::applyCommands);
+    }
+
+    // im JavaFX-Thread
+
+    /**
+     * Führt die gesammelten Befehle gemeinsam aus
+     */
+    private void applyCommands() {
+        applyScheduled.set(false);
+
+        var batch = new ArrayList<Command>();
+        Command command;
+        while (batch.size() < MAX_COMMANDS_PER_BATCH && (command = commands.poll()) != null) {
+            batch.add(command);
+        }
+        if (!commands.isEmpty() && applyScheduled.compareAndSet(false, true))
+            Platform.runLater(this::applyCommands); // der Rest im nächsten Durchlauf
+
+        var replies = new ArrayList<String>(batch.size());
+        container.batch(() -> {
+            for (var c : batch) {
+                replies.add(apply(c));
+            }
+        });
+
+        // Antworten an die Verbindungen weitergeben, jede Verbindung wird nur einmal angemeldet
+        Connection last = null;
+        for (int i = 0; i < batch.size(); i++) {
+            var connection = batch.get(i).connection;
+            if (connection.closed)
+                continue;
+
+            synchronized (connection.replies) {
+                connection.replies.append(replies.get(i)).append('\n');
+            }
+            if (connection != last)
+                writable.add(connection);
+            last = connection;
+        }
+        pendingCommands.addAndGet(-batch.size());
+        selector.wakeup();
+    }
+
+    /**
+     * Gibt die Gruppe zu einem Namen oder, mit {@code #} davor, zu einer Kennung zurück
+     * @return die Gruppe oder null
+     */
+    private Group findGroup(String argument) {
+        if (argument.startsWith("#")) {
+            try {
+                return tree.getGroup(Long.parseLong(argument.substring(1)));
+            } catch (NumberFormatException e) {
+                // dann ist es doch ein Name
+            }
+        }
+        return tree.getGroup(argument);
+    }
+
+    private String apply(Command command) {
+        if (command.type == INVALID)
+            return "ERR " + command.argument;
+        var model = container.getModel();
+        if (command.type == COUNT)
+            return model.countOn() + " " + model.size();
+
+        if (command.group) {
+            var group = findGroup(command.argument);
+            if (group == null)
+                return "ERR Unbekannte Gruppe: " + command.argument;
+            if (command.type == GET)
+                return group.getSubtreeOnCount() + " " + group.getSubtreeLampCount();
+
+            var slots = new BitSet();
+            group.collectSubtreeSlots(slots);
+            var on = command.type == ON || (command.type == TOGGLE && !group.isSubtreeAllOn());
+            model.setOn(slots, on);
+            return "OK";
+        }
+
+        var lamps = container.getLamps();
+        if (command.lamp < 0 || command.lamp >= lamps.size())
+            return "ERR Unbekannte Lampe: " + command.lamp;
+        var lamp = lamps.get(command.lamp);
+        switch (command.type) {
+            case ON:
+                lamp.setOn(true);
+                return "OK";
+            case OFF:
+                lamp.setOn(false);
+                return "OK";
+            case TOGGLE:
+                lamp.setOn(!lamp.isOn());
+                return "OK";
+            default:
+                return lamp.isOn() ? "ON" : "OFF";
+        }
+    }
+}
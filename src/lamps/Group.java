@@ -1,15 +1,100 @@
 package lamps;
 
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Eine Gruppe von Lampen
+ * Eine Gruppe von Lampen.
+ * Die Gruppe kennt ihre Lampen selbst, damit Gruppenoperationen nicht alle Lampen durchsuchen müssen.
+ * Außerdem zählt sie ihre Lampen und die angeschalteten davon mit, ohne dafür die Lampen durchgehen zu müssen.
+ * <p>
+ * Gruppen können in einem {@link GroupTree} verschachtelt sein, z.B. Gebäude, Stockwerk, Flügel, Raum.
+ * Die Zähler gibt es deshalb auch für den ganzen Teilbaum, sie werden bei jeder Änderung an die Obergruppen
+ * weitergegeben.
+ * <p>
+ * Jede Gruppe hat eine feste Kennung, die sich anders als der Name nie ändert und auch gespeichert wird.
  */
 public class Group {
+    /**
+     * die Kennung der nächsten neuen Gruppe, liegt immer über allen bisher vergebenen und geladenen Kennungen
+     */
+    private static final AtomicLong nextId = new AtomicLong(1);
+
+    private final long id;
     private SimpleStringProperty name;
 
+    /**
+     * die Obergruppe oder null, wird von {@link GroupTree} gesetzt
+     */
+    private Group parent = null;
+
+    /**
+     * die Untergruppen, wird von {@link GroupTree} aktuell gehalten
+     */
+    final GroupTree.Siblings children = new GroupTree.Siblings(this);
+    private final ObservableList<Group> unmodifiableChildren = FXCollections.unmodifiableObservableList(children);
+
+    /**
+     * Anfang und Ende des Teilbaums in der Eulertour des Baums, in dem die Gruppe ist
+     */
+    final GroupTree.Token enter = new GroupTree.Token(this);
+    final GroupTree.Token exit = new GroupTree.Token(null);
+
+    /**
+     * der Baum, in dem die Gruppe ist, oder null
+     */
+    GroupTree tree = null;
+
+    /**
+     * die Lampen in dieser Gruppe, wird von {@link LampModel} aktuell gehalten
+     */
+    private final Set<Lamp> lamps = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Lamp> unmodifiableLamps = Collections.unmodifiableSet(lamps);
+
+    /**
+     * die Anzahl der Lampen und der angeschalteten Lampen, wird von {@link LampModel} aktuell gehalten
+     */
+    private final ReadOnlyIntegerWrapper lampCount = new ReadOnlyIntegerWrapper(this, "lampCount", 0);
+    private final ReadOnlyIntegerWrapper onCount = new ReadOnlyIntegerWrapper(this, "onCount", 0);
+
+    /**
+     * die Anzahlen einschließlich aller Untergruppen
+     */
+    private final ReadOnlyIntegerWrapper subtreeLampCount = new ReadOnlyIntegerWrapper(this, "subtreeLampCount", 0);
+    private final ReadOnlyIntegerWrapper subtreeOnCount = new ReadOnlyIntegerWrapper(this, "subtreeOnCount", 0);
+
     public Group(String name) {
-        this.name = new SimpleStringProperty(name);
+        this(nextId.getAndIncrement(), name);
+    }
+
+    /**
+     * Erstellt eine Gruppe mit einer bekannten Kennung, z.B. beim Laden
+     * @param id die Kennung
+     * @param name der Name
+     */
+    Group(long id, String name) {
+        this.id = id;
+        this.name = new SimpleStringProperty(this, "name", name);
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    /**
+     * Gibt die Kennung der Gruppe zurück
+     * @return die Kennung, größer als 0
+     */
+    public long getId() {
+        return id;
     }
 
     /**
@@ -35,4 +120,220 @@ public class Group {
     public void setName(String name) {
         this.name.set(name);
     }
+
+    /**
+     * Gibt die Obergruppe zurück
+     * @return die Obergruppe oder null
+     */
+    public Group getParent() {
+        return parent;
+    }
+
+    /**
+     * Setzt die Obergruppe und gibt die Zähler des Teilbaums an die neuen Obergruppen weiter.
+     * Wird von {@link GroupTree} aufgerufen; außerhalb eines Baums legt die Obergruppe fest, wo die Gruppe beim
+     * Einfügen in einen Baum hinkommt, z.B. beim Laden.
+     * @param parent die neue Obergruppe oder null
+     */
+    void setParent(Group parent) {
+        var lamps = getSubtreeLampCount();
+        var on = getSubtreeOnCount();
+        for (var group = this.parent; group != null; group = group.parent) {
+            group.addSubtreeCounts(-lamps, -on);
+        }
+        this.parent = parent;
+        for (var group = parent; group != null; group = group.parent) {
+            group.addSubtreeCounts(lamps, on);
+        }
+    }
+
+    /**
+     * Gibt die Untergruppen zurück, verändert werden sie über {@link GroupTree}
+     * @return die Untergruppen als nicht veränderbare Liste
+     */
+    public ObservableList<Group> getChildren() {
+        return unmodifiableChildren;
+    }
+
+    /**
+     * Gibt die Gruppe und alle ihre Untergruppen zurück, jede Obergruppe vor ihren Untergruppen.
+     * Dafür wird nur der Abschnitt der Eulertour durchgegangen, der zu dieser Gruppe gehört.
+     * @return die Gruppen des Teilbaums
+     */
+    public List<Group> getSubtree() {
+        var subtree = new ArrayList<Group>();
+        if (tree == null) {
+            subtree.add(this);
+            return subtree;
+        }
+
+        for (var token = enter; ; token = token.next) {
+            if (token.group != null)
+                subtree.add(token.group);
+            if (token == exit)
+                return subtree;
+        }
+    }
+
+    /**
+     * Gibt zurück, ob die Gruppe eine andere Gruppe selbst oder eine ihrer Untergruppen ist
+     * @param ancestor die andere Gruppe
+     * @return ob die Gruppe im Teilbaum der anderen Gruppe liegt
+     */
+    public boolean isInSubtreeOf(Group ancestor) {
+        for (var group = this; group != null; group = group.parent) {
+            if (group == ancestor)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Setzt die Plätze aller Lampen in dieser Gruppe und ihren Untergruppen
+     * @param slots hier werden die Plätze gesetzt
+     */
+    void collectSubtreeSlots(BitSet slots) {
+        for (var group : getSubtree()) {
+            for (var lamp : group.lamps) {
+                slots.set(lamp.getSlot());
+            }
+        }
+    }
+
+    /**
+     * Gibt die Lampen in dieser Gruppe zurück.
+     * Es werden nur Lampen berücksichtigt, die sich in einem {@link LampsContainer} befinden.
+     * @return die Lampen als nicht veränderbare Menge
+     */
+    public Set<Lamp> getLamps() {
+        return unmodifiableLamps;
+    }
+
+    /**
+     * Gibt die Anzahl der Lampen in dieser Gruppe zurück
+     * @return die Anzahl der Lampen
+     */
+    public int getLampCount() {
+        return lampCount.get();
+    }
+
+    /**
+     * Die Anzahl der Lampen in dieser Gruppe
+     * @return die Eigenschaft
+     */
+    public ReadOnlyIntegerProperty lampCountProperty() {
+        return lampCount.getReadOnlyProperty();
+    }
+
+    /**
+     * Gibt die Anzahl der angeschalteten Lampen in dieser Gruppe zurück
+     * @return die Anzahl der angeschalteten Lampen
+     */
+    public int getOnCount() {
+        return onCount.get();
+    }
+
+    /**
+     * Die Anzahl der angeschalteten Lampen in dieser Gruppe
+     * @return die Eigenschaft
+     */
+    public ReadOnlyIntegerProperty onCountProperty() {
+        return onCount.getReadOnlyProperty();
+    }
+
+    /**
+     * Gibt zurück, ob alle Lampen dieser Gruppe angeschaltet sind
+     * @return ob alle Lampen angeschaltet sind, auch wenn die Gruppe leer ist
+     */
+    public boolean isAllOn() {
+        return getOnCount() == getLampCount();
+    }
+
+    /**
+     * Gibt die Anzahl der Lampen in dieser Gruppe und allen Untergruppen zurück
+     * @return die Anzahl der Lampen
+     */
+    public int getSubtreeLampCount() {
+        return subtreeLampCount.get();
+    }
+
+    /**
+     * Die Anzahl der Lampen in dieser Gruppe und allen Untergruppen
+     * @return die Eigenschaft
+     */
+    public ReadOnlyIntegerProperty subtreeLampCountProperty() {
+        return subtreeLampCount.getReadOnlyProperty();
+    }
+
+    /**
+     * Gibt die Anzahl der angeschalteten Lampen in dieser Gruppe und allen Untergruppen zurück
+     * @return die Anzahl der angeschalteten Lampen
+     */
+    public int getSubtreeOnCount() {
+        return subtreeOnCount.get();
+    }
+
+    /**
+     * Die Anzahl der angeschalteten Lampen in dieser Gruppe und allen Untergruppen
+     * @return die Eigenschaft
+     */
+    public ReadOnlyIntegerProperty subtreeOnCountProperty() {
+        return subtreeOnCount.getReadOnlyProperty();
+    }
+
+    /**
+     * Gibt zurück, ob alle Lampen dieser Gruppe und aller Untergruppen angeschaltet sind
+     * @return ob alle Lampen angeschaltet sind, auch wenn es keine gibt
+     */
+    public boolean isSubtreeAllOn() {
+        return getSubtreeOnCount() == getSubtreeLampCount();
+    }
+
+    /**
+     * Nimmt eine Lampe in die Gruppe auf
+     * @param lamp die Lampe
+     */
+    void addLamp(Lamp lamp) {
+        if (lamps.add(lamp)) {
+            lampCount.set(lamps.size());
+            addCounts(1, lamp.isOn() ? 1 : 0);
+        }
+    }
+
+    /**
+     * Entfernt eine Lampe aus der Gruppe
+     * @param lamp die Lampe
+     */
+    void removeLamp(Lamp lamp) {
+        if (lamps.remove(lamp)) {
+            lampCount.set(lamps.size());
+            addCounts(-1, lamp.isOn() ? -1 : 0);
+        }
+    }
+
+    /**
+     * Ändert die Anzahl der angeschalteten Lampen, wenn Lampen der Gruppe umgeschaltet wurden
+     * @param delta die Änderung
+     */
+    void addOnCount(int delta) {
+        addCounts(0, delta);
+    }
+
+    /**
+     * Ändert die Anzahl der angeschalteten Lampen und die Zähler des Teilbaums dieser Gruppe und ihrer Obergruppen
+     */
+    private void addCounts(int lamps, int on) {
+        if (on != 0)
+            onCount.set(onCount.get() + on);
+        for (var group = this; group != null; group = group.parent) {
+            group.addSubtreeCounts(lamps, on);
+        }
+    }
+
+    private void addSubtreeCounts(int lamps, int on) {
+        if (lamps != 0)
+            subtreeLampCount.set(subtreeLampCount.get() + lamps);
+        if (on != 0)
+            subtreeOnCount.set(subtreeOnCount.get() + on);
+    }
 }
@@ -1,17 +1,21 @@
 package lamps;
 
-import javafx.scene.control.ListCell;
+import javafx.scene.control.Cell;
 import javafx.util.StringConverter;
 
 /**
  * Konvertiert {@link Group}s zu {@link String}s und umgekehrt.
- * Diese Klasse wird benötigt, um den Namen einer Gruppe in der Liste zu ändern.
+ * Diese Klasse wird benötigt, um den Namen einer Gruppe im Baum zu ändern.
  */
 class GroupNameStringConverter extends StringConverter<Group> {
-    private final ListCell<Group> cell;
+    private final Cell<Group> cell;
+    private final LampHistory history;
+    private final LampTrace.Recorder recorder;
 
-    GroupNameStringConverter(ListCell<Group> cell) {
+    GroupNameStringConverter(Cell<Group> cell, LampHistory history, LampTrace.Recorder recorder) {
         this.cell = cell;
+        this.history = history;
+        this.recorder = recorder;
     }
 
     @Override
@@ -22,7 +26,13 @@ class GroupNameStringConverter extends StringConverter<Group> {
     @Override
     public Group fromString(String newName) {
         var item = cell.getItem();
-        item.setName(newName);
+        var oldName = item.getName();
+        if (!newName.equals(oldName)) {
+            recorder.run(LampTrace.Operation.RENAME_GROUPS, item.getId() + " " + newName, () -> {
+                item.setName(newName);
+                history.add(new LampHistory.RenameEdit(item, oldName, newName));
+            });
+        }
         return item;
     }
 }
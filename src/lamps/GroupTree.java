@@ -0,0 +1,506 @@
+package lamps;
+
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ModifiableObservableListBase;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ordnet die Gruppen einer Liste zu einem Baum, z.B. Gebäude, Stockwerk, Flügel, Raum.
+ * <p>
+ * Die Liste bleibt die Liste aller Gruppen; der Baum folgt ihr. Eine hinzugefügte Gruppe wird als letzte Untergruppe
+ * ihrer Obergruppe eingehängt, wenn diese im Baum ist, sonst als letzte oberste Gruppe. Eine entfernte Gruppe wird
+ * durch ihre Untergruppen ersetzt. Umgehängt wird mit {@link #move(Group, Group, int)}.
+ * <p>
+ * Die Gruppen liegen außerdem in einer Eulertour: einer verketteten Folge, in der jede Gruppe einen Anfang und ein
+ * Ende hat und ihr ganzer Teilbaum dazwischen liegt. Die Untergruppen einer Gruppe zu finden kostet daher nur so viel,
+ * wie es Untergruppen gibt, und ein Teilbaum wird umgehängt, indem sein Abschnitt an anderer Stelle eingefügt wird,
+ * ohne die Tour neu aufzubauen.
+ * Eine Gruppe kann nur in einem Baum sein.
+ * <p>
+ * Zu jeder Kennung und jedem Namen findet der Baum die Gruppen direkt, ohne die Liste zu durchsuchen.
+ * Werden viele Gruppen mit einer einzigen Änderung der Liste entfernt, z.B. mit
+ * {@link ObservableList#removeAll(Collection)}, ändert sich auch jede Liste von Untergruppen nur einmal.
+ */
+public class GroupTree {
+    /**
+     * Wird aufgerufen, wenn eine Gruppe im Baum umgehängt wurde
+     */
+    public interface Listener {
+        /**
+         * Wird aufgerufen, wenn eine Gruppe eine andere Obergruppe oder eine andere Stelle darin erhalten hat
+         * @param group die Gruppe
+         */
+        void groupMoved(Group group);
+    }
+
+    /**
+     * Ein Eintrag der Eulertour: der Anfang einer Gruppe oder das Ende eines Teilbaums
+     */
+    static final class Token {
+        /**
+         * die Gruppe beim Anfang, null beim Ende
+         */
+        final Group group;
+        Token previous, next;
+
+        Token(Group group) {
+            this.group = group;
+        }
+    }
+
+    /**
+     * Die obersten Gruppen oder die Untergruppen einer Gruppe.
+     * Während {@link #batch(Runnable)} werden alle Änderungen an einer solchen Liste gesammelt und am Ende als eine
+     * einzige Änderung gemeldet.
+     */
+    static final class Siblings extends ModifiableObservableListBase<Group> {
+        /**
+         * die Gruppe, deren Untergruppen die Liste enthält, oder null für die obersten Gruppen
+         */
+        private final Group owner;
+        private final ArrayList<Group> list = new ArrayList<>();
+        private boolean changing = false;
+
+        Siblings(Group owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public Group get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        protected void doAdd(int index, Group element) {
+            list.add(index, element);
+        }
+
+        @Override
+        protected Group doSet(int index, Group element) {
+            return list.set(index, element);
+        }
+
+        @Override
+        protected Group doRemove(int index) {
+            return list.remove(index);
+        }
+
+        /**
+         * Beginnt, Änderungen zu sammeln
+         * @return ob die Liste nicht schon sammelt
+         */
+        private boolean begin() {
+            if (changing)
+                return false;
+            changing = true;
+            beginChange();
+            return true;
+        }
+
+        /**
+         * Meldet die gesammelten Änderungen als eine Änderung
+         */
+        private void end() {
+            changing = false;
+            endChange();
+        }
+
+        /**
+         * Gibt die Tiefe der Liste im Baum zurück, 0 für die obersten Gruppen
+         */
+        private int depth() {
+            var depth = 0;
+            for (var group = owner; group != null; group = group.getParent()) {
+                depth++;
+            }
+            return depth;
+        }
+    }
+
+    private final ObservableList<Group> groups;
+
+    private final Siblings roots = new Siblings(null);
+    private final ObservableList<Group> unmodifiableRoots = FXCollections.unmodifiableObservableList(roots);
+
+    /**
+     * Anfang und Ende der ganzen Tour, die obersten Gruppen liegen dazwischen
+     */
+    private final Token head = new Token(null);
+    private final Token tail = new Token(null);
+
+    /**
+     * die Gruppen zu ihren Kennungen und, in Kleinbuchstaben, zu ihren Namen
+     */
+    private final HashMap<Long, Group> groupsById = new HashMap<>();
+    private final HashMap<String, Set<Group>> groupsByName = new HashMap<>();
+
+    private final ListChangeListener<Group> groupsListener = this::groupsChanged;
+    private final ChangeListener<String> nameListener = this::nameChanged;
+
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+
+    /**
+     * die Listen, deren Änderungen im laufenden {@link #batch(Runnable)} gesammelt werden, oder null
+     */
+    private ArrayList<Siblings> changing = null;
+
+    /**
+     * Erstellt den Baum zu einer Liste von Gruppen und folgt ihren Änderungen.
+     * Gruppen, deren Obergruppe vor ihnen in der Liste steht, werden darunter eingehängt.
+     * @param groups die Liste aller Gruppen
+     */
+    public GroupTree(ObservableList<Group> groups) {
+        this.groups = groups;
+        head.next = tail;
+        tail.previous = head;
+
+        for (var group : groups) {
+            attach(group);
+        }
+        groups.addListener(groupsListener);
+    }
+
+    /**
+     * Gibt die Liste aller Gruppen zurück
+     * @return die Liste
+     */
+    public ObservableList<Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Gibt die obersten Gruppen zurück
+     * @return die Gruppen ohne Obergruppe als nicht veränderbare Liste
+     */
+    public ObservableList<Group> getRoots() {
+        return unmodifiableRoots;
+    }
+
+    /**
+     * Gibt die Gruppe mit einer Kennung zurück
+     * @param id die Kennung
+     * @return die Gruppe oder null, wenn keine Gruppe des Baums diese Kennung hat
+     */
+    public Group getGroup(long id) {
+        return groupsById.get(id);
+    }
+
+    /**
+     * Gibt die erste Gruppe mit einem Namen zurück
+     * @param name der Name, Groß- und Kleinschreibung werden unterschieden
+     * @return die Gruppe, die den Namen am längsten hat, oder null
+     */
+    public Group getGroup(String name) {
+        for (var group : findGroups(name)) {
+            if (group.getName().equals(name))
+                return group;
+        }
+        return null;
+    }
+
+    /**
+     * Gibt alle Gruppen mit einem Namen zurück, Groß- und Kleinschreibung werden nicht unterschieden
+     * @param name der Name
+     * @return die Gruppen als nicht veränderbare Menge, die Gruppe, die den Namen am längsten hat, zuerst
+     */
+    public Set<Group> findGroups(String name) {
+        var groups = groupsByName.get(key(name));
+        return groups == null ? Collections.emptySet() : Collections.unmodifiableSet(groups);
+    }
+
+    /**
+     * Gibt alle Gruppen des Baums zurück, jede Obergruppe vor ihren Untergruppen und diese in ihrer Reihenfolge.
+     * In dieser Reihenfolge eingefügt, ergibt sich derselbe Baum wieder.
+     * @return die Gruppen
+     */
+    public List<Group> getGroupsInOrder() {
+        var result = new ArrayList<Group>(groups.size());
+        for (var token = head.next; token != tail; token = token.next) {
+            if (token.group != null)
+                result.add(token.group);
+        }
+        return result;
+    }
+
+    /**
+     * Hängt eine Gruppe mit allen Untergruppen um
+     * @param group die Gruppe
+     * @param parent die neue Obergruppe oder null für eine oberste Gruppe
+     * @param index die Stelle unter den Untergruppen der neuen Obergruppe oder -1 für ans Ende
+     * @throws IllegalArgumentException wenn eine der Gruppen nicht im Baum ist
+     *                                  oder die neue Obergruppe im Teilbaum der Gruppe liegt
+     */
+    public void move(Group group, Group parent, int index) {
+        if (group.tree != this || parent != null && parent.tree != this)
+            throw new IllegalArgumentException("Die Gruppe ist nicht in diesem Baum");
+        if (parent != null && parent.isInSubtreeOf(group))
+            throw new IllegalArgumentException("Eine Gruppe kann nicht unter sich selbst gehängt werden");
+
+        var oldSiblings = siblings(group.getParent());
+        oldSiblings.remove(oldSiblings.lastIndexOf(group)); // gerade eingefügte Gruppen stehen am Ende
+        var siblings = siblings(parent);
+        if (index < 0 || index > siblings.size())
+            index = siblings.size();
+
+        // den Abschnitt des Teilbaums herausnehmen und vor dem neuen Nachfolger einfügen
+        var first = group.enter;
+        var last = group.exit;
+        first.previous.next = last.next;
+        last.next.previous = first.previous;
+        insertBefore(first, last, index < siblings.size() ? siblings.get(index).enter : end(parent));
+
+        group.setParent(parent);
+        siblings.add(index, group);
+        fireMoved(group);
+    }
+
+    /**
+     * Führt Änderungen am Baum aus und meldet dabei jede Liste von Untergruppen nur einmal geändert, z.B. wenn viele
+     * Gruppen auf einmal eingefügt oder umgehängt werden. Die Listen werden von unten nach oben gemeldet, so sieht ein
+     * Beobachter einer Obergruppe ihre Untergruppen schon vollständig.
+     * @param changes die Änderungen
+     */
+    void batch(Runnable changes) {
+        if (changing != null) {
+            changes.run();
+            return;
+        }
+
+        changing = new ArrayList<>();
+        try {
+            changes.run();
+        } finally {
+            var lists = changing;
+            changing = null;
+
+            var depths = new IdentityHashMap<Siblings, Integer>();
+            for (var siblings : lists) {
+                depths.put(siblings, siblings.depth());
+            }
+            lists.sort(Comparator.comparing(depths::get, Comparator.reverseOrder()));
+            for (var siblings : lists) {
+                siblings.end();
+            }
+        }
+    }
+
+    /**
+     * Beendet das Folgen der Liste, z.B. für einen Baum, der nur vorübergehend gebraucht wurde
+     */
+    void dispose() {
+        groups.removeListener(groupsListener);
+        for (var group : groupsById.values()) {
+            group.nameProperty().removeListener(nameListener);
+        }
+    }
+
+    private void groupsChanged(ListChangeListener.Change<? extends Group> change) {
+        var removed = new ArrayList<Group>();
+        var added = new ArrayList<Group>();
+        while (change.next()) {
+            for (var group : change.getRemoved()) {
+                if (group.tree == this)
+                    removed.add(group);
+            }
+            added.addAll(change.getAddedSubList());
+        }
+
+        batch(() -> {
+            detachAll(removed);
+            for (var group : added) {
+                attach(group);
+            }
+        });
+    }
+
+    private void nameChanged(ObservableValue<? extends String> observable, String oldName, String newName) {
+        var group = (Group) ((ReadOnlyProperty<?>) observable).getBean();
+        unindex(group, oldName);
+        index(group);
+    }
+
+    private void index(Group group) {
+        groupsById.put(group.getId(), group);
+        groupsByName.computeIfAbsent(key(group.getName()), key -> new LinkedHashSet<>()).add(group);
+    }
+
+    private void unindex(Group group, String name) {
+        groupsById.remove(group.getId(), group);
+        var key = key(name);
+        var groups = groupsByName.get(key);
+        if (groups != null && groups.remove(group) && groups.isEmpty())
+            groupsByName.remove(key);
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Hängt eine neue Gruppe ohne Untergruppen ans Ende ihrer Obergruppe oder der obersten Gruppen
+     */
+    private void attach(Group group) {
+        var parent = group.getParent();
+        if (parent != null && parent.tree != this) {
+            group.setParent(null);
+            parent = null;
+        }
+
+        group.tree = this;
+        siblings(group).clear();
+        group.enter.next = group.exit;
+        group.exit.previous = group.enter;
+        insertBefore(group.enter, group.exit, end(parent));
+        siblings(parent).add(group);
+
+        index(group);
+        group.nameProperty().addListener(nameListener);
+    }
+
+    /**
+     * Nimmt Gruppen aus dem Baum, die tiefsten zuerst. Untergruppen, die mit entfernt werden, sind so schon weg, wenn
+     * ihre Obergruppe an der Reihe ist, und müssen nicht erst an ihre Stelle rücken. Gruppen ohne verbleibende
+     * Untergruppen werden je Ebene mit einer einzigen Änderung aus jeder Liste von Untergruppen genommen.
+     */
+    private void detachAll(List<Group> removed) {
+        var depths = new IdentityHashMap<Group, Integer>();
+        for (var group : removed) {
+            var depth = 0;
+            for (var parent = group.getParent(); parent != null; parent = parent.getParent()) {
+                depth++;
+            }
+            depths.put(group, depth);
+        }
+        removed.sort(Comparator.comparing(depths::get, Comparator.reverseOrder()));
+
+        var leaves = new HashMap<Group, Set<Group>>(); // nach der Obergruppe, null für die obersten Gruppen
+        for (int i = 0; i < removed.size(); i++) {
+            var group = removed.get(i);
+            if (group.children.isEmpty()) {
+                var siblings = leaves.computeIfAbsent(group.getParent(),
+                        parent -> Collections.newSetFromMap(new IdentityHashMap<>()));
+                siblings.add(group);
+                unlink(group);
+            } else {
+                detach(group);
+            }
+
+            // am Ende einer Ebene
+            if (i + 1 == removed.size() || !depths.get(removed.get(i + 1)).equals(depths.get(group))) {
+                for (Map.Entry<Group, Set<Group>> entry : leaves.entrySet()) {
+                    siblings(entry.getKey()).removeAll(entry.getValue());
+                }
+                leaves.clear();
+            }
+        }
+    }
+
+    /**
+     * Nimmt eine Gruppe aus dem Baum, ihre Untergruppen nehmen ihren Platz ein
+     */
+    private void detach(Group group) {
+        var parent = group.getParent();
+        var siblings = siblings(parent);
+        var index = siblings.indexOf(group);
+
+        var children = new ArrayList<>(group.children);
+        siblings(group).clear();
+        siblings.remove(index);
+        siblings.addAll(index, children);
+        for (var child : children) {
+            child.setParent(parent);
+        }
+
+        unlink(group);
+
+        for (var child : children) {
+            fireMoved(child);
+        }
+    }
+
+    /**
+     * Entfernt Anfang und Ende einer Gruppe aus der Tour und vergisst die Gruppe, ohne die Liste der Untergruppen ihrer
+     * Obergruppe zu ändern
+     */
+    private void unlink(Group group) {
+        // die Abschnitte der Untergruppen liegen schon an der richtigen Stelle
+        group.enter.previous.next = group.enter.next;
+        group.enter.next.previous = group.enter.previous;
+        group.exit.previous.next = group.exit.next;
+        group.exit.next.previous = group.exit.previous;
+
+        group.setParent(null);
+        group.tree = null;
+        group.enter.next = group.exit;
+        group.exit.previous = group.enter;
+
+        group.nameProperty().removeListener(nameListener);
+        unindex(group, group.getName());
+    }
+
+    private Siblings siblings(Group parent) {
+        var siblings = parent == null ? roots : parent.children;
+        if (changing != null && siblings.begin())
+            changing.add(siblings);
+        return siblings;
+    }
+
+    /**
+     * Gibt den Eintrag zurück, vor dem eine neue letzte Untergruppe eingefügt wird
+     */
+    private Token end(Group parent) {
+        return parent == null ? tail : parent.exit;
+    }
+
+    /**
+     * Fügt den Abschnitt von first bis last vor einem Eintrag ein
+     */
+    private static void insertBefore(Token first, Token last, Token successor) {
+        var predecessor = successor.previous;
+        predecessor.next = first;
+        first.previous = predecessor;
+        last.next = successor;
+        successor.previous = last;
+    }
+
+    private void fireMoved(Group group) {
+        for (var listener : new ArrayList<>(listeners)) {
+            listener.groupMoved(group);
+        }
+    }
+
+    /**
+     * Fügt einen {@link Listener} hinzu
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Entfernt einen {@link Listener}
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,120 @@
+package lamps;
+
+import javafx.beans.binding.Bindings;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.Label;
+import javafx.scene.control.cell.TextFieldTreeCell;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.DragEvent;
+import javafx.scene.input.TransferMode;
+
+/**
+ * Eine Zelle des Gruppenbaums: der Name ist bearbeitbar, daneben steht, wie viele Lampen der Gruppe einschließlich
+ * ihrer Untergruppen an sind. Die Anzahlen führt die Gruppe selbst mit, die Zelle muss dafür keine Lampen durchgehen.
+ * Eine Gruppe wird umgehängt, indem sie auf ihre neue Obergruppe gezogen wird, oder auf eine leere Zeile, um sie zu
+ * einer obersten Gruppe zu machen.
+ */
+class GroupTreeCell extends TextFieldTreeCell<Group> {
+    private final Label counts = new Label();
+
+    private final GroupTree tree;
+    private final LampHistory history;
+    private final LampTrace.Recorder recorder;
+
+    /**
+     * @param tree der Baum der Gruppen
+     * @param history der Verlauf, in den Umbenennungen und Umhängen aufgenommen werden
+     * @param recorder zeichnet Umbenennen und Umhängen auf, solange eine Aufzeichnung läuft
+     */
+    GroupTreeCell(GroupTree tree, LampHistory history, LampTrace.Recorder recorder) {
+        this.tree = tree;
+        this.history = history;
+        this.recorder = recorder;
+        setConverter(new GroupNameStringConverter(this, history, recorder));
+        setContentDisplay(ContentDisplay.RIGHT);
+
+        setOnDragDetected(event -> {
+            if (getItem() == null || isEditing())
+                return;
+
+            var content = new ClipboardContent();
+            content.putString(getItem().getName());
+            startDragAndDrop(TransferMode.MOVE).setContent(content);
+            event.consume();
+        });
+        setOnDragOver(event -> {
+            if (canDrop(event))
+                event.acceptTransferModes(TransferMode.MOVE);
+            event.consume();
+        });
+        setOnDragDropped(event -> {
+            var dropped = canDrop(event);
+            if (dropped) {
+                var group = draggedGroup(event);
+                var parent = getItem();
+                recorder.run(LampTrace.Operation.MOVE_GROUP,
+                        group.getId() + " " + LampTrace.formatId(parent),
+                        () -> move(tree, history, group, parent));
+            }
+            event.setDropCompleted(dropped);
+            event.consume();
+        });
+    }
+
+    /**
+     * Gibt die gezogene Gruppe zurück, wenn sie aus einer Zelle dieses Baums kommt
+     */
+    private Group draggedGroup(DragEvent event) {
+        var source = event.getGestureSource();
+        if (!(source instanceof GroupTreeCell) || ((GroupTreeCell) source).tree != tree)
+            return null;
+        return ((GroupTreeCell) source).getItem();
+    }
+
+    private boolean canDrop(DragEvent event) {
+        var group = draggedGroup(event);
+        if (group == null)
+            return false;
+
+        var parent = getItem();
+        return parent != group.getParent() && (parent == null || !parent.isInSubtreeOf(group));
+    }
+
+    /**
+     * Hängt eine Gruppe als letzte Untergruppe unter eine andere und nimmt das in den Verlauf auf
+     * @param tree der Baum der Gruppen
+     * @param history der Verlauf
+     * @param group die Gruppe
+     * @param parent die neue Obergruppe oder null für eine oberste Gruppe
+     */
+    static void move(GroupTree tree, LampHistory history, Group group, Group parent) {
+        var oldParent = group.getParent();
+        var oldIndex = (oldParent == null ? tree.getRoots() : oldParent.getChildren()).indexOf(group);
+        tree.move(group, parent, -1);
+        var newIndex = (parent == null ? tree.getRoots() : parent.getChildren()).size() - 1;
+        history.add(new LampHistory.MoveGroupEdit(tree, group, oldParent, oldIndex, parent, newIndex));
+    }
+
+    @Override
+    public void updateItem(Group item, boolean empty) {
+        super.updateItem(item, empty);
+
+        if (empty || item == null) {
+            counts.textProperty().unbind();
+        } else {
+            counts.textProperty().bind(Bindings.createStringBinding(
+                    () -> item.getSubtreeOnCount() + " von " + item.getSubtreeLampCount() + " an",
+                    item.subtreeOnCountProperty(), item.subtreeLampCountProperty()
+            ));
+            if (!isEditing())
+                setGraphic(counts);
+        }
+    }
+
+    @Override
+    public void cancelEdit() {
+        super.cancelEdit();
+        if (getItem() != null)
+            setGraphic(counts);
+    }
+}
@@ -0,0 +1,109 @@
+package lamps;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.WeakListChangeListener;
+import javafx.scene.control.TreeItem;
+
+import java.util.ArrayList;
+
+/**
+ * Ein Eintrag im Gruppenbaum, der den Untergruppen seiner Gruppe folgt.
+ * Wird eine Gruppe umgehängt, ändern sich nur die Einträge unter ihrer alten und ihrer neuen Obergruppe.
+ */
+class GroupTreeItem extends TreeItem<Group> {
+    private final ListChangeListener<Group> childrenListener = this::childrenChanged;
+
+    /**
+     * ob die Einträge der Kinder ihren Untergruppen folgen, sonst sind sie Blätter
+     */
+    private final boolean nested;
+
+    /**
+     * Erstellt den Eintrag einer Gruppe
+     * @param group die Gruppe
+     */
+    GroupTreeItem(Group group) {
+        this(group, group.getChildren());
+    }
+
+    /**
+     * Erstellt einen Eintrag, dessen Kinder einer Liste von Gruppen folgen, z.B. die unsichtbare Wurzel für
+     * {@link GroupTree#getRoots()}
+     * @param group die Gruppe oder null
+     * @param children die Gruppen, deren Einträge die Kinder sind
+     */
+    GroupTreeItem(Group group, ObservableList<Group> children) {
+        this(group, children, true);
+    }
+
+    /**
+     * Erstellt einen Eintrag, dessen Kinder einer Liste von Gruppen folgen
+     * @param group die Gruppe oder null
+     * @param children die Gruppen, deren Einträge die Kinder sind
+     * @param nested ob die Einträge der Kinder ihren Untergruppen folgen oder, z.B. für Suchergebnisse, Blätter sind
+     */
+    GroupTreeItem(Group group, ObservableList<Group> children, boolean nested) {
+        super(group);
+        this.nested = nested;
+        setExpanded(true);
+
+        var items = new ArrayList<GroupTreeItem>(children.size());
+        for (var child : children) {
+            items.add(item(child));
+        }
+        getChildren().setAll(items);
+
+        // schwach, damit entfernte Einträge nicht an ihren Gruppen hängen bleiben
+        children.addListener(new WeakListChangeListener<>(childrenListener));
+    }
+
+    private GroupTreeItem item(Group child) {
+        return nested ? new GroupTreeItem(child) : new GroupTreeItem(child, FXCollections.emptyObservableList(), false);
+    }
+
+    private void childrenChanged(ListChangeListener.Change<? extends Group> change) {
+        // Änderungen an vielen Stellen, z.B. beim Entfernen vieler Gruppen, in einer Kopie nachziehen und die Kinder
+        // mit einer einzigen Änderung ersetzen, sonst muss der Baum für jede Stelle seine Auswahl verschieben
+        var items = new ArrayList<TreeItem<Group>>(getChildren());
+        var changes = 0;
+        while (change.next()) {
+            changes++;
+            if (change.wasPermutated()) {
+                var permuted = new ArrayList<>(items);
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    permuted.set(change.getPermutation(i), items.get(i));
+                }
+                items = permuted;
+                continue;
+            }
+
+            if (change.wasRemoved())
+                items.subList(change.getFrom(), change.getFrom() + change.getRemovedSize()).clear();
+            if (change.wasAdded()) {
+                var added = new ArrayList<GroupTreeItem>(change.getAddedSize());
+                for (var child : change.getAddedSubList()) {
+                    added.add(item(child));
+                }
+                items.addAll(change.getFrom(), added);
+            }
+        }
+
+        if (changes > 1) {
+            getChildren().setAll(items);
+            return;
+        }
+
+        // eine einzelne Änderung direkt übernehmen, dann bleiben Auswahl und Bildlauf erhalten
+        change.reset();
+        change.next();
+        if (change.wasPermutated() || change.wasReplaced()) {
+            getChildren().setAll(items);
+        } else if (change.wasRemoved()) {
+            getChildren().remove(change.getFrom(), change.getFrom() + change.getRemovedSize());
+        } else if (change.wasAdded()) {
+            getChildren().addAll(change.getFrom(), items.subList(change.getFrom(), change.getTo()));
+        }
+    }
+}
@@ -2,44 +2,40 @@ package lamps;
 
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
-import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
 
 import java.util.ArrayList;
 
 /**
- * Beobachtet eine Liste von Lampen und löst eine Änderung aus, wenn sich die Gruppe einer Lampe geändert hat
+ * Beobachtet die ausgewählten Lampen eines {@link LampsContainer}s und löst eine Änderung aus,
+ * wenn sich die Gruppe einer ausgewählten Lampe geändert hat.
+ * Änderungen innerhalb von {@link LampsContainer#batch(Runnable)} lösen nur eine Änderung aus.
  */
-public class GroupsChangeObservable implements Observable, InvalidationListener {
+public class GroupsChangeObservable implements Observable, LampChange.Listener {
     private ArrayList<InvalidationListener> listeners = new ArrayList<>();
 
+    private final LampModel model;
+
     /**
-     * Erstellt eine neue Instanz und beobachtet die Liste und die Gruppen der enthaltenen Lampen
-     * @param lamps die Liste der Lampen
+     * Erstellt eine neue Instanz und beobachtet die Gruppen der ausgewählten Lampen
+     * @param container der Container der Lampen
      */
-    public GroupsChangeObservable(ObservableList<Lamp> lamps) {
-        lamps.addListener((ListChangeListener<Lamp>) c -> {
-            while (c.next()) {
-                // Neue Lampen beobachten
-                for (var lamp : c.getAddedSubList()) {
-                    lamp.groupProperty().addListener(GroupsChangeObservable.this);
-                }
-
-                // Entfernte Lampen nicht mehr beoachten
-                for (var lamp : c.getRemoved()) {
-                    lamp.groupProperty().removeListener(GroupsChangeObservable.this);
-                }
-            }
-        });
+    public GroupsChangeObservable(LampsContainer container) {
+        this.model = container.getModel();
+        container.addChangeListener(this);
     }
 
     /**
-     * Wird aufgerufen, wenn sich die Gruppe einer Lampe geändert hat
-     * @param observable die Lampe
+     * Wird aufgerufen, wenn sich Lampen geändert haben
+     * @param change die zusammengefasste Änderung
      */
     @Override
-    public void invalidated(Observable observable) {
-        for (var listener : listeners) {
+    public void lampsChanged(LampChange change) {
+        if (!change.getRegrouped().intersects(model.getSelectedSlots()))
+            return;
+
+        // nur einmal pro Änderung auslösen
+        LampMetrics.count(LampMetrics.Counter.GROUPS_CHANGES, listeners.size());
+        for (var listener : new ArrayList<>(listeners)) {
             listener.invalidated(this);
         }
     }
@@ -1,49 +1,55 @@
 package lamps;
 
-import javafx.beans.binding.Bindings;
-import javafx.beans.property.SimpleBooleanProperty;
-import javafx.beans.property.SimpleObjectProperty;
-import javafx.scene.effect.DropShadow;
-import javafx.scene.input.MouseButton;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
-
 /**
- * Eine Lampe wird als Kreis dargestellt.
- * Wenn die Lampe angeschaltet ist, ist ihr Hintergrund gelb und es erscheint ein Schein um sie herum.
- * Zudem wird durch einen Rahmen gezeigt, ob die Lampe ausgewählt ist
+ * Eine Lampe.
+ * Der Zustand der Lampe liegt in einem {@link LampModel}, die Lampe selbst verweist nur auf ihren Platz darin.
+ * Solange die Lampe in keinem {@link LampsContainer} ist, hat sie ein eigenes kleines Modell.
+ * Dargestellt wird die Lampe von einer {@link LampView} oder auf der Zeichenfläche des Containers.
  */
-public class Lamp extends Circle {
-    private static final Color OFF_COLOR = Color.GREY;
-    private static final Color ON_COLOR = Color.YELLOW;
+public class Lamp {
+    /**
+     * der Radius einer Lampe
+     */
+    static final double RADIUS = 20;
 
-    private final SimpleBooleanProperty on = new SimpleBooleanProperty(false);
-    private final SimpleObjectProperty<Group> group = new SimpleObjectProperty<>(null);
-    private final SimpleBooleanProperty selected = new SimpleBooleanProperty(false);
+    private LampModel model;
+    private int slot;
 
     public Lamp() {
-        setRadius(20);
+        this(new LampModel(false, 1));
+    }
 
-        // die Farbe, abhängig vom Zustand
-        fillProperty().bind(Bindings.when(on).then(ON_COLOR).otherwise(OFF_COLOR));
+    /**
+     * Erstellt eine Lampe auf einem freien Platz des Modells, z.B. um viele Lampen in einem Modell vorzubereiten
+     * @param model das Modell
+     */
+    Lamp(LampModel model) {
+        this.model = model;
+        slot = model.allocate(this);
+    }
 
-        // der Rahmen, abhängig davon, ob die Lampe ausgewählt ist
-        strokeProperty().bind(Bindings.when(selected).then(Color.BLACK).otherwise(Color.GREY));
-        setStrokeWidth(1);
+    /**
+     * Gibt das Modell zurück, in dem der Zustand der Lampe liegt
+     * @return das Modell
+     */
+    LampModel getModel() {
+        return model;
+    }
 
-        // der Schein der Lampe
-        var shadowEffect = new DropShadow(20, ON_COLOR);
-        // wird nur aktiviert, wen die Lampe angeschaltet ist:
-        effectProperty().bind(Bindings.when(on).then(shadowEffect).otherwise((DropShadow)null));
+    /**
+     * Gibt den Platz der Lampe in ihrem Modell zurück
+     * @return der Platz
+     */
+    int getSlot() {
+        return slot;
+    }
 
-        // Beim Doppelklick wird die Lampe umgeschaltet
-        setOnMouseClicked(event -> {
-            // Überprüfen: Linke Maustaste UND Doppelklick
-            if(event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
-                event.consume();
-                setOn(!isOn()); // Lampe umschalten
-            }
-        });
+    /**
+     * Wird vom Modell aufgerufen, wenn die Lampe in ein anderes Modell wechselt
+     */
+    void moveTo(LampModel model, int slot) {
+        this.model = model;
+        this.slot = slot;
     }
 
     /**
@@ -51,39 +57,72 @@ public class Lamp extends Circle {
      * @return ob die Lampe angeschaltet ist
      */
     public boolean isOn() {
-        return on.get();
+        return model.isOn(slot);
     }
 
     /**
-     * Die Eigenschaft, ob die Lampe angeschaltet ist
-     * @return die Eigenschaft
+     * Legt fest, ob die Lampe angeschaltet ist
+     * @param on ob die Lampe angeschaltet sein soll
      */
-    public SimpleBooleanProperty onProperty() {
-        return on;
+    public void setOn(boolean on) {
+        model.setOn(slot, on);
     }
 
     /**
-     * Legt fest, ob die Lampe angeschaltet ist
-     * @param on ob die Lampe angeschaltet sein soll
+     * Gibt die Helligkeit der Lampe zurück, sie gilt, solange die Lampe an ist
+     * @return die Helligkeit von 0 bis {@link LampModel#MAX_BRIGHTNESS}
      */
-    public void setOn(boolean on) {
-        this.on.set(on);
+    public int getBrightness() {
+        return model.getBrightness(slot);
     }
 
     /**
-     * Gibt die Gruppe der Lampe zurück
-     * @return die Gruppe der Lampe
+     * Setzt die Helligkeit der Lampe
+     * @param brightness die Helligkeit von 0 bis {@link LampModel#MAX_BRIGHTNESS}
      */
-    public Group getGroup() {
-        return group.get();
+    public void setBrightness(int brightness) {
+        var clamped = Math.max(0, Math.min(LampModel.MAX_BRIGHTNESS, brightness));
+        model.setLevel(slot, LampModel.level(clamped, getColorTemperature()));
     }
 
     /**
-     * Die Eigenschaft der Gruppe der Lampe
-     * @return die Eigenschaft
+     * Gibt die Farbtemperatur der Lampe zurück
+     * @return die Farbtemperatur in Kelvin
      */
-    public SimpleObjectProperty<Group> groupProperty() {
-        return group;
+    public int getColorTemperature() {
+        return model.getColorTemperature(slot);
+    }
+
+    /**
+     * Setzt die Farbtemperatur der Lampe
+     * @param colorTemperature die Farbtemperatur in Kelvin, wird auf den Bereich von {@link LampModel} begrenzt
+     */
+    public void setColorTemperature(int colorTemperature) {
+        var clamped = Math.max(LampModel.MIN_COLOR_TEMPERATURE,
+                Math.min(LampModel.MAX_COLOR_TEMPERATURE, colorTemperature));
+        model.setLevel(slot, LampModel.level(getBrightness(), clamped));
+    }
+
+    /**
+     * Gibt Helligkeit und Farbtemperatur zusammen zurück, siehe {@link LampModel#level(int, int)}
+     */
+    int getLevel() {
+        return model.getLevel(slot);
+    }
+
+    /**
+     * Setzt Helligkeit und Farbtemperatur zusammen, siehe {@link LampModel#level(int, int)}
+     */
+    void setLevel(int level) {
+        model.setLevel(slot, level);
+    }
+
+    /**
+     * Gibt die Gruppe der Lampe zurück
+     * @return die Gruppe der Lampe
+     */
+    public Group getGroup() {
+        return model.getGroup(slot);
     }
 
     /**
@@ -91,7 +130,7 @@ public class Lamp extends Circle {
      * @param group die neue Gruppe der Lampe
      */
     public void setGroup(Group group) {
-        this.group.set(group);
+        model.setGroup(slot, group);
     }
 
     /**
@@ -99,22 +138,40 @@ public class Lamp extends Circle {
      * @return ob die Lampe ausgewählt ist
      */
     public boolean isSelected() {
-        return selected.get();
+        return model.isSelected(slot);
     }
 
     /**
-     * Die Eigenschaft, ob die Lampe ausgewählt ist
-     * @return die Eigenschaft
+     * Legt fest, ob die Lampe ausgewählt ist.
+     * Wird von {@link LampSelection} aufgerufen, die Auswahl selbst wird über diese verändert.
+     * @param selected ob die Lampe ausgewählt sein soll
      */
-    public SimpleBooleanProperty selectedProperty() {
-        return selected;
+    void setSelected(boolean selected) {
+        model.setSelected(slot, selected);
     }
 
     /**
-     * Legt fest, ob die Lampe ausgewählt ist
-     * @param selected ob die Lampe ausgewählt sein soll
+     * Gibt die x-Koordinate des Mittelpunkts zurück
+     * @return die x-Koordinate
+     */
+    public double getX() {
+        return model.getX(slot);
+    }
+
+    /**
+     * Gibt die y-Koordinate des Mittelpunkts zurück
+     * @return die y-Koordinate
+     */
+    public double getY() {
+        return model.getY(slot);
+    }
+
+    /**
+     * Verschiebt die Lampe
+     * @param x die neue x-Koordinate des Mittelpunkts
+     * @param y die neue y-Koordinate des Mittelpunkts
      */
-    public void setSelected(boolean selected) {
-        this.selected.set(selected);
+    public void setPosition(double x, double y) {
+        model.setPosition(slot, (float) x, (float) y);
     }
 }
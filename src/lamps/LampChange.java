@@ -0,0 +1,101 @@
+package lamps;
+
+import java.util.BitSet;
+
+/**
+ * Eine zusammengefasste Änderung an den Lampen eines {@link LampsContainer}s.
+ * Innerhalb von {@link LampsContainer#batch(Runnable)} werden alle Änderungen gesammelt
+ * und erst am Ende als eine einzige Änderung gemeldet.
+ * <p>
+ * Die Lampen werden wie im {@link LampModel} über ihre Plätze angegeben, so kostet auch eine Änderung an sehr vielen
+ * Lampen nur ein paar Bit-Operationen. Die Bitsets dürfen nicht verändert werden.
+ */
+public class LampChange {
+    /**
+     * Wird aufgerufen, wenn sich Lampen geändert haben
+     */
+    public interface Listener {
+        /**
+         * Wird mit der zusammengefassten Änderung aufgerufen
+         * @param change die Änderung
+         */
+        void lampsChanged(LampChange change);
+    }
+
+    private final BitSet switched = new BitSet();
+    private final BitSet regrouped = new BitSet();
+    private final BitSet moved = new BitSet();
+    private final BitSet dimmed = new BitSet();
+
+    /**
+     * Gibt die Plätze der Lampen zurück, die an- oder ausgeschaltet wurden
+     * @return die Plätze
+     */
+    public BitSet getSwitched() {
+        return switched;
+    }
+
+    /**
+     * Gibt die Plätze der Lampen zurück, deren Gruppe sich geändert hat
+     * @return die Plätze
+     */
+    public BitSet getRegrouped() {
+        return regrouped;
+    }
+
+    /**
+     * Gibt die Plätze der Lampen zurück, die verschoben wurden
+     * @return die Plätze
+     */
+    public BitSet getMoved() {
+        return moved;
+    }
+
+    /**
+     * Gibt die Plätze der Lampen zurück, deren Helligkeit oder Farbtemperatur sich geändert hat
+     * @return die Plätze
+     */
+    public BitSet getDimmed() {
+        return dimmed;
+    }
+
+    /**
+     * Gibt zurück, ob sich keine Lampe geändert hat
+     * @return ob die Änderung leer ist
+     */
+    public boolean isEmpty() {
+        return switched.isEmpty() && regrouped.isEmpty() && moved.isEmpty() && dimmed.isEmpty();
+    }
+
+    /**
+     * Merkt sich die Änderung einer Lampe
+     * @param slot der Platz der Lampe
+     * @param properties die geänderten Eigenschaften, wie bei {@link LampModel.Listener}
+     */
+    void add(int slot, int properties) {
+        if ((properties & LampModel.ON) != 0)
+            switched.set(slot);
+        if ((properties & LampModel.GROUP) != 0)
+            regrouped.set(slot);
+        if ((properties & LampModel.POSITION) != 0)
+            moved.set(slot);
+        if ((properties & LampModel.LEVEL) != 0)
+            dimmed.set(slot);
+    }
+
+    /**
+     * Merkt sich die Änderung mehrerer Lampen
+     * @param slots die Plätze der Lampen
+     * @param properties die geänderten Eigenschaften, wie bei {@link LampModel.Listener}
+     */
+    void add(BitSet slots, int properties) {
+        if ((properties & LampModel.ON) != 0)
+            switched.or(slots);
+        if ((properties & LampModel.GROUP) != 0)
+            regrouped.or(slots);
+        if ((properties & LampModel.POSITION) != 0)
+            moved.or(slots);
+        if ((properties & LampModel.LEVEL) != 0)
+            dimmed.or(slots);
+    }
+}
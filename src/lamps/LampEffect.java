@@ -0,0 +1,82 @@
+package lamps;
+
+/**
+ * Ein animiertes Muster, z.B. ein Lauflicht oder eine Welle.
+ * Ein Effekt legt für jede Lampe und jeden Zeitpunkt fest, ob sie an sein soll.
+ * Er wird von {@link LampEffectEngine} gleichzeitig in mehreren Threads ausgewertet und darf deshalb keinen
+ * veränderlichen Zustand haben.
+ */
+@FunctionalInterface
+public interface LampEffect {
+    /**
+     * Gibt zurück, ob eine Lampe zu einem Zeitpunkt an sein soll
+     * @param index die Nummer der Lampe innerhalb der Lampen des Effekts
+     * @param x die x-Koordinate der Lampe
+     * @param y die y-Koordinate der Lampe
+     * @param seconds die Zeit seit dem Start des Effekts in Sekunden
+     * @return ob die Lampe an sein soll
+     */
+    boolean isOn(int index, float x, float y, double seconds);
+
+    /**
+     * Ein Lauflicht: jede n-te Lampe ist an, das Muster wandert die Lampen entlang
+     * @param spacing der Abstand zwischen zwei angeschalteten Lampen
+     * @param lampsPerSecond wie viele Lampen das Muster pro Sekunde weiterwandert
+     * @return der Effekt
+     */
+    static LampEffect chase(int spacing, double lampsPerSecond) {
+        return (index, x, y, seconds) -> Math.floorMod(index - (long) Math.floor(seconds * lampsPerSecond), spacing) == 0;
+    }
+
+    /**
+     * Eine Welle, die über die Positionen der Lampen läuft: auf einer halben Wellenlänge sind die Lampen an
+     * @param wavelength die Wellenlänge in Einheiten der Lampenkoordinaten
+     * @param angle die Richtung der Welle in Grad, 0 ist nach rechts
+     * @param speed die Geschwindigkeit in Einheiten pro Sekunde
+     * @return der Effekt
+     */
+    static LampEffect wave(double wavelength, double angle, double speed) {
+        var directionX = Math.cos(Math.toRadians(angle)) / wavelength;
+        var directionY = Math.sin(Math.toRadians(angle)) / wavelength;
+        var phaseSpeed = speed / wavelength;
+        return (index, x, y, seconds) -> {
+            var phase = x * directionX + y * directionY - seconds * phaseSpeed;
+            return phase - Math.floor(phase) < 0.5;
+        };
+    }
+
+    /**
+     * Zufälliges Funkeln: in jedem Schritt ist ein anderer Teil der Lampen an
+     * @param density der Anteil der angeschalteten Lampen, zwischen 0 und 1
+     * @param stepsPerSecond wie oft pro Sekunde neu gewürfelt wird
+     * @return der Effekt
+     */
+    static LampEffect twinkle(double density, double stepsPerSecond) {
+        return (index, x, y, seconds) -> random(index, (long) Math.floor(seconds * stepsPerSecond)) < density;
+    }
+
+    /**
+     * Langsames Auf- und Abblenden: nach und nach gehen immer mehr Lampen an und danach wieder aus.
+     * Jede Lampe hat dafür eine eigene, zufällige Schwelle, so wirkt das Blenden gleichmäßig verteilt.
+     * @param periodSeconds die Dauer von aus über an zurück zu aus in Sekunden
+     * @return der Effekt
+     */
+    static LampEffect fade(double periodSeconds) {
+        return (index, x, y, seconds) -> {
+            var level = (1 - Math.cos(2 * Math.PI * seconds / periodSeconds)) / 2;
+            return random(index, 0) < level;
+        };
+    }
+
+    /**
+     * Gibt eine gleichverteilte Zahl zwischen 0 und 1 zurück, die nur von den Werten abhängt
+     */
+    private static double random(int index, long step) {
+        // SplitMix64, zwei Lampen oder zwei Schritte sehen sich damit nicht ähnlich
+        var z = (index * 0x9E3779B97F4A7C15L) ^ (step * 0xC2B2AE3D27D4EB4FL);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,337 @@
+package lamps;
+
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Spielt einen {@link LampEffect} auf einer festen Menge von Lampen ab, z.B. einer Gruppe oder der Auswahl.
+ * <p>
+ * Welche Lampen in einem Bild an sein sollen, wird außerhalb des JavaFX-Threads mit Fork/Join über die Positionen der
+ * Lampen berechnet, immer ein Bild im Voraus. Im JavaFX-Thread werden dann nur die Lampen geschaltet, deren Zustand
+ * sich gegenüber dem vorigen Bild ändert, gemeinsam in einem {@link LampsContainer#batch(Runnable)}.
+ * Ist ein Bild nicht rechtzeitig fertig, wird es ein Bild später übernommen.
+ * <p>
+ * Wie viel der Zeit eines Bildes (1/60 s) das Berechnen und Übernehmen braucht, zeigt {@link #budgetUsageProperty()}.
+ */
+public class LampEffectEngine {
+    /**
+     * die Zeit für ein Bild bei 60 Bildern pro Sekunde
+     */
+    static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    /**
+     * so viele Lampen berechnet ein Teilauftrag am Stück, ein Vielfaches von 64
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Die Lampen eines laufenden Effekts und ihr zuletzt berechneter Zustand
+     */
+    private static class Run {
+        final LampEffect effect;
+        final long startNanos;
+
+        // die Plätze der Lampen aufsteigend und ihre Positionen beim Start
+        final int[] slots;
+        final float[] x, y;
+
+        /**
+         * ob die Lampen an sind, ein Bit je Lampe in der Reihenfolge von slots
+         */
+        long[] state, nextState;
+
+        /**
+         * die Plätze der seit dem Start entfernten Lampen, nur im JavaFX-Thread.
+         * Das Modell vergibt freie Plätze neu, dort liegen dann andere Lampen, die der Effekt nicht schalten darf.
+         */
+        final BitSet removed = new BitSet();
+
+        Run(LampEffect effect, long startNanos, LampModel model, BitSet slots) {
+            this.effect = effect;
+            this.startNanos = startNanos;
+
+            var count = slots.cardinality();
+            this.slots = new int[count];
+            x = new float[count];
+            y = new float[count];
+            state = new long[(count + 63) / 64];
+            nextState = new long[state.length];
+
+            var index = 0;
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                this.slots[index] = slot;
+                x[index] = model.getX(slot);
+                y[index] = model.getY(slot);
+                if (model.isOn(slot))
+                    state[index / 64] |= 1L << index;
+                index++;
+            }
+        }
+
+        /**
+         * Berechnet den Zustand zu einem Zeitpunkt und gibt die Lampen zurück, die dafür geschaltet werden müssen
+         */
+        Frame compute(double seconds) {
+            var start = System.nanoTime();
+            ForkJoinPool.commonPool().invoke(new ComputeTask(this, seconds, 0, slots.length));
+
+            // die Unterschiede zum vorigen Bild, die Plätze sind aufsteigend, daher ist das Setzen günstig
+            var frame = new Frame();
+            for (int word = 0; word < state.length; word++) {
+                var changed = state[word] ^ nextState[word];
+                while (changed != 0) {
+                    var bit = Long.numberOfTrailingZeros(changed);
+                    var index = word * 64 + bit;
+                    if ((nextState[word] & (1L << bit)) != 0)
+                        frame.switchOn.set(slots[index]);
+                    else
+                        frame.switchOff.set(slots[index]);
+                    changed &= changed - 1;
+                }
+            }
+
+            var previous = state;
+            state = nextState;
+            nextState = previous;
+
+            frame.computeNanos = System.nanoTime() - start;
+            return frame;
+        }
+    }
+
+    /**
+     * Berechnet den Zustand eines Bereichs der Lampen, teilt große Bereiche auf
+     */
+    private static class ComputeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final double seconds;
+        private final int from, to;
+
+        ComputeTask(Run run, double seconds, int from, int to) {
+            this.run = run;
+            this.seconds = seconds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK_SIZE) {
+                // an einer Grenze von CHUNK_SIZE teilen, so schreibt nie mehr als ein Teilauftrag in dasselbe long
+                var middle = from + Math.max(1, (to - from) / CHUNK_SIZE / 2) * CHUNK_SIZE;
+                invokeAll(new ComputeTask(run, seconds, from, middle), new ComputeTask(run, seconds, middle, to));
+                return;
+            }
+
+            var effect = run.effect;
+            var state = run.nextState;
+            for (int word = from / 64; word * 64 < to; word++) {
+                long bits = 0;
+                var end = Math.min(to, word * 64 + 64);
+                for (int index = word * 64; index < end; index++) {
+                    if (effect.isOn(index, run.x[index], run.y[index], seconds))
+                        bits |= 1L << index;
+                }
+                state[word] = bits;
+            }
+        }
+    }
+
+    /**
+     * Die Änderungen eines Bildes
+     */
+    private static class Frame {
+        final BitSet switchOn = new BitSet();
+        final BitSet switchOff = new BitSet();
+        long computeNanos;
+    }
+
+    private final LampsContainer container;
+
+    private Run run = null;
+
+    /**
+     * merkt sich entfernte Lampen im laufenden Effekt, nur angemeldet, solange ein Effekt läuft
+     */
+    private final LampModel.Listener removedListener = new LampModel.Listener() {
+        @Override
+        public void lampChanged(int slot, int properties) {
+            if ((properties & LampModel.REMOVED) != 0)
+                run.removed.set(slot);
+        }
+
+        @Override
+        public void lampsChanged(BitSet slots, int properties) {
+            if ((properties & LampModel.REMOVED) != 0)
+                run.removed.or(slots);
+        }
+    };
+
+    /**
+     * die Berechnung des nächsten Bildes, oder null
+     */
+    private ForkJoinTask<Frame> pending = null;
+
+    private final ReadOnlyBooleanWrapper running = new ReadOnlyBooleanWrapper(this, "running", false);
+    private final ReadOnlyDoubleWrapper budgetUsage = new ReadOnlyDoubleWrapper(this, "budgetUsage", 0);
+    private final ReadOnlyIntegerWrapper lateFrames = new ReadOnlyIntegerWrapper(this, "lateFrames", 0);
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            nextFrame(now);
+        }
+    };
+
+    /**
+     * Erstellt die Steuerung für die Effekte eines Containers
+     * @param container der Container mit den Lampen
+     */
+    public LampEffectEngine(LampsContainer container) {
+        this.container = container;
+    }
+
+    /**
+     * Startet einen Effekt auf den Lampen der Plätze, ein laufender Effekt wird beendet.
+     * Die Positionen der Lampen werden beim Start übernommen.
+     * @param effect der Effekt
+     * @param slots die Plätze der Lampen im Modell des Containers
+     */
+    public void start(LampEffect effect, BitSet slots) {
+        stop();
+
+        var used = (BitSet) slots.clone();
+        used.and(container.getModel().getUsedSlots());
+        run = new Run(effect, System.nanoTime(), container.getModel(), used);
+        container.getModel().addListener(removedListener);
+        lateFrames.set(0);
+        running.set(true);
+        timer.start();
+    }
+
+    /**
+     * Startet einen Effekt auf allen Lampen einer Gruppe und ihrer Untergruppen, ein laufender Effekt wird beendet
+     * @param effect der Effekt
+     * @param group die Gruppe
+     */
+    public void start(LampEffect effect, Group group) {
+        var slots = new BitSet();
+        group.collectSubtreeSlots(slots);
+        start(effect, slots);
+    }
+
+    /**
+     * Beendet den laufenden Effekt, die Lampen behalten ihren Zustand
+     */
+    public void stop() {
+        if (run == null)
+            return;
+
+        timer.stop();
+        if (pending != null) {
+            pending.join(); // der Auftrag arbeitet auf dem Zustand des Laufs
+            pending = null;
+        }
+        container.getModel().removeListener(removedListener);
+        run = null;
+        running.set(false);
+        budgetUsage.set(0);
+    }
+
+    /**
+     * Übernimmt das fertige Bild und beginnt das nächste
+     */
+    private void nextFrame(long now) {
+        var start = System.nanoTime();
+        long computeNanos = 0;
+        if (pending != null) {
+            if (!pending.isDone()) {
+                lateFrames.set(lateFrames.get() + 1);
+                return;
+            }
+
+            var frame = pending.join();
+            pending = null;
+            computeNanos = frame.computeNanos;
+
+            // Plätze inzwischen entfernter Lampen auslassen, auch wenn dort schon neue Lampen liegen
+            frame.switchOn.andNot(run.removed);
+            frame.switchOff.andNot(run.removed);
+            var model = container.getModel();
+            container.batch(() -> {
+                model.setOn(frame.switchOn, true);
+                model.setOn(frame.switchOff, false);
+            });
+        }
+
+        // das nächste Bild für den nächsten Puls berechnen
+        var current = run;
+        var seconds = (now + FRAME_NANOS - current.startNanos) / 1e9;
+        pending = ForkJoinPool.commonPool().submit(() -> current.compute(seconds));
+
+        // geglättet, damit die Anzeige nicht springt
+        var usage = (double) (computeNanos + System.nanoTime() - start) / FRAME_NANOS;
+        budgetUsage.set(budgetUsage.get() * 0.9 + usage * 0.1);
+    }
+
+    /**
+     * Gibt zurück, ob gerade ein Effekt läuft
+     * @return ob ein Effekt läuft
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Gibt die Eigenschaft zurück, ob gerade ein Effekt läuft
+     * @return die Eigenschaft
+     */
+    public ReadOnlyBooleanProperty runningProperty() {
+        return running.getReadOnlyProperty();
+    }
+
+    /**
+     * Gibt zurück, welchen Anteil der Zeit eines Bildes das Berechnen und Übernehmen zuletzt gebraucht hat.
+     * Über 1 schafft der Effekt keine 60 Bilder pro Sekunde.
+     * @return der Anteil, geglättet über die letzten Bilder
+     */
+    public double getBudgetUsage() {
+        return budgetUsage.get();
+    }
+
+    /**
+     * Gibt die Eigenschaft für den Anteil der Zeit eines Bildes zurück
+     * @return die Eigenschaft
+     */
+    public ReadOnlyDoubleProperty budgetUsageProperty() {
+        return budgetUsage.getReadOnlyProperty();
+    }
+
+    /**
+     * Gibt zurück, wie viele Bilder seit dem Start nicht rechtzeitig berechnet waren
+     * @return die Anzahl
+     */
+    public int getLateFrames() {
+        return lateFrames.get();
+    }
+
+    /**
+     * Gibt die Eigenschaft für die Anzahl der verspäteten Bilder zurück
+     * @return die Eigenschaft
+     */
+    public ReadOnlyIntegerProperty lateFramesProperty() {
+        return lateFrames.getReadOnlyProperty();
+    }
+}
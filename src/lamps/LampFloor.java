@@ -0,0 +1,240 @@
+package lamps;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ein Stockwerk mit eigenen Lampen.
+ * <p>
+ * Angezeigt wird immer nur ein Stockwerk, seine Lampen liegen im {@link LampsContainer} und gelten als geladen.
+ * Von allen anderen werden nur kompakte Spalten wie in einem {@link LayoutSnapshot} gehalten: Position, Gruppe,
+ * Helligkeit und An/Aus, ohne Lampen-Objekte und Knoten. Gruppen lassen sich darauf trotzdem schalten, siehe
+ * {@link Main#toggleGroups(LampsContainer, List, java.util.Collection, Runnable)}.
+ * <p>
+ * Beim Laden entstehen die Lampen mit {@link #prepare()} in einem anderen Thread, im JavaFX-Thread werden dann mit
+ * {@link #load(List)} noch An/Aus und die Gruppen übernommen, die sich während des Ladens ändern können.
+ * Gruppen, die inzwischen aus dem {@link GroupTree} entfernt wurden, zählen wie beim Kopieren als keine Gruppe.
+ */
+public final class LampFloor {
+    private String name;
+
+    // die Spalten, solange das Stockwerk nicht geladen ist, sonst null
+
+    private float[] x;
+    private float[] y;
+    private Group[] groups;
+    private int[] levels;
+
+    /**
+     * wird im JavaFX-Thread auch während des Ladens geändert, {@link #prepare()} liest es deshalb nicht
+     */
+    private BitSet on;
+
+    /**
+     * Erstellt ein leeres, nicht geladenes Stockwerk
+     * @param name der Name
+     */
+    public LampFloor(String name) {
+        this(name, new float[0], new float[0], new Group[0], new int[0], new BitSet());
+    }
+
+    /**
+     * Erstellt ein nicht geladenes Stockwerk aus Spalten, z.B. aus einer Datei
+     */
+    LampFloor(String name, float[] x, float[] y, Group[] groups, int[] levels, BitSet on) {
+        this.name = name;
+        this.x = x;
+        this.y = y;
+        this.groups = groups;
+        this.levels = levels;
+        this.on = on;
+    }
+
+    /**
+     * Erstellt ein geladenes Stockwerk, seine Lampen sind gerade im Container
+     * @param name der Name
+     * @return das Stockwerk
+     */
+    static LampFloor loaded(String name) {
+        return new LampFloor(name, null, null, null, null, null);
+    }
+
+    /**
+     * Gibt den üblichen Namen eines neuen Stockwerks zurück
+     * @param number die Nummer des Stockwerks, beginnend bei 1
+     * @return der Name
+     */
+    static String defaultName(int number) {
+        return "Stockwerk " + number;
+    }
+
+    /**
+     * Gibt den Namen zurück
+     * @return der Name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Ändert den Namen
+     * @param name der neue Name
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Gibt zurück, ob die Lampen des Stockwerks gerade im Container liegen
+     * @return ob das Stockwerk geladen ist
+     */
+    public boolean isLoaded() {
+        return x == null;
+    }
+
+    /**
+     * Gibt die Anzahl der Lampen eines nicht geladenen Stockwerks zurück
+     * @return die Anzahl der Lampen
+     */
+    public int size() {
+        return isLoaded() ? 0 : x.length;
+    }
+
+    /**
+     * Übernimmt die Lampen eines Containers in Spalten, danach ist das Stockwerk nicht mehr geladen.
+     * Der Container selbst bleibt unverändert.
+     * @param container der Container mit den Lampen dieses Stockwerks
+     */
+    void unload(LampsContainer container) {
+        var lamps = container.getLamps();
+        var n = lamps.size();
+        var model = container.getModel();
+        x = new float[n];
+        y = new float[n];
+        groups = new Group[n];
+        levels = new int[n];
+        on = new BitSet(n);
+        for (int i = 0; i < n; i++) {
+            var slot = lamps.get(i).getSlot();
+            x[i] = model.getX(slot);
+            y[i] = model.getY(slot);
+            groups[i] = model.getGroup(slot);
+            levels[i] = model.getLevel(slot);
+            on.set(i, model.isOn(slot));
+        }
+    }
+
+    /**
+     * Erstellt die Lampen mit Position und Helligkeit in einem gemeinsamen Modell, darf in einem anderen Thread
+     * aufgerufen werden. Die Spalten bleiben bis {@link #load(List)} gültig.
+     * @return die Lampen, noch ohne An/Aus und Gruppe
+     */
+    List<Lamp> prepare() {
+        var n = x.length;
+        var model = new LampModel(false, n);
+        var lamps = new ArrayList<Lamp>(n);
+        for (int i = 0; i < n; i++) {
+            var lamp = new Lamp(model);
+            model.setPosition(lamp.getSlot(), x[i], y[i]);
+            model.setLevel(lamp.getSlot(), levels[i]);
+            lamps.add(lamp);
+        }
+        return lamps;
+    }
+
+    /**
+     * Übernimmt An/Aus und Gruppen in die vorbereiteten Lampen, danach ist das Stockwerk geladen
+     * und die Lampen sollen in den Container eingefügt werden
+     * @param prepared die Lampen aus {@link #prepare()}
+     */
+    void load(List<Lamp> prepared) {
+        for (int i = 0; i < prepared.size(); i++) {
+            var model = prepared.get(i).getModel();
+            var slot = prepared.get(i).getSlot();
+            model.setOn(slot, on.get(i));
+            if (groups[i] != null && groups[i].tree != null)
+                model.setGroup(slot, groups[i]);
+        }
+        x = y = null;
+        groups = null;
+        levels = null;
+        on = null;
+    }
+
+    /**
+     * Gibt die Stellen aller Lampen zurück, deren Gruppe in einer Menge liegt
+     * @param members die Gruppen, z.B. Gruppen mit allen Untergruppen
+     * @return die Stellen
+     */
+    BitSet collect(Set<Group> members) {
+        var found = new BitSet();
+        for (int i = 0; i < groups.length; i++) {
+            var group = groups[i];
+            if (group != null && group.tree != null && members.contains(group))
+                found.set(i);
+        }
+        return found;
+    }
+
+    /**
+     * Gibt zurück, ob alle Lampen an den Stellen an sind
+     */
+    boolean allOn(BitSet indices) {
+        var off = (BitSet) indices.clone();
+        off.andNot(on);
+        return off.isEmpty();
+    }
+
+    /**
+     * Schaltet die Lampen an den Stellen an oder aus
+     * @param indices die Stellen
+     * @param state ob die Lampen angeschaltet werden
+     * @return die Stellen der tatsächlich geschalteten Lampen
+     */
+    BitSet setOn(BitSet indices, boolean state) {
+        var switched = (BitSet) indices.clone();
+        if (state)
+            switched.andNot(on);
+        else
+            switched.and(on);
+        on.xor(switched);
+        return switched;
+    }
+
+    /**
+     * Schaltet jede Lampe an den Stellen einzeln um
+     * @param indices die Stellen
+     */
+    void toggle(BitSet indices) {
+        on.xor(indices);
+    }
+
+    // für LayoutSnapshot, nur solange das Stockwerk nicht geladen ist
+
+    float[] getX() {
+        return x;
+    }
+
+    float[] getY() {
+        return y;
+    }
+
+    Group[] getGroups() {
+        return groups;
+    }
+
+    int[] getLevels() {
+        return levels;
+    }
+
+    BitSet getOn() {
+        return on;
+    }
+}
@@ -0,0 +1,129 @@
+package lamps;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Erzeugt viele Lampen auf einmal: in einem Raster, auf einer Linie, aus einer Liste von Koordinaten
+ * oder als Kopien anderer Lampen.
+ * <p>
+ * Die Lampen werden wie beim Laden eines {@link LayoutSnapshot}s in einem gemeinsamen Modell ohne Listener vorbereitet
+ * und sollen mit einem einzigen {@link LampsContainer#addLamps(Collection)} eingefügt werden,
+ * dann ist das eine einzige Änderung der Liste und ein einziger Eintrag im Verlauf.
+ */
+public final class LampGenerator {
+    /**
+     * der übliche Abstand zwischen den Mittelpunkten benachbarter Lampen
+     */
+    public static final double DEFAULT_SPACING = 3 * Lamp.RADIUS;
+
+    private LampGenerator() {
+    }
+
+    /**
+     * Erzeugt Lampen in einem Raster, zeilenweise
+     * @param columns die Anzahl der Spalten
+     * @param rows die Anzahl der Zeilen
+     * @param x die x-Koordinate der ersten Lampe
+     * @param y die y-Koordinate der ersten Lampe
+     * @param spacing der Abstand zwischen den Mittelpunkten benachbarter Lampen
+     * @return die Lampen
+     */
+    public static List<Lamp> grid(int columns, int rows, double x, double y, double spacing) {
+        var model = new LampModel(false, columns * rows);
+        var lamps = new ArrayList<Lamp>(columns * rows);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                lamps.add(create(model, x + column * spacing, y + row * spacing));
+            }
+        }
+        return lamps;
+    }
+
+    /**
+     * Erzeugt Lampen in gleichen Abständen auf einer Linie, die erste und die letzte auf ihren Enden
+     * @param count die Anzahl der Lampen
+     * @param x1 die x-Koordinate des Anfangs
+     * @param y1 die y-Koordinate des Anfangs
+     * @param x2 die x-Koordinate des Endes
+     * @param y2 die y-Koordinate des Endes
+     * @return die Lampen
+     */
+    public static List<Lamp> line(int count, double x1, double y1, double x2, double y2) {
+        var model = new LampModel(false, count);
+        var lamps = new ArrayList<Lamp>(count);
+        for (int i = 0; i < count; i++) {
+            var t = count == 1 ? 0 : (double) i / (count - 1);
+            lamps.add(create(model, x1 + t * (x2 - x1), y1 + t * (y2 - y1)));
+        }
+        return lamps;
+    }
+
+    /**
+     * Liest Koordinaten aus einer Textdatei, je Zeile x und y, getrennt durch Leerzeichen, Komma oder Semikolon.
+     * Leere Zeilen und Zeilen mit {@code #} am Anfang werden übersprungen, ebenso eine Überschrift in der ersten Zeile.
+     * @param path die Datei
+     * @return je Zeile eine Lampe
+     * @throws IOException wenn die Datei nicht gelesen werden kann oder eine Zeile keine Koordinaten enthält
+     */
+    public static List<Lamp> read(Path path) throws IOException {
+        var lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        var model = new LampModel(false, lines.size());
+        var lamps = new ArrayList<Lamp>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            var line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            var parts = line.split("\\s*[\\s,;]\\s*");
+            try {
+                if (parts.length < 2)
+                    throw new NumberFormatException(line);
+                lamps.add(create(model, Double.parseDouble(parts[0]), Double.parseDouble(parts[1])));
+            } catch (NumberFormatException e) {
+                if (i == 0)
+                    continue; // Überschrift
+                throw new IOException("Keine Koordinaten in Zeile " + (i + 1) + ": " + line, e);
+            }
+        }
+        return lamps;
+    }
+
+    /**
+     * Kopiert Lampen mit ihrem Zustand und ihrer Gruppe, um einen Versatz verschoben.
+     * Die Kopien sind nicht ausgewählt. Gruppen, die in keinem {@link GroupTree} mehr sind, z.B. weil sie inzwischen
+     * entfernt wurden, werden nicht übernommen.
+     * @param originals die Lampen
+     * @param dx der Versatz in x-Richtung
+     * @param dy der Versatz in y-Richtung
+     * @return die Kopien in derselben Reihenfolge
+     */
+    public static List<Lamp> copy(Collection<Lamp> originals, double dx, double dy) {
+        var model = new LampModel(false, originals.size());
+        var copies = new ArrayList<Lamp>(originals.size());
+        for (var original : originals) {
+            var source = original.getModel();
+            var sourceSlot = original.getSlot();
+            var copy = create(model, source.getX(sourceSlot) + dx, source.getY(sourceSlot) + dy);
+            var slot = copy.getSlot();
+            model.setOn(slot, source.isOn(sourceSlot));
+            model.setLevel(slot, source.getLevel(sourceSlot));
+            var group = source.getGroup(sourceSlot);
+            if (group != null && group.tree != null)
+                model.setGroup(slot, group);
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private static Lamp create(LampModel model, double x, double y) {
+        var lamp = new Lamp(model);
+        model.setPosition(lamp.getSlot(), (float) x, (float) y);
+        return lamp;
+    }
+}
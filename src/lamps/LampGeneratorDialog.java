@@ -0,0 +1,149 @@
+package lamps;
+
+import javafx.event.ActionEvent;
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Ein Dialog, der viele Lampen auf einmal erzeugt: ein Raster aus Spalten und Zeilen, eine Linie
+ * oder die Koordinaten aus einer Datei, siehe {@link LampGenerator}.
+ * Das Ergebnis sind die vorbereiteten Lampen, der Aufrufer fügt sie mit einer einzigen Änderung ein.
+ */
+class LampGeneratorDialog extends Dialog<List<Lamp>> {
+    private static final int MAX_COUNT = 1000;
+    private static final double MAX_COORDINATE = 1_000_000;
+
+    private final TabPane tabs = new TabPane();
+    private final Label errorLabel = new Label();
+
+    // Raster
+    private final Spinner<Integer> columns = new Spinner<>(1, MAX_COUNT, 10);
+    private final Spinner<Integer> rows = new Spinner<>(1, MAX_COUNT, 10);
+    private final Spinner<Double> gridX;
+    private final Spinner<Double> gridY;
+    private final Spinner<Double> spacing = new Spinner<>(1, 10_000, LampGenerator.DEFAULT_SPACING, Lamp.RADIUS);
+
+    // Linie
+    private final Spinner<Integer> lineCount = new Spinner<>(1, MAX_COUNT * MAX_COUNT, 10);
+    private final Spinner<Double> lineX1;
+    private final Spinner<Double> lineY1;
+    private final Spinner<Double> lineX2;
+    private final Spinner<Double> lineY2;
+
+    // Datei
+    private final TextField file = new TextField();
+
+    /**
+     * die erzeugten Lampen, sobald mit OK bestätigt wurde
+     */
+    private List<Lamp> generated = null;
+
+    /**
+     * @param x die x-Koordinate, an der die Lampen beginnen, z.B. die linke Kante des sichtbaren Ausschnitts
+     * @param y die y-Koordinate, an der die Lampen beginnen
+     */
+    LampGeneratorDialog(double x, double y) {
+        setTitle("Lampen erzeugen");
+        setHeaderText("Viele Lampen auf einmal einfügen");
+
+        gridX = coordinate(x);
+        gridY = coordinate(y);
+        lineX1 = coordinate(x);
+        lineY1 = coordinate(y);
+        lineX2 = coordinate(x + 10 * LampGenerator.DEFAULT_SPACING);
+        lineY2 = coordinate(y);
+        for (var spinner : List.of(columns, rows, lineCount)) {
+            spinner.setEditable(true);
+        }
+        spacing.setEditable(true);
+
+        var grid = form();
+        grid.addRow(0, new Label("Spalten"), columns, new Label("Zeilen"), rows);
+        grid.addRow(1, new Label("x"), gridX, new Label("y"), gridY);
+        grid.addRow(2, new Label("Abstand"), spacing);
+
+        var line = form();
+        line.addRow(0, new Label("Anzahl"), lineCount);
+        line.addRow(1, new Label("von x"), lineX1, new Label("y"), lineY1);
+        line.addRow(2, new Label("bis x"), lineX2, new Label("y"), lineY2);
+
+        // je Zeile x und y, z.B. aus einer Tabelle exportiert
+        var browseButton = new Button("Durchsuchen …");
+        browseButton.setOnAction(event -> {
+            var fileChooser = new FileChooser();
+            fileChooser.getExtensionFilters().add(
+                    new FileChooser.ExtensionFilter("Koordinaten", "*.csv", "*.txt"));
+            var chosen = fileChooser.showOpenDialog(getDialogPane().getScene().getWindow());
+            if (chosen != null)
+                file.setText(chosen.toString());
+        });
+        file.setPrefColumnCount(30);
+        var fileBox = new VBox(5, new Label("Je Zeile x und y, getrennt durch Leerzeichen, Komma oder Semikolon"),
+                new HBox(5, file, browseButton));
+        fileBox.setPadding(new Insets(10));
+
+        tabs.getTabs().addAll(new Tab("Raster", grid), new Tab("Linie", line), new Tab("Datei", fileBox));
+        tabs.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
+        getDialogPane().setContent(new VBox(5, tabs, errorLabel));
+        getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        // erst beim Bestätigen erzeugen; bei einem Fehler bleibt der Dialog offen und zeigt ihn an
+        getDialogPane().lookupButton(ButtonType.OK).addEventFilter(ActionEvent.ACTION, event -> {
+            try {
+                generated = generate();
+            } catch (IOException | IllegalArgumentException e) {
+                errorLabel.setText(e.getMessage());
+                event.consume();
+            }
+        });
+        setResultConverter(button -> button == ButtonType.OK ? generated : null);
+    }
+
+    /**
+     * Erzeugt die Lampen nach dem gewählten Reiter
+     */
+    private List<Lamp> generate() throws IOException {
+        switch (tabs.getSelectionModel().getSelectedIndex()) {
+            case 0:
+                return LampGenerator.grid(columns.getValue(), rows.getValue(),
+                        gridX.getValue(), gridY.getValue(), spacing.getValue());
+            case 1:
+                return LampGenerator.line(lineCount.getValue(),
+                        lineX1.getValue(), lineY1.getValue(), lineX2.getValue(), lineY2.getValue());
+            default:
+                if (file.getText().isBlank())
+                    throw new IllegalArgumentException("Keine Datei ausgewählt");
+                return LampGenerator.read(Paths.get(file.getText().strip()));
+        }
+    }
+
+    private static Spinner<Double> coordinate(double value) {
+        var spinner = new Spinner<Double>(-MAX_COORDINATE, MAX_COORDINATE, Math.round(value), Lamp.RADIUS);
+        spinner.setEditable(true);
+        spinner.setPrefWidth(100);
+        return spinner;
+    }
+
+    private static GridPane form() {
+        var form = new GridPane();
+        form.setHgap(5);
+        form.setVgap(5);
+        form.setPadding(new Insets(10));
+        return form;
+    }
+}
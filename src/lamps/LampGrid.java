@@ -0,0 +1,239 @@
+package lamps;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Ein gleichmäßiges Gitter über die Mittelpunkte der Lampen eines {@link LampModel}s.
+ * Jede Zelle kennt die Plätze der Lampen, deren Mittelpunkt in ihr liegt.
+ * Dadurch müssen für eine Suche an einem Punkt oder in einem Rechteck nur die betroffenen Zellen
+ * durchsucht werden und nicht alle Lampen.
+ * Das Gitter hält sich über die Änderungen des Modells selbst aktuell.
+ */
+public class LampGrid implements LampModel.Listener {
+    /**
+     * die Kantenlänge einer Zelle
+     */
+    static final double CELL_SIZE = 64;
+
+    /**
+     * Die Plätze der Lampen in einer Zelle
+     */
+    private static class Cell {
+        int[] slots = new int[4];
+        int size = 0;
+
+        void add(int slot) {
+            if (size == slots.length)
+                slots = Arrays.copyOf(slots, size * 2);
+            slots[size++] = slot;
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size]; // die Reihenfolge ist egal
+                    return;
+                }
+            }
+        }
+    }
+
+    private final LampModel model;
+
+    private final HashMap<Long, Cell> cells = new HashMap<>();
+
+    /**
+     * die Zelle jedes eingetragenen Platzes
+     */
+    private long[] cellKeys = new long[0];
+    private final BitSet indexed = new BitSet();
+
+    /**
+     * die Zellen, in denen je Lampen lagen; der Bereich wird nur größer, begrenzt aber unbegrenzte Rechtecke
+     */
+    private int minCellX = Integer.MAX_VALUE, minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE, maxCellY = Integer.MIN_VALUE;
+
+    /**
+     * Erstellt das Gitter für alle Lampen des Modells und hält es aktuell
+     * @param model das Modell
+     */
+    public LampGrid(LampModel model) {
+        this.model = model;
+
+        var used = model.getUsedSlots();
+        for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+            insert(slot);
+        }
+
+        model.addListener(this);
+    }
+
+    @Override
+    public void lampChanged(int slot, int properties) {
+        if ((properties & LampModel.REMOVED) != 0) {
+            remove(slot);
+        } else if ((properties & LampModel.ADDED) != 0) {
+            insert(slot);
+        } else if ((properties & LampModel.POSITION) != 0 && indexed.get(slot)) {
+            // nur umtragen, wenn die Lampe die Zelle gewechselt hat
+            var key = key(model.getX(slot), model.getY(slot));
+            if (key != cellKeys[slot]) {
+                remove(slot);
+                insert(slot);
+            }
+        }
+    }
+
+    /**
+     * Findet die Lampe, deren Kreis den Punkt enthält.
+     * Überlappen sich mehrere Lampen, wird die mit dem nächsten Mittelpunkt gewählt.
+     * @param x die x-Koordinate
+     * @param y die y-Koordinate
+     * @param radius der Radius der Lampen
+     * @return der Platz der Lampe oder -1
+     */
+    public int slotAt(double x, double y, double radius) {
+        int minCellX = cell(x - radius), maxCellX = cell(x + radius);
+        int minCellY = cell(y - radius), maxCellY = cell(y + radius);
+
+        int best = -1;
+        double bestDistance = radius * radius;
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                var cell = cells.get(key(cellX, cellY));
+                if (cell == null)
+                    continue;
+
+                for (int i = 0; i < cell.size; i++) {
+                    var slot = cell.slots[i];
+                    var dx = x - model.getX(slot);
+                    var dy = y - model.getY(slot);
+                    var distance = dx * dx + dy * dy;
+                    if (distance <= bestDistance) {
+                        best = slot;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Ermittelt alle Lampen, deren Mittelpunkt im Rechteck liegt
+     * @param minX linke Kante
+     * @param minY obere Kante
+     * @param maxX rechte Kante
+     * @param maxY untere Kante
+     * @param result hier werden die Plätze der Lampen gesetzt
+     */
+    public void collect(double minX, double minY, double maxX, double maxY, BitSet result) {
+        // nur die Zellen, in denen Lampen liegen können, so bleiben auch unbegrenzte Rechtecke günstig
+        long fromX = Math.max(cell(minX), minCellX), toX = Math.min(cell(maxX), maxCellX);
+        long fromY = Math.max(cell(minY), minCellY), toY = Math.min(cell(maxY), maxCellY);
+        if (fromX > toX || fromY > toY)
+            return;
+
+        // große Rechtecke über wenigen belegten Zellen: lieber die belegten Zellen durchgehen
+        if ((double) (toX - fromX + 1) * (toY - fromY + 1) > cells.size()) {
+            for (var cell : cells.values()) {
+                collect(cell, minX, minY, maxX, maxY, result);
+            }
+            return;
+        }
+
+        for (long cellX = fromX; cellX <= toX; cellX++) {
+            for (long cellY = fromY; cellY <= toY; cellY++) {
+                var cell = cells.get(key((int) cellX, (int) cellY));
+                if (cell != null)
+                    collect(cell, minX, minY, maxX, maxY, result);
+            }
+        }
+    }
+
+    /**
+     * Schätzt, wie viele Lampen im Rechteck liegen, ohne ihre Positionen zu prüfen:
+     * gezählt werden alle Lampen der Zellen, die das Rechteck berührt
+     * @param minX linke Kante
+     * @param minY obere Kante
+     * @param maxX rechte Kante
+     * @param maxY untere Kante
+     * @return höchstens so viele Lampen liegen im Rechteck
+     */
+    public int estimate(double minX, double minY, double maxX, double maxY) {
+        long fromX = Math.max(cell(minX), minCellX), toX = Math.min(cell(maxX), maxCellX);
+        long fromY = Math.max(cell(minY), minCellY), toY = Math.min(cell(maxY), maxCellY);
+        if (fromX > toX || fromY > toY)
+            return 0;
+
+        // über sehr viele Zellen lohnt sich das Zählen nicht, dann höchstens alle Lampen
+        if ((double) (toX - fromX + 1) * (toY - fromY + 1) > cells.size())
+            return model.size();
+
+        var count = 0;
+        for (long cellX = fromX; cellX <= toX; cellX++) {
+            for (long cellY = fromY; cellY <= toY; cellY++) {
+                var cell = cells.get(key((int) cellX, (int) cellY));
+                if (cell != null)
+                    count += cell.size;
+            }
+        }
+        return count;
+    }
+
+    private void collect(Cell cell, double minX, double minY, double maxX, double maxY, BitSet result) {
+        for (int i = 0; i < cell.size; i++) {
+            var slot = cell.slots[i];
+            var x = model.getX(slot);
+            var y = model.getY(slot);
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+                result.set(slot);
+        }
+    }
+
+    private void insert(int slot) {
+        if (slot >= cellKeys.length)
+            cellKeys = Arrays.copyOf(cellKeys, Math.max(slot + 1, model.capacity()));
+
+        var cellX = cell(model.getX(slot));
+        var cellY = cell(model.getY(slot));
+        minCellX = Math.min(minCellX, cellX);
+        minCellY = Math.min(minCellY, cellY);
+        maxCellX = Math.max(maxCellX, cellX);
+        maxCellY = Math.max(maxCellY, cellY);
+
+        var key = key(cellX, cellY);
+        cells.computeIfAbsent(key, k -> new Cell()).add(slot);
+        cellKeys[slot] = key;
+        indexed.set(slot);
+    }
+
+    private void remove(int slot) {
+        if (!indexed.get(slot))
+            return;
+
+        var key = cellKeys[slot];
+        var cell = cells.get(key);
+        cell.remove(slot);
+        if (cell.size == 0)
+            cells.remove(key);
+        indexed.clear(slot);
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static long key(double x, double y) {
+        return key(cell(x), cell(y));
+    }
+
+    private static long key(int cellX, int cellY) {
+        // Long.hashCode würde x ^ y liefern und viele Zellen gleich einordnen,
+        // die Multiplikation mit einer ungeraden Zahl verteilt die Schlüssel, ohne dass zwei gleich werden
+        return (((long) cellX << 32) | (cellY & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+    }
+}
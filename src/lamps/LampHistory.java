@@ -0,0 +1,612 @@
+package lamps;
+
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Die Änderungen an den Lampen und Gruppen eines {@link LampsContainer}s zum Rückgängigmachen und Wiederholen.
+ * <p>
+ * Jede Aktion des Benutzers wird als ein einziger, kompakter Eintrag gespeichert, auch wenn sie viele Lampen betrifft:
+ * geschaltete oder verschobene Lampen als Bitmenge ihrer Plätze, gedimmte zusätzlich mit einem int je Lampe,
+ * entfernte Lampen als Bereiche in der Liste.
+ * Rückgängig gemacht wird mit denselben Massenoperationen des Modells, mit denen die Aktion ausgeführt wurde.
+ * Wiederhergestellte Lampen erhalten ihren alten Platz, daher bleiben ältere Einträge gültig.
+ * <p>
+ * Die Länge des Verlaufs ist durch den geschätzten Speicherbedarf der Einträge begrenzt, nicht durch ihre Anzahl;
+ * wird er überschritten, fallen die ältesten Einträge weg.
+ */
+public class LampHistory {
+    /**
+     * der Speicherbedarf, bis zu dem ältere Einträge behalten werden
+     */
+    static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    /**
+     * geschätzter Speicherbedarf einer entfernten Lampe, die der Verlauf am Leben hält (mit ihrem eigenen Modell)
+     */
+    private static final long RETAINED_LAMP_BYTES = 320;
+
+    private static final long ENTRY_BYTES = 64;
+
+    /**
+     * Ein Eintrag im Verlauf
+     */
+    public interface Edit {
+        /**
+         * Macht die Änderung rückgängig
+         */
+        void undo();
+
+        /**
+         * Führt die Änderung erneut aus
+         */
+        void redo();
+
+        /**
+         * Gibt den geschätzten Speicherbedarf des Eintrags zurück
+         * @return der Speicherbedarf in Bytes
+         */
+        long getSize();
+    }
+
+    private final LampsContainer container;
+
+    private final ArrayDeque<Edit> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<Edit> redoStack = new ArrayDeque<>();
+    private long size = 0;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /**
+     * ob gerade ein Eintrag angewendet wird, dabei werden keine neuen Einträge aufgenommen
+     */
+    private boolean applying = false;
+
+    private final ReadOnlyBooleanWrapper undoable = new ReadOnlyBooleanWrapper(this, "undoable", false);
+    private final ReadOnlyBooleanWrapper redoable = new ReadOnlyBooleanWrapper(this, "redoable", false);
+
+    LampHistory(LampsContainer container) {
+        this.container = container;
+    }
+
+    /**
+     * Nimmt eine ausgeführte Änderung auf, die wiederholbaren Änderungen verfallen dabei
+     * @param edit die Änderung
+     */
+    public void add(Edit edit) {
+        if (applying)
+            return;
+
+        redoStack.forEach(e -> size -= e.getSize());
+        redoStack.clear();
+        undoStack.push(edit);
+        size += edit.getSize();
+
+        // die ältesten Einträge verwerfen, der neueste bleibt in jedem Fall
+        while (size > memoryBudget && undoStack.size() > 1) {
+            size -= undoStack.removeLast().getSize();
+        }
+        update();
+    }
+
+    /**
+     * Macht die letzte Änderung rückgängig
+     */
+    public void undo() {
+        var edit = undoStack.poll();
+        if (edit == null)
+            return;
+
+        apply(edit::undo);
+        redoStack.push(edit);
+        update();
+    }
+
+    /**
+     * Führt die zuletzt rückgängig gemachte Änderung erneut aus
+     */
+    public void redo() {
+        var edit = redoStack.poll();
+        if (edit == null)
+            return;
+
+        apply(edit::redo);
+        undoStack.push(edit);
+        update();
+    }
+
+    private void apply(Runnable action) {
+        applying = true;
+        try {
+            container.batch(action);
+        } finally {
+            applying = false;
+        }
+    }
+
+    /**
+     * Verwirft alle Einträge, z.B. nach dem Öffnen einer Datei
+     */
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        size = 0;
+        update();
+    }
+
+    private void update() {
+        undoable.set(!undoStack.isEmpty());
+        redoable.set(!redoStack.isEmpty());
+    }
+
+    /**
+     * Gibt den geschätzten Speicherbedarf aller Einträge zurück
+     * @return der Speicherbedarf in Bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gibt den Speicherbedarf zurück, bis zu dem Einträge behalten werden
+     * @return der Speicherbedarf in Bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Legt fest, bis zu welchem Speicherbedarf Einträge behalten werden
+     * @param memoryBudget der Speicherbedarf in Bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+
+        // zuerst die ältesten Einträge, dann die am weitesten entfernten wiederholbaren
+        while (size > memoryBudget && !undoStack.isEmpty()) {
+            size -= undoStack.removeLast().getSize();
+        }
+        while (size > memoryBudget && !redoStack.isEmpty()) {
+            size -= redoStack.removeLast().getSize();
+        }
+        update();
+    }
+
+    /**
+     * Gibt die Eigenschaft zurück, ob es etwas rückgängig zu machen gibt
+     * @return die Eigenschaft
+     */
+    public ReadOnlyBooleanProperty undoableProperty() {
+        return undoable.getReadOnlyProperty();
+    }
+
+    /**
+     * Gibt die Eigenschaft zurück, ob es etwas zu wiederholen gibt
+     * @return die Eigenschaft
+     */
+    public ReadOnlyBooleanProperty redoableProperty() {
+        return redoable.getReadOnlyProperty();
+    }
+
+    private static long bitsSize(BitSet bits) {
+        return bits.size() / 8;
+    }
+
+    // Einträge
+
+    /**
+     * Lampen wurden umgeschaltet, jede geschaltete Lampe hat danach den umgekehrten Zustand
+     */
+    static class SwitchEdit implements Edit {
+        private final LampModel model;
+        private final BitSet switched;
+
+        /**
+         * @param model das Modell
+         * @param switched die Plätze der tatsächlich geschalteten Lampen
+         */
+        SwitchEdit(LampModel model, BitSet switched) {
+            this.model = model;
+            this.switched = switched;
+        }
+
+        @Override
+        public void undo() {
+            model.toggle(switched);
+        }
+
+        @Override
+        public void redo() {
+            model.toggle(switched);
+        }
+
+        @Override
+        public long getSize() {
+            return ENTRY_BYTES + bitsSize(switched);
+        }
+    }
+
+    /**
+     * Lampen wurden auf dem angezeigten und auf nicht geladenen Stockwerken umgeschaltet.
+     * Beim Wechsel des Stockwerks wird der Verlauf geleert, die Stockwerke bleiben also so lange nicht geladen.
+     */
+    static class FloorSwitchEdit implements Edit {
+        private final SwitchEdit loaded;
+        private final LampFloor[] floors;
+        private final BitSet[] switched;
+        private final Runnable floorsChanged;
+
+        /**
+         * @param loaded die Änderung auf dem angezeigten Stockwerk
+         * @param floors die nicht geladenen Stockwerke
+         * @param switched je Stockwerk die Stellen der tatsächlich geschalteten Lampen
+         * @param floorsChanged wird nach jeder Änderung der Stockwerke aufgerufen, z.B. für einen neuen Stand im Journal
+         */
+        FloorSwitchEdit(SwitchEdit loaded, LampFloor[] floors, BitSet[] switched, Runnable floorsChanged) {
+            this.loaded = loaded;
+            this.floors = floors;
+            this.switched = switched;
+            this.floorsChanged = floorsChanged;
+        }
+
+        @Override
+        public void undo() {
+            loaded.undo();
+            toggleFloors();
+        }
+
+        @Override
+        public void redo() {
+            loaded.redo();
+            toggleFloors();
+        }
+
+        private void toggleFloors() {
+            for (int i = 0; i < floors.length; i++) {
+                floors[i].toggle(switched[i]);
+            }
+            floorsChanged.run();
+        }
+
+        @Override
+        public long getSize() {
+            var size = loaded.getSize();
+            for (var bits : switched) {
+                size += bitsSize(bits);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Lampen wurden um denselben Versatz verschoben
+     */
+    static class MoveEdit implements Edit {
+        private final LampModel model;
+        private final BitSet slots;
+        private final float dx, dy;
+
+        MoveEdit(LampModel model, BitSet slots, float dx, float dy) {
+            this.model = model;
+            this.slots = slots;
+            this.dx = dx;
+            this.dy = dy;
+        }
+
+        @Override
+        public void undo() {
+            model.move(slots, -dx, -dy);
+        }
+
+        @Override
+        public void redo() {
+            model.move(slots, dx, dy);
+        }
+
+        @Override
+        public long getSize() {
+            return ENTRY_BYTES + bitsSize(slots);
+        }
+    }
+
+    /**
+     * Helligkeit oder Farbtemperatur von Lampen wurden geändert.
+     * Alter und neuer Wert werden je Lampe gepackt in einem int gemerkt, in der Reihenfolge der Plätze.
+     */
+    static class LevelEdit implements Edit {
+        private final LampModel model;
+        private final BitSet slots;
+        private final int[] oldLevels, newLevels;
+
+        LevelEdit(LampModel model, BitSet slots, int[] oldLevels, int[] newLevels) {
+            this.model = model;
+            this.slots = slots;
+            this.oldLevels = oldLevels;
+            this.newLevels = newLevels;
+        }
+
+        @Override
+        public void undo() {
+            model.setLevels(slots, oldLevels);
+        }
+
+        @Override
+        public void redo() {
+            model.setLevels(slots, newLevels);
+        }
+
+        @Override
+        public long getSize() {
+            return ENTRY_BYTES + bitsSize(slots) + 4L * (oldLevels.length + newLevels.length);
+        }
+    }
+
+    /**
+     * Lampen wurden einer Gruppe zugeordnet. Die alten Gruppen werden als eine Bitmenge je Gruppe gemerkt.
+     */
+    static class AssignEdit implements Edit {
+        private final LampModel model;
+        private final HashMap<Group, BitSet> oldGroups;
+        private final Group group;
+
+        /**
+         * Merkt sich die Gruppen der Lampen, bevor sie der neuen Gruppe zugeordnet werden
+         * @param model das Modell
+         * @param slots die Plätze der Lampen
+         * @param group die neue Gruppe oder null
+         */
+        AssignEdit(LampModel model, BitSet slots, Group group) {
+            this.model = model;
+            this.group = group;
+
+            oldGroups = new HashMap<>();
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                var oldGroup = model.getGroup(slot);
+                if (oldGroup != group)
+                    oldGroups.computeIfAbsent(oldGroup, g -> new BitSet()).set(slot);
+            }
+        }
+
+        /**
+         * Gibt zurück, ob die Zuordnung eine Lampe verändert
+         * @return ob sich etwas ändert
+         */
+        boolean isEmpty() {
+            return oldGroups.isEmpty();
+        }
+
+        @Override
+        public void undo() {
+            oldGroups.forEach((oldGroup, slots) -> assign(slots, oldGroup));
+        }
+
+        @Override
+        public void redo() {
+            oldGroups.values().forEach(slots -> assign(slots, group));
+        }
+
+        private void assign(BitSet slots, Group target) {
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                model.getLamp(slot).setGroup(target);
+            }
+        }
+
+        @Override
+        public long getSize() {
+            var size = ENTRY_BYTES;
+            for (var slots : oldGroups.values()) {
+                size += ENTRY_BYTES + bitsSize(slots);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Lampen wurden hinzugefügt oder entfernt.
+     * Gemerkt werden die Lampen selbst, ihre Stellen in der Liste und ihre Plätze im Modell.
+     */
+    static class LampsEdit implements Edit {
+        private final LampsContainer container;
+        private final boolean added;
+
+        // aufsteigend nach der Stelle in der Liste
+        private final int[] indices;
+        private final Lamp[] lamps;
+        private final int[] slots;
+
+        /**
+         * @param container der Container
+         * @param added ob die Lampen hinzugefügt (sonst entfernt) wurden
+         * @param indices die Stellen der Lampen in der Liste, während sie darin sind, aufsteigend
+         * @param lamps die Lampen
+         * @param slots die Plätze der Lampen im Modell, während sie darin sind
+         */
+        LampsEdit(LampsContainer container, boolean added, int[] indices, Lamp[] lamps, int[] slots) {
+            this.container = container;
+            this.added = added;
+            this.indices = indices;
+            this.lamps = lamps;
+            this.slots = slots;
+        }
+
+        @Override
+        public void undo() {
+            if (added)
+                container.deleteLamps(indices);
+            else
+                container.insertLamps(indices, lamps, slots);
+        }
+
+        @Override
+        public void redo() {
+            if (added)
+                container.insertLamps(indices, lamps, slots);
+            else
+                container.deleteLamps(indices);
+        }
+
+        @Override
+        public long getSize() {
+            return ENTRY_BYTES + lamps.length * (4 + 4 + 8 + RETAINED_LAMP_BYTES);
+        }
+    }
+
+    /**
+     * Gruppen wurden mit allen Untergruppen entfernt und ihre Lampen aus ihnen herausgenommen
+     */
+    static class RemoveGroupsEdit implements Edit {
+        private final GroupTree tree;
+        private final Group[] removed;
+
+        // aufsteigend nach der Stelle unter der Obergruppe
+        private final Group[] placed;
+        private final Group[] parents;
+        private final int[] childIndices;
+
+        private final AssignEdit lamps;
+
+        /**
+         * @param tree der Baum mit der Liste aller Gruppen
+         * @param removed die entfernten Gruppen, jede Obergruppe vor ihren Untergruppen
+         * @param placed die entfernten Gruppen, aufsteigend nach ihrer Stelle unter ihrer Obergruppe
+         * @param parents die Obergruppen dazu
+         * @param childIndices die Stellen unter den Obergruppen
+         * @param lamps die Änderung der Lampen
+         */
+        RemoveGroupsEdit(GroupTree tree, Group[] removed,
+                         Group[] placed, Group[] parents, int[] childIndices, AssignEdit lamps) {
+            this.tree = tree;
+            this.removed = removed;
+            this.placed = placed;
+            this.parents = parents;
+            this.childIndices = childIndices;
+            this.lamps = lamps;
+        }
+
+        @Override
+        public void undo() {
+            // mit einer einzigen Änderung der Liste und jeder Liste von Untergruppen: die Gruppen werden ans Ende ihrer
+            // Obergruppen eingefügt und nur umgehängt, wo sie dort nicht schon an ihrer Stelle stehen;
+            // aufsteigend eingehängt, steht davor unter jeder Obergruppe schon alles an seinem Platz
+            tree.batch(() -> {
+                for (int i = 0; i < placed.length; i++) {
+                    placed[i].setParent(parents[i]);
+                }
+                tree.getGroups().addAll(Arrays.asList(removed));
+                for (int i = 0; i < placed.length; i++) {
+                    var siblings = parents[i] == null ? tree.getRoots() : parents[i].getChildren();
+                    if (childIndices[i] >= siblings.size() || siblings.get(childIndices[i]) != placed[i])
+                        tree.move(placed[i], parents[i], childIndices[i]);
+                }
+            });
+            lamps.undo();
+        }
+
+        @Override
+        public void redo() {
+            lamps.redo();
+            var toRemove = Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>(removed.length));
+            toRemove.addAll(Arrays.asList(removed));
+            tree.getGroups().removeAll(toRemove);
+        }
+
+        @Override
+        public long getSize() {
+            return ENTRY_BYTES + removed.length * (2 * (4 + 8 + 8) + ENTRY_BYTES) + lamps.getSize();
+        }
+    }
+
+    /**
+     * Eine Gruppe wurde mit ihren Untergruppen umgehängt
+     */
+    static class MoveGroupEdit implements Edit {
+        private final GroupTree tree;
+        private final Group group;
+        private final Group oldParent, newParent;
+        private final int oldIndex, newIndex;
+
+        /**
+         * @param tree der Baum
+         * @param group die Gruppe
+         * @param oldParent die bisherige Obergruppe oder null
+         * @param oldIndex die bisherige Stelle darunter
+         * @param newParent die neue Obergruppe oder null
+         * @param newIndex die neue Stelle darunter
+         */
+        MoveGroupEdit(GroupTree tree, Group group, Group oldParent, int oldIndex, Group newParent, int newIndex) {
+            this.tree = tree;
+            this.group = group;
+            this.oldParent = oldParent;
+            this.oldIndex = oldIndex;
+            this.newParent = newParent;
+            this.newIndex = newIndex;
+        }
+
+        @Override
+        public void undo() {
+            tree.move(group, oldParent, oldIndex);
+        }
+
+        @Override
+        public void redo() {
+            tree.move(group, newParent, newIndex);
+        }
+
+        @Override
+        public long getSize() {
+            return ENTRY_BYTES;
+        }
+    }
+
+    /**
+     * Eine oder mehrere Gruppen wurden umbenannt
+     */
+    static class RenameEdit implements Edit {
+        private final Group[] groups;
+        private final String[] oldNames, newNames;
+
+        RenameEdit(Group group, String oldName, String newName) {
+            this(new Group[]{group}, new String[]{oldName}, new String[]{newName});
+        }
+
+        /**
+         * @param groups die umbenannten Gruppen
+         * @param oldNames die bisherigen Namen dazu
+         * @param newNames die neuen Namen dazu
+         */
+        RenameEdit(Group[] groups, String[] oldNames, String[] newNames) {
+            this.groups = groups;
+            this.oldNames = oldNames;
+            this.newNames = newNames;
+        }
+
+        @Override
+        public void undo() {
+            for (int i = 0; i < groups.length; i++) {
+                groups[i].setName(oldNames[i]);
+            }
+        }
+
+        @Override
+        public void redo() {
+            for (int i = 0; i < groups.length; i++) {
+                groups[i].setName(newNames[i]);
+            }
+        }
+
+        @Override
+        public long getSize() {
+            long size = ENTRY_BYTES;
+            for (int i = 0; i < groups.length; i++) {
+                size += 8 + 2L * (oldNames[i].length() + newNames[i].length());
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,829 @@
+package lamps;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Schreibt jede Änderung an den Lampen und Gruppen fortlaufend in ein Journal neben einer {@link LayoutSnapshot}-Datei.
+ * Beim Öffnen wird das Journal auf den gespeicherten Stand angewendet, sodass nach einem Absturz nichts verloren geht.
+ * <p>
+ * Die Einträge werden im JavaFX-Thread nur in einen Puffer geschrieben.
+ * Ein eigener Thread schreibt alle bis dahin gesammelten Einträge gemeinsam in die Datei und wartet, bis sie auf dem
+ * Datenträger liegen; was währenddessen anfällt, wird mit dem nächsten Schreiben übernommen.
+ * Wird das Journal zu groß, wird der aktuelle Zustand im Hintergrund als neuer Stand gespeichert
+ * und das Journal neu begonnen.
+ * <p>
+ * Aufgezeichnet werden nur die Lampen des angezeigten Stockwerks. Wird ein nicht geladenes {@link LampFloor}
+ * geändert, muss mit {@link #compact()} ein neuer Stand angefordert werden.
+ * Während eines Effekts wird das Schalten mit {@link #holdSwitches()} zurückgehalten, sonst entstünden in jedem Bild
+ * Einträge für viele Lampen; aufgezeichnet wird dann nur der Zustand am Ende.
+ * <p>
+ * Aufbau (Big Endian):
+ * <pre>
+ * int    MAGIC ("LJRN")
+ * int    Version
+ * long   Kennung des Stands, auf den sich das Journal bezieht
+ * danach Blöcke: int Länge, int CRC32, Einträge
+ * </pre>
+ * Lampen und Gruppen werden über Nummern angesprochen: zu Beginn ihre Stelle im Stand, neue erhalten die nächste Nummer.
+ */
+public class LampJournal implements LampModel.Listener, GroupTree.Listener {
+    private static final int MAGIC = 0x4C4A524E; // "LJRN"
+    private static final int VERSION = 5;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    /**
+     * ab dieser Größe wird das Journal in einen neuen Stand übernommen
+     */
+    private static final long COMPACTION_THRESHOLD = 32 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    // die Arten der Einträge
+
+    private static final byte DEFINE_GROUP = 1; // Gruppe, Name (bis Version 3)
+    private static final byte RENAME_GROUP = 2; // Gruppe, Name
+    private static final byte REMOVE_GROUP = 3; // Gruppe
+    private static final byte ADD_LAMP = 4; // Lampe, x, y, an, Gruppe
+    private static final byte REMOVE_LAMP = 5; // Lampe
+    private static final byte SWITCH_OFF = 6; // Lampe
+    private static final byte SWITCH_ON = 7; // Lampe
+    private static final byte SET_GROUP = 8; // Lampe, Gruppe
+    private static final byte MOVE = 9; // Lampe, x, y
+    private static final byte MOVE_GROUP = 10; // Gruppe, Obergruppe, Stelle (ab Version 2)
+    private static final byte SET_LEVEL = 11; // Lampe, Helligkeit und Farbtemperatur (ab Version 3)
+    private static final byte SET_LEVELS = 12; // erste Lampe, Anzahl, Helligkeit und Farbtemperatur (ab Version 3)
+    private static final byte DEFINE_GROUP_ID = 13; // Gruppe, Kennung der Gruppe, Name (ab Version 4)
+    private static final byte SWITCH_RUN = 14; // erste Lampe, Anzahl, an (ab Version 5)
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final GroupTree tree;
+    private final ObservableList<Group> groups;
+    private final LampsContainer container;
+    private final LampModel model;
+    private final List<LampFloor> floors;
+
+    // nur im JavaFX-Thread
+
+    /**
+     * die Nummer der Lampe auf jedem Platz des Modells
+     */
+    private int[] lampIds;
+    private int nextLampId;
+
+    private final IdentityHashMap<Group, Integer> groupIds = new IdentityHashMap<>();
+    private int nextGroupId;
+
+    /**
+     * die Plätze der Lampen, deren Schalten zurückgehalten wird, oder null
+     */
+    private BitSet heldSwitches = null;
+
+    /**
+     * ob die Änderungen an den Lampen gerade nicht aufgezeichnet werden, siehe {@link #compactAfter(Runnable)}
+     */
+    private boolean suspended = false;
+
+    private final ListChangeListener<Group> groupsListener = this::groupsChanged;
+    private final ChangeListener<String> nameListener = this::nameChanged;
+
+    // zwischen den Threads, geschützt durch lock
+
+    private final Object lock = new Object();
+
+    /**
+     * die noch nicht geschriebenen Blöcke ({@link ByteBuffer}) und Stände ({@link LayoutSnapshot.Columns})
+     */
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+
+    /**
+     * hierhin werden die Einträge geschrieben
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * ein geschriebener Puffer zur Wiederverwendung, oder null
+     */
+    private ByteBuffer spare = null;
+
+    private boolean closed = false;
+    private IOException failure = null;
+
+    // nur im Schreib-Thread
+
+    private FileChannel channel;
+    private long size;
+    private final CRC32 crc = new CRC32();
+    private final Thread writer;
+
+    /**
+     * ob ein neuer Stand angefordert, aber noch nicht geschrieben wurde
+     */
+    private boolean compactionPending = false;
+
+    private LampJournal(Path snapshotPath, long stamp, GroupTree tree, LampsContainer container,
+                        List<LampFloor> floors) throws IOException {
+        this.snapshotPath = snapshotPath;
+        this.journalPath = journalPath(snapshotPath);
+        this.tree = tree;
+        this.groups = tree.getGroups();
+        this.container = container;
+        this.model = container.getModel();
+        this.floors = floors;
+
+        channel = create(stamp);
+        size = HEADER_SIZE;
+        renumber(LayoutSnapshot.groupTable(tree.getGroupsInOrder(), container.getLamps()));
+
+        model.addListener(this);
+        groups.addListener(groupsListener);
+        tree.addListener(this);
+
+        writer = new Thread(this::run, "Lampen-Journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Beginnt ein neues, leeres Journal für einen gerade gespeicherten oder geöffneten Stand.
+     * Die Gruppen und Lampen müssen dem Stand entsprechen.
+     * @param snapshotPath die Datei des Stands
+     * @param stamp die Kennung des Stands
+     * @param tree die Gruppen, Änderungen daran und am Baum werden aufgezeichnet
+     * @param container der Container, Änderungen an seinen Lampen werden aufgezeichnet
+     * @param floors die Stockwerke, sie werden mit jedem neuen Stand gespeichert
+     * @return das Journal
+     * @throws IOException wenn das Journal nicht angelegt werden kann
+     */
+    public static LampJournal start(Path snapshotPath, long stamp, GroupTree tree, LampsContainer container,
+                                    List<LampFloor> floors) throws IOException {
+        return new LampJournal(snapshotPath, stamp, tree, container, floors);
+    }
+
+    /**
+     * Gibt die Datei des Journals zu einer Datei eines Stands zurück
+     * @param snapshotPath die Datei des Stands
+     * @return die Datei des Journals
+     */
+    public static Path journalPath(Path snapshotPath) {
+        return snapshotPath.resolveSibling(snapshotPath.getFileName() + ".journal");
+    }
+
+    /**
+     * Beendet die Aufzeichnung, schreibt alle ausstehenden Einträge und wartet auf den Schreib-Thread
+     * @throws IOException wenn beim Schreiben ein Fehler aufgetreten ist
+     */
+    public void close() throws IOException {
+        releaseSwitches();
+        model.removeListener(this);
+        groups.removeListener(groupsListener);
+        tree.removeListener(this);
+        for (var group : groupIds.keySet()) {
+            group.nameProperty().removeListener(nameListener);
+        }
+
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (lock) {
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    // Aufzeichnen, im JavaFX-Thread
+
+    /**
+     * Hält das Schalten von Lampen zurück, bis {@link #releaseSwitches()} aufgerufen wird, z.B. während eines Effekts
+     */
+    public void holdSwitches() {
+        synchronized (lock) {
+            if (heldSwitches == null)
+                heldSwitches = new BitSet();
+        }
+    }
+
+    /**
+     * Zeichnet den aktuellen Zustand aller seit {@link #holdSwitches()} geschalteten Lampen auf
+     * und zeichnet das Schalten wieder sofort auf
+     */
+    public void releaseSwitches() {
+        synchronized (lock) {
+            if (heldSwitches == null)
+                return;
+
+            var held = heldSwitches;
+            heldSwitches = null;
+            recordSwitches(held);
+        }
+    }
+
+    @Override
+    public void lampChanged(int slot, int properties) {
+        if (suspended)
+            return;
+        synchronized (lock) {
+            record(slot, properties);
+        }
+    }
+
+    @Override
+    public void lampsChanged(BitSet slots, int properties) {
+        if (suspended)
+            return;
+        // eine Massenoperation wird am Stück in den Puffer geschrieben
+        synchronized (lock) {
+            if (properties == LampModel.LEVEL) {
+                recordLevels(slots);
+                return;
+            }
+            if (properties == LampModel.ON) {
+                if (heldSwitches != null)
+                    heldSwitches.or(slots);
+                else
+                    recordSwitches(slots);
+                return;
+            }
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                record(slot, properties);
+            }
+        }
+    }
+
+    /**
+     * Schreibt gedimmte Lampen als Folgen aufeinanderfolgender Nummern mit demselben Wert,
+     * so bleibt das Journal auch klein, wenn ein Regler in jedem Bild viele Lampen ändert
+     */
+    private void recordLevels(BitSet slots) {
+        int first = -1, count = 0, level = 0;
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            var id = lampIds[slot];
+            var slotLevel = model.getLevel(slot);
+            if (count > 0 && id == first + count && slotLevel == level) {
+                count++;
+                continue;
+            }
+            putLevels(first, count, level);
+            first = id;
+            count = 1;
+            level = slotLevel;
+        }
+        putLevels(first, count, level);
+    }
+
+    /**
+     * Schreibt geschaltete Lampen wie {@link #recordLevels(BitSet)} als Folgen mit demselben Zustand
+     */
+    private void recordSwitches(BitSet slots) {
+        int first = -1, count = 0;
+        var on = false;
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            var id = lampIds[slot];
+            var slotOn = model.isOn(slot);
+            if (count > 0 && id == first + count && slotOn == on) {
+                count++;
+                continue;
+            }
+            putSwitches(first, count, on);
+            first = id;
+            count = 1;
+            on = slotOn;
+        }
+        putSwitches(first, count, on);
+    }
+
+    private void putSwitches(int first, int count, boolean on) {
+        if (count == 1) {
+            ensure(1 + 4);
+            buffer.put(on ? SWITCH_ON : SWITCH_OFF).putInt(first);
+        } else if (count > 1) {
+            ensure(1 + 4 + 4 + 1);
+            buffer.put(SWITCH_RUN).putInt(first).putInt(count).put((byte) (on ? 1 : 0));
+        }
+    }
+
+    private void putLevels(int first, int count, int level) {
+        if (count == 1) {
+            ensure(1 + 4 + 4);
+            buffer.put(SET_LEVEL).putInt(first).putInt(level);
+        } else if (count > 1) {
+            ensure(1 + 4 + 4 + 4);
+            buffer.put(SET_LEVELS).putInt(first).putInt(count).putInt(level);
+        }
+    }
+
+    private void record(int slot, int properties) {
+        if ((properties & LampModel.ADDED) != 0) {
+            if (slot >= lampIds.length)
+                lampIds = Arrays.copyOf(lampIds, Math.max(slot + 1, model.capacity()));
+            var id = nextLampId++;
+            lampIds[slot] = id;
+
+            var group = groupId(model.getGroup(slot));
+            ensure(1 + 4 + 4 + 4 + 1 + 4);
+            buffer.put(ADD_LAMP).putInt(id)
+                    .putFloat(model.getX(slot)).putFloat(model.getY(slot))
+                    .put((byte) (model.isOn(slot) ? 1 : 0))
+                    .putInt(group);
+            if (model.getLevel(slot) != LampModel.DEFAULT_LEVEL)
+                putLevels(id, 1, model.getLevel(slot));
+            return;
+        }
+
+        var id = lampIds[slot];
+        if ((properties & LampModel.REMOVED) != 0) {
+            if (heldSwitches != null)
+                heldSwitches.clear(slot); // der Platz wird womöglich von einer anderen Lampe belegt
+            ensure(1 + 4);
+            buffer.put(REMOVE_LAMP).putInt(id);
+            return;
+        }
+        if ((properties & LampModel.ON) != 0) {
+            if (heldSwitches != null) {
+                heldSwitches.set(slot);
+            } else {
+                ensure(1 + 4);
+                buffer.put(model.isOn(slot) ? SWITCH_ON : SWITCH_OFF).putInt(id);
+            }
+        }
+        if ((properties & LampModel.GROUP) != 0) {
+            var group = groupId(model.getGroup(slot));
+            ensure(1 + 4 + 4);
+            buffer.put(SET_GROUP).putInt(id).putInt(group);
+        }
+        if ((properties & LampModel.POSITION) != 0) {
+            ensure(1 + 4 + 4 + 4);
+            buffer.put(MOVE).putInt(id).putFloat(model.getX(slot)).putFloat(model.getY(slot));
+        }
+        if ((properties & LampModel.LEVEL) != 0)
+            putLevels(id, 1, model.getLevel(slot));
+    }
+
+    private void groupsChanged(ListChangeListener.Change<? extends Group> change) {
+        synchronized (lock) {
+            while (change.next()) {
+                for (var group : change.getRemoved()) {
+                    var id = groupIds.remove(group);
+                    if (id != null) {
+                        group.nameProperty().removeListener(nameListener);
+                        ensure(1 + 4);
+                        buffer.put(REMOVE_GROUP).putInt(id);
+                    }
+                }
+                for (var group : change.getAddedSubList()) {
+                    groupId(group);
+                    if (group.getParent() != null)
+                        putMove(group);
+                }
+            }
+        }
+    }
+
+    /**
+     * Zeichnet das Umhängen einer Gruppe auf, z.B. über {@link GroupTree#move(Group, Group, int)}
+     */
+    @Override
+    public void groupMoved(Group group) {
+        synchronized (lock) {
+            if (groupIds.containsKey(group))
+                putMove(group);
+        }
+    }
+
+    private void putMove(Group group) {
+        var id = groupId(group);
+        var parent = group.getParent();
+        var index = (parent == null ? tree.getRoots() : parent.getChildren()).indexOf(group);
+        var parentId = groupId(parent);
+        ensure(1 + 4 + 4 + 4);
+        buffer.put(MOVE_GROUP).putInt(id).putInt(parentId).putInt(index);
+    }
+
+    /**
+     * Zeichnet Umbenennungen auf, z.B. über {@link GroupNameStringConverter#fromString(String)}
+     */
+    private void nameChanged(ObservableValue<? extends String> observable, String oldName, String newName) {
+        var group = (Group) ((ReadOnlyProperty<?>) observable).getBean();
+        synchronized (lock) {
+            var id = groupIds.get(group);
+            if (id != null)
+                putName(RENAME_GROUP, id, newName);
+        }
+    }
+
+    /**
+     * Gibt die Nummer einer Gruppe zurück, unbekannte Gruppen werden dabei aufgezeichnet
+     * @return die Nummer oder -1 für keine Gruppe
+     */
+    private int groupId(Group group) {
+        if (group == null)
+            return -1;
+
+        var id = groupIds.get(group);
+        if (id == null) {
+            id = nextGroupId++;
+            groupIds.put(group, id);
+            group.nameProperty().addListener(nameListener);
+            var bytes = group.getName().getBytes(StandardCharsets.UTF_8);
+            ensure(1 + 4 + 8 + 4 + bytes.length);
+            buffer.put(DEFINE_GROUP_ID).putInt(id).putLong(group.getId()).putInt(bytes.length).put(bytes);
+        }
+        return id;
+    }
+
+    private void putName(byte type, int group, String name) {
+        var bytes = name.getBytes(StandardCharsets.UTF_8);
+        ensure(1 + 4 + 4 + bytes.length);
+        buffer.put(type).putInt(group).putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * Vergibt die Nummern neu, wie sie in einem gerade gespeicherten Stand gelten
+     * @param groupTable die Gruppen in der Reihenfolge des Stands
+     */
+    private void renumber(List<Group> groupTable) {
+        for (var group : groupIds.keySet()) {
+            group.nameProperty().removeListener(nameListener);
+        }
+        groupIds.clear();
+        for (var group : groupTable) {
+            groupIds.put(group, groupIds.size());
+            group.nameProperty().addListener(nameListener);
+        }
+        nextGroupId = groupTable.size();
+
+        var lamps = container.getLamps();
+        lampIds = new int[model.capacity()];
+        for (int i = 0; i < lamps.size(); i++) {
+            lampIds[lamps.get(i).getSlot()] = i;
+        }
+        nextLampId = lamps.size();
+    }
+
+    /**
+     * Stellt sicher, dass noch so viele Bytes in den Puffer passen
+     */
+    private void ensure(int bytes) {
+        if (buffer.position() == 0) // der Schreib-Thread wartet auf den ersten Eintrag
+            lock.notifyAll();
+        if (buffer.remaining() >= bytes)
+            return;
+
+        var larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    /**
+     * Übernimmt den aktuellen Zustand in einen neuen Stand, das Schreiben geschieht im Hintergrund.
+     * Geschieht von selbst, wenn das Journal zu groß wird, und nach Änderungen an nicht geladenen Stockwerken.
+     */
+    public void compact() {
+        synchronized (lock) {
+            if (closed)
+                return;
+
+            var columns = LayoutSnapshot.capture(tree.getGroupsInOrder(), container, floors);
+            enqueueBuffer();
+            queue.add(columns);
+            // alle folgenden Einträge beziehen sich auf den neuen Stand, der auch das zurückgehaltene Schalten enthält
+            renumber(columns.getGroupTable());
+            if (heldSwitches != null)
+                heldSwitches.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Führt eine Änderung an den Lampen aus, ohne sie einzeln aufzuzeichnen, und übernimmt danach den ganzen Zustand
+     * in einen neuen Stand, z.B. beim Wechsel des Stockwerks.
+     * Bricht das Programm ab, bevor der neue Stand geschrieben ist, ergibt sich aus dem alten Stand und seinem Journal
+     * der Zustand vor der Änderung.
+     * @param change die Änderung
+     */
+    public void compactAfter(Runnable change) {
+        suspended = true;
+        try {
+            change.run();
+        } finally {
+            suspended = false;
+        }
+        compact();
+    }
+
+    private void enqueueBuffer() {
+        if (buffer.position() == 0)
+            return;
+
+        buffer.flip();
+        queue.add(buffer);
+        buffer = spare != null ? spare : ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        spare = null;
+    }
+
+    // Schreiben, im eigenen Thread
+
+    private void run() {
+        var work = new ArrayList<Object>();
+        try {
+            while (true) {
+                synchronized (lock) {
+                    while (queue.isEmpty() && buffer.position() == 0 && !closed) {
+                        lock.wait();
+                    }
+                    enqueueBuffer();
+                    if (queue.isEmpty())
+                        return; // geschlossen und alles geschrieben
+
+                    work.addAll(queue);
+                    queue.clear();
+                }
+
+                for (var item : work) {
+                    if (item instanceof ByteBuffer)
+                        writeBlock((ByteBuffer) item);
+                    else
+                        rotate((LayoutSnapshot.Columns) item);
+                }
+                work.clear();
+
+                // alles bisher Gesammelte mit einem einzigen Warten auf den Datenträger
+                channel.force(false);
+
+                if (size > COMPACTION_THRESHOLD && !compactionPending) {
+                    compactionPending = true;
+                    Platform.runLater(this::compact);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                synchronized (lock) {
+                    if (failure == null)
+                        failure = e;
+                }
+            }
+        }
+    }
+
+    private void writeBlock(ByteBuffer block) throws IOException {
+        crc.reset();
+        crc.update(block.duplicate());
+
+        var header = ByteBuffer.allocate(8);
+        header.putInt(block.remaining()).putInt((int) crc.getValue()).flip();
+        size += header.remaining() + block.remaining();
+        var buffers = new ByteBuffer[] { header, block };
+        while (block.hasRemaining()) {
+            channel.write(buffers);
+        }
+
+        block.clear();
+        synchronized (lock) {
+            if (spare == null || block.capacity() > spare.capacity())
+                spare = block;
+        }
+    }
+
+    /**
+     * Schreibt einen neuen Stand und beginnt ein neues Journal dazu.
+     * Bricht das Programm dazwischen ab, passt das alte Journal nicht mehr zum neuen Stand und wird ignoriert.
+     */
+    private void rotate(LayoutSnapshot.Columns columns) throws IOException {
+        channel.force(false);
+        var stamp = columns.write(snapshotPath);
+
+        var newChannel = create(stamp);
+        channel.close();
+        channel = newChannel;
+        size = HEADER_SIZE;
+        compactionPending = false;
+    }
+
+    /**
+     * Legt ein leeres Journal an und öffnet es zum Anhängen
+     */
+    private FileChannel create(long stamp) throws IOException {
+        var temporary = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(stamp).flip();
+            channel.write(header);
+            channel.force(true);
+        }
+        Files.move(temporary, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Wiederherstellen
+
+    /**
+     * Wendet das Journal eines Stands auf den geladenen Stand an.
+     * Ein fehlendes Journal oder eines zu einem anderen Stand wird ignoriert,
+     * ein unvollständiger letzter Block (z.B. nach einem Absturz beim Schreiben) ebenso.
+     * @param snapshotPath die Datei des Stands
+     * @param snapshot der geladene Stand
+     * @return der Stand mit allen Änderungen aus dem Journal, oder snapshot, wenn es keine gab
+     * @throws IOException wenn das Journal nicht gelesen werden kann
+     */
+    public static LayoutSnapshot replay(Path snapshotPath, LayoutSnapshot snapshot) throws IOException {
+        var path = journalPath(snapshotPath);
+        if (!Files.exists(path))
+            return snapshot;
+
+        ByteBuffer journal;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (journal.remaining() < HEADER_SIZE || journal.getInt() != MAGIC)
+            return snapshot;
+        var version = journal.getInt();
+        if (version < 1 || version > VERSION || journal.getLong() != snapshot.getStamp() || !journal.hasRemaining())
+            return snapshot;
+
+        // die Gruppen in einem eigenen Baum, damit das Umhängen wie beim Aufzeichnen abläuft
+        var groups = FXCollections.observableArrayList(snapshot.getGroups());
+        var tree = new GroupTree(groups);
+        var groupsById = new ArrayList<Group>(snapshot.getGroups());
+        var lamps = new ArrayList<Lamp>(snapshot.getLamps());
+        var removed = new BitSet();
+
+        var crc = new CRC32();
+        while (journal.remaining() >= 8) {
+            var length = journal.getInt();
+            var checksum = journal.getInt();
+            if (length < 0 || length > journal.remaining())
+                break;
+
+            var block = journal.slice();
+            block.limit(length);
+            crc.reset();
+            crc.update(block.duplicate());
+            if ((int) crc.getValue() != checksum)
+                break;
+            journal.position(journal.position() + length);
+
+            try {
+                while (block.hasRemaining()) {
+                    apply(block, tree, groupsById, lamps, removed);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Ungültiges Journal: " + path, e);
+            }
+        }
+
+        // entfernte Lampen auslassen, ohne die Liste für jede einzeln zu verschieben
+        var remaining = new ArrayList<Lamp>(lamps.size() - removed.cardinality());
+        var removedLamps = Collections.newSetFromMap(new IdentityHashMap<Lamp, Boolean>());
+        for (int id = 0; id < lamps.size(); id++) {
+            if (removed.get(id))
+                removedLamps.add(lamps.get(id));
+            else
+                remaining.add(lamps.get(id));
+        }
+        var selected = new ArrayList<Lamp>(snapshot.getSelectedLamps());
+        selected.removeAll(removedLamps);
+
+        // jede Obergruppe vor ihren Untergruppen, so ergibt sich beim Einfügen derselbe Baum
+        var orderedGroups = tree.getGroupsInOrder();
+        tree.dispose();
+        return new LayoutSnapshot(orderedGroups, remaining, selected, snapshot.getFloors(), snapshot.getStamp());
+    }
+
+    private static void apply(ByteBuffer block, GroupTree tree, ArrayList<Group> groupsById,
+                              ArrayList<Lamp> lamps, BitSet removed) {
+        var groups = tree.getGroups();
+        var type = block.get();
+        switch (type) {
+            case DEFINE_GROUP:
+            case DEFINE_GROUP_ID: {
+                var id = block.getInt();
+                var group = type == DEFINE_GROUP
+                        ? new Group(getName(block))
+                        : new Group(block.getLong(), getName(block));
+                while (groupsById.size() <= id) {
+                    groupsById.add(null);
+                }
+                groupsById.set(id, group);
+                groups.add(group);
+                break;
+            }
+            case RENAME_GROUP: {
+                var group = groupsById.get(block.getInt());
+                group.setName(getName(block));
+                break;
+            }
+            case REMOVE_GROUP:
+                groups.remove(groupsById.get(block.getInt()));
+                break;
+            case ADD_LAMP: {
+                var id = block.getInt();
+                var lamp = new Lamp();
+                lamp.setPosition(block.getFloat(), block.getFloat());
+                lamp.setOn(block.get() != 0);
+                lamp.setGroup(group(groupsById, block.getInt()));
+                while (lamps.size() <= id) {
+                    lamps.add(null);
+                }
+                lamps.set(id, lamp);
+                break;
+            }
+            case REMOVE_LAMP:
+                removed.set(block.getInt());
+                break;
+            case SWITCH_OFF:
+            case SWITCH_ON:
+                lamps.get(block.getInt()).setOn(type == SWITCH_ON);
+                break;
+            case SWITCH_RUN: {
+                var first = block.getInt();
+                var count = block.getInt();
+                var on = block.get() != 0;
+                for (int id = first; id < first + count; id++) {
+                    lamps.get(id).setOn(on);
+                }
+                break;
+            }
+            case SET_GROUP: {
+                var lamp = lamps.get(block.getInt());
+                lamp.setGroup(group(groupsById, block.getInt()));
+                break;
+            }
+            case MOVE: {
+                var lamp = lamps.get(block.getInt());
+                lamp.setPosition(block.getFloat(), block.getFloat());
+                break;
+            }
+            case SET_LEVEL: {
+                var lamp = lamps.get(block.getInt());
+                lamp.setLevel(block.getInt());
+                break;
+            }
+            case SET_LEVELS: {
+                var first = block.getInt();
+                var count = block.getInt();
+                var level = block.getInt();
+                for (int id = first; id < first + count; id++) {
+                    lamps.get(id).setLevel(level);
+                }
+                break;
+            }
+            case MOVE_GROUP: {
+                var group = groupsById.get(block.getInt());
+                tree.move(group, group(groupsById, block.getInt()), block.getInt());
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unbekannter Eintrag: " + type);
+        }
+    }
+
+    private static Group group(ArrayList<Group> groupsById, int id) {
+        return id < 0 ? null : groupsById.get(id);
+    }
+
+    private static String getName(ByteBuffer block) {
+        var bytes = new byte[block.getInt()];
+        block.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,351 @@
+package lamps;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeView;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Spielt eine {@link LampTrace} ohne Fenster ab und gibt für jede Art von Schritt aus, wie lange die Schritte im
+ * JavaFX-Thread gebraucht haben (Median, 90., 99. Perzentil und Maximum).
+ * <p>
+ * Lampen, Gruppenbaum und Abfragen entstehen wie im Programm, der Baum der Gruppen wird wie dort angezeigt, nur in
+ * keinem Fenster. Jeder Schritt läuft mit denselben Methoden wie die Knöpfe der Oberfläche und als eigenes Ereignis im
+ * JavaFX-Thread, sodass dazwischen wie im Programm Animationen und andere Ereignisse laufen.
+ * Ist Monocle vorhanden, z.B. in {@code benchmarks.jar}, läuft JavaFX ganz ohne Bildschirm.
+ * <p>
+ * Aufruf: {@code LampLoadDriver <aufzeichnung> [--paced]} oder {@code Main --replay=<aufzeichnung> [--paced]};
+ * mit {@code --paced} wird zwischen den Schritten so lange gewartet wie bei der Aufzeichnung, sonst so schnell wie möglich.
+ */
+public final class LampLoadDriver {
+    private static final String MONOCLE = "com.sun.glass.ui.monocle.MonoclePlatformFactory";
+
+    private final ObservableList<Group> groups = FXCollections.observableArrayList();
+    private final GroupTree tree = new GroupTree(groups);
+    private final LampsContainer container = new LampsContainer();
+    private final List<LampFloor> floors = new ArrayList<>(List.of(LampFloor.loaded(LampFloor.defaultName(1))));
+    private LampFloor activeFloor = floors.get(0);
+    private final LampQueryEngine queryEngine = new LampQueryEngine(container, tree);
+    private final TreeView<Group> groupsView = new TreeView<>(new GroupTreeItem(null, tree.getRoots()));
+
+    /**
+     * die gemessenen Laufzeiten in Nanosekunden je Art von Schritt
+     */
+    private final EnumMap<LampTrace.Operation, long[]> latencies = new EnumMap<>(LampTrace.Operation.class);
+    private final EnumMap<LampTrace.Operation, Integer> counts = new EnumMap<>(LampTrace.Operation.class);
+
+    private LampLoadDriver() {
+        groupsView.setShowRoot(false);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Aufruf: LampLoadDriver <aufzeichnung> [--paced]");
+            return;
+        }
+        run(Paths.get(args[0]), List.of(args).contains("--paced"));
+    }
+
+    /**
+     * Spielt eine Aufzeichnung ab, gibt die Laufzeiten aus und beendet JavaFX
+     * @param path die Datei der Aufzeichnung
+     * @param paced ob zwischen den Schritten so lange gewartet wird wie bei der Aufzeichnung
+     * @throws IOException wenn die Aufzeichnung oder der Stand daneben nicht gelesen werden kann
+     * @throws ExecutionException wenn ein Schritt fehlschlägt
+     * @throws InterruptedException wenn das Warten unterbrochen wird
+     */
+    public static void run(Path path, boolean paced) throws IOException, ExecutionException, InterruptedException {
+        var steps = LampTrace.read(path);
+        var snapshotPath = LampTrace.snapshotPath(path);
+        var snapshot = Files.exists(snapshotPath) ? LayoutSnapshot.read(snapshotPath) : null;
+
+        startPlatform();
+        try {
+            var driver = call(LampLoadDriver::new);
+            if (snapshot != null)
+                run(() -> driver.load(snapshot));
+
+            var start = System.nanoTime();
+            for (var step : steps) {
+                if (paced) {
+                    var delay = step.getTime() - (System.nanoTime() - start) / 1_000_000;
+                    if (delay > 0)
+                        Thread.sleep(delay);
+                }
+                run(() -> driver.measure(step));
+            }
+            var seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%d Schritte in %.2f s, %d Lampen, %d Gruppen%n",
+                    steps.size(), seconds, driver.container.getLamps().size(), driver.groups.size());
+            driver.printLatencies();
+        } finally {
+            Platform.exit();
+        }
+    }
+
+    /**
+     * Startet JavaFX, ohne Bildschirm, wenn Monocle vorhanden ist.
+     * Beim Start über {@link Main} läuft JavaFX womöglich schon.
+     */
+    private static void startPlatform() throws InterruptedException {
+        if (isAvailable(MONOCLE)) {
+            setDefault("glass.platform", "Monocle");
+            setDefault("monocle.platform", "Headless");
+            setDefault("prism.order", "sw");
+        }
+
+        var latch = new CountDownLatch(1);
+        try {
+            Platform.startup(latch::countDown);
+        } catch (IllegalStateException e) {
+            latch.countDown(); // läuft schon
+        }
+        latch.await();
+        Platform.setImplicitExit(false);
+    }
+
+    private static boolean isAvailable(String className) {
+        try {
+            Class.forName(className, false, LampLoadDriver.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(key) == null)
+            System.setProperty(key, value);
+    }
+
+    /**
+     * Führt eine Aktion im JavaFX-Thread aus und wartet auf sie
+     */
+    private static void run(Runnable action) throws ExecutionException, InterruptedException {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Führt eine Berechnung im JavaFX-Thread aus und wartet auf ihr Ergebnis
+     */
+    private static <T> T call(Supplier<T> action) throws ExecutionException, InterruptedException {
+        var result = new CompletableFuture<T>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(action.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get();
+    }
+
+    /**
+     * Übernimmt den Stand vom Beginn der Aufzeichnung
+     */
+    private void load(LayoutSnapshot snapshot) {
+        groups.setAll(snapshot.getGroups());
+        snapshot.applyTo(container);
+        floors.clear();
+        floors.addAll(snapshot.getFloors());
+        activeFloor = snapshot.getActiveFloor();
+        container.getHistory().clear();
+    }
+
+    /**
+     * Führt einen Schritt aus und merkt sich, wie lange er gedauert hat
+     */
+    private void measure(LampTrace.Step step) {
+        var start = System.nanoTime();
+        try {
+            perform(step);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Schritt " + step + " fehlgeschlagen: " + e.getMessage(), e);
+        }
+        var time = System.nanoTime() - start;
+
+        var operation = step.getOperation();
+        var count = counts.getOrDefault(operation, 0);
+        var times = latencies.get(operation);
+        if (times == null || times.length == count)
+            latencies.put(operation, times = times == null ? new long[16] : Arrays.copyOf(times, count * 2));
+        times[count] = time;
+        counts.put(operation, count + 1);
+    }
+
+    /**
+     * Führt einen Schritt mit denselben Methoden aus wie die Oberfläche
+     */
+    private void perform(LampTrace.Step step) {
+        var arguments = step.getArguments();
+        var selection = container.getSelectedLamps();
+        var model = container.getModel();
+        switch (step.getOperation()) {
+            case ADD_LAMPS: {
+                var count = Integer.parseInt(arguments);
+                var lamps = new ArrayList<Lamp>(count);
+                for (int i = 0; i < count; i++) {
+                    lamps.add(new Lamp());
+                }
+                container.addLamps(lamps);
+                break;
+            }
+            case GENERATE: {
+                var count = Integer.parseInt(arguments);
+                var columns = (int) Math.ceil(Math.sqrt(count));
+                var lamps = LampGenerator.grid(columns, (count + columns - 1) / columns, 0, 0,
+                        LampGenerator.DEFAULT_SPACING);
+                container.addAndSelectLamps(lamps.subList(0, count));
+                break;
+            }
+            case COPY:
+                container.copySelection();
+                break;
+            case PASTE:
+                container.paste();
+                break;
+            case DUPLICATE:
+                container.duplicateSelection();
+                break;
+            case REMOVE_LAMPS:
+                container.removeLamps(selection.getLamps());
+                break;
+            case SELECT: {
+                var lamps = container.getLamps();
+                var indices = LampTrace.parseRanges(arguments);
+                var slots = new BitSet();
+                for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+                    slots.set(lamps.get(i).getSlot());
+                }
+                container.selectSlots(slots, false);
+                break;
+            }
+            case SELECT_ALL:
+                selection.setAll(container.getLamps()); // wie Strg + A
+                break;
+            case SELECT_NONE:
+                selection.clear();
+                break;
+            case QUERY: {
+                var parts = arguments.split(" ", 2);
+                queryEngine.select(LampQuery.parse(parts.length > 1 ? parts[1] : ""), parts[0].equals("+"));
+                break;
+            }
+            case TOGGLE:
+                Main.toggleLamps(container, model.getSelectedSlots(), model.countSelectedOn() == model.countSelected());
+                break;
+            case ASSIGN_GROUP:
+                Main.assignGroup(container, selection.getLamps(), findGroup(arguments));
+                break;
+            case ADD_GROUP: {
+                var parts = arguments.split(" ", 3);
+                var group = new Group(Long.parseLong(parts[0]), parts.length > 2 ? parts[2] : "");
+                group.setParent(findGroup(parts[1]));
+                groups.add(group);
+                break;
+            }
+            case MOVE_GROUP: {
+                var parts = arguments.split(" ");
+                GroupTreeCell.move(tree, container.getHistory(), findGroup(parts[0]), findGroup(parts[1]));
+                break;
+            }
+            case RENAME_GROUPS: {
+                var parts = arguments.split(" ", 2);
+                Main.renameGroups(container.getHistory(), findGroups(parts[0]), parts.length > 1 ? parts[1] : "");
+                break;
+            }
+            case TOGGLE_GROUPS:
+                Main.toggleGroups(container, floors, findGroups(arguments), () -> { });
+                break;
+            case REMOVE_GROUPS:
+                groupsView.getFocusModel().focus(-1);
+                Main.removeGroups(container, tree, findGroups(arguments));
+                break;
+            case ADD_FLOOR:
+                floors.add(new LampFloor(arguments));
+                break;
+            case SWITCH_FLOOR: {
+                // im Programm werden die Lampen im Hintergrund erstellt, hier gehört das zur gemessenen Zeit
+                var target = floors.get(Integer.parseInt(arguments));
+                Main.showFloor(container, activeFloor, target, target.prepare());
+                activeFloor = target;
+                break;
+            }
+            case UNDO:
+                groupsView.getFocusModel().focus(-1);
+                container.getHistory().undo();
+                break;
+            case REDO:
+                groupsView.getFocusModel().focus(-1);
+                container.getHistory().redo();
+                break;
+        }
+    }
+
+    /**
+     * Gibt die Gruppe zu einer Kennung zurück
+     * @param id die Kennung oder {@code -}
+     * @return die Gruppe oder null für {@code -}
+     */
+    private Group findGroup(String id) {
+        if (id.equals("-"))
+            return null;
+
+        var group = tree.getGroup(Long.parseLong(id));
+        if (group == null)
+            throw new IllegalArgumentException("Keine Gruppe mit der Kennung " + id);
+        return group;
+    }
+
+    /**
+     * Gibt die Gruppen zu durch Kommas getrennten Kennungen zurück
+     */
+    private List<Group> findGroups(String ids) {
+        var found = new ArrayList<Group>();
+        for (var id : ids.split(",")) {
+            found.add(findGroup(id));
+        }
+        return found;
+    }
+
+    /**
+     * Gibt je Art von Schritt die Anzahl und die Perzentile der Laufzeiten in Millisekunden aus
+     */
+    private void printLatencies() {
+        System.out.printf("%-14s %8s %9s %9s %9s %9s%n", "Schritt", "Anzahl", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (var entry : latencies.entrySet()) {
+            var count = counts.get(entry.getKey());
+            var times = Arrays.copyOf(entry.getValue(), count);
+            Arrays.sort(times);
+            System.out.printf("%-14s %8d %9.3f %9.3f %9.3f %9.3f%n", entry.getKey(), count,
+                    percentile(times, 50), percentile(times, 90), percentile(times, 99), times[count - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Gibt ein Perzentil sortierter Laufzeiten nach dem Nearest-Rank-Verfahren zurück
+     * @return das Perzentil in Millisekunden
+     */
+    private static double percentile(long[] sorted, int percent) {
+        var rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1] / 1e6;
+    }
+}
@@ -0,0 +1,200 @@
+package lamps;
+
+import javafx.scene.Scene;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Messwerte, um Ruckler zuordnen zu können: wie oft Listener und Bindungen aufgerufen werden, wie groß
+ * Listenänderungen sind und wie lange ein Puls von JavaFX für CSS und Layout braucht.
+ * <p>
+ * Gezählt wird nur, solange die Messwerte eingeschaltet sind; sonst kostet jede Zählstelle nur das Lesen eines
+ * Feldes. Unabhängig davon gibt es JFR-Ereignisse für Schalten, Gruppenzuordnung, Auswahl und Pulse, die nur
+ * aufgezeichnet werden, wenn eine JFR-Aufnahme läuft.
+ * Alle Messwerte werden im JavaFX-Thread erhoben und gelesen.
+ */
+final class LampMetrics {
+    /**
+     * Die gezählten Vorgänge
+     */
+    enum Counter {
+        MODEL_NOTIFICATIONS("Modell-Meldungen"),
+        CHANGE_NOTIFICATIONS("Änderungs-Listener"),
+        SELECTION_NOTIFICATIONS("Auswahl-Listener"),
+        GROUPS_CHANGES("Gruppenänderungen"),
+        BINDING_COMPUTATIONS("Bindungen berechnet"),
+        LIST_CHANGES("Listenänderungen"),
+        LIST_CHANGED_LAMPS("Lampen darin"),
+        QUERIES("Abfragen"),
+        QUERY_CACHE_HITS("Abfragen aus Cache"),
+        PULSES("Pulse"),
+        PULSE_NANOS("Zeit in Pulsen");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Gibt die Bezeichnung für die Anzeige zurück
+         * @return die Bezeichnung
+         */
+        String getLabel() {
+            return label;
+        }
+    }
+
+    private static boolean enabled = false;
+
+    private static final long[] counts = new long[Counter.values().length];
+
+    /**
+     * der laufende Puls oder null, und der längste Puls seit {@link #takeMaxPulseNanos()}
+     */
+    private static PulseEvent pulse = null;
+    private static long pulseStart = 0;
+    private static long maxPulseNanos = 0;
+
+    private LampMetrics() {
+    }
+
+    /**
+     * Gibt zurück, ob gezählt wird
+     * @return ob gezählt wird
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Schaltet das Zählen ein oder aus
+     * @param enabled ob gezählt werden soll
+     */
+    static void setEnabled(boolean enabled) {
+        LampMetrics.enabled = enabled;
+    }
+
+    /**
+     * Zählt einen Vorgang, wenn gezählt wird
+     * @param counter der Vorgang
+     */
+    static void count(Counter counter) {
+        if (enabled)
+            counts[counter.ordinal()]++;
+    }
+
+    /**
+     * Zählt mehrere Vorgänge, wenn gezählt wird
+     * @param counter der Vorgang
+     * @param amount die Anzahl
+     */
+    static void count(Counter counter, long amount) {
+        if (enabled)
+            counts[counter.ordinal()] += amount;
+    }
+
+    /**
+     * Gibt zurück, wie oft ein Vorgang bisher gezählt wurde
+     * @param counter der Vorgang
+     * @return die Anzahl
+     */
+    static long get(Counter counter) {
+        return counts[counter.ordinal()];
+    }
+
+    /**
+     * Gibt die Dauer des längsten Pulses seit dem letzten Aufruf zurück
+     * @return die Dauer in Nanosekunden
+     */
+    static long takeMaxPulseNanos() {
+        var max = maxPulseNanos;
+        maxPulseNanos = 0;
+        return max;
+    }
+
+    /**
+     * Misst die Pulse einer Szene, jeweils vom Beginn von CSS und Layout bis zu deren Ende
+     * @param scene die Szene
+     */
+    static void watchPulses(Scene scene) {
+        scene.addPreLayoutPulseListener(() -> {
+            if (!enabled && !PulseEvent.TYPE.isEnabled())
+                return;
+
+            pulse = new PulseEvent();
+            pulse.begin();
+            pulseStart = System.nanoTime();
+        });
+        scene.addPostLayoutPulseListener(() -> {
+            if (pulse == null)
+                return;
+
+            var duration = System.nanoTime() - pulseStart;
+            if (enabled) {
+                counts[Counter.PULSES.ordinal()]++;
+                counts[Counter.PULSE_NANOS.ordinal()] += duration;
+                maxPulseNanos = Math.max(maxPulseNanos, duration);
+            }
+            pulse.commit();
+            pulse = null;
+        });
+    }
+
+    // JFR-Ereignisse
+
+    /**
+     * Lampen wurden gemeinsam an- oder ausgeschaltet
+     */
+    @Name("lamps.Toggle")
+    @Label("Lampen schalten")
+    @Category("Lampen")
+    static class ToggleEvent extends Event {
+        @Label("Lampen")
+        int lamps;
+
+        @Label("An")
+        boolean on;
+    }
+
+    /**
+     * Lampen wurden einer Gruppe zugeordnet oder aus ihren Gruppen genommen
+     */
+    @Name("lamps.GroupAssign")
+    @Label("Gruppe zuordnen")
+    @Category("Lampen")
+    static class GroupAssignEvent extends Event {
+        @Label("Lampen")
+        int lamps;
+
+        @Label("Gruppe")
+        String group;
+    }
+
+    /**
+     * Die Listener der Auswahl wurden über eine Änderung benachrichtigt
+     */
+    @Name("lamps.Selection")
+    @Label("Auswahl ändern")
+    @Category("Lampen")
+    static class SelectionEvent extends Event {
+        @Label("Hinzugefügt")
+        int added;
+
+        @Label("Entfernt")
+        int removed;
+    }
+
+    /**
+     * CSS und Layout eines Pulses
+     */
+    @Name("lamps.Pulse")
+    @Label("Puls")
+    @Category("Lampen")
+    static class PulseEvent extends Event {
+        static final EventType TYPE = EventType.getEventType(PulseEvent.class);
+    }
+}
@@ -0,0 +1,82 @@
+package lamps;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.layout.Background;
+import javafx.scene.layout.BackgroundFill;
+import javafx.scene.layout.CornerRadii;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+/**
+ * Zeigt die {@link LampMetrics} über den Lampen an: jeden Zähler pro Sekunde und die Dauer der Pulse.
+ * Die Anzeige wird zweimal pro Sekunde erneuert, solange sie sichtbar ist.
+ */
+public class LampMetricsOverlay extends Label {
+    private static final long UPDATE_NANOS = 500_000_000L;
+
+    /**
+     * die Zählerstände bei der letzten Anzeige
+     */
+    private final long[] lastCounts = new long[LampMetrics.Counter.values().length];
+    private long lastUpdate = 0;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (now - lastUpdate >= UPDATE_NANOS)
+                update(now);
+        }
+    };
+
+    public LampMetricsOverlay() {
+        setFont(Font.font("Monospaced", 12));
+        setTextFill(Color.WHITE);
+        setBackground(new Background(new BackgroundFill(Color.rgb(0, 0, 0, 0.6), new CornerRadii(4), null)));
+        setPadding(new Insets(6));
+        setMouseTransparent(true);
+        setMaxSize(USE_PREF_SIZE, USE_PREF_SIZE);
+        setVisible(false);
+
+        // nur solange sichtbar erneuern
+        visibleProperty().addListener((observable, oldValue, visible) -> {
+            if (visible) {
+                lastUpdate = 0;
+                timer.start();
+            } else {
+                timer.stop();
+            }
+        });
+    }
+
+    private void update(long now) {
+        var seconds = lastUpdate == 0 ? 0 : (now - lastUpdate) / 1e9;
+        lastUpdate = now;
+
+        var text = new StringBuilder();
+        var pulses = 0L;
+        var pulseNanos = 0L;
+        for (var counter : LampMetrics.Counter.values()) {
+            var count = LampMetrics.get(counter);
+            var delta = count - lastCounts[counter.ordinal()];
+            lastCounts[counter.ordinal()] = count;
+
+            if (counter == LampMetrics.Counter.PULSES) {
+                pulses = delta;
+            } else if (counter == LampMetrics.Counter.PULSE_NANOS) {
+                pulseNanos = delta;
+            } else if (seconds > 0) {
+                text.append(String.format("%-20s %10.0f /s%n", counter.getLabel(), delta / seconds));
+            }
+        }
+
+        var maxPulseMillis = LampMetrics.takeMaxPulseNanos() / 1e6;
+        if (seconds > 0) {
+            var averagePulseMillis = pulses == 0 ? 0 : pulseNanos / 1e6 / pulses;
+            text.append(String.format("%-20s %10.0f /s%n", LampMetrics.Counter.PULSES.getLabel(), pulses / seconds));
+            text.append(String.format("CSS und Layout       %6.2f ms, höchstens %.2f ms", averagePulseMillis, maxPulseMillis));
+        }
+        setText(text.toString());
+    }
+}
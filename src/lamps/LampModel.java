@@ -0,0 +1,821 @@
+package lamps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Speichert den Zustand vieler Lampen in einfachen Arrays, ganz ohne JavaFX.
+ * Jede Lampe belegt einen Platz (Slot): An/Aus und Auswahl liegen in {@link BitSet}s,
+ * die Gruppe als Nummer in einem int-Array, Helligkeit und Farbtemperatur zusammen in einem int je Lampe
+ * und die Position in float-Arrays.
+ * Ein {@link Lamp}-Objekt verweist nur auf seinen Platz.
+ * Die Plätze entfernter Lampen werden wiederverwendet, die Plätze der übrigen Lampen ändern sich dabei nicht.
+ * Für die ausgewählten Lampen und (über {@link Group}) für jede Gruppe werden Zähler mitgeführt,
+ * sodass z.B. "sind alle an?" ohne Durchsuchen beantwortet werden kann.
+ */
+public class LampModel {
+    /**
+     * Kennzeichen für die geänderten Eigenschaften
+     */
+    public static final int ON = 1;
+    public static final int SELECTED = 2;
+    public static final int GROUP = 4;
+    public static final int POSITION = 8;
+    public static final int ADDED = 16;
+    public static final int REMOVED = 32;
+    public static final int LEVEL = 64;
+
+    /**
+     * die größte Helligkeit, 0 ist die kleinste
+     */
+    public static final int MAX_BRIGHTNESS = 255;
+
+    /**
+     * der Bereich der Farbtemperatur in Kelvin, von warmweiß bis kaltweiß
+     */
+    public static final int MIN_COLOR_TEMPERATURE = 1800;
+    public static final int MAX_COLOR_TEMPERATURE = 6500;
+    public static final int DEFAULT_COLOR_TEMPERATURE = 3000;
+
+    /**
+     * Helligkeit und Farbtemperatur einer neuen Lampe, siehe {@link #level(int, int)}
+     */
+    static final int DEFAULT_LEVEL = level(MAX_BRIGHTNESS, DEFAULT_COLOR_TEMPERATURE);
+
+    /**
+     * Wird aufgerufen, wenn sich Lampen im Modell geändert haben
+     */
+    public interface Listener {
+        /**
+         * Wird aufgerufen, wenn sich eine Lampe geändert hat
+         * @param slot der Platz der Lampe
+         * @param properties die geänderten Eigenschaften, z.B. {@link #ON} | {@link #GROUP}
+         */
+        void lampChanged(int slot, int properties);
+
+        /**
+         * Wird nach einer Massenoperation einmal aufgerufen.
+         * Das {@link BitSet} darf nach dem Aufruf nicht mehr verwendet werden.
+         * @param slots die Plätze der geänderten Lampen
+         * @param properties die geänderten Eigenschaften
+         */
+        default void lampsChanged(BitSet slots, int properties) {
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                lampChanged(slot, properties);
+            }
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * ob die Lampen dieses Modells in ihren Gruppen geführt werden (nur bei Modellen von {@link LampsContainer}n)
+     */
+    private final boolean indexGroups;
+
+    private final BitSet used = new BitSet();
+    private final BitSet on = new BitSet();
+    private final BitSet selected = new BitSet();
+
+    /**
+     * die Gruppe jeder Lampe als Nummer in {@link #groupTable}, 0 bedeutet keine Gruppe
+     */
+    private int[] groups;
+
+    /**
+     * Helligkeit und Farbtemperatur jeder Lampe, siehe {@link #level(int, int)}
+     */
+    private int[] levels;
+    private float[] x;
+    private float[] y;
+    private Lamp[] lamps;
+
+    private int size = 0;
+
+    /**
+     * alle Plätze davor sind belegt, damit beim Belegen nicht immer von vorne gesucht werden muss
+     */
+    private int firstFree = 0;
+
+    /**
+     * Gruppe mit der Nummer n steht an Stelle n - 1. Hat eine Gruppe keine Lampen mehr in diesem Modell, z.B. weil sie
+     * aus dem Baum entfernt wurde, wird ihre Nummer frei und steht hier als null, bis sie wiederverwendet wird.
+     */
+    private final ArrayList<Group> groupTable = new ArrayList<>();
+    private final ArrayDeque<Integer> freeGroupNumbers = new ArrayDeque<>();
+
+    /**
+     * die Anzahl der Lampen je Gruppennummer
+     */
+    private int[] groupSizes = new int[1];
+
+    /**
+     * die Änderung der angeschalteten Lampen je Gruppennummer beim Schalten vieler Lampen und welche Nummern
+     * dabei vorkamen, zwischen zwei Aufrufen leer
+     */
+    private int[] groupDeltas = new int[1];
+    private final BitSet switchedGroups = new BitSet();
+
+    /**
+     * die Anzahl der ausgewählten, der ausgewählten angeschalteten und der ausgewählten Lampen je Gruppennummer
+     */
+    private int selectedCount = 0;
+    private int selectedOnCount = 0;
+    private int[] selectedPerGroup = new int[1];
+
+    private final IdentityHashMap<Group, Integer> groupNumbers = new IdentityHashMap<>();
+
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+
+    /**
+     * Erstellt ein Modell, dessen Lampen in ihren Gruppen geführt werden
+     */
+    public LampModel() {
+        this(true, INITIAL_CAPACITY);
+    }
+
+    LampModel(boolean indexGroups, int capacity) {
+        this.indexGroups = indexGroups;
+        groups = new int[capacity];
+        levels = new int[capacity];
+        Arrays.fill(levels, DEFAULT_LEVEL);
+        x = new float[capacity];
+        y = new float[capacity];
+        lamps = new Lamp[capacity];
+    }
+
+    /**
+     * Gibt die Anzahl der Lampen zurück
+     * @return die Anzahl der Lampen
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gibt die Anzahl der Plätze zurück, alle Plätze sind kleiner als dieser Wert
+     * @return die Anzahl der Plätze
+     */
+    public int capacity() {
+        return lamps.length;
+    }
+
+    /**
+     * Gibt die Lampe auf einem Platz zurück
+     * @param slot der Platz
+     * @return die Lampe oder null, wenn der Platz frei ist
+     */
+    public Lamp getLamp(int slot) {
+        return lamps[slot];
+    }
+
+    /**
+     * Gibt die belegten Plätze zurück, darf nicht verändert werden
+     * @return die belegten Plätze
+     */
+    public BitSet getUsedSlots() {
+        return used;
+    }
+
+    // einzelne Lampen
+
+    /**
+     * Gibt zurück, ob die Lampe auf dem Platz angeschaltet ist
+     * @param slot der Platz
+     * @return ob die Lampe angeschaltet ist
+     */
+    public boolean isOn(int slot) {
+        return on.get(slot);
+    }
+
+    /**
+     * Schaltet die Lampe auf dem Platz an oder aus
+     * @param slot der Platz
+     * @param on ob die Lampe angeschaltet sein soll
+     */
+    public void setOn(int slot, boolean on) {
+        if (this.on.get(slot) == on)
+            return;
+
+        this.on.set(slot, on);
+        countSwitched(slot, on ? 1 : -1);
+        fireChanged(slot, ON);
+    }
+
+    /**
+     * Gibt zurück, ob die Lampe auf dem Platz ausgewählt ist
+     * @param slot der Platz
+     * @return ob die Lampe ausgewählt ist
+     */
+    public boolean isSelected(int slot) {
+        return selected.get(slot);
+    }
+
+    /**
+     * Legt fest, ob die Lampe auf dem Platz ausgewählt ist
+     * @param slot der Platz
+     * @param selected ob die Lampe ausgewählt sein soll
+     */
+    public void setSelected(int slot, boolean selected) {
+        if (this.selected.get(slot) == selected)
+            return;
+
+        this.selected.set(slot, selected);
+        countSelected(slot, selected ? 1 : -1);
+        fireChanged(slot, SELECTED);
+    }
+
+    /**
+     * Gibt die Gruppe der Lampe auf dem Platz zurück
+     * @param slot der Platz
+     * @return die Gruppe oder null
+     */
+    public Group getGroup(int slot) {
+        var number = groups[slot];
+        return number == 0 ? null : groupTable.get(number - 1);
+    }
+
+    /**
+     * Setzt die Gruppe der Lampe auf dem Platz
+     * @param slot der Platz
+     * @param group die neue Gruppe oder null
+     */
+    public void setGroup(int slot, Group group) {
+        var number = groupNumber(group);
+        var oldNumber = groups[slot];
+        if (oldNumber == number)
+            return;
+
+        groups[slot] = number;
+        if (selected.get(slot)) {
+            selectedPerGroup[oldNumber]--;
+            selectedPerGroup[number]++;
+        }
+        if (indexGroups) {
+            if (oldNumber != 0)
+                groupTable.get(oldNumber - 1).removeLamp(lamps[slot]);
+            if (group != null)
+                group.addLamp(lamps[slot]);
+        }
+        groupSizes[number]++;
+        releaseGroupNumber(oldNumber);
+        fireChanged(slot, GROUP);
+    }
+
+    /**
+     * Gibt Helligkeit und Farbtemperatur der Lampe auf dem Platz zurück
+     * @param slot der Platz
+     * @return beides zusammen, siehe {@link #level(int, int)}
+     */
+    int getLevel(int slot) {
+        return levels[slot];
+    }
+
+    /**
+     * Setzt Helligkeit und Farbtemperatur der Lampe auf dem Platz
+     * @param slot der Platz
+     * @param level beides zusammen, siehe {@link #level(int, int)}
+     */
+    void setLevel(int slot, int level) {
+        if (levels[slot] == level)
+            return;
+
+        levels[slot] = level;
+        fireChanged(slot, LEVEL);
+    }
+
+    /**
+     * Gibt die Helligkeit der Lampe auf dem Platz zurück, sie gilt, solange die Lampe an ist
+     * @param slot der Platz
+     * @return die Helligkeit von 0 bis {@link #MAX_BRIGHTNESS}
+     */
+    public int getBrightness(int slot) {
+        return brightness(levels[slot]);
+    }
+
+    /**
+     * Gibt die Farbtemperatur der Lampe auf dem Platz zurück
+     * @param slot der Platz
+     * @return die Farbtemperatur in Kelvin
+     */
+    public int getColorTemperature(int slot) {
+        return colorTemperature(levels[slot]);
+    }
+
+    /**
+     * Gibt die x-Koordinate des Mittelpunkts der Lampe auf dem Platz zurück
+     * @param slot der Platz
+     * @return die x-Koordinate
+     */
+    public float getX(int slot) {
+        return x[slot];
+    }
+
+    /**
+     * Gibt die y-Koordinate des Mittelpunkts der Lampe auf dem Platz zurück
+     * @param slot der Platz
+     * @return die y-Koordinate
+     */
+    public float getY(int slot) {
+        return y[slot];
+    }
+
+    /**
+     * Verschiebt die Lampe auf dem Platz
+     * @param slot der Platz
+     * @param x die neue x-Koordinate des Mittelpunkts
+     * @param y die neue y-Koordinate des Mittelpunkts
+     */
+    public void setPosition(int slot, float x, float y) {
+        if (this.x[slot] == x && this.y[slot] == y)
+            return;
+
+        this.x[slot] = x;
+        this.y[slot] = y;
+        fireChanged(slot, POSITION);
+    }
+
+    // Massenoperationen
+
+    /**
+     * Gibt die Anzahl der angeschalteten Lampen zurück
+     * @return die Anzahl
+     */
+    public int countOn() {
+        return on.cardinality();
+    }
+
+    /**
+     * Gibt die Anzahl der angeschalteten Lampen auf den Plätzen zurück
+     * @param slots die Plätze
+     * @return die Anzahl
+     */
+    public int countOn(BitSet slots) {
+        int count = 0;
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            if (on.get(slot))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Gibt zurück, ob alle Lampen auf den Plätzen angeschaltet sind
+     * @param slots die Plätze
+     * @return ob alle angeschaltet sind
+     */
+    public boolean allOn(BitSet slots) {
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            if (!on.get(slot))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Schaltet alle Lampen auf den Plätzen an oder aus
+     * @param slots die Plätze
+     * @param on ob die Lampen angeschaltet werden sollen
+     */
+    public void setOn(BitSet slots, boolean on) {
+        // nur tatsächlich geänderte Lampen melden, freie Plätze bleiben aus
+        var changed = (BitSet) slots.clone();
+        changed.and(used);
+        if (on) {
+            changed.andNot(this.on);
+            this.on.or(changed);
+        } else {
+            changed.and(this.on);
+            this.on.andNot(changed);
+        }
+
+        if (!changed.isEmpty()) {
+            countSwitched(changed);
+            fireChanged(changed, ON);
+        }
+    }
+
+    /**
+     * Schaltet jede Lampe auf den Plätzen einzeln um
+     * @param slots die Plätze
+     */
+    public void toggle(BitSet slots) {
+        // freie Plätze bleiben aus
+        var switched = (BitSet) slots.clone();
+        switched.and(used);
+        on.xor(switched);
+        if (!switched.isEmpty()) {
+            countSwitched(switched);
+            fireChanged(switched, ON);
+        }
+    }
+
+    /**
+     * Setzt die Helligkeit aller Lampen auf den Plätzen, ihre Farbtemperatur bleibt
+     * @param slots die Plätze
+     * @param brightness die Helligkeit von 0 bis {@link #MAX_BRIGHTNESS}
+     */
+    public void setBrightness(BitSet slots, int brightness) {
+        var clamped = Math.max(0, Math.min(MAX_BRIGHTNESS, brightness));
+        var changed = new BitSet();
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            var level = level(clamped, colorTemperature(levels[slot]));
+            if (used.get(slot) && levels[slot] != level) {
+                levels[slot] = level;
+                changed.set(slot);
+            }
+        }
+        if (!changed.isEmpty())
+            fireChanged(changed, LEVEL);
+    }
+
+    /**
+     * Setzt die Farbtemperatur aller Lampen auf den Plätzen, ihre Helligkeit bleibt
+     * @param slots die Plätze
+     * @param colorTemperature die Farbtemperatur in Kelvin,
+     *                         wird auf {@link #MIN_COLOR_TEMPERATURE} bis {@link #MAX_COLOR_TEMPERATURE} begrenzt
+     */
+    public void setColorTemperature(BitSet slots, int colorTemperature) {
+        var clamped = Math.max(MIN_COLOR_TEMPERATURE, Math.min(MAX_COLOR_TEMPERATURE, colorTemperature));
+        var changed = new BitSet();
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            var level = level(brightness(levels[slot]), clamped);
+            if (used.get(slot) && levels[slot] != level) {
+                levels[slot] = level;
+                changed.set(slot);
+            }
+        }
+        if (!changed.isEmpty())
+            fireChanged(changed, LEVEL);
+    }
+
+    /**
+     * Gibt Helligkeit und Farbtemperatur der Lampen auf den Plätzen zurück
+     * @param slots die Plätze
+     * @return je Platz in aufsteigender Reihenfolge beides zusammen, siehe {@link #level(int, int)}
+     */
+    int[] getLevels(BitSet slots) {
+        var result = new int[slots.cardinality()];
+        var index = 0;
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            result[index++] = levels[slot];
+        }
+        return result;
+    }
+
+    /**
+     * Setzt Helligkeit und Farbtemperatur jeder Lampe auf den Plätzen einzeln, z.B. beim Rückgängigmachen
+     * @param slots die Plätze
+     * @param newLevels je Platz in aufsteigender Reihenfolge beides zusammen, wie von {@link #getLevels(BitSet)}
+     */
+    void setLevels(BitSet slots, int[] newLevels) {
+        var changed = new BitSet();
+        var index = 0;
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            var level = newLevels[index++];
+            if (used.get(slot) && levels[slot] != level) { // inzwischen entfernte Lampen auslassen
+                levels[slot] = level;
+                changed.set(slot);
+            }
+        }
+        if (!changed.isEmpty())
+            fireChanged(changed, LEVEL);
+    }
+
+    /**
+     * Packt Helligkeit und Farbtemperatur in ein int: die Farbtemperatur in Kelvin ab Bit 8, die Helligkeit darunter
+     * @param brightness die Helligkeit von 0 bis {@link #MAX_BRIGHTNESS}
+     * @param colorTemperature die Farbtemperatur in Kelvin
+     * @return beides zusammen
+     */
+    static int level(int brightness, int colorTemperature) {
+        return colorTemperature << 8 | brightness;
+    }
+
+    /**
+     * Gibt die Helligkeit aus {@link #level(int, int)} zurück
+     */
+    static int brightness(int level) {
+        return level & 0xFF;
+    }
+
+    /**
+     * Gibt die Farbtemperatur aus {@link #level(int, int)} zurück
+     */
+    static int colorTemperature(int level) {
+        return level >>> 8;
+    }
+
+    /**
+     * Gibt die Anzahl der ausgewählten Lampen zurück
+     * @return die Anzahl
+     */
+    public int countSelected() {
+        return selectedCount;
+    }
+
+    /**
+     * Gibt die Anzahl der ausgewählten Lampen zurück, die angeschaltet sind
+     * @return die Anzahl
+     */
+    public int countSelectedOn() {
+        return selectedOnCount;
+    }
+
+    /**
+     * Gibt die Anzahl der ausgewählten Lampen in einer Gruppe zurück
+     * @param group die Gruppe, oder null für Lampen ohne Gruppe
+     * @return die Anzahl
+     */
+    public int countSelected(Group group) {
+        Integer number = group == null ? Integer.valueOf(0) : groupNumbers.get(group);
+        return number == null ? 0 : selectedPerGroup[number];
+    }
+
+    /**
+     * Gibt die Plätze der angeschalteten Lampen zurück, darf nicht verändert werden
+     * @return die angeschalteten Plätze
+     */
+    public BitSet getOnSlots() {
+        return on;
+    }
+
+    /**
+     * Gibt die Plätze der ausgewählten Lampen zurück, darf nicht verändert werden
+     * @return die ausgewählten Plätze
+     */
+    public BitSet getSelectedSlots() {
+        return selected;
+    }
+
+    /**
+     * Verschiebt alle Lampen auf den Plätzen um denselben Versatz
+     * @param slots die Plätze
+     * @param dx der Versatz in x-Richtung
+     * @param dy der Versatz in y-Richtung
+     */
+    public void move(BitSet slots, float dx, float dy) {
+        if (dx == 0 && dy == 0)
+            return;
+
+        // inzwischen entfernte Lampen auslassen
+        var moved = (BitSet) slots.clone();
+        moved.and(used);
+        for (int slot = moved.nextSetBit(0); slot >= 0; slot = moved.nextSetBit(slot + 1)) {
+            x[slot] += dx;
+            y[slot] += dy;
+        }
+
+        if (!moved.isEmpty())
+            fireChanged(moved, POSITION);
+    }
+
+    /**
+     * Ermittelt die Plätze aller Lampen einer Gruppe
+     * @param group die Gruppe, oder null für Lampen ohne Gruppe
+     * @param result hier werden die Plätze gesetzt
+     */
+    public void collectGroup(Group group, BitSet result) {
+        Integer number = group == null ? Integer.valueOf(0) : groupNumbers.get(group);
+        if (number == null) // die Gruppe hat keine Lampen in diesem Modell
+            return;
+
+        int n = number;
+        for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+            if (groups[slot] == n)
+                result.set(slot);
+        }
+    }
+
+    // Plätze verwalten
+
+    /**
+     * Nimmt eine Lampe auf und übernimmt ihren bisherigen Zustand
+     * @param lamp die Lampe
+     */
+    void adopt(Lamp lamp) {
+        adopt(lamp, -1);
+    }
+
+    /**
+     * Nimmt eine Lampe auf einem bestimmten Platz auf, z.B. um eine entfernte Lampe wiederherzustellen.
+     * Ist der Platz belegt, erhält sie einen beliebigen freien Platz.
+     * @param lamp die Lampe
+     * @param preferredSlot der gewünschte Platz oder -1
+     */
+    void adopt(Lamp lamp, int preferredSlot) {
+        var oldModel = lamp.getModel();
+        var oldSlot = lamp.getSlot();
+
+        var slot = preferredSlot >= 0 && !used.get(preferredSlot) ? occupy(preferredSlot, lamp) : allocate(lamp);
+        on.set(slot, oldModel.isOn(oldSlot));
+        levels[slot] = oldModel.getLevel(oldSlot);
+        x[slot] = oldModel.getX(oldSlot);
+        y[slot] = oldModel.getY(oldSlot);
+
+        var group = oldModel.getGroup(oldSlot);
+        oldModel.free(oldSlot);
+        lamp.moveTo(this, slot);
+
+        // erst jetzt, damit die Gruppe die Lampe auf dem neuen Platz führt
+        groups[slot] = groupNumber(group);
+        groupSizes[groups[slot]]++;
+        if (indexGroups && group != null)
+            group.addLamp(lamp);
+
+        fireChanged(slot, ADDED);
+    }
+
+    /**
+     * Gibt mehrere Lampen ab, sie erhalten ein gemeinsames Modell ohne Listener mit ihrem bisherigen Zustand
+     * @param released die Lampen
+     */
+    void release(List<Lamp> released) {
+        var target = new LampModel(false, released.size());
+        for (var lamp : released) {
+            target.adopt(lamp);
+        }
+    }
+
+    /**
+     * Belegt einen freien Platz für eine Lampe
+     */
+    int allocate(Lamp lamp) {
+        var slot = used.nextClearBit(firstFree);
+        firstFree = slot + 1;
+        return occupy(slot, lamp);
+    }
+
+    /**
+     * Belegt einen bestimmten freien Platz
+     */
+    private int occupy(int slot, Lamp lamp) {
+        if (slot >= lamps.length)
+            grow(Math.max(slot + 1, lamps.length * 2));
+
+        used.set(slot);
+        lamps[slot] = lamp;
+        size++;
+        return slot;
+    }
+
+    /**
+     * Gibt einen Platz frei
+     */
+    private void free(int slot) {
+        if (indexGroups && groups[slot] != 0)
+            groupTable.get(groups[slot] - 1).removeLamp(lamps[slot]);
+        if (selected.get(slot))
+            countSelected(slot, -1);
+        releaseGroupNumber(groups[slot]);
+
+        used.clear(slot);
+        on.clear(slot);
+        selected.clear(slot);
+        groups[slot] = 0;
+        levels[slot] = DEFAULT_LEVEL;
+        x[slot] = 0;
+        y[slot] = 0;
+        lamps[slot] = null;
+        size--;
+        firstFree = Math.min(firstFree, slot);
+
+        fireChanged(slot, REMOVED);
+    }
+
+    /**
+     * Stellt sicher, dass mindestens so viele Plätze vorhanden sind
+     * @param capacity die Anzahl der Plätze
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > lamps.length)
+            grow(capacity);
+    }
+
+    private void grow(int capacity) {
+        var oldCapacity = levels.length;
+        groups = Arrays.copyOf(groups, capacity);
+        levels = Arrays.copyOf(levels, capacity);
+        Arrays.fill(levels, oldCapacity, capacity, DEFAULT_LEVEL);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        lamps = Arrays.copyOf(lamps, capacity);
+    }
+
+    private int groupNumber(Group group) {
+        if (group == null)
+            return 0;
+
+        var number = groupNumbers.get(group);
+        if (number == null) {
+            number = freeGroupNumbers.poll();
+            if (number == null) {
+                groupTable.add(group);
+                number = groupTable.size();
+                selectedPerGroup = Arrays.copyOf(selectedPerGroup, number + 1);
+                groupSizes = Arrays.copyOf(groupSizes, number + 1);
+                groupDeltas = Arrays.copyOf(groupDeltas, number + 1);
+            } else {
+                groupTable.set(number - 1, group);
+            }
+            groupNumbers.put(group, number);
+        }
+        return number;
+    }
+
+    /**
+     * Zählt eine Lampe weniger in der Gruppe mit der Nummer, bei der letzten wird die Nummer frei
+     */
+    private void releaseGroupNumber(int number) {
+        if (number == 0 || --groupSizes[number] > 0)
+            return;
+
+        // ohne Lampen ist auch keine davon ausgewählt, selectedPerGroup ist schon 0
+        groupNumbers.remove(groupTable.get(number - 1));
+        groupTable.set(number - 1, null);
+        freeGroupNumbers.push(number);
+    }
+
+    // Zähler
+
+    /**
+     * Übernimmt das Umschalten einer Lampe in die Zähler
+     * @param delta 1 beim Anschalten, -1 beim Ausschalten
+     */
+    private void countSwitched(int slot, int delta) {
+        if (selected.get(slot))
+            selectedOnCount += delta;
+        if (indexGroups && groups[slot] != 0)
+            groupTable.get(groups[slot] - 1).addOnCount(delta);
+    }
+
+    /**
+     * Übernimmt das Umschalten vieler Lampen in die Zähler, jede Gruppe wird nur einmal geändert
+     * @param switched die umgeschalteten Plätze, ihr neuer Zustand steht schon in {@link #on}
+     */
+    private void countSwitched(BitSet switched) {
+        for (int slot = switched.nextSetBit(0); slot >= 0; slot = switched.nextSetBit(slot + 1)) {
+            var delta = on.get(slot) ? 1 : -1;
+            if (selected.get(slot))
+                selectedOnCount += delta;
+            var number = groups[slot];
+            if (indexGroups && number != 0) {
+                groupDeltas[number] += delta;
+                switchedGroups.set(number);
+            }
+        }
+
+        // nur die Gruppen, die vorkamen, und die Änderungen für das nächste Mal gleich zurücksetzen
+        for (int number = switchedGroups.nextSetBit(0); number >= 0; number = switchedGroups.nextSetBit(number + 1)) {
+            if (groupDeltas[number] != 0)
+                groupTable.get(number - 1).addOnCount(groupDeltas[number]);
+            groupDeltas[number] = 0;
+        }
+        switchedGroups.clear();
+    }
+
+    /**
+     * Übernimmt das Aus- oder Abwählen einer Lampe in die Zähler
+     * @param delta 1 beim Auswählen, -1 beim Abwählen
+     */
+    private void countSelected(int slot, int delta) {
+        selectedCount += delta;
+        if (on.get(slot))
+            selectedOnCount += delta;
+        selectedPerGroup[groups[slot]] += delta;
+    }
+
+    // Listener
+
+    private void fireChanged(int slot, int properties) {
+        LampMetrics.count(LampMetrics.Counter.MODEL_NOTIFICATIONS, listeners.size());
+        for (var listener : listeners) {
+            listener.lampChanged(slot, properties);
+        }
+    }
+
+    private void fireChanged(BitSet slots, int properties) {
+        LampMetrics.count(LampMetrics.Counter.MODEL_NOTIFICATIONS, listeners.size());
+        for (var listener : listeners) {
+            listener.lampsChanged(slots, properties);
+        }
+    }
+
+    /**
+     * Fügt einen {@link Listener} hinzu
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Entfernt einen {@link Listener}
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
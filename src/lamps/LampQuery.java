@@ -0,0 +1,795 @@
+package lamps;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Eine Abfrage über die Lampen, z.B. {@code group:Flur on:true x<400}.
+ * <pre>
+ * group:Name            Lampen der Gruppe und ihrer Untergruppen, Namen mit Leerzeichen in "...",
+ *                       group:- für Lampen ohne Gruppe
+ * on:true|false         angeschaltete oder ausgeschaltete Lampen
+ * selected:true|false   ausgewählte oder nicht ausgewählte Lampen
+ * x&lt;400  y&gt;=100         Position des Mittelpunkts, mit &lt; &lt;= &gt; &gt;= =
+ * brightness&gt;100        Helligkeit, ebenso kelvin für die Farbtemperatur
+ * a b   a AND b         beide Bedingungen
+ * a OR b                eine der Bedingungen
+ * NOT a   -a            die Bedingung gilt nicht
+ * ( ... )               Klammern
+ * </pre>
+ * Eine leere Abfrage trifft alle Lampen.
+ * <p>
+ * Ausgewertet wird mit {@link LampQueryEngine} über Indizes statt über alle Lampen: Gruppen kennen ihre Lampen,
+ * An/Aus und Auswahl liegen als Bitmengen im Modell und Positionen im {@link LampGrid}.
+ * Bei einer Und-Verknüpfung werden die Bedingungen an x und y zu einem Rechteck im Gitter zusammengefasst. Die
+ * Bedingung mit der kleinsten geschätzten Trefferzahl liefert die Kandidaten, die übrigen werden nur noch an diesen
+ * geprüft.
+ */
+public final class LampQuery {
+    /**
+     * Pseudo-Eigenschaft für Abhängigkeiten von Namen und Baum der Gruppen, neben denen aus {@link LampModel}
+     */
+    static final int GROUP_TREE = 1 << 16;
+
+    /**
+     * Ein Knoten der Abfrage
+     */
+    private interface Node {
+        /**
+         * Schätzt die Anzahl der Treffer, ohne die Lampen einzeln anzusehen
+         */
+        long estimate(LampQueryEngine engine);
+
+        /**
+         * Setzt die Plätze aller Treffer
+         */
+        void collect(LampQueryEngine engine, BitSet result);
+
+        /**
+         * Prüft eine einzelne Lampe
+         */
+        boolean test(LampQueryEngine engine, int slot);
+
+        /**
+         * Entfernt die Plätze, die keine Treffer sind
+         */
+        default void filter(LampQueryEngine engine, BitSet candidates) {
+            for (int slot = candidates.nextSetBit(0); slot >= 0; slot = candidates.nextSetBit(slot + 1)) {
+                if (!test(engine, slot))
+                    candidates.clear(slot);
+            }
+        }
+
+        /**
+         * Gibt die Eigenschaften aus {@link LampModel} und {@link #GROUP_TREE} zurück, von denen die Treffer abhängen
+         */
+        int dependencies();
+    }
+
+    private final String text;
+    private final Node root;
+
+    private LampQuery(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    /**
+     * Liest eine Abfrage
+     * @param query der Text der Abfrage
+     * @return die Abfrage
+     * @throws IllegalArgumentException wenn der Text keine gültige Abfrage ist
+     */
+    public static LampQuery parse(String query) {
+        var parser = new Parser(query);
+        var root = parser.parse();
+        return new LampQuery(root.toString(), root);
+    }
+
+    /**
+     * Gibt die Abfrage in einer einheitlichen Schreibweise zurück, gleiche Abfragen ergeben denselben Text
+     * @return der Text
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LampQuery && text.equals(((LampQuery) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+        return text.hashCode();
+    }
+
+    // Auswerten, über LampQueryEngine
+
+    void collect(LampQueryEngine engine, BitSet result) {
+        root.collect(engine, result);
+    }
+
+    int dependencies() {
+        return root.dependencies() | LampModel.ADDED | LampModel.REMOVED;
+    }
+
+    // Knoten
+
+    private static final class All implements Node {
+        @Override
+        public long estimate(LampQueryEngine engine) {
+            return engine.getModel().size();
+        }
+
+        @Override
+        public void collect(LampQueryEngine engine, BitSet result) {
+            result.or(engine.getModel().getUsedSlots());
+        }
+
+        @Override
+        public boolean test(LampQueryEngine engine, int slot) {
+            return true;
+        }
+
+        @Override
+        public void filter(LampQueryEngine engine, BitSet candidates) {
+        }
+
+        @Override
+        public int dependencies() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "*";
+        }
+    }
+
+    private static final class And implements Node {
+        private final List<Node> children;
+
+        And(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        public long estimate(LampQueryEngine engine) {
+            var estimate = Long.MAX_VALUE;
+            for (var child : children) {
+                estimate = Math.min(estimate, child.estimate(engine));
+            }
+            return estimate;
+        }
+
+        @Override
+        public void collect(LampQueryEngine engine, BitSet result) {
+            // die Bedingung mit den wenigsten Treffern liefert die Kandidaten, die seltensten filtern zuerst
+            var ordered = new ArrayList<>(children);
+            var estimates = new IdentityHashMap<Node, Long>();
+            for (var child : ordered) {
+                estimates.put(child, child.estimate(engine));
+            }
+            ordered.sort(Comparator.comparing(estimates::get));
+
+            var candidates = new BitSet();
+            ordered.get(0).collect(engine, candidates);
+            for (int i = 1; i < ordered.size() && !candidates.isEmpty(); i++) {
+                ordered.get(i).filter(engine, candidates);
+            }
+            result.or(candidates);
+        }
+
+        @Override
+        public boolean test(LampQueryEngine engine, int slot) {
+            for (var child : children) {
+                if (!child.test(engine, slot))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void filter(LampQueryEngine engine, BitSet candidates) {
+            for (var child : children) {
+                child.filter(engine, candidates);
+            }
+        }
+
+        @Override
+        public int dependencies() {
+            var dependencies = 0;
+            for (var child : children) {
+                dependencies |= child.dependencies();
+            }
+            return dependencies;
+        }
+
+        @Override
+        public String toString() {
+            var parts = new ArrayList<String>();
+            for (var child : children) {
+                parts.add(child instanceof Or ? "(" + child + ")" : child.toString());
+            }
+            return String.join(" ", parts);
+        }
+    }
+
+    private static final class Or implements Node {
+        private final List<Node> children;
+
+        Or(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        public long estimate(LampQueryEngine engine) {
+            long estimate = 0;
+            for (var child : children) {
+                estimate += child.estimate(engine);
+            }
+            return Math.min(estimate, engine.getModel().size());
+        }
+
+        @Override
+        public void collect(LampQueryEngine engine, BitSet result) {
+            for (var child : children) {
+                child.collect(engine, result);
+            }
+        }
+
+        @Override
+        public boolean test(LampQueryEngine engine, int slot) {
+            for (var child : children) {
+                if (child.test(engine, slot))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int dependencies() {
+            var dependencies = 0;
+            for (var child : children) {
+                dependencies |= child.dependencies();
+            }
+            return dependencies;
+        }
+
+        @Override
+        public String toString() {
+            var parts = new ArrayList<String>();
+            for (var child : children) {
+                parts.add(child.toString());
+            }
+            return String.join(" OR ", parts);
+        }
+    }
+
+    private static final class Not implements Node {
+        private final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        public long estimate(LampQueryEngine engine) {
+            // die Bedingung selbst kann nur nach oben geschätzt werden, daher hier keine Einschränkung annehmen
+            return engine.getModel().size();
+        }
+
+        @Override
+        public void collect(LampQueryEngine engine, BitSet result) {
+            var excluded = new BitSet();
+            child.collect(engine, excluded);
+            var matches = (BitSet) engine.getModel().getUsedSlots().clone();
+            matches.andNot(excluded);
+            result.or(matches);
+        }
+
+        @Override
+        public boolean test(LampQueryEngine engine, int slot) {
+            return !child.test(engine, slot);
+        }
+
+        @Override
+        public int dependencies() {
+            return child.dependencies();
+        }
+
+        @Override
+        public String toString() {
+            return child instanceof And || child instanceof Or ? "NOT (" + child + ")" : "NOT " + child;
+        }
+    }
+
+    private static final class GroupTerm implements Node {
+        /**
+         * der Name, oder null für Lampen ohne Gruppe
+         */
+        private final String name;
+
+        GroupTerm(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public long estimate(LampQueryEngine engine) {
+            if (name == null)
+                return engine.getModel().size();
+
+            long estimate = 0;
+            for (var group : engine.findGroups(name)) {
+                estimate += group.getSubtreeLampCount();
+            }
+            return estimate;
+        }
+
+        @Override
+        public void collect(LampQueryEngine engine, BitSet result) {
+            if (name == null) {
+                engine.getModel().collectGroup(null, result);
+                return;
+            }
+            for (var group : engine.findGroups(name)) {
+                group.collectSubtreeSlots(result);
+            }
+        }
+
+        @Override
+        public boolean test(LampQueryEngine engine, int slot) {
+            var group = engine.getModel().getGroup(slot);
+            if (name == null || group == null)
+                return name == null && group == null;
+
+            for (var candidate : engine.findGroups(name)) {
+                if (group.isInSubtreeOf(candidate))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int dependencies() {
+            return LampModel.GROUP | GROUP_TREE;
+        }
+
+        @Override
+        public String toString() {
+            return "group:" + (name == null ? "-" : quote(name));
+        }
+    }
+
+    private static final class FlagTerm implements Node {
+        private final boolean selected;
+        private final boolean value;
+
+        FlagTerm(boolean selected, boolean value) {
+            this.selected = selected;
+            this.value = value;
+        }
+
+        private BitSet bits(LampModel model) {
+            return selected ? model.getSelectedSlots() : model.getOnSlots();
+        }
+
+        @Override
+        public long estimate(LampQueryEngine engine) {
+            var model = engine.getModel();
+            var count = selected ? model.countSelected() : model.countOn();
+            return value ? count : model.size() - count;
+        }
+
+        @Override
+        public void collect(LampQueryEngine engine, BitSet result) {
+            var model = engine.getModel();
+            if (value) {
+                result.or(bits(model));
+            } else {
+                var matches = (BitSet) model.getUsedSlots().clone();
+                matches.andNot(bits(model));
+                result.or(matches);
+            }
+        }
+
+        @Override
+        public boolean test(LampQueryEngine engine, int slot) {
+            return bits(engine.getModel()).get(slot) == value;
+        }
+
+        @Override
+        public void filter(LampQueryEngine engine, BitSet candidates) {
+            // wortweise statt Lampe für Lampe
+            if (value)
+                candidates.and(bits(engine.getModel()));
+            else
+                candidates.andNot(bits(engine.getModel()));
+        }
+
+        @Override
+        public int dependencies() {
+            return selected ? LampModel.SELECTED : LampModel.ON;
+        }
+
+        @Override
+        public String toString() {
+            return (selected ? "selected:" : "on:") + value;
+        }
+    }
+
+    private static final class RegionTerm implements Node {
+        private final double minX, minY, maxX, maxY;
+
+        RegionTerm(double minX, double minY, double maxX, double maxY) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        @Override
+        public long estimate(LampQueryEngine engine) {
+            if (minX > maxX || minY > maxY)
+                return 0;
+            return engine.getGrid().estimate(minX, minY, maxX, maxY);
+        }
+
+        @Override
+        public void collect(LampQueryEngine engine, BitSet result) {
+            if (minX <= maxX && minY <= maxY)
+                engine.getGrid().collect(minX, minY, maxX, maxY, result);
+        }
+
+        @Override
+        public boolean test(LampQueryEngine engine, int slot) {
+            var model = engine.getModel();
+            var x = model.getX(slot);
+            var y = model.getY(slot);
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+
+        @Override
+        public int dependencies() {
+            return LampModel.POSITION;
+        }
+
+        @Override
+        public String toString() {
+            var parts = new ArrayList<String>();
+            bound(parts, "x", minX, maxX);
+            bound(parts, "y", minY, maxY);
+            return parts.isEmpty() ? "*" : String.join(" ", parts);
+        }
+
+        private static void bound(List<String> parts, String axis, double min, double max) {
+            if (min == max) {
+                parts.add(axis + "=" + number(min));
+                return;
+            }
+            if (min != Double.NEGATIVE_INFINITY)
+                parts.add(axis + ">=" + number(min));
+            if (max != Double.POSITIVE_INFINITY)
+                parts.add(axis + "<=" + number(max));
+        }
+    }
+
+    private static final class LevelTerm implements Node {
+        private final boolean colorTemperature;
+        private final String operator;
+        private final double value;
+
+        LevelTerm(boolean colorTemperature, String operator, double value) {
+            this.colorTemperature = colorTemperature;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        public long estimate(LampQueryEngine engine) {
+            return engine.getModel().size(); // kein Index
+        }
+
+        @Override
+        public void collect(LampQueryEngine engine, BitSet result) {
+            var used = engine.getModel().getUsedSlots();
+            for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+                if (test(engine, slot))
+                    result.set(slot);
+            }
+        }
+
+        @Override
+        public boolean test(LampQueryEngine engine, int slot) {
+            var model = engine.getModel();
+            var level = colorTemperature ? model.getColorTemperature(slot) : model.getBrightness(slot);
+            switch (operator) {
+                case "<":
+                    return level < value;
+                case "<=":
+                    return level <= value;
+                case ">":
+                    return level > value;
+                case ">=":
+                    return level >= value;
+                default:
+                    return level == value;
+            }
+        }
+
+        @Override
+        public int dependencies() {
+            return LampModel.LEVEL;
+        }
+
+        @Override
+        public String toString() {
+            return (colorTemperature ? "kelvin" : "brightness") + operator + number(value);
+        }
+    }
+
+    private static String quote(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (!isWordChar(name.charAt(i)))
+                return '"' + name.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+        }
+        return name.isEmpty() || name.equals("-") ? '"' + name + '"' : name;
+    }
+
+    private static String number(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static boolean isWordChar(char c) {
+        return !Character.isWhitespace(c) && "()<>=:\"&|".indexOf(c) < 0;
+    }
+
+    // Lesen
+
+    /**
+     * Liest eine Abfrage durch rekursiven Abstieg
+     */
+    private static final class Parser {
+        private final String text;
+        private int position = 0;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parse() {
+            skipWhitespace();
+            if (position == text.length())
+                return new All();
+
+            var node = parseOr();
+            if (position < text.length())
+                throw error("Unerwartetes Zeichen");
+            return node;
+        }
+
+        private Node parseOr() {
+            var children = new ArrayList<Node>();
+            children.add(parseAnd());
+            while (keyword("OR") || symbol('|')) {
+                children.add(parseAnd());
+            }
+            return children.size() == 1 ? children.get(0) : new Or(children);
+        }
+
+        private Node parseAnd() {
+            var children = new ArrayList<Node>();
+            children.add(parseUnary());
+            while (true) {
+                skipWhitespace();
+                if (position == text.length() || peek() == ')' || peek() == '|' || isKeyword("OR"))
+                    break;
+                if (!keyword("AND"))
+                    symbol('&');
+                children.add(parseUnary());
+            }
+            return and(children);
+        }
+
+        private Node parseUnary() {
+            skipWhitespace();
+            if (keyword("NOT") || symbol('-'))
+                return new Not(parseUnary());
+            if (symbol('(')) {
+                var node = parseOr();
+                if (!symbol(')'))
+                    throw error("\")\" erwartet");
+                return node;
+            }
+            return parseTerm();
+        }
+
+        private Node parseTerm() {
+            var start = position;
+            var key = word().toLowerCase(Locale.ROOT);
+            if (key.isEmpty())
+                throw error("Bedingung erwartet");
+
+            if (position < text.length() && text.charAt(position) == ':') {
+                position++;
+                var value = value();
+                switch (key) {
+                    case "group":
+                        return new GroupTerm(value.equals("-") ? null : value);
+                    case "on":
+                        return new FlagTerm(false, bool(value));
+                    case "selected":
+                        return new FlagTerm(true, bool(value));
+                }
+            } else {
+                var operator = operator();
+                if (operator != null) {
+                    var value = number();
+                    switch (key) {
+                        case "x":
+                            return region(true, operator, value);
+                        case "y":
+                            return region(false, operator, value);
+                        case "brightness":
+                            return new LevelTerm(false, operator, value);
+                        case "kelvin":
+                            return new LevelTerm(true, operator, value);
+                    }
+                }
+            }
+            position = start;
+            throw error("Unbekannte Bedingung");
+        }
+
+        /**
+         * Fasst die Rechtecke einer Und-Verknüpfung zu einem zusammen
+         */
+        private static Node and(List<Node> children) {
+            RegionTerm region = null;
+            var others = new ArrayList<Node>();
+            for (var child : children) {
+                if (child instanceof RegionTerm) {
+                    var r = (RegionTerm) child;
+                    region = region == null ? r : new RegionTerm(
+                            Math.max(region.minX, r.minX), Math.max(region.minY, r.minY),
+                            Math.min(region.maxX, r.maxX), Math.min(region.maxY, r.maxY)
+                    );
+                } else {
+                    others.add(child);
+                }
+            }
+            if (region != null)
+                others.add(0, region);
+            return others.size() == 1 ? others.get(0) : new And(others);
+        }
+
+        private static RegionTerm region(boolean x, String operator, double value) {
+            double min = Double.NEGATIVE_INFINITY, max = Double.POSITIVE_INFINITY;
+            switch (operator) {
+                case "<":
+                    max = Math.nextDown(value);
+                    break;
+                case "<=":
+                    max = value;
+                    break;
+                case ">":
+                    min = Math.nextUp(value);
+                    break;
+                case ">=":
+                    min = value;
+                    break;
+                default:
+                    min = max = value;
+            }
+            return x ? new RegionTerm(min, Double.NEGATIVE_INFINITY, max, Double.POSITIVE_INFINITY)
+                    : new RegionTerm(Double.NEGATIVE_INFINITY, min, Double.POSITIVE_INFINITY, max);
+        }
+
+        private boolean bool(String value) {
+            switch (value.toLowerCase(Locale.ROOT)) {
+                case "true":
+                    return true;
+                case "false":
+                    return false;
+                default:
+                    throw error("true oder false erwartet");
+            }
+        }
+
+        private String operator() {
+            for (var operator : new String[]{"<=", ">=", "<", ">", "="}) {
+                if (text.startsWith(operator, position)) {
+                    position += operator.length();
+                    return operator;
+                }
+            }
+            return null;
+        }
+
+        private double number() {
+            var start = position;
+            var word = word();
+            try {
+                return Double.parseDouble(word);
+            } catch (NumberFormatException e) {
+                position = start;
+                throw error("Zahl erwartet");
+            }
+        }
+
+        /**
+         * Liest einen Wert, in Anführungszeichen darf er Leerzeichen und mit \ maskierte Zeichen enthalten
+         */
+        private String value() {
+            if (position == text.length() || text.charAt(position) != '"') {
+                var word = word();
+                if (word.isEmpty())
+                    throw error("Wert erwartet");
+                return word;
+            }
+
+            var value = new StringBuilder();
+            position++;
+            while (position < text.length() && text.charAt(position) != '"') {
+                if (text.charAt(position) == '\\' && position + 1 < text.length())
+                    position++;
+                value.append(text.charAt(position++));
+            }
+            if (position == text.length())
+                throw error("\" erwartet");
+            position++;
+            return value.toString();
+        }
+
+        private String word() {
+            var start = position;
+            while (position < text.length() && isWordChar(text.charAt(position))) {
+                position++;
+            }
+            return text.substring(start, position);
+        }
+
+        private char peek() {
+            return text.charAt(position);
+        }
+
+        private boolean symbol(char c) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean isKeyword(String keyword) {
+            var end = position + keyword.length();
+            return text.regionMatches(true, position, keyword, 0, keyword.length())
+                    && (end == text.length() || Character.isWhitespace(text.charAt(end)) || text.charAt(end) == '(');
+        }
+
+        private boolean keyword(String keyword) {
+            skipWhitespace();
+            if (!isKeyword(keyword))
+                return false;
+            position += keyword.length();
+            return true;
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " an Stelle " + (position + 1));
+        }
+    }
+}
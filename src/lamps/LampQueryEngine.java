@@ -0,0 +1,179 @@
+package lamps;
+
+import javafx.beans.InvalidationListener;
+import javafx.collections.ListChangeListener;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wertet {@link LampQuery}s über die Indizes eines {@link LampsContainer}s aus und übernimmt die Treffer in die Auswahl.
+ * <p>
+ * Die Ergebnisse der letzten Abfragen werden zwischengespeichert, zusammen mit den Eigenschaften, von denen sie
+ * abhängen. Eine Änderung verwirft nur die Ergebnisse, die von ihr betroffen sind: Schalten z.B. keine Abfragen, die
+ * nur nach Gruppe und Position fragen. Gemeldete Änderungen werden dafür nur gesammelt und erst bei der nächsten
+ * Abfrage angewendet, eine Änderung kostet also nur ein Oder auf einem int.
+ */
+public class LampQueryEngine implements LampModel.Listener, GroupTree.Listener {
+    /**
+     * so viele Ergebnisse werden höchstens zwischengespeichert
+     */
+    static final int CACHE_SIZE = 16;
+
+    /**
+     * Ein zwischengespeichertes Ergebnis
+     */
+    private static class Result {
+        final BitSet result;
+        final int dependencies;
+
+        Result(BitSet result, int dependencies) {
+            this.result = result;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final LampsContainer container;
+    private final GroupTree tree;
+
+    private final LinkedHashMap<LampQuery, Result> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LampQuery, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * die seit der letzten Abfrage geänderten Eigenschaften
+     */
+    private int changed = 0;
+
+    private final InvalidationListener nameListener = observable -> changed |= LampQuery.GROUP_TREE;
+    private final ListChangeListener<Group> groupsListener = this::groupsChanged;
+
+    /**
+     * Erstellt die Auswertung für die Lampen eines Containers
+     * @param container der Container
+     * @param tree der Baum mit allen Gruppen
+     */
+    public LampQueryEngine(LampsContainer container, GroupTree tree) {
+        this.container = container;
+        this.tree = tree;
+
+        container.getModel().addListener(this);
+        tree.addListener(this);
+        tree.getGroups().addListener(groupsListener);
+        for (var group : tree.getGroups()) {
+            group.nameProperty().addListener(nameListener);
+        }
+    }
+
+    /**
+     * Gibt die Plätze aller Lampen zurück, auf die eine Abfrage zutrifft
+     * @param query die Abfrage
+     * @return die Plätze, dürfen verändert werden
+     */
+    public BitSet evaluate(LampQuery query) {
+        invalidate();
+        LampMetrics.count(LampMetrics.Counter.QUERIES);
+
+        var entry = cache.get(query);
+        if (entry != null) {
+            LampMetrics.count(LampMetrics.Counter.QUERY_CACHE_HITS);
+        } else {
+            var result = new BitSet();
+            query.collect(this, result);
+            entry = new Result(result, query.dependencies());
+            cache.put(query, entry);
+        }
+        return (BitSet) entry.result.clone();
+    }
+
+    /**
+     * Wählt alle Lampen aus, auf die eine Abfrage zutrifft, mit einer einzigen Änderung der Auswahl
+     * @param query die Abfrage
+     * @param extend ob die Lampen zur bisherigen Auswahl hinzugefügt werden, statt sie zu ersetzen
+     * @return die Anzahl der Treffer
+     */
+    public int select(LampQuery query, boolean extend) {
+        var slots = evaluate(query);
+        container.selectSlots(slots, extend);
+        return slots.cardinality();
+    }
+
+    /**
+     * Beendet das Beobachten von Lampen und Gruppen
+     */
+    public void dispose() {
+        container.getModel().removeListener(this);
+        tree.removeListener(this);
+        tree.getGroups().removeListener(groupsListener);
+        for (var group : tree.getGroups()) {
+            group.nameProperty().removeListener(nameListener);
+        }
+        cache.clear();
+    }
+
+    /**
+     * Verwirft die Ergebnisse, die von den gesammelten Änderungen betroffen sind
+     */
+    private void invalidate() {
+        if (changed == 0)
+            return;
+
+        for (Iterator<Result> iterator = cache.values().iterator(); iterator.hasNext(); ) {
+            if ((iterator.next().dependencies & changed) != 0)
+                iterator.remove();
+        }
+        changed = 0;
+    }
+
+    // für LampQuery
+
+    LampModel getModel() {
+        return container.getModel();
+    }
+
+    LampGrid getGrid() {
+        return container.getGrid();
+    }
+
+    /**
+     * Gibt alle Gruppen mit einem Namen zurück, Groß- und Kleinschreibung werden nicht unterschieden
+     */
+    Set<Group> findGroups(String name) {
+        return tree.findGroups(name);
+    }
+
+    // Änderungen
+
+    @Override
+    public void lampChanged(int slot, int properties) {
+        changed |= properties;
+    }
+
+    @Override
+    public void lampsChanged(BitSet slots, int properties) {
+        changed |= properties;
+    }
+
+    @Override
+    public void groupMoved(Group group) {
+        changed |= LampQuery.GROUP_TREE;
+    }
+
+    private void groupsChanged(ListChangeListener.Change<? extends Group> change) {
+        while (change.next()) {
+            for (var group : change.getRemoved()) {
+                group.nameProperty().removeListener(nameListener);
+            }
+            for (var group : change.getAddedSubList()) {
+                group.nameProperty().addListener(nameListener);
+            }
+        }
+        changed |= LampQuery.GROUP_TREE;
+    }
+}
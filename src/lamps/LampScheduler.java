@@ -0,0 +1,309 @@
+package lamps;
+
+import javafx.application.Platform;
+
+import java.time.Clock;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Führt Aktionen an Lampen und Gruppen zu festgelegten Zeitpunkten aus, z.B. "Flur um 06:00 an, um 22:00 aus".
+ * <p>
+ * Die ausstehenden Aktionen liegen in einem {@link TimerWheel} mit einem Tick von {@link #TICK_MILLIS} ms,
+ * so bleiben auch Millionen Aktionen günstig. Ein eigener Thread schläft bis zum nächsten belegten Tick und sammelt
+ * die fälligen Aktionen; im JavaFX-Thread werden alle bis dahin fälligen gemeinsam in einem
+ * {@link LampsContainer#batch(Runnable)} ausgeführt, es steht immer höchstens ein {@link Platform#runLater(Runnable)}
+ * aus.
+ * <p>
+ * Die Zeit kommt von einer {@link Clock}. Ohne {@link #start()} dreht sich das Rad nur bei {@link #advance()}, so kann
+ * z.B. mit einer verstellbaren Uhr ein ganzer Tag in wenigen Millisekunden durchlaufen werden.
+ */
+public class LampScheduler {
+    /**
+     * die Auflösung des Zeitplans in Millisekunden
+     */
+    static final long TICK_MILLIS = 10;
+
+    private final LampsContainer container;
+    private final Clock clock;
+
+    /**
+     * die ausstehenden Aktionen, geschützt durch this
+     */
+    private final TimerWheel<Runnable> wheel;
+
+    /**
+     * die fälligen Aktionen, die noch im JavaFX-Thread ausgeführt werden müssen
+     */
+    private final ConcurrentLinkedQueue<Runnable> due = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
+
+    private Thread thread = null;
+    private boolean running = false;
+
+    /**
+     * Erstellt einen Zeitplan ohne Aktionen
+     * @param container der Container mit den Lampen
+     * @param clock die Uhr, nach der die Aktionen fällig werden
+     */
+    public LampScheduler(LampsContainer container, Clock clock) {
+        this.container = container;
+        this.clock = clock;
+        wheel = new TimerWheel<>(tick(clock.millis()));
+    }
+
+    /**
+     * Gibt die Uhr des Zeitplans zurück
+     * @return die Uhr
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Gibt die Anzahl der ausstehenden Aktionen zurück
+     * @return die Anzahl
+     */
+    public synchronized int size() {
+        return wheel.size();
+    }
+
+    /**
+     * Plant eine Aktion ein, sie wird im JavaFX-Thread ausgeführt.
+     * Vergangene Zeitpunkte werden so bald wie möglich ausgeführt.
+     * @param timeMillis der Zeitpunkt in Millisekunden seit 1970 nach der Uhr des Zeitplans
+     * @param action die Aktion
+     * @return die Kennung für {@link #cancel(long)}
+     */
+    public synchronized long schedule(long timeMillis, Runnable action) {
+        var tick = tick(timeMillis);
+        var wakeUp = tick < wheel.nextTickLowerBound();
+        var id = wheel.schedule(tick, action);
+        if (wakeUp)
+            notifyAll(); // der Thread schläft womöglich zu lange
+        return id;
+    }
+
+    /**
+     * Bricht eine Aktion ab, solange sie noch nicht fällig ist
+     * @param id die Kennung aus {@link #schedule(long, Runnable)}
+     * @return ob die Aktion abgebrochen wurde
+     */
+    public synchronized boolean cancel(long id) {
+        return wheel.cancel(id);
+    }
+
+    /**
+     * Plant das Schalten einer Lampe ein
+     * @param timeMillis der Zeitpunkt
+     * @param lamp die Lampe
+     * @param on ob die Lampe an- oder ausgeschaltet wird
+     * @return die Kennung für {@link #cancel(long)}
+     */
+    public long scheduleSwitch(long timeMillis, Lamp lamp, boolean on) {
+        return schedule(timeMillis, () -> lamp.setOn(on));
+    }
+
+    /**
+     * Plant das Schalten aller Lampen einer Gruppe und ihrer Untergruppen ein.
+     * Es werden die Lampen geschaltet, die zum Zeitpunkt darin sind.
+     * @param timeMillis der Zeitpunkt
+     * @param group die Gruppe
+     * @param on ob die Lampen an- oder ausgeschaltet werden
+     * @return die Kennung für {@link #cancel(long)}
+     */
+    public long scheduleGroup(long timeMillis, Group group, boolean on) {
+        return schedule(timeMillis, () -> switchGroup(group, on));
+    }
+
+    /**
+     * Plant das tägliche Schalten einer Gruppe und ihrer Untergruppen ein, z.B. jeden Tag um 06:00 an.
+     * Die Uhrzeit gilt in der Zeitzone der Uhr.
+     * @param time die Uhrzeit
+     * @param group die Gruppe
+     * @param on ob die Lampen an- oder ausgeschaltet werden
+     * @return beendet das tägliche Schalten, auch wenn es gerade fällig ist
+     */
+    public Runnable scheduleDaily(LocalTime time, Group group, boolean on) {
+        var daily = new Daily(time, group, on);
+        synchronized (this) {
+            daily.id = schedule(nextOccurrence(time), daily);
+        }
+        return () -> {
+            synchronized (this) {
+                daily.cancelled = true;
+                cancel(daily.id);
+            }
+        };
+    }
+
+    /**
+     * Plant das gestaffelte Schalten mehrerer Lampen ein, z.B. um viele Lampen nacheinander hochzufahren
+     * @param startMillis der Zeitpunkt für die erste Lampe
+     * @param intervalMillis der Abstand zwischen zwei Lampen
+     * @param lamps die Lampen in der Reihenfolge, in der sie geschaltet werden
+     * @param on ob die Lampen an- oder ausgeschaltet werden
+     */
+    public synchronized void scheduleSequence(long startMillis, long intervalMillis, List<Lamp> lamps, boolean on) {
+        for (int i = 0; i < lamps.size(); i++) {
+            scheduleSwitch(startMillis + i * intervalMillis, lamps.get(i), on);
+        }
+    }
+
+    /**
+     * Dreht das Rad bis zur aktuellen Zeit der Uhr weiter und gibt die fälligen Aktionen an den JavaFX-Thread weiter.
+     * Wird vom Thread des Zeitplans aufgerufen, ohne {@link #start()} muss das selbst geschehen.
+     */
+    public void advance() {
+        synchronized (this) {
+            wheel.advanceTo(tick(clock.millis()), due::add);
+        }
+        if (!due.isEmpty() && applyScheduled.compareAndSet(false, true))
+            Platform.runLater(this::applyDue);
+    }
+
+    /**
+     * Führt alle fälligen Aktionen gemeinsam aus, darf nur im JavaFX-Thread aufgerufen werden
+     */
+    public void applyDue() {
+        applyScheduled.set(false);
+
+        var actions = new ArrayList<Runnable>();
+        Runnable action;
+        while ((action = due.poll()) != null) {
+            actions.add(action);
+        }
+        if (actions.isEmpty())
+            return;
+
+        container.batch(() -> actions.forEach(Runnable::run));
+    }
+
+    /**
+     * Startet den Thread, der die Aktionen zu ihrer Zeit fällig werden lässt
+     */
+    public synchronized void start() {
+        if (thread != null)
+            return;
+
+        running = true;
+        thread = new Thread(this::run, "Lampen-Zeitplan");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Beendet den Thread, ausstehende Aktionen bleiben erhalten
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+            if (thread == null)
+                return;
+
+            running = false;
+            this.thread = null;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ein tägliches Schalten, das sich nach dem Ausführen für den nächsten Tag einplant
+     */
+    private class Daily implements Runnable {
+        final LocalTime time;
+        final Group group;
+        final boolean on;
+
+        // geschützt durch den Zeitplan
+        long id;
+        boolean cancelled = false;
+
+        Daily(LocalTime time, Group group, boolean on) {
+            this.time = time;
+            this.group = group;
+            this.on = on;
+        }
+
+        @Override
+        public void run() {
+            synchronized (LampScheduler.this) {
+                if (cancelled)
+                    return;
+                // den nächsten Tag erst beim Ausführen einplanen, damit es nie zwei gleichzeitig gibt
+                id = schedule(nextOccurrence(time), this);
+            }
+            switchGroup(group, on);
+        }
+    }
+
+    // im Thread des Zeitplans
+
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    // bis zum nächsten belegten Tick schlafen, neue frühere Aktionen wecken den Thread
+                    while (running) {
+                        var next = wheel.nextTickLowerBound();
+                        var wait = next == Long.MAX_VALUE ? Long.MAX_VALUE : next * TICK_MILLIS - clock.millis();
+                        if (wait <= 0)
+                            break;
+
+                        // nie zu lange am Stück, falls die Uhr verstellt wird
+                        wait(Math.min(wait, 60_000));
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running)
+                    return;
+            }
+            advance();
+        }
+    }
+
+    // im JavaFX-Thread
+
+    private void switchGroup(Group group, boolean on) {
+        // Lampen im Modell des Containers auf einmal schalten
+        var model = container.getModel();
+        var slots = new BitSet();
+        for (var member : group.getSubtree()) {
+            for (var lamp : member.getLamps()) {
+                if (lamp.getModel() == model)
+                    slots.set(lamp.getSlot());
+                else
+                    lamp.setOn(on);
+            }
+        }
+        model.setOn(slots, on);
+    }
+
+    /**
+     * Gibt den nächsten Zeitpunkt nach jetzt mit dieser Uhrzeit zurück
+     */
+    private long nextOccurrence(LocalTime time) {
+        var now = ZonedDateTime.ofInstant(clock.instant(), clock.getZone());
+        var next = now.with(time);
+        if (!next.isAfter(now))
+            next = now.plusDays(1).with(time);
+        return next.toInstant().toEpochMilli();
+    }
+
+    private static long tick(long millis) {
+        // aufrunden, damit nichts zu früh ausgeführt wird
+        return Math.floorDiv(millis + TICK_MILLIS - 1, TICK_MILLIS);
+    }
+}
@@ -0,0 +1,312 @@
+package lamps;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Die Auswahl von Lampen.
+ * Die ausgewählten Lampen werden in einer Identitätsmenge gespeichert, dadurch kostet das Nachschlagen,
+ * Hinzufügen und Entfernen einer Lampe unabhängig von der Größe der Auswahl gleich viel.
+ * Bei einer Änderung werden nur die tatsächlich hinzugefügten und entfernten Lampen aktualisiert.
+ */
+public class LampSelection implements Observable, Iterable<Lamp> {
+    /**
+     * Wird bei jeder Änderung der Auswahl mit den Unterschieden aufgerufen
+     */
+    public interface Listener {
+        /**
+         * Wird aufgerufen, wenn sich die Auswahl geändert hat
+         * @param added die neu ausgewählten Lampen
+         * @param removed die nicht mehr ausgewählten Lampen
+         */
+        void selectionChanged(Collection<Lamp> added, Collection<Lamp> removed);
+    }
+
+    private final Set<Lamp> lamps = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Lamp> unmodifiableLamps = Collections.unmodifiableSet(lamps);
+
+    private final ArrayList<InvalidationListener> invalidationListeners = new ArrayList<>();
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+
+    /**
+     * Verschachtelungstiefe von {@link #beginBatch()}
+     */
+    private int batchDepth = 0;
+
+    /**
+     * die während eines Batches gesammelten Unterschiede
+     */
+    private final Set<Lamp> pendingAdded = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Lamp> pendingRemoved = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Gibt zurück, ob die Lampe ausgewählt ist
+     * @param lamp die Lampe
+     * @return ob die Lampe ausgewählt ist
+     */
+    public boolean contains(Lamp lamp) {
+        return lamps.contains(lamp);
+    }
+
+    /**
+     * Gibt die Anzahl der ausgewählten Lampen zurück
+     * @return die Anzahl der ausgewählten Lampen
+     */
+    public int size() {
+        return lamps.size();
+    }
+
+    /**
+     * Gibt zurück, ob keine Lampe ausgewählt ist
+     * @return ob die Auswahl leer ist
+     */
+    public boolean isEmpty() {
+        return lamps.isEmpty();
+    }
+
+    /**
+     * Gibt die ausgewählten Lampen als nicht veränderbare Menge zurück
+     * @return die ausgewählten Lampen
+     */
+    public Set<Lamp> getLamps() {
+        return unmodifiableLamps;
+    }
+
+    @Override
+    public Iterator<Lamp> iterator() {
+        return unmodifiableLamps.iterator();
+    }
+
+    /**
+     * Gibt einen {@link Stream} über die ausgewählten Lampen zurück
+     * @return der Stream
+     */
+    public Stream<Lamp> stream() {
+        return lamps.stream();
+    }
+
+    /**
+     * Wählt eine Lampe zusätzlich aus
+     * @param lamp die Lampe
+     */
+    public void add(Lamp lamp) {
+        if (lamps.add(lamp))
+            fireChanged(List.of(lamp), List.of());
+    }
+
+    /**
+     * Wählt mehrere Lampen zusätzlich aus
+     * @param newLamps die Lampen
+     */
+    public void addAll(Collection<? extends Lamp> newLamps) {
+        var added = new ArrayList<Lamp>();
+        for (var lamp : newLamps) {
+            if (lamps.add(lamp))
+                added.add(lamp);
+        }
+
+        if (!added.isEmpty())
+            fireChanged(added, List.of());
+    }
+
+    /**
+     * Entfernt eine Lampe aus der Auswahl
+     * @param lamp die Lampe
+     * @return ob die Lampe ausgewählt war
+     */
+    public boolean remove(Lamp lamp) {
+        if (!lamps.remove(lamp))
+            return false;
+
+        fireChanged(List.of(), List.of(lamp));
+        return true;
+    }
+
+    /**
+     * Entfernt mehrere Lampen aus der Auswahl
+     * @param oldLamps die Lampen
+     */
+    public void removeAll(Collection<? extends Lamp> oldLamps) {
+        var removed = new ArrayList<Lamp>();
+        for (var lamp : oldLamps) {
+            if (lamps.remove(lamp))
+                removed.add(lamp);
+        }
+
+        if (!removed.isEmpty())
+            fireChanged(List.of(), removed);
+    }
+
+    /**
+     * Wählt die Lampe ab, wenn sie ausgewählt ist, und sonst aus (für Strg + Klick)
+     * @param lamp die Lampe
+     */
+    public void toggle(Lamp lamp) {
+        if (!remove(lamp))
+            add(lamp);
+    }
+
+    /**
+     * Wählt nur diese Lampe aus
+     * @param lamp die Lampe
+     */
+    public void select(Lamp lamp) {
+        setAll(List.of(lamp));
+    }
+
+    /**
+     * Ersetzt die Auswahl.
+     * Lampen, die vorher und nachher ausgewählt sind, werden nicht aktualisiert.
+     * @param newLamps die neu ausgewählten Lampen
+     */
+    public void setAll(Collection<? extends Lamp> newLamps) {
+        // für schnelles Nachschlagen wird eine Menge benötigt
+        Set<? extends Lamp> newSet;
+        if (newLamps instanceof Set) {
+            newSet = (Set<? extends Lamp>) newLamps;
+        } else {
+            var set = Collections.newSetFromMap(new IdentityHashMap<Lamp, Boolean>());
+            set.addAll(newLamps);
+            newSet = set;
+        }
+
+        // nicht mehr ausgewählte Lampen ermitteln
+        var removed = new ArrayList<Lamp>();
+        for (var iterator = lamps.iterator(); iterator.hasNext(); ) {
+            var lamp = iterator.next();
+            if (!newSet.contains(lamp)) {
+                iterator.remove();
+                removed.add(lamp);
+            }
+        }
+
+        // neu ausgewählte Lampen ermitteln
+        var added = new ArrayList<Lamp>();
+        for (var lamp : newSet) {
+            if (lamps.add(lamp))
+                added.add(lamp);
+        }
+
+        if (!added.isEmpty() || !removed.isEmpty())
+            fireChanged(added, removed);
+    }
+
+    /**
+     * Leert die Auswahl
+     */
+    public void clear() {
+        if (lamps.isEmpty())
+            return;
+
+        var removed = new ArrayList<>(lamps);
+        lamps.clear();
+        fireChanged(List.of(), removed);
+    }
+
+    /**
+     * Überträgt die Änderung auf die betroffenen Lampen und benachrichtigt alle Listener
+     */
+    private void fireChanged(Collection<Lamp> added, Collection<Lamp> removed) {
+        for (var lamp : removed) {
+            lamp.setSelected(false);
+        }
+        for (var lamp : added) {
+            lamp.setSelected(true);
+        }
+
+        if (batchDepth > 0) {
+            // nur die Unterschiede zum Stand vor dem Batch merken
+            for (var lamp : removed) {
+                if (!pendingAdded.remove(lamp))
+                    pendingRemoved.add(lamp);
+            }
+            for (var lamp : added) {
+                if (!pendingRemoved.remove(lamp))
+                    pendingAdded.add(lamp);
+            }
+            return;
+        }
+
+        notifyListeners(added, removed);
+    }
+
+    private void notifyListeners(Collection<Lamp> added, Collection<Lamp> removed) {
+        var event = new LampMetrics.SelectionEvent();
+        event.begin();
+        LampMetrics.count(LampMetrics.Counter.SELECTION_NOTIFICATIONS, listeners.size() + invalidationListeners.size());
+
+        for (var listener : new ArrayList<>(listeners)) {
+            listener.selectionChanged(added, removed);
+        }
+        for (var listener : new ArrayList<>(invalidationListeners)) {
+            listener.invalidated(this);
+        }
+
+        if (event.shouldCommit()) {
+            event.added = added.size();
+            event.removed = removed.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Beginnt einen Batch: Bis zum passenden {@link #endBatch()} werden die Listener nicht benachrichtigt
+     */
+    void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Beendet einen Batch und meldet alle Änderungen darin als eine einzige Änderung
+     */
+    void endBatch() {
+        if (--batchDepth > 0 || (pendingAdded.isEmpty() && pendingRemoved.isEmpty()))
+            return;
+
+        var added = new ArrayList<>(pendingAdded);
+        var removed = new ArrayList<>(pendingRemoved);
+        pendingAdded.clear();
+        pendingRemoved.clear();
+        notifyListeners(added, removed);
+    }
+
+    /**
+     * Fügt einen {@link Listener} hinzu, der die Unterschiede erhält
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Entfernt einen {@link Listener}
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Fügt einen {@link InvalidationListener} hinzu
+     */
+    @Override
+    public void addListener(InvalidationListener listener) {
+        if (!invalidationListeners.contains(listener)) // wenn nicht schon vorhanden
+            invalidationListeners.add(listener);
+    }
+
+    /**
+     * Entfernt einen {@link InvalidationListener}
+     */
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        invalidationListeners.remove(listener);
+    }
+}
@@ -0,0 +1,120 @@
+package lamps;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Group;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.effect.DropShadow;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.transform.Scale;
+
+import java.util.HashMap;
+
+/**
+ * Vorgerenderte Bilder einer Lampe für jeden Zustand (an/aus, Helligkeit, Farbtemperatur, ausgewählt/nicht ausgewählt).
+ * Der Schein ist ein {@link DropShadow} und damit teuer zu berechnen, deshalb wird er nur einmal je Zustand
+ * und Auflösung gezeichnet; alle Lampen verwenden danach dieselben Bilder.
+ * Die Auflösung wird auf Zweierpotenzen gerundet, Helligkeit und Farbtemperatur auf wenige Stufen,
+ * damit nur wenige Bilder entstehen. Gezeichnet werden sie erst, wenn sie gebraucht werden.
+ */
+final class LampSprites {
+    /**
+     * wie weit ein Bild über den Mittelpunkt der Lampe hinausreicht, einschließlich Schein und Rahmen
+     */
+    static final double EXTENT = Lamp.RADIUS + LampView.GLOW_RADIUS + LampView.STROKE_WIDTH;
+
+    private static final int MIN_LEVEL = -3;
+    private static final int MAX_LEVEL = 4;
+
+    /**
+     * so viele Stufen der Helligkeit und der Farbtemperatur werden unterschieden
+     */
+    static final int BRIGHTNESS_STEPS = 16;
+    static final int TEMPERATURE_STEPS = 8;
+
+    /**
+     * die Bilder je Auflösungsstufe, Index: 0 für aus, sonst 1 + die Stufe von Helligkeit und Farbtemperatur,
+     * das Ganze mal 2 plus ausgewählt
+     */
+    private static final HashMap<Integer, Image[]> sprites = new HashMap<>();
+
+    private LampSprites() {
+    }
+
+    /**
+     * Gibt das Bild für einen Zustand zurück, darf nur im JavaFX-Thread aufgerufen werden
+     * @param on ob die Lampe an ist
+     * @param lampLevel Helligkeit und Farbtemperatur der Lampe, siehe {@link LampModel#level(int, int)}
+     * @param selected ob die Lampe ausgewählt ist
+     * @param scale wie viele Bildpunkte auf eine Einheit der Lampenkoordinaten kommen
+     * @return das Bild, es deckt 2 * {@link #EXTENT} Einheiten um den Mittelpunkt ab
+     */
+    static Image get(boolean on, int lampLevel, boolean selected, double scale) {
+        var level = level(scale);
+        var images = sprites.computeIfAbsent(level, l -> new Image[2 * (1 + BRIGHTNESS_STEPS * TEMPERATURE_STEPS)]);
+        var brightnessStep = brightnessStep(LampModel.brightness(lampLevel));
+        var temperatureStep = temperatureStep(LampModel.colorTemperature(lampLevel));
+        var index = (on ? 1 + temperatureStep * BRIGHTNESS_STEPS + brightnessStep : 0) * 2 + (selected ? 1 : 0);
+        if (images[index] == null)
+            images[index] = render(on, brightnessStep, temperatureStep, selected, Math.pow(2, level));
+        return images[index];
+    }
+
+    /**
+     * Gibt zurück, ob für beide Auflösungen dieselben Bilder verwendet werden
+     * @param scale die eine Auflösung
+     * @param otherScale die andere Auflösung
+     * @return ob die Bilder gleich sind
+     */
+    static boolean sameLevel(double scale, double otherScale) {
+        return level(scale) == level(otherScale);
+    }
+
+    private static int level(double scale) {
+        var level = (int) Math.ceil(Math.log(scale) / Math.log(2));
+        return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+    }
+
+    private static int brightnessStep(int brightness) {
+        return (brightness * (BRIGHTNESS_STEPS - 1) + LampModel.MAX_BRIGHTNESS / 2) / LampModel.MAX_BRIGHTNESS;
+    }
+
+    private static int temperatureStep(int colorTemperature) {
+        var range = LampModel.MAX_COLOR_TEMPERATURE - LampModel.MIN_COLOR_TEMPERATURE;
+        var step = (int) Math.round((double) (colorTemperature - LampModel.MIN_COLOR_TEMPERATURE)
+                * (TEMPERATURE_STEPS - 1) / range);
+        return Math.max(0, Math.min(TEMPERATURE_STEPS - 1, step));
+    }
+
+    /**
+     * Zeichnet eine Lampe so, wie sie früher als einzelner Kreis mit Schein dargestellt wurde.
+     * Eine gedimmte Lampe liegt in der Farbe zwischen aus und an, ihr Schein ist entsprechend blasser.
+     */
+    private static Image render(boolean on, int brightnessStep, int temperatureStep, boolean selected, double scale) {
+        var circle = new Circle(EXTENT, EXTENT, Lamp.RADIUS);
+        circle.setFill(LampView.OFF_COLOR);
+        circle.setStroke(selected ? LampView.SELECTED_STROKE_COLOR : LampView.STROKE_COLOR);
+        circle.setStrokeWidth(LampView.STROKE_WIDTH);
+        if (on) {
+            var brightness = (double) brightnessStep / (BRIGHTNESS_STEPS - 1);
+            var colorTemperature = LampModel.MIN_COLOR_TEMPERATURE + (double) temperatureStep
+                    * (LampModel.MAX_COLOR_TEMPERATURE - LampModel.MIN_COLOR_TEMPERATURE) / (TEMPERATURE_STEPS - 1);
+            var color = LampView.color(colorTemperature);
+            circle.setFill(LampView.OFF_COLOR.interpolate(color, brightness));
+            if (brightness > 0)
+                circle.setEffect(new DropShadow(LampView.GLOW_RADIUS, color.deriveColor(0, 1, 1, brightness)));
+        }
+
+        // ein unsichtbares Rechteck legt den Ausschnitt fest, der Mittelpunkt liegt genau in der Mitte
+        var frame = new Rectangle(2 * EXTENT, 2 * EXTENT, Color.TRANSPARENT);
+        var sprite = new Group(frame, circle);
+
+        var parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        parameters.setTransform(new Scale(scale, scale));
+        parameters.setViewport(new Rectangle2D(0, 0, 2 * EXTENT * scale, 2 * EXTENT * scale));
+        return sprite.snapshot(parameters, null);
+    }
+}
@@ -0,0 +1,346 @@
+package lamps;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Eine Aufzeichnung von Bedienschritten, die {@link LampLoadDriver} ohne Fenster abspielt,
+ * um Verzögerungen aus echten Sitzungen nachstellen und messen zu können.
+ * <p>
+ * Aufbau (Text, UTF-8), je Schritt eine Zeile, Zeilen mit {@code #} am Anfang werden übersprungen:
+ * <pre>
+ * Millisekunden seit Beginn, Schritt, Argumente
+ * ADD_LAMPS     Anzahl                   neue Lampen wie "Neu"
+ * GENERATE      Anzahl                   neue Lampen wie "Erzeugen", abgespielt als quadratisches Raster
+ * COPY / PASTE / DUPLICATE               die ausgewählten Lampen kopieren, einfügen oder duplizieren
+ * REMOVE_LAMPS                           die ausgewählten Lampen entfernen
+ * SELECT        Stellen                  z.B. 0-99,120
+ * SELECT_ALL / SELECT_NONE
+ * QUERY         + oder =, Abfrage        Treffer zur Auswahl hinzufügen oder sie ersetzen
+ * TOGGLE                                 die ausgewählten Lampen umschalten
+ * ASSIGN_GROUP  Gruppe oder -            die ausgewählten Lampen einer Gruppe zuordnen
+ * ADD_GROUP     Gruppe, Obergruppe oder -, Name
+ * MOVE_GROUP    Gruppe, Obergruppe oder -
+ * RENAME_GROUPS Gruppen, Name
+ * TOGGLE_GROUPS Gruppen
+ * REMOVE_GROUPS Gruppen
+ * ADD_FLOOR     Name                     ein leeres Stockwerk hinzufügen
+ * SWITCH_FLOOR  Stelle des Stockwerks    ein anderes Stockwerk anzeigen
+ * UNDO / REDO
+ * </pre>
+ * Lampen werden über ihre Stelle in {@link LampsContainer#getLamps()} angesprochen, Gruppen über ihre Kennung
+ * ({@link Group#getId()}), mehrere durch Kommas getrennt. Neben der Aufzeichnung liegt der Stand zu ihrem Beginn als
+ * {@link LayoutSnapshot}, beim Abspielen ergeben sich so dieselben Stellen und Kennungen.
+ */
+public final class LampTrace {
+    private static final String HEADER = "# Lampen-Aufzeichnung 1";
+
+    /**
+     * Die Arten der Schritte
+     */
+    public enum Operation {
+        ADD_LAMPS,
+        GENERATE,
+        COPY,
+        PASTE,
+        DUPLICATE,
+        REMOVE_LAMPS,
+        SELECT,
+        SELECT_ALL,
+        SELECT_NONE,
+        QUERY,
+        TOGGLE,
+        ASSIGN_GROUP,
+        ADD_GROUP,
+        MOVE_GROUP,
+        RENAME_GROUPS,
+        TOGGLE_GROUPS,
+        REMOVE_GROUPS,
+        ADD_FLOOR,
+        SWITCH_FLOOR,
+        UNDO,
+        REDO
+    }
+
+    /**
+     * Ein aufgezeichneter Schritt
+     */
+    public static final class Step {
+        private final long time;
+        private final Operation operation;
+        private final String arguments;
+
+        Step(long time, Operation operation, String arguments) {
+            this.time = time;
+            this.operation = operation;
+            this.arguments = arguments;
+        }
+
+        /**
+         * @return die Millisekunden seit dem Beginn der Aufzeichnung
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return die Art des Schritts
+         */
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return die Argumente, leer wenn es keine gibt
+         */
+        public String getArguments() {
+            return arguments;
+        }
+
+        @Override
+        public String toString() {
+            return time + " " + operation + (arguments.isEmpty() ? "" : " " + arguments);
+        }
+    }
+
+    /**
+     * Zeichnet die Bedienschritte der Oberfläche auf, solange eine Aufzeichnung läuft.
+     * <p>
+     * Die Auswahl wird nicht bei jedem Klick aufgezeichnet, sondern vor jedem Schritt mit der zuletzt aufgezeichneten
+     * verglichen und nur bei einem Unterschied als eigener Schritt geschrieben. Was ein Schritt selbst an der Auswahl
+     * ändert, ergibt sich beim Abspielen wieder und wird deshalb danach übernommen.
+     */
+    public static final class Recorder {
+        private BufferedWriter out = null;
+        private LampsContainer container;
+        private long start;
+        private IOException failure = null;
+
+        /**
+         * die Plätze der zuletzt aufgezeichneten Auswahl
+         */
+        private BitSet recordedSelection;
+
+        /**
+         * Gibt zurück, ob gerade aufgezeichnet wird
+         * @return ob gerade aufgezeichnet wird
+         */
+        public boolean isRecording() {
+            return out != null;
+        }
+
+        /**
+         * Beginnt eine Aufzeichnung und speichert den aktuellen Stand daneben
+         * @param path die Datei der Aufzeichnung
+         * @param tree der Baum mit allen Gruppen
+         * @param container der Container der Lampen
+         * @param floors die Stockwerke
+         * @throws IOException wenn eine der Dateien nicht geschrieben werden kann
+         */
+        public void start(Path path, GroupTree tree, LampsContainer container, List<LampFloor> floors)
+                throws IOException {
+            stop();
+            LayoutSnapshot.write(snapshotPath(path), tree.getGroupsInOrder(), container, floors);
+            out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            out.write(HEADER);
+            out.newLine();
+            this.container = container;
+            start = System.nanoTime();
+            failure = null;
+            recordedSelection = (BitSet) container.getModel().getSelectedSlots().clone();
+        }
+
+        /**
+         * Beendet die Aufzeichnung
+         * @throws IOException wenn ein Schritt nicht geschrieben werden konnte
+         */
+        public void stop() throws IOException {
+            if (out == null)
+                return;
+
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+            out = null;
+            container = null;
+            recordedSelection = null;
+            if (failure != null)
+                throw failure;
+        }
+
+        /**
+         * Führt einen Schritt aus und zeichnet ihn auf, vorher bei Bedarf die Auswahl
+         * @param operation die Art des Schritts
+         * @param arguments die Argumente
+         * @param action der Schritt selbst
+         */
+        public void run(Operation operation, String arguments, Runnable action) {
+            if (out == null) {
+                action.run();
+                return;
+            }
+
+            var selection = container.getModel().getSelectedSlots();
+            if (!selection.equals(recordedSelection))
+                write(selectionStep(selection));
+            write(new Step(elapsed(), operation, arguments));
+
+            action.run();
+            recordedSelection = (BitSet) container.getModel().getSelectedSlots().clone();
+        }
+
+        /**
+         * Wie {@link #run(Operation, String, Runnable)} ohne Argumente
+         */
+        public void run(Operation operation, Runnable action) {
+            run(operation, "", action);
+        }
+
+        /**
+         * Beschreibt die Auswahl als Schritt über die Stellen der ausgewählten Lampen
+         */
+        private Step selectionStep(BitSet selection) {
+            var count = selection.cardinality();
+            var lamps = container.getLamps();
+            if (count == 0)
+                return new Step(elapsed(), Operation.SELECT_NONE, "");
+            if (count == lamps.size())
+                return new Step(elapsed(), Operation.SELECT_ALL, "");
+
+            var indices = new BitSet(lamps.size());
+            for (int i = 0; i < lamps.size(); i++) {
+                if (selection.get(lamps.get(i).getSlot()))
+                    indices.set(i);
+            }
+            return new Step(elapsed(), Operation.SELECT, formatRanges(indices));
+        }
+
+        private long elapsed() {
+            return (System.nanoTime() - start) / 1_000_000;
+        }
+
+        /**
+         * Schreibt einen Schritt in den Puffer; ein Fehler wird beim Beenden gemeldet
+         */
+        private void write(Step step) {
+            if (failure != null)
+                return;
+
+            try {
+                out.write(step.toString());
+                out.newLine();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private LampTrace() {
+    }
+
+    /**
+     * Gibt die Datei zurück, in der der Stand zu Beginn einer Aufzeichnung liegt
+     * @param path die Datei der Aufzeichnung
+     * @return die Datei des Stands
+     */
+    public static Path snapshotPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".lamps");
+    }
+
+    /**
+     * Liest alle Schritte einer Aufzeichnung
+     * @param path die Datei der Aufzeichnung
+     * @return die Schritte in ihrer Reihenfolge
+     * @throws IOException wenn die Datei nicht gelesen werden kann oder eine Zeile ungültig ist
+     */
+    public static List<Step> read(Path path) throws IOException {
+        var steps = new ArrayList<Step>();
+        var lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            var line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            var parts = line.split(" ", 3);
+            try {
+                steps.add(new Step(Long.parseLong(parts[0]), Operation.valueOf(parts[1]),
+                        parts.length > 2 ? parts[2] : ""));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Ungültiger Schritt in Zeile " + (i + 1) + ": " + line, e);
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Schreibt Stellen als Bereiche, z.B. {@code 0-99,120}
+     * @param indices die Stellen, nicht leer
+     * @return die Bereiche
+     */
+    static String formatRanges(BitSet indices) {
+        var text = new StringBuilder();
+        for (int from = indices.nextSetBit(0); from >= 0; from = indices.nextSetBit(from)) {
+            var to = indices.nextClearBit(from);
+            if (text.length() > 0)
+                text.append(',');
+            text.append(from);
+            if (to - from > 1)
+                text.append('-').append(to - 1);
+            from = to;
+        }
+        return text.toString();
+    }
+
+    /**
+     * Liest Bereiche von Stellen, wie von {@link #formatRanges(BitSet)} geschrieben
+     * @param text die Bereiche
+     * @return die Stellen
+     * @throws NumberFormatException wenn eine Stelle keine Zahl ist
+     */
+    static BitSet parseRanges(String text) {
+        var indices = new BitSet();
+        for (var range : text.split(",")) {
+            var dash = range.indexOf('-');
+            if (dash < 0) {
+                indices.set(Integer.parseInt(range));
+            } else {
+                indices.set(Integer.parseInt(range.substring(0, dash)), Integer.parseInt(range.substring(dash + 1)) + 1);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Schreibt die Kennungen von Gruppen durch Kommas getrennt
+     * @param groups die Gruppen, nicht leer
+     * @return die Kennungen
+     */
+    static String formatIds(Collection<Group> groups) {
+        var text = new StringBuilder();
+        for (var group : groups) {
+            if (text.length() > 0)
+                text.append(',');
+            text.append(group.getId());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Schreibt die Kennung einer Gruppe
+     * @param group die Gruppe oder null
+     * @return die Kennung, {@code -} für null
+     */
+    static String formatId(Group group) {
+        return group == null ? "-" : Long.toString(group.getId());
+    }
+}
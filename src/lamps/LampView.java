@@ -0,0 +1,106 @@
+package lamps;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.paint.Color;
+
+/**
+ * Eine Lampe wird als Kreis dargestellt.
+ * Wenn die Lampe angeschaltet ist, hat ihr Hintergrund die Farbe ihrer Farbtemperatur (gelb bei
+ * {@link LampModel#DEFAULT_COLOR_TEMPERATURE}) und es erscheint ein Schein um sie herum, beides je nach Helligkeit.
+ * Zudem wird durch einen Rahmen gezeigt, ob die Lampe ausgewählt ist.
+ * Gezeigt wird dafür eines der gemeinsamen Bilder aus {@link LampSprites}, der Schein wird also nicht für jede
+ * Lampe einzeln berechnet. Mausereignisse behandelt der {@link LampsContainer}.
+ */
+public class LampView extends ImageView {
+    static final Color OFF_COLOR = Color.GREY;
+    static final Color ON_COLOR = Color.YELLOW;
+
+    /**
+     * die Farben bei der kleinsten und der größten Farbtemperatur
+     */
+    static final Color WARM_COLOR = Color.ORANGE;
+    static final Color COLD_COLOR = Color.rgb(220, 235, 255);
+    static final Color STROKE_COLOR = Color.GREY;
+    static final Color SELECTED_STROKE_COLOR = Color.BLACK;
+    static final double STROKE_WIDTH = 1;
+
+    /**
+     * der Radius des Scheins um eine angeschaltete Lampe
+     */
+    static final double GLOW_RADIUS = 20;
+
+    private Lamp lamp;
+
+    /**
+     * die Auflösung, für die das Bild gewählt wird
+     */
+    private double spriteScale;
+
+    public LampView(Lamp lamp) {
+        this(lamp, 1);
+    }
+
+    LampView(Lamp lamp, double spriteScale) {
+        this.lamp = lamp;
+        this.spriteScale = spriteScale;
+
+        setFitWidth(2 * LampSprites.EXTENT);
+        setFitHeight(2 * LampSprites.EXTENT);
+        setSmooth(true);
+        setMouseTransparent(true);
+        update();
+    }
+
+    /**
+     * Gibt die dargestellte Lampe zurück
+     * @return die Lampe
+     */
+    public Lamp getLamp() {
+        return lamp;
+    }
+
+    /**
+     * Verwendet den Knoten für eine andere Lampe
+     * @param lamp die neue Lampe
+     */
+    void setLamp(Lamp lamp) {
+        this.lamp = lamp;
+        update();
+    }
+
+    /**
+     * Legt fest, wie viele Bildpunkte auf eine Einheit der Lampenkoordinaten kommen, z.B. beim Vergrößern
+     * @param spriteScale die Auflösung
+     */
+    void setSpriteScale(double spriteScale) {
+        var changed = !LampSprites.sameLevel(this.spriteScale, spriteScale);
+        this.spriteScale = spriteScale;
+        if (changed)
+            update();
+    }
+
+    /**
+     * Gibt die Farbe einer angeschalteten Lampe bei voller Helligkeit zurück
+     * @param colorTemperature die Farbtemperatur in Kelvin
+     * @return die Farbe, von orange über gelb bis bläulich weiß
+     */
+    static Color color(double colorTemperature) {
+        if (colorTemperature <= LampModel.DEFAULT_COLOR_TEMPERATURE) {
+            return WARM_COLOR.interpolate(ON_COLOR, (colorTemperature - LampModel.MIN_COLOR_TEMPERATURE)
+                    / (LampModel.DEFAULT_COLOR_TEMPERATURE - LampModel.MIN_COLOR_TEMPERATURE));
+        }
+        return ON_COLOR.interpolate(COLD_COLOR, (colorTemperature - LampModel.DEFAULT_COLOR_TEMPERATURE)
+                / (LampModel.MAX_COLOR_TEMPERATURE - LampModel.DEFAULT_COLOR_TEMPERATURE));
+    }
+
+    /**
+     * Übernimmt den aktuellen Zustand der Lampe
+     */
+    void update() {
+        // das Bild, abhängig davon, ob die Lampe an, wie hell und welche Farbe sie hat und ob sie ausgewählt ist
+        setImage(LampSprites.get(lamp.isOn(), lamp.getLevel(), lamp.isSelected(), spriteScale));
+
+        setX(lamp.getX() - LampSprites.EXTENT);
+        setY(lamp.getY() - LampSprites.EXTENT);
+    }
+}
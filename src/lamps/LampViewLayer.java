@@ -0,0 +1,304 @@
+package lamps;
+
+import javafx.application.Platform;
+import javafx.scene.CacheHint;
+import javafx.scene.layout.Pane;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+/**
+ * Die Ebene mit den {@link LampView}s für {@link LampsContainer.RenderMode#NODES}.
+ * Es werden nur für die Lampen Knoten erzeugt, die im sichtbaren Ausschnitt (und einem Rand darum) liegen.
+ * Knoten von Lampen, die den Ausschnitt verlassen, werden wie Zellen einer {@link javafx.scene.control.ListView}
+ * für andere Lampen wiederverwendet.
+ * Beim Verschieben liegen die Knoten der verschobenen Lampen in einer eigenen Ebene, die als Bild zwischengespeichert
+ * und als Ganzes verschoben wird.
+ * Geänderte Lampen werden nur vorgemerkt und ihre Knoten einmal vor dem nächsten Puls aktualisiert, so kostet z.B. ein
+ * Helligkeitsregler, der mehrmals pro Bild Änderungen meldet, trotzdem nur eine Aktualisierung je Knoten.
+ */
+class LampViewLayer extends Pane implements LampModel.Listener {
+    /**
+     * so weit über den sichtbaren Bereich hinaus (in Bildschirmpunkten) werden noch Knoten erzeugt
+     */
+    private static final double MARGIN = 100;
+
+    private final LampsContainer container;
+    private final LampModel model;
+
+    /**
+     * die Knoten nach dem Platz ihrer Lampe
+     */
+    private LampView[] views = new LampView[0];
+    private final BitSet materialized = new BitSet();
+
+    /**
+     * die Plätze der Lampen, deren Knoten noch aktualisiert werden müssen
+     */
+    private final BitSet stale = new BitSet();
+
+    /**
+     * nicht verwendete Knoten
+     */
+    private final ArrayDeque<LampView> pool = new ArrayDeque<>();
+
+    /**
+     * enthält beim Verschieben die Knoten der verschobenen Lampen
+     */
+    private final Pane dragLayer = new Pane();
+    private BitSet dragged = null;
+
+    /**
+     * die Auflösung, für die die Knoten ihre Bilder gewählt haben
+     */
+    private double spriteScale = 1;
+
+    private boolean active = false;
+    private boolean updateScheduled = false;
+    private boolean refreshScheduled = false;
+
+    LampViewLayer(LampsContainer container) {
+        this.container = container;
+        this.model = container.getModel();
+        setManaged(false);
+
+        // die Knoten liegen in Inhaltskoordinaten, der Ausschnitt wird über Transformationen eingestellt
+        var scale = new Scale();
+        scale.xProperty().bind(container.zoomProperty());
+        scale.yProperty().bind(container.zoomProperty());
+        var translate = new Translate();
+        translate.xProperty().bind(container.viewportXProperty().negate());
+        translate.yProperty().bind(container.viewportYProperty().negate());
+        getTransforms().setAll(scale, translate);
+
+        // die Ebene wird nur verschoben, ihr Inhalt muss dabei nicht neu gezeichnet werden
+        dragLayer.setManaged(false);
+        dragLayer.setCache(true);
+        dragLayer.setCacheHint(CacheHint.SPEED);
+
+        container.zoomProperty().addListener(observable -> scheduleUpdate());
+        container.viewportXProperty().addListener(observable -> scheduleUpdate());
+        container.viewportYProperty().addListener(observable -> scheduleUpdate());
+        container.widthProperty().addListener(observable -> scheduleUpdate());
+        container.heightProperty().addListener(observable -> scheduleUpdate());
+
+        model.addListener(this);
+    }
+
+    /**
+     * Legt fest, ob die Ebene angezeigt wird. Ohne Anzeige werden alle Knoten verworfen.
+     * @param active ob die Ebene angezeigt wird
+     */
+    void setActive(boolean active) {
+        this.active = active;
+        if (active) {
+            update();
+        } else {
+            dragged = null;
+            dragLayer.getChildren().clear();
+            getChildren().clear();
+            materialized.clear();
+            stale.clear();
+            views = new LampView[0];
+            pool.clear();
+        }
+    }
+
+    @Override
+    public void lampChanged(int slot, int properties) {
+        if (!active)
+            return;
+
+        if ((properties & LampModel.REMOVED) != 0) {
+            if (materialized.get(slot)) {
+                var view = recycle(slot);
+                getChildren().remove(view);
+                dragLayer.getChildren().remove(view);
+            }
+            return;
+        }
+
+        if (materialized.get(slot)) {
+            stale.set(slot);
+            scheduleRefresh();
+        }
+
+        // die Lampe könnte in den Ausschnitt hinein oder aus ihm heraus gekommen sein
+        if ((properties & (LampModel.ADDED | LampModel.POSITION)) != 0)
+            scheduleUpdate();
+    }
+
+    @Override
+    public void lampsChanged(BitSet slots, int properties) {
+        if (!active)
+            return;
+
+        if ((properties & (LampModel.ADDED | LampModel.REMOVED)) != 0) {
+            LampModel.Listener.super.lampsChanged(slots, properties);
+            return;
+        }
+
+        // ohne Schleife über die einzelnen Lampen vormerken
+        var visible = (BitSet) slots.clone();
+        visible.and(materialized);
+        if (!visible.isEmpty()) {
+            stale.or(visible);
+            scheduleRefresh();
+        }
+        if ((properties & LampModel.POSITION) != 0)
+            scheduleUpdate();
+    }
+
+    private void scheduleRefresh() {
+        if (refreshScheduled)
+            return;
+
+        refreshScheduled = true;
+        Platform.runLater(this::refresh);
+    }
+
+    /**
+     * Aktualisiert die Knoten aller vorgemerkten Lampen
+     */
+    private void refresh() {
+        refreshScheduled = false;
+        stale.and(materialized);
+        for (int slot = stale.nextSetBit(0); slot >= 0; slot = stale.nextSetBit(slot + 1)) {
+            views[slot].update();
+        }
+        stale.clear();
+    }
+
+    private void scheduleUpdate() {
+        if (!active || updateScheduled)
+            return;
+
+        updateScheduled = true;
+        Platform.runLater(this::update);
+    }
+
+    /**
+     * Erzeugt die Knoten für alle Lampen im Ausschnitt und gibt die übrigen frei
+     */
+    private void update() {
+        updateScheduled = false;
+        if (!active || dragged != null) // nach dem Verschieben wird nachgeholt
+            return;
+
+        var zoom = container.getZoom();
+        var margin = MARGIN / zoom;
+        var minX = container.getViewportX() - margin;
+        var minY = container.getViewportY() - margin;
+        var maxX = container.getViewportX() + container.getWidth() / zoom + margin;
+        var maxY = container.getViewportY() + container.getHeight() / zoom + margin;
+
+        var visible = new BitSet();
+        container.getGrid().collect(minX, minY, maxX, maxY, visible);
+
+        // beim Vergrößern schärfere Bilder verwenden
+        var newSpriteScale = container.getSpriteScale();
+        if (!LampSprites.sameLevel(spriteScale, newSpriteScale)) {
+            for (int slot = materialized.nextSetBit(0); slot >= 0; slot = materialized.nextSetBit(slot + 1)) {
+                views[slot].setSpriteScale(newSpriteScale);
+            }
+        }
+        spriteScale = newSpriteScale;
+
+        // nicht mehr sichtbare Knoten freigeben
+        var hidden = (BitSet) materialized.clone();
+        hidden.andNot(visible);
+        var removed = Collections.newSetFromMap(new IdentityHashMap<LampView, Boolean>());
+        for (int slot = hidden.nextSetBit(0); slot >= 0; slot = hidden.nextSetBit(slot + 1)) {
+            removed.add(recycle(slot));
+        }
+        if (!removed.isEmpty())
+            getChildren().removeAll(removed);
+
+        // neu sichtbare Lampen mit Knoten versehen
+        visible.andNot(materialized);
+        if (views.length < model.capacity())
+            views = Arrays.copyOf(views, model.capacity());
+
+        var added = new ArrayList<LampView>(visible.cardinality());
+        for (int slot = visible.nextSetBit(0); slot >= 0; slot = visible.nextSetBit(slot + 1)) {
+            LampView view;
+            if (pool.isEmpty()) {
+                view = new LampView(model.getLamp(slot), spriteScale);
+            } else {
+                view = pool.pop();
+                view.setSpriteScale(spriteScale);
+                view.setLamp(model.getLamp(slot));
+            }
+            views[slot] = view;
+            materialized.set(slot);
+            added.add(view);
+        }
+        getChildren().addAll(added);
+    }
+
+    /**
+     * Verschiebt ab jetzt die Knoten der Lampen gemeinsam
+     * @param slots die Plätze der verschobenen Lampen
+     */
+    void beginDrag(BitSet slots) {
+        if (!active)
+            return;
+
+        dragged = slots;
+        var moving = Collections.newSetFromMap(new IdentityHashMap<LampView, Boolean>());
+        var visible = (BitSet) slots.clone();
+        visible.and(materialized);
+        for (int slot = visible.nextSetBit(0); slot >= 0; slot = visible.nextSetBit(slot + 1)) {
+            moving.add(views[slot]);
+        }
+
+        getChildren().removeAll(moving);
+        dragLayer.getChildren().setAll(moving);
+        getChildren().add(dragLayer); // über allen anderen Lampen
+    }
+
+    /**
+     * Verschiebt die Knoten der verschobenen Lampen
+     * @param dx der Versatz in x-Richtung
+     * @param dy der Versatz in y-Richtung
+     */
+    void setDragOffset(double dx, double dy) {
+        dragLayer.setTranslateX(dx);
+        dragLayer.setTranslateY(dy);
+    }
+
+    /**
+     * Gibt die Knoten der verschobenen Lampen wieder frei, die Lampen selbst werden danach verschoben
+     */
+    void endDrag() {
+        if (dragged == null)
+            return;
+
+        dragged = null;
+        var moving = new ArrayList<>(dragLayer.getChildren());
+        dragLayer.getChildren().clear();
+        getChildren().remove(dragLayer);
+        getChildren().addAll(moving);
+        setDragOffset(0, 0);
+        scheduleUpdate();
+    }
+
+    /**
+     * Löst den Knoten von seiner Lampe und legt ihn zur Wiederverwendung zurück
+     * @return der Knoten, er muss noch aus der Ebene entfernt werden
+     */
+    private LampView recycle(int slot) {
+        var view = views[slot];
+        views[slot] = null;
+        materialized.clear(slot);
+        stale.clear(slot);
+        pool.push(view);
+        return view;
+    }
+}
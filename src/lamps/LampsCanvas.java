@@ -0,0 +1,365 @@
+package lamps;
+
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+/**
+ * Zeichnet alle Lampen eines {@link LampsContainer}s auf eine einzige {@link Canvas}.
+ * Die Lampen selbst befinden sich dabei nicht im Szenengraphen.
+ * Bei Änderungen werden nur die betroffenen Bereiche neu gezeichnet, höchstens einmal pro Pulse.
+ * Verschobene Lampen werden bis zum Loslassen mit ihrem Versatz gezeichnet.
+ */
+class LampsCanvas extends Canvas {
+    /**
+     * ab so vielen geänderten Bereichen wird stattdessen deren umschließendes Rechteck neu gezeichnet
+     */
+    private static final int MAX_DIRTY_REGIONS = 64;
+
+    private final LampsContainer container;
+
+    /**
+     * ob die Canvas gerade angezeigt wird, sonst werden Änderungen ignoriert
+     */
+    private boolean active = false;
+
+    /**
+     * die Bereiche, in denen die Lampen zuletzt gezeichnet wurden, um sie beim Verschieben zu löschen
+     */
+    private final IdentityHashMap<Lamp, Rectangle2D> drawnBounds = new IdentityHashMap<>();
+
+    /**
+     * die Plätze der gerade verschobenen Lampen oder null, das umschließende Rechteck an ihrer Position im Modell
+     * und ihr Versatz
+     */
+    private BitSet dragged = null;
+    private Rectangle2D dragBounds;
+    private double dragOffsetX, dragOffsetY;
+
+    private final ArrayList<Rectangle2D> dirtyRegions = new ArrayList<>();
+    private boolean fullRedraw = false;
+    private boolean redrawScheduled = false;
+
+    LampsCanvas(LampsContainer container) {
+        this.container = container;
+
+        // bei Größenänderungen und beim Verschieben oder Vergrößern des Ausschnitts alles neu zeichnen
+        widthProperty().addListener(observable -> invalidateAll());
+        heightProperty().addListener(observable -> invalidateAll());
+        container.zoomProperty().addListener(observable -> invalidateAll());
+        container.viewportXProperty().addListener(observable -> invalidateAll());
+        container.viewportYProperty().addListener(observable -> invalidateAll());
+
+        // Änderungen an den Lampen und der Auswahl
+        container.addChangeListener(change -> {
+            invalidate(change.getSwitched());
+            invalidate(change.getMoved());
+            invalidate(change.getDimmed());
+        });
+        container.getSelectedLamps().addListener((added, removed) -> {
+            invalidate(added);
+            invalidate(removed);
+        });
+        container.getLamps().addListener((ListChangeListener<Lamp>) c -> {
+            while (c.next()) {
+                invalidate(c.getRemoved());
+                for (var lamp : c.getRemoved()) {
+                    drawnBounds.remove(lamp);
+                }
+                invalidate(c.getAddedSubList());
+            }
+        });
+    }
+
+    /**
+     * Legt fest, ob die Canvas angezeigt wird
+     * @param active ob die Canvas angezeigt wird
+     */
+    void setActive(boolean active) {
+        this.active = active;
+        dragged = null;
+        drawnBounds.clear();
+        if (active)
+            invalidateAll();
+    }
+
+    /**
+     * Markiert die Bereiche der Lampen als neu zu zeichnen
+     */
+    private void invalidate(Collection<? extends Lamp> lamps) {
+        if (!active || fullRedraw || lamps.isEmpty())
+            return;
+
+        // bei sehr vielen Lampen lohnt es sich nicht, jeden Bereich einzeln zu merken
+        if (dirtyRegions.size() + 2 * lamps.size() > MAX_DIRTY_REGIONS * 16) {
+            invalidateAll();
+            return;
+        }
+
+        for (var lamp : lamps) {
+            invalidate(lamp);
+        }
+        scheduleRedraw();
+    }
+
+    /**
+     * Markiert die Bereiche der Lampen auf Plätzen des Modells als neu zu zeichnen
+     */
+    private void invalidate(BitSet slots) {
+        if (!active || fullRedraw || slots.isEmpty())
+            return;
+
+        if (dirtyRegions.size() + 2 * slots.cardinality() > MAX_DIRTY_REGIONS * 16) {
+            invalidateAll();
+            return;
+        }
+
+        var model = container.getModel();
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            var lamp = model.getLamp(slot);
+            if (lamp != null) // inzwischen entfernt
+                invalidate(lamp);
+        }
+        scheduleRedraw();
+    }
+
+    /**
+     * Merkt sich den alten und den neuen Bereich einer Lampe
+     */
+    private void invalidate(Lamp lamp) {
+        var oldBounds = drawnBounds.get(lamp);
+        if (oldBounds != null)
+            dirtyRegions.add(oldBounds);
+        dirtyRegions.add(bounds(lamp));
+    }
+
+    /**
+     * Zeichnet ab jetzt die Lampen mit einem Versatz
+     * @param slots die Plätze der verschobenen Lampen
+     */
+    void beginDrag(BitSet slots) {
+        if (!active)
+            return;
+
+        var model = container.getModel();
+        var regions = new ArrayList<Rectangle2D>();
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            regions.add(bounds(model.getLamp(slot)));
+        }
+        if (regions.isEmpty())
+            return;
+
+        dragged = slots;
+        dragBounds = union(regions);
+        dragOffsetX = dragOffsetY = 0;
+    }
+
+    /**
+     * Ändert den Versatz der verschobenen Lampen.
+     * Neu gezeichnet wird nur das umschließende Rechteck an der alten und der neuen Stelle.
+     * @param dx der Versatz in x-Richtung
+     * @param dy der Versatz in y-Richtung
+     */
+    void setDragOffset(double dx, double dy) {
+        if (dragged == null)
+            return;
+
+        addDirty(dragBounds, dragOffsetX, dragOffsetY);
+        dragOffsetX = dx;
+        dragOffsetY = dy;
+        addDirty(dragBounds, dx, dy);
+        scheduleRedraw();
+    }
+
+    /**
+     * Beendet das Verschieben, die Lampen selbst werden danach verschoben
+     */
+    void endDrag() {
+        dragged = null;
+    }
+
+    private void addDirty(Rectangle2D bounds, double dx, double dy) {
+        if (!fullRedraw)
+            dirtyRegions.add(new Rectangle2D(
+                    bounds.getMinX() + dx, bounds.getMinY() + dy, bounds.getWidth(), bounds.getHeight()
+            ));
+    }
+
+    private void invalidateAll() {
+        if (!active)
+            return;
+
+        fullRedraw = true;
+        dirtyRegions.clear();
+        scheduleRedraw();
+    }
+
+    private void scheduleRedraw() {
+        if (redrawScheduled)
+            return;
+
+        redrawScheduled = true;
+        Platform.runLater(this::redraw);
+    }
+
+    /**
+     * Zeichnet die geänderten Bereiche neu
+     */
+    private void redraw() {
+        redrawScheduled = false;
+        if (!active)
+            return;
+
+        // der sichtbare Ausschnitt in Inhaltskoordinaten
+        var zoom = container.getZoom();
+        var viewport = new Rectangle2D(
+                container.getViewportX(), container.getViewportY(),
+                getWidth() / zoom, getHeight() / zoom
+        );
+
+        var regions = new ArrayList<Rectangle2D>();
+        if (fullRedraw) {
+            regions.add(viewport);
+        } else if (dirtyRegions.size() > MAX_DIRTY_REGIONS) {
+            addVisible(regions, union(dirtyRegions), viewport);
+        } else {
+            for (var region : dirtyRegions) {
+                addVisible(regions, region, viewport);
+            }
+        }
+        fullRedraw = false;
+        dirtyRegions.clear();
+
+        var gc = getGraphicsContext2D();
+        gc.save();
+
+        // ab hier wird in Inhaltskoordinaten gezeichnet
+        gc.setTransform(zoom, 0, 0, zoom, -viewport.getMinX() * zoom, -viewport.getMinY() * zoom);
+
+        // nur innerhalb der geänderten Bereiche zeichnen
+        gc.beginPath();
+        for (var region : regions) {
+            gc.rect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+            gc.clearRect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+        }
+        gc.clip();
+
+        // alle Lampen, die einen der Bereiche berühren, über das Gitter finden und neu zeichnen
+        var extent = extent();
+        var slots = new BitSet();
+        for (var region : regions) {
+            container.getGrid().collect(
+                    region.getMinX() - extent, region.getMinY() - extent,
+                    region.getMaxX() + extent, region.getMaxY() + extent,
+                    slots
+            );
+        }
+
+        var model = container.getModel();
+        var spriteScale = container.getSpriteScale();
+        if (dragged != null)
+            slots.andNot(dragged); // sie liegen im Gitter noch an ihrer alten Stelle
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            var lamp = model.getLamp(slot);
+            draw(gc, lamp, spriteScale);
+            drawnBounds.put(lamp, bounds(lamp));
+        }
+
+        // die verschobenen Lampen zuletzt, damit sie über den anderen liegen
+        if (dragged != null) {
+            for (int slot = dragged.nextSetBit(0); slot >= 0; slot = dragged.nextSetBit(slot + 1)) {
+                var lamp = model.getLamp(slot);
+                if (lamp == null) // inzwischen entfernt
+                    continue;
+
+                var bounds = bounds(lamp);
+                if (intersectsAny(bounds, regions)) {
+                    draw(gc, lamp, spriteScale);
+                    drawnBounds.put(lamp, bounds);
+                }
+            }
+        }
+
+        gc.restore();
+    }
+
+    /**
+     * Zeichnet eine Lampe mit demselben vorgerenderten Bild wie eine {@link LampView}
+     */
+    private void draw(GraphicsContext gc, Lamp lamp, double spriteScale) {
+        var extent = LampSprites.EXTENT;
+        gc.drawImage(
+                LampSprites.get(lamp.isOn(), lamp.getLevel(), lamp.isSelected(), spriteScale),
+                x(lamp) - extent, y(lamp) - extent, 2 * extent, 2 * extent
+        );
+    }
+
+    /**
+     * Der Bereich, den eine Lampe einschließlich Schein und Rahmen belegt
+     */
+    private Rectangle2D bounds(Lamp lamp) {
+        var extent = extent();
+        return new Rectangle2D(x(lamp) - extent, y(lamp) - extent, 2 * extent, 2 * extent);
+    }
+
+    /**
+     * Die angezeigte Position einer Lampe, beim Verschieben einschließlich des Versatzes
+     */
+    private double x(Lamp lamp) {
+        return isDragged(lamp) ? lamp.getX() + dragOffsetX : lamp.getX();
+    }
+
+    private double y(Lamp lamp) {
+        return isDragged(lamp) ? lamp.getY() + dragOffsetY : lamp.getY();
+    }
+
+    private boolean isDragged(Lamp lamp) {
+        return dragged != null && lamp.getModel() == container.getModel() && dragged.get(lamp.getSlot());
+    }
+
+    /**
+     * Wie weit eine Lampe einschließlich Schein und Rahmen über ihren Mittelpunkt hinausreicht
+     */
+    private static double extent() {
+        return LampSprites.EXTENT;
+    }
+
+    /**
+     * Fügt den sichtbaren Teil eines Bereichs hinzu, unsichtbare Bereiche werden nicht gezeichnet
+     */
+    private static void addVisible(Collection<Rectangle2D> regions, Rectangle2D region, Rectangle2D viewport) {
+        var minX = Math.max(region.getMinX(), viewport.getMinX());
+        var minY = Math.max(region.getMinY(), viewport.getMinY());
+        var maxX = Math.min(region.getMaxX(), viewport.getMaxX());
+        var maxY = Math.min(region.getMaxY(), viewport.getMaxY());
+        if (minX < maxX && minY < maxY)
+            regions.add(new Rectangle2D(minX, minY, maxX - minX, maxY - minY));
+    }
+
+    private static boolean intersectsAny(Rectangle2D bounds, Collection<Rectangle2D> regions) {
+        for (var region : regions) {
+            if (region.intersects(bounds))
+                return true;
+        }
+        return false;
+    }
+
+    private static Rectangle2D union(Collection<Rectangle2D> regions) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (var region : regions) {
+            minX = Math.min(minX, region.getMinX());
+            minY = Math.min(minY, region.getMinY());
+            maxX = Math.max(maxX, region.getMaxX());
+            maxY = Math.max(maxY, region.getMaxY());
+        }
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
+}
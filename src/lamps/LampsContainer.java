@@ -1,38 +1,241 @@
 package lamps;
 
-import javafx.beans.binding.Bindings;
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Die Fläche des Fensters, welche alle Lampen enthält
  */
 public class LampsContainer extends BorderPane {
+    private static final Color RUBBER_BAND_FILL = Color.rgb(0, 120, 215, 0.2);
+    private static final Color RUBBER_BAND_STROKE = Color.rgb(0, 120, 215);
+
+    private static final double MIN_ZOOM = 0.05;
+    private static final double MAX_ZOOM = 10;
+
+    /**
+     * Vergrößerungsfaktor pro Einheit des Mausrads
+     */
+    private static final double ZOOM_PER_SCROLL_UNIT = 1.002;
+
+    /**
+     * ab so vielen zusammenhängenden Bereichen wird die Liste beim Entfernen und Wiederherstellen als Ganzes ersetzt,
+     * statt sie für jeden Bereich zu verschieben
+     */
+    private static final int MAX_RANGE_CHANGES = 16;
+
+    /**
+     * um so viel wird jede weitere eingefügte oder duplizierte Kopie gegenüber dem Original verschoben
+     */
+    private static final double PASTE_OFFSET = Lamp.RADIUS;
+
+    /**
+     * Die Art, wie die Lampen dargestellt werden
+     */
+    public enum RenderMode {
+        /**
+         * jede Lampe ist ein eigener Knoten im Szenengraphen
+         */
+        NODES,
+
+        /**
+         * alle Lampen werden auf eine gemeinsame {@link javafx.scene.canvas.Canvas} gezeichnet
+         */
+        CANVAS
+    }
+
+    /**
+     * die Plätze der zurzeit verschobenen Lampen, oder null
+     */
+    private BitSet draggedSlots = null;
+
+    /**
+     * die Mausposition beim Drücken und die zuletzt gemeldete, in Inhaltskoordinaten
+     */
+    private double dragStartX, dragStartY, dragX, dragY;
+
+    /**
+     * der zurzeit angezeigte Versatz der verschobenen Lampen
+     */
+    private double dragOffsetX = 0, dragOffsetY = 0;
+
+    /**
+     * übernimmt die Mausbewegungen beim Verschieben einmal pro Bild statt bei jedem Mausereignis
+     */
+    private final AnimationTimer dragTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            showDragOffset();
+        }
+    };
+
     /**
-     * die zurzeit bewegte Lampe
+     * das Rechteck der Rahmenauswahl, solange sie aufgezogen wird, sonst null
      */
-    private Lamp draggingLamp = null;
+    private Rectangle rubberBand = null;
+    private double rubberBandStartX, rubberBandStartY;
 
     /**
      * die ausgewählten Lampen
      */
-    private final ObservableList<Lamp> selectedLamps = FXCollections.observableArrayList();
+    private final LampSelection selectedLamps = new LampSelection();
 
     /**
      * alle Lampen in diesem Container
      */
     private final ObservableList<Lamp> lamps = FXCollections.observableArrayList();
 
+    /**
+     * der Zustand aller Lampen in diesem Container
+     */
+    private final LampModel model = new LampModel();
+
+
+    /**
+     * das Gitter über die Mittelpunkte der Lampen, für Klicks und die Rahmenauswahl
+     */
+    private final LampGrid grid = new LampGrid(model);
+
+    /**
+     * Listener für Änderungen an den Lampen
+     */
+    private final ArrayList<LampChange.Listener> changeListeners = new ArrayList<>();
+
+    /**
+     * Kopien der zuletzt kopierten Lampen, unabhängig von späteren Änderungen an den Originalen
+     */
+    private List<Lamp> clipboard = List.of();
+
+    /**
+     * wie oft die kopierten Lampen schon eingefügt wurden
+     */
+    private int pasteCount = 0;
+
+    /**
+     * die noch nicht gemeldete Änderung, oder null
+     */
+    private LampChange pendingChange = null;
+
+    /**
+     * Verschachtelungstiefe von {@link #batch(Runnable)}
+     */
+    private int batchDepth = 0;
+
+    /**
+     * die Änderungen zum Rückgängigmachen
+     */
+    private final LampHistory history = new LampHistory(this);
+
+    /**
+     * die Plätze, die wiederhergestellte Lampen beim Einfügen erhalten, in der Reihenfolge der Lampen, sonst null
+     */
+    private Lamp[] restoredLamps = null;
+    private int[] restoredSlots = null;
+    private int nextRestored = 0;
+
+    /**
+     * die aktuelle Darstellungsart
+     */
+    private final SimpleObjectProperty<RenderMode> renderMode = new SimpleObjectProperty<>(RenderMode.NODES);
+
+    /**
+     * die Zeichenfläche für {@link RenderMode#CANVAS}
+     */
+    private final LampsCanvas canvas;
+
+    /**
+     * die Ebene mit den Lampen-Knoten für {@link RenderMode#NODES}
+     */
+    private final LampViewLayer viewLayer;
+
+    /**
+     * der sichtbare Ausschnitt: Vergrößerung und die Inhaltskoordinaten der linken oberen Ecke
+     */
+    private final SimpleDoubleProperty zoom = new SimpleDoubleProperty(1);
+    private final SimpleDoubleProperty viewportX = new SimpleDoubleProperty(0);
+    private final SimpleDoubleProperty viewportY = new SimpleDoubleProperty(0);
+
     public LampsContainer() {
         // sorgt dafür, das dieses Objekt den Tastaturfokus erhalten kann (für Tastenkombinationen)
         setFocusTraversable(true);
 
-        // bind the content to the lamps
-        Bindings.bindContent(getChildren(), lamps);
+        // die Zeichenfläche füllt immer den ganzen Container aus
+        canvas = new LampsCanvas(this);
+        canvas.widthProperty().bind(widthProperty());
+        canvas.heightProperty().bind(heightProperty());
+        renderMode.addListener((observable, oldMode, newMode) -> applyRenderMode(newMode));
+
+        // nur der Ausschnitt des Containers ist sichtbar
+        var clip = new Rectangle();
+        clip.widthProperty().bind(widthProperty());
+        clip.heightProperty().bind(heightProperty());
+        setClip(clip);
+
+        // zu Beginn werden Lampen-Knoten angezeigt
+        viewLayer = new LampViewLayer(this);
+        applyRenderMode(getRenderMode());
+
+        // hinzugefügte Lampen werden ins Modell übernommen, entfernte erhalten wieder ein eigenes Modell
+        lamps.addListener((ListChangeListener<Lamp>) c -> {
+            LampMetrics.count(LampMetrics.Counter.LIST_CHANGES);
+            while (c.next()) {
+                LampMetrics.count(LampMetrics.Counter.LIST_CHANGED_LAMPS, c.getRemovedSize() + c.getAddedSize());
+
+                // beim Ersetzen (z.B. setAll) behalten Lampen, die vorher und nachher in der Liste sind, ihren Platz
+                Set<Lamp> kept = Set.of();
+                if (c.wasReplaced()) {
+                    kept = Collections.newSetFromMap(new IdentityHashMap<>());
+                    kept.addAll(c.getAddedSubList());
+                }
+
+                // gemeinsam, ein eigenes Modell je Lampe wäre bei vielen Lampen teuer
+                var released = new ArrayList<Lamp>(c.getRemovedSize());
+                for (var lamp : c.getRemoved()) {
+                    if (!kept.contains(lamp))
+                        released.add(lamp);
+                }
+                model.release(released);
+                for (var lamp : c.getAddedSubList()) {
+                    if (lamp.getModel() != model)
+                        model.adopt(lamp, restoredSlot(lamp));
+                }
+            }
+        });
+
+        // Änderungen im Modell an die Knoten und die Listener weitergeben
+        model.addListener(new LampModel.Listener() {
+            @Override
+            public void lampChanged(int slot, int properties) {
+                pendingChange().add(slot, properties);
+                firePendingChangeIfNotInBatch();
+            }
+
+            @Override
+            public void lampsChanged(BitSet slots, int properties) {
+                pendingChange().add(slots, properties); // ohne Schleife über die einzelnen Lampen
+                firePendingChangeIfNotInBatch();
+            }
+        });
 
         // Drag n' Drop der Lampen ermöglichen
         setupDragAndDrop();
@@ -49,6 +252,24 @@ public class LampsContainer extends BorderPane {
                 else // sonst: alles auswählen
                     selectedLamps.setAll(lamps);
             }
+
+            // Strg + 0 -> Ausschnitt zurücksetzen
+            if (event.isControlDown() && (event.getCode() == KeyCode.DIGIT0 || event.getCode() == KeyCode.NUMPAD0)) {
+                setZoom(1);
+                viewportX.set(0);
+                viewportY.set(0);
+            }
+        });
+
+        // Mausrad: Ausschnitt verschieben, mit Strg: vergrößern/verkleinern um die Mausposition
+        setOnScroll(event -> {
+            event.consume();
+            if (event.isControlDown()) {
+                zoomAt(Math.pow(ZOOM_PER_SCROLL_UNIT, event.getDeltaY()), event.getX(), event.getY());
+            } else {
+                viewportX.set(getViewportX() - event.getDeltaX() / getZoom());
+                viewportY.set(getViewportY() - event.getDeltaY() / getZoom());
+            }
         });
     }
 
@@ -56,22 +277,25 @@ public class LampsContainer extends BorderPane {
      * Richtet das Auswahlverhalten ein
      */
     private void setupSelection() {
-        // Bind the selected property of all lamps that get added
-        lamps.addListener((ListChangeListener<Lamp>) c -> { // Beim hinzufügen und entfernen von Lampen
+        // Entfernte Lampen werden auch aus der Auswahl entfernt
+        lamps.addListener((ListChangeListener<Lamp>) c -> {
             while (c.next()) {
-                for (var lamp : c.getAddedSubList()) {
-                    // Wenn eine Lampe hinzugefügt wird, wird die selected-Eigenschaft daran gebunden,
-                    // ob die Lampe in der selectedLamps-Liste ist
-                    lamp.selectedProperty().bind(Bindings.createBooleanBinding(
-                            () -> selectedLamps.contains(lamp),
-                            selectedLamps
-                    ));
+                if (!c.wasRemoved())
+                    continue;
+                if (!c.wasReplaced()) {
+                    selectedLamps.removeAll(c.getRemoved());
+                    continue;
                 }
 
+                // beim Ersetzen (z.B. setAll) bleiben Lampen ausgewählt, die vorher und nachher in der Liste sind
+                Set<Lamp> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+                kept.addAll(c.getAddedSubList());
+                var removed = new ArrayList<Lamp>(c.getRemovedSize());
                 for (var lamp : c.getRemoved()) {
-                    // Wenn eine Lampe entfernt wird, wird diese Bindung gelöst
-                    lamp.selectedProperty().unbind();
+                    if (!kept.contains(lamp))
+                        removed.add(lamp);
                 }
+                selectedLamps.removeAll(removed);
             }
         });
 
@@ -79,17 +303,26 @@ public class LampsContainer extends BorderPane {
         setOnMouseClicked(event -> {
             requestFocus(); // Tastaturfokus auf dieses Objekt bringen
 
-            // das Objekt, auf das geklickt wurde
-            var target = event.getTarget();
+            // nach einer Rahmenauswahl oder dem Verschieben von Lampen soll die Auswahl erhalten bleiben
+            if (!event.isStillSincePress())
+                return;
+
+            // die Lampe, auf die geklickt wurde
+            var target = findLamp(event);
+
+            // beim Doppelklick wird die Lampe umgeschaltet, die Lampen-Knoten selbst sind für die Maus durchlässig
+            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2 && target != null) {
+                target.setOn(!target.isOn()); // Lampe umschalten
+                return;
+            }
 
             // WENN: linke Maustaste UND kein Doppelklick UND es wurde auf eine Lampe geklickt
-            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 1 && target instanceof Lamp) {
+            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 1 && target != null) {
                 if (event.isControlDown()) { // + Strg-Taste: Mehrfachauswahl
                     // Remove the lamp if it was already selected
-                    if (!selectedLamps.remove(target))
-                        selectedLamps.add((Lamp) target);
+                    selectedLamps.toggle(target);
                 } else { // sonst: nur diese Lampe auswählen
-                    selectedLamps.setAll((Lamp) target);
+                    selectedLamps.select(target);
                 }
             } else { // wenn auf leere Fläche geklickt wurde:
                 selectedLamps.clear(); // auswahl leeren
@@ -99,41 +332,612 @@ public class LampsContainer extends BorderPane {
 
     /**
      * Ermöglicht das verschieben der Lampen mithilfe der Maus
+     * und das Auswählen mehrerer Lampen durch Aufziehen eines Rahmens
      */
     private void setupDragAndDrop() {
-        // wenn die Maus auf einer Lampe runtergedrückt wird, wird diese verschoben
+        // wenn die Maus auf einer Lampe runtergedrückt wird, wird diese verschoben,
+        // ist sie ausgewählt, die ganze Auswahl; auf der leeren Fläche beginnt eine Rahmenauswahl
         setOnMousePressed(event -> {
-            var target = event.getTarget();
-            if (event.getButton() == MouseButton.PRIMARY && target instanceof Lamp) {
-                draggingLamp = (Lamp) target;
+            if (event.getButton() != MouseButton.PRIMARY)
+                return;
+
+            var target = findLamp(event);
+            if (target != null) {
                 event.consume();
+                beginDrag(target, toContentX(event.getX()), toContentY(event.getY()));
+            } else {
+                rubberBandStartX = event.getX();
+                rubberBandStartY = event.getY();
             }
         });
 
-        // beim Loslassen der Maus wird keine Lampe mehr verschoben
+        // beim Loslassen der Maus wird keine Lampe mehr verschoben bzw. die Rahmenauswahl übernommen
         setOnMouseReleased(event -> {
-            if (event.getButton() == MouseButton.PRIMARY && draggingLamp != null) {
+            if (event.getButton() != MouseButton.PRIMARY)
+                return;
+
+            if (draggedSlots != null) {
+                event.consume();
+                endDrag();
+            } else if (rubberBand != null) {
                 event.consume();
-                draggingLamp = null;
+                getChildren().remove(rubberBand);
+
+                var bounds = rubberBand.getBoundsInParent();
+                selectArea(
+                        toContentX(bounds.getMinX()), toContentY(bounds.getMinY()),
+                        toContentX(bounds.getMaxX()), toContentY(bounds.getMaxY()),
+                        event.isControlDown()
+                );
+                rubberBand = null;
             }
         });
 
-        // wenn eine Lampe verschoben wird, wird sie beime Bewegen der Maus ebenfalls bewegt
+        // beim Verschieben wird nur die Mausposition gemerkt, übernommen wird sie vom dragTimer
         setOnMouseDragged(event -> {
-            if (draggingLamp != null) {
+            if (draggedSlots != null) {
+                event.consume();
+                dragX = toContentX(event.getX());
+                dragY = toContentY(event.getY());
+            } else if (event.isPrimaryButtonDown()) {
                 event.consume();
-                draggingLamp.setCenterX(event.getX());
-                draggingLamp.setCenterY(event.getY());
+                if (rubberBand == null) {
+                    rubberBand = new Rectangle();
+                    rubberBand.setManaged(false);
+                    rubberBand.setMouseTransparent(true);
+                    rubberBand.setFill(RUBBER_BAND_FILL);
+                    rubberBand.setStroke(RUBBER_BAND_STROKE);
+                    getChildren().add(rubberBand); // über allen Lampen
+                }
+
+                rubberBand.setX(Math.min(rubberBandStartX, event.getX()));
+                rubberBand.setY(Math.min(rubberBandStartY, event.getY()));
+                rubberBand.setWidth(Math.abs(event.getX() - rubberBandStartX));
+                rubberBand.setHeight(Math.abs(event.getY() - rubberBandStartY));
             }
         });
     }
 
+    /**
+     * Beginnt das Verschieben einer Lampe oder, wenn sie ausgewählt ist, der ganzen Auswahl.
+     * Bis zum Loslassen werden nur die Darstellungen verschoben, die Lampen selbst erst am Ende.
+     * @param target die Lampe unter der Maus
+     * @param x die x-Koordinate der Maus in Inhaltskoordinaten
+     * @param y die y-Koordinate der Maus in Inhaltskoordinaten
+     */
+    private void beginDrag(Lamp target, double x, double y) {
+        if (target.isSelected()) {
+            draggedSlots = (BitSet) model.getSelectedSlots().clone();
+        } else {
+            draggedSlots = new BitSet();
+            draggedSlots.set(target.getSlot());
+        }
+
+        dragStartX = dragX = x;
+        dragStartY = dragY = y;
+        dragOffsetX = dragOffsetY = 0;
+        canvas.beginDrag(draggedSlots);
+        viewLayer.beginDrag(draggedSlots);
+        dragTimer.start();
+    }
+
+    /**
+     * Zeigt die verschobenen Lampen an der zuletzt gemeldeten Mausposition an
+     */
+    private void showDragOffset() {
+        var offsetX = dragX - dragStartX;
+        var offsetY = dragY - dragStartY;
+        if (draggedSlots == null || (offsetX == dragOffsetX && offsetY == dragOffsetY))
+            return;
+
+        dragOffsetX = offsetX;
+        dragOffsetY = offsetY;
+        canvas.setDragOffset(offsetX, offsetY);
+        viewLayer.setDragOffset(offsetX, offsetY);
+    }
+
+    /**
+     * Beendet das Verschieben und überträgt den Versatz auf alle verschobenen Lampen auf einmal
+     */
+    private void endDrag() {
+        dragTimer.stop();
+        var slots = draggedSlots;
+        var offsetX = (float) (dragX - dragStartX);
+        var offsetY = (float) (dragY - dragStartY);
+        draggedSlots = null;
+        dragOffsetX = dragOffsetY = 0;
+
+        canvas.endDrag();
+        viewLayer.endDrag();
+        batch(() -> model.move(slots, offsetX, offsetY));
+        if (offsetX != 0 || offsetY != 0)
+            history.add(new LampHistory.MoveEdit(model, slots, offsetX, offsetY));
+    }
+
+    /**
+     * Gibt zurück, wie viele Bildpunkte des Bildschirms auf eine Einheit der Lampenkoordinaten kommen
+     * @return die Auflösung für {@link LampSprites}
+     */
+    double getSpriteScale() {
+        var scene = getScene();
+        var window = scene == null ? null : scene.getWindow();
+        return getZoom() * (window == null ? 1 : window.getRenderScaleX());
+    }
+
+    /**
+     * Rechnet eine x-Koordinate im Container in Inhaltskoordinaten um
+     * @param x die x-Koordinate im Container
+     * @return die x-Koordinate der Lampen
+     */
+    public double toContentX(double x) {
+        return getViewportX() + x / getZoom();
+    }
+
+    /**
+     * Rechnet eine y-Koordinate im Container in Inhaltskoordinaten um
+     * @param y die y-Koordinate im Container
+     * @return die y-Koordinate der Lampen
+     */
+    public double toContentY(double y) {
+        return getViewportY() + y / getZoom();
+    }
+
+    /**
+     * Ändert die Vergrößerung so, dass der Punkt unter der Maus an seiner Stelle bleibt
+     * @param factor der Faktor, um den vergrößert wird
+     * @param x die x-Koordinate im Container
+     * @param y die y-Koordinate im Container
+     */
+    public void zoomAt(double factor, double x, double y) {
+        var contentX = toContentX(x);
+        var contentY = toContentY(y);
+        setZoom(getZoom() * factor);
+        viewportX.set(contentX - x / getZoom());
+        viewportY.set(contentY - y / getZoom());
+    }
+
+    /**
+     * Wählt alle Lampen aus, deren Mittelpunkt im Rechteck liegt, als eine einzige Änderung der Auswahl
+     * @param minX linke Kante
+     * @param minY obere Kante
+     * @param maxX rechte Kante
+     * @param maxY untere Kante
+     * @param extend ob die Lampen zur bisherigen Auswahl hinzugefügt werden, statt sie zu ersetzen
+     */
+    public void selectArea(double minX, double minY, double maxX, double maxY, boolean extend) {
+        var slots = new BitSet();
+        grid.collect(minX, minY, maxX, maxY, slots);
+        selectSlots(slots, extend);
+    }
+
+    /**
+     * Wählt die Lampen auf den Plätzen mit einer einzigen Änderung der Auswahl aus
+     * @param slots die Plätze im Modell
+     * @param extend ob die Lampen zur bisherigen Auswahl hinzugefügt werden, statt sie zu ersetzen
+     */
+    public void selectSlots(BitSet slots, boolean extend) {
+        var found = new ArrayList<Lamp>(slots.cardinality());
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            found.add(model.getLamp(slot));
+        }
+
+        if (extend)
+            selectedLamps.addAll(found);
+        else
+            selectedLamps.setAll(found);
+    }
+
+    /**
+     * Findet die Lampe an einem Punkt in Inhaltskoordinaten
+     * @param x die x-Koordinate
+     * @param y die y-Koordinate
+     * @return die Lampe oder null
+     */
+    public Lamp lampAt(double x, double y) {
+        var slot = grid.slotAt(x, y, Lamp.RADIUS);
+        return slot < 0 ? null : model.getLamp(slot);
+    }
+
+    /**
+     * Ermittelt die Lampe unter der Maus
+     * @param event das Mausereignis des Containers
+     * @return die Lampe oder null
+     */
+    private Lamp findLamp(MouseEvent event) {
+        return lampAt(toContentX(event.getX()), toContentY(event.getY()));
+    }
+
+    /**
+     * Wechselt zwischen Lampen-Knoten und Zeichenfläche
+     */
+    private void applyRenderMode(RenderMode mode) {
+        if (mode == RenderMode.CANVAS) {
+            viewLayer.setActive(false); // die Knoten werden nicht mehr benötigt
+            getChildren().setAll(canvas);
+            canvas.setActive(true);
+        } else {
+            canvas.setActive(false);
+            getChildren().setAll(viewLayer);
+            viewLayer.setActive(true);
+        }
+    }
+
+    /**
+     * Gibt die aktuelle Darstellungsart zurück
+     * @return die Darstellungsart
+     */
+    public RenderMode getRenderMode() {
+        return renderMode.get();
+    }
+
+    /**
+     * Die Eigenschaft der Darstellungsart
+     * @return die Eigenschaft
+     */
+    public SimpleObjectProperty<RenderMode> renderModeProperty() {
+        return renderMode;
+    }
+
+    /**
+     * Legt die Darstellungsart fest
+     * @param renderMode die neue Darstellungsart
+     */
+    public void setRenderMode(RenderMode renderMode) {
+        this.renderMode.set(renderMode);
+    }
+
+    /**
+     * Gibt die Vergrößerung zurück
+     * @return die Vergrößerung, 1 entspricht der Originalgröße
+     */
+    public double getZoom() {
+        return zoom.get();
+    }
+
+    /**
+     * Die Eigenschaft der Vergrößerung
+     * @return die Eigenschaft
+     */
+    public ReadOnlyDoubleProperty zoomProperty() {
+        return zoom;
+    }
+
+    /**
+     * Legt die Vergrößerung fest, sie wird auf einen sinnvollen Bereich begrenzt
+     * @param zoom die neue Vergrößerung
+     */
+    public void setZoom(double zoom) {
+        this.zoom.set(Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom)));
+    }
+
+    /**
+     * Gibt die x-Koordinate der linken oberen Ecke des Ausschnitts zurück
+     * @return die x-Koordinate in Inhaltskoordinaten
+     */
+    public double getViewportX() {
+        return viewportX.get();
+    }
+
+    /**
+     * Die Eigenschaft der x-Koordinate der linken oberen Ecke des Ausschnitts
+     * @return die Eigenschaft
+     */
+    public SimpleDoubleProperty viewportXProperty() {
+        return viewportX;
+    }
+
+    /**
+     * Gibt die y-Koordinate der linken oberen Ecke des Ausschnitts zurück
+     * @return die y-Koordinate in Inhaltskoordinaten
+     */
+    public double getViewportY() {
+        return viewportY.get();
+    }
+
+    /**
+     * Die Eigenschaft der y-Koordinate der linken oberen Ecke des Ausschnitts
+     * @return die Eigenschaft
+     */
+    public SimpleDoubleProperty viewportYProperty() {
+        return viewportY;
+    }
+
+    /**
+     * Führt mehrere Änderungen an Lampen und an der Auswahl als eine Einheit aus.
+     * Die Änderungen werden sofort übernommen, aber die Listener des Containers und der Auswahl
+     * werden erst am Ende einmal mit der zusammengefassten Änderung benachrichtigt.
+     * Batches können verschachtelt werden, gemeldet wird beim Verlassen des äußersten.
+     *
+     * @param action die Änderungen
+     */
+    public void batch(Runnable action) {
+        batchDepth++;
+        selectedLamps.beginBatch();
+        try {
+            action.run();
+        } finally {
+            batchDepth--;
+            selectedLamps.endBatch();
+            if (batchDepth == 0)
+                firePendingChange();
+        }
+    }
+
+    /**
+     * Gibt zurück, ob gerade ein Batch ausgeführt wird
+     * @return ob gerade ein Batch ausgeführt wird
+     */
+    public boolean isInBatch() {
+        return batchDepth > 0;
+    }
+
+    private LampChange pendingChange() {
+        if (pendingChange == null)
+            pendingChange = new LampChange();
+        return pendingChange;
+    }
+
+    private void firePendingChangeIfNotInBatch() {
+        if (batchDepth == 0)
+            firePendingChange();
+    }
+
+    private void firePendingChange() {
+        var change = pendingChange;
+        pendingChange = null;
+
+        if (change == null || change.isEmpty())
+            return;
+
+        LampMetrics.count(LampMetrics.Counter.CHANGE_NOTIFICATIONS, changeListeners.size());
+        for (var listener : new ArrayList<>(changeListeners)) {
+            listener.lampsChanged(change);
+        }
+    }
+
+    /**
+     * Fügt Lampen am Ende der Liste hinzu, mit einer einzigen Änderung der Liste.
+     * Kann rückgängig gemacht werden.
+     * @param newLamps die Lampen
+     */
+    public void addLamps(Collection<? extends Lamp> newLamps) {
+        if (newLamps.isEmpty())
+            return;
+
+        var added = newLamps.toArray(new Lamp[0]);
+        var indices = new int[added.length];
+        var start = lamps.size();
+        batch(() -> lamps.addAll(added));
+
+        var slots = new int[added.length];
+        for (int i = 0; i < added.length; i++) {
+            indices[i] = start + i;
+            slots[i] = added[i].getSlot();
+        }
+        history.add(new LampHistory.LampsEdit(this, true, indices, added, slots));
+    }
+
+    /**
+     * Fügt Lampen wie {@link #addLamps(Collection)} hinzu und ersetzt die Auswahl durch sie
+     * @param newLamps die Lampen
+     */
+    public void addAndSelectLamps(Collection<? extends Lamp> newLamps) {
+        batch(() -> {
+            addLamps(newLamps);
+            selectedLamps.setAll(newLamps);
+        });
+    }
+
+    /**
+     * Kopiert die ausgewählten Lampen mit Zustand und Gruppe, zum Einfügen mit {@link #paste()}
+     */
+    public void copySelection() {
+        clipboard = LampGenerator.copy(getSelectedInOrder(), 0, 0);
+        pasteCount = 0;
+    }
+
+    /**
+     * Fügt die kopierten Lampen ein, jedes Mal ein Stück weiter verschoben, und wählt sie aus.
+     * Gruppen, die nicht mehr im Baum sind, werden dabei nicht übernommen. Kann rückgängig gemacht werden.
+     */
+    public void paste() {
+        if (clipboard.isEmpty())
+            return;
+
+        pasteCount++;
+        var offset = pasteCount * PASTE_OFFSET;
+        addAndSelectLamps(LampGenerator.copy(clipboard, offset, offset));
+    }
+
+    /**
+     * Fügt verschobene Kopien der ausgewählten Lampen ein und wählt sie aus, ohne die kopierten Lampen zu ändern.
+     * Kann rückgängig gemacht werden.
+     */
+    public void duplicateSelection() {
+        if (selectedLamps.isEmpty())
+            return;
+
+        addAndSelectLamps(LampGenerator.copy(getSelectedInOrder(), PASTE_OFFSET, PASTE_OFFSET));
+    }
+
+    /**
+     * Gibt die ausgewählten Lampen nach ihren Plätzen geordnet zurück
+     */
+    private List<Lamp> getSelectedInOrder() {
+        var slots = model.getSelectedSlots();
+        var selected = new ArrayList<Lamp>(slots.cardinality());
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            selected.add(model.getLamp(slot));
+        }
+        return selected;
+    }
+
+    /**
+     * Entfernt Lampen aus der Liste, zusammenhängende Lampen mit einer Änderung der Liste.
+     * Kann rückgängig gemacht werden.
+     * @param oldLamps die Lampen
+     */
+    public void removeLamps(Collection<? extends Lamp> oldLamps) {
+        // Stellen und Plätze der Lampen ermitteln, solange sie noch in der Liste sind
+        var slots = new BitSet();
+        for (var lamp : oldLamps) {
+            if (lamp.getModel() == model)
+                slots.set(lamp.getSlot());
+        }
+        var count = slots.cardinality();
+        if (count == 0)
+            return;
+
+        var indices = new int[count];
+        var removed = new Lamp[count];
+        var removedSlots = new int[count];
+        var n = 0;
+        for (int index = 0; index < lamps.size() && n < count; index++) {
+            var lamp = lamps.get(index);
+            if (slots.get(lamp.getSlot())) {
+                indices[n] = index;
+                removed[n] = lamp;
+                removedSlots[n] = lamp.getSlot();
+                n++;
+            }
+        }
+
+        batch(() -> deleteLamps(indices));
+        history.add(new LampHistory.LampsEdit(this, false, indices, removed, removedSlots));
+    }
+
+    /**
+     * Entfernt die Lampen an den Stellen der Liste
+     * @param indices die Stellen, aufsteigend
+     */
+    void deleteLamps(int[] indices) {
+        // entfernte Lampen sind nicht mehr ausgewählt
+        var removed = new ArrayList<Lamp>(indices.length);
+        for (var index : indices) {
+            removed.add(lamps.get(index));
+        }
+        selectedLamps.removeAll(removed);
+
+        if (countRanges(indices) > MAX_RANGE_CHANGES) {
+            // viele verstreute Lampen: eine einzige Änderung statt vieler Verschiebungen der Liste
+            var remaining = new ArrayList<Lamp>(lamps.size() - indices.length);
+            var next = 0;
+            for (int index = 0; index < lamps.size(); index++) {
+                if (next < indices.length && indices[next] == index)
+                    next++;
+                else
+                    remaining.add(lamps.get(index));
+            }
+            lamps.setAll(remaining);
+            return;
+        }
+
+        // von hinten, damit sich die vorderen Stellen nicht verschieben
+        var end = indices.length;
+        while (end > 0) {
+            var start = end - 1;
+            while (start > 0 && indices[start - 1] == indices[start] - 1) {
+                start--;
+            }
+            lamps.remove(indices[start], indices[end - 1] + 1);
+            end = start;
+        }
+    }
+
+    /**
+     * Fügt entfernte Lampen wieder an ihren Stellen der Liste und auf ihren Plätzen im Modell ein
+     * @param indices die Stellen, an denen die Lampen danach stehen, aufsteigend
+     * @param restored die Lampen
+     * @param slots die Plätze der Lampen
+     */
+    void insertLamps(int[] indices, Lamp[] restored, int[] slots) {
+        restoredLamps = restored;
+        restoredSlots = slots;
+        nextRestored = 0;
+        try {
+            if (countRanges(indices) > MAX_RANGE_CHANGES) {
+                // viele verstreute Lampen: die ganze Liste auf einmal ersetzen
+                var merged = new ArrayList<Lamp>(lamps.size() + restored.length);
+                var next = 0;
+                for (var lamp : lamps) {
+                    while (next < indices.length && indices[next] == merged.size()) {
+                        merged.add(restored[next++]);
+                    }
+                    merged.add(lamp);
+                }
+                while (next < indices.length) {
+                    merged.add(restored[next++]);
+                }
+                lamps.setAll(merged);
+                return;
+            }
+
+            // von vorne, jede Lampe landet dadurch direkt an ihrer endgültigen Stelle
+            var start = 0;
+            while (start < indices.length) {
+                var end = start + 1;
+                while (end < indices.length && indices[end] == indices[end - 1] + 1) {
+                    end++;
+                }
+                lamps.addAll(indices[start], Arrays.asList(restored).subList(start, end));
+                start = end;
+            }
+        } finally {
+            restoredLamps = null;
+            restoredSlots = null;
+        }
+    }
+
+    /**
+     * Gibt die Anzahl der zusammenhängenden Bereiche in aufsteigenden Stellen zurück
+     */
+    private static int countRanges(int[] indices) {
+        var ranges = 0;
+        for (int i = 0; i < indices.length; i++) {
+            if (i == 0 || indices[i] != indices[i - 1] + 1)
+                ranges++;
+        }
+        return ranges;
+    }
+
+    /**
+     * Gibt den Platz zurück, den eine gerade eingefügte Lampe erhalten soll, oder -1
+     */
+    private int restoredSlot(Lamp lamp) {
+        if (restoredLamps == null || nextRestored >= restoredLamps.length || restoredLamps[nextRestored] != lamp)
+            return -1;
+        return restoredSlots[nextRestored++];
+    }
+
+    /**
+     * Gibt die Änderungen zum Rückgängigmachen zurück
+     *
+     * @return der Verlauf
+     */
+    public LampHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Fügt einen Listener für Änderungen an den Lampen hinzu
+     */
+    public void addChangeListener(LampChange.Listener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Entfernt einen Listener für Änderungen an den Lampen
+     */
+    public void removeChangeListener(LampChange.Listener listener) {
+        changeListeners.remove(listener);
+    }
+
     /**
      * Gibt die ausgewählten Lampen zurück
      *
      * @return die ausgewählten Lampen
      */
-    public ObservableList<Lamp> getSelectedLamps() {
+    public LampSelection getSelectedLamps() {
         return selectedLamps;
     }
 
@@ -145,4 +949,22 @@ public class LampsContainer extends BorderPane {
     public ObservableList<Lamp> getLamps() {
         return lamps;
     }
+
+    /**
+     * Gibt das Modell zurück, in dem der Zustand der Lampen liegt
+     *
+     * @return das Modell
+     */
+    public LampModel getModel() {
+        return model;
+    }
+
+    /**
+     * Gibt das Gitter über die Mittelpunkte der Lampen zurück
+     *
+     * @return das Gitter
+     */
+    LampGrid getGrid() {
+        return grid;
+    }
 }
@@ -0,0 +1,529 @@
+package lamps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Speichert und lädt den vollständigen Zustand: Gruppen, Lampen, ihre Gruppen, An/Aus, Helligkeit, Auswahl und
+ * Stockwerke.
+ * Die Datei wird über einen {@link MappedByteBuffer} geschrieben und gelesen.
+ * <p>
+ * Aufbau (Big Endian):
+ * <pre>
+ * int    MAGIC ("LAMP")
+ * int    Version
+ * long   Kennung des Stands, ein {@link LampJournal} gehört nur zu dem Stand mit seiner Kennung
+ * int    Anzahl der Gruppen, danach je Gruppe: int Länge, UTF-8-Bytes des Namens,
+ *        int Obergruppe (Index + 1, 0 = keine, ab Version 3), long Kennung (ab Version 5)
+ * int    Anzahl der Lampen n
+ * float  x[n], float y[n]
+ * int    Gruppe[n] (Index + 1, 0 = keine Gruppe)
+ * int    Helligkeit und Farbtemperatur[n] (wie {@link LampModel#level(int, int)}, ab Version 4)
+ * long   An[(n + 63) / 64], long Ausgewählt[(n + 63) / 64] (als Bits)
+ * int    Anzahl der Stockwerke (ab Version 6, 0 = ein Stockwerk mit den Lampen oben), int angezeigtes Stockwerk,
+ *        danach je Stockwerk: int Länge, UTF-8-Bytes des Namens, int Anzahl der Lampen m,
+ *        float x[m], float y[m], int Gruppe[m], int Helligkeit und Farbtemperatur[m], long An[(m + 63) / 64]
+ * </pre>
+ * Die Lampen oben sind die des angezeigten Stockwerks, dort ist m immer 0.
+ * Die Spalten werden jeweils am Stück gelesen und geschrieben.
+ * Die Gruppen werden wie von {@link GroupTree#getGroupsInOrder()} geordnet übergeben, dann ergibt sich beim Laden
+ * derselbe Baum.
+ * Geschrieben wird zuerst in eine Nachbardatei, die dann die alte Datei ersetzt,
+ * sodass bei einem Absturz immer eine vollständige Datei übrig bleibt.
+ */
+public class LayoutSnapshot {
+    private static final int MAGIC = 0x4C414D50; // "LAMP"
+    private static final int VERSION = 6;
+
+    private static final Random STAMPS = new Random();
+
+    private final List<Group> groups;
+    private final List<Lamp> lamps;
+    private final List<Lamp> selectedLamps;
+    private final List<LampFloor> floors;
+    private final long stamp;
+
+    LayoutSnapshot(List<Group> groups, List<Lamp> lamps, List<Lamp> selectedLamps, List<LampFloor> floors,
+                   long stamp) {
+        this.groups = Collections.unmodifiableList(groups);
+        this.lamps = Collections.unmodifiableList(lamps);
+        this.selectedLamps = Collections.unmodifiableList(selectedLamps);
+        this.floors = Collections.unmodifiableList(floors);
+        this.stamp = stamp;
+    }
+
+    /**
+     * Gibt die Kennung des gespeicherten Stands zurück
+     * @return die Kennung, 0 bei Dateien der ersten Version
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Gibt die geladenen Gruppen zurück
+     * @return die Gruppen
+     */
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Gibt die geladenen Lampen zurück, sie sind noch in keinem Container
+     * @return die Lampen
+     */
+    public List<Lamp> getLamps() {
+        return lamps;
+    }
+
+    /**
+     * Gibt die geladenen Lampen zurück, die ausgewählt waren
+     * @return die ausgewählten Lampen
+     */
+    public List<Lamp> getSelectedLamps() {
+        return selectedLamps;
+    }
+
+    /**
+     * Gibt die geladenen Stockwerke zurück, genau eines davon ist geladen und hat die Lampen von {@link #getLamps()}
+     * @return die Stockwerke, bei älteren Dateien nur eines
+     */
+    public List<LampFloor> getFloors() {
+        return floors;
+    }
+
+    /**
+     * Gibt das Stockwerk zurück, zu dem die Lampen von {@link #getLamps()} gehören
+     * @return das angezeigte Stockwerk
+     */
+    public LampFloor getActiveFloor() {
+        for (var floor : floors) {
+            if (floor.isLoaded())
+                return floor;
+        }
+        throw new IllegalStateException("Kein Stockwerk geladen");
+    }
+
+    /**
+     * Übernimmt die geladenen Lampen in einen Container, ersetzt alle bisherigen Lampen
+     * und stellt die Auswahl wieder her
+     * @param container der Container
+     */
+    public void applyTo(LampsContainer container) {
+        container.batch(() -> {
+            container.getSelectedLamps().clear();
+            container.getLamps().setAll(lamps); // eine einzige Änderung der Liste
+            container.getSelectedLamps().setAll(selectedLamps);
+        });
+    }
+
+    /**
+     * Speichert die Gruppen und alle Lampen eines Containers
+     * @param path die Datei
+     * @param groups die Gruppen, jede Obergruppe vor ihren Untergruppen
+     * @param container der Container
+     * @return die Kennung des gespeicherten Stands
+     * @throws IOException wenn die Datei nicht geschrieben werden kann
+     */
+    public static long write(Path path, Collection<Group> groups, LampsContainer container) throws IOException {
+        return write(path, groups, container, List.of());
+    }
+
+    /**
+     * Speichert die Gruppen, alle Lampen eines Containers und die Stockwerke
+     * @param path die Datei
+     * @param groups die Gruppen, jede Obergruppe vor ihren Untergruppen
+     * @param container der Container mit den Lampen des geladenen Stockwerks
+     * @param floors die Stockwerke, leer, wenn es nur die Lampen im Container gibt
+     * @return die Kennung des gespeicherten Stands
+     * @throws IOException wenn die Datei nicht geschrieben werden kann
+     */
+    public static long write(Path path, Collection<Group> groups, LampsContainer container, List<LampFloor> floors)
+            throws IOException {
+        return capture(groups, container, floors).write(path);
+    }
+
+    /**
+     * Stellt die Gruppentabelle zusammen: zuerst die Gruppen, dann die Gruppen von Lampen, die nicht darin sind
+     * @param groups die Gruppen
+     * @param lamps die Lampen
+     * @return die Gruppen in der Reihenfolge, in der sie gespeichert werden
+     */
+    static List<Group> groupTable(Collection<Group> groups, List<Lamp> lamps) {
+        var groupTable = new ArrayList<Group>(groups);
+        var known = Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>());
+        known.addAll(groupTable);
+        for (var lamp : lamps) {
+            var group = lamp.getGroup();
+            if (group != null && known.add(group))
+                groupTable.add(group);
+        }
+        return groupTable;
+    }
+
+    /**
+     * Kopiert den Zustand eines Containers in Spalten, die anschließend in einem anderen Thread
+     * geschrieben werden können
+     * @param groups die Gruppen
+     * @param container der Container
+     * @param floors die Stockwerke, leer, wenn es nur die Lampen im Container gibt
+     * @return die Spalten
+     */
+    static Columns capture(Collection<Group> groups, LampsContainer container, List<LampFloor> floors) {
+        var lamps = container.getLamps();
+        var n = lamps.size();
+
+        var groupTable = groupTable(groups, lamps);
+        var groupIndices = new IdentityHashMap<Group, Integer>();
+        for (int i = 0; i < groupTable.size(); i++) {
+            groupIndices.put(groupTable.get(i), i);
+        }
+
+        var columns = new Columns(groupTable, n, floors.size());
+        for (int i = 0; i < n; i++) {
+            var lamp = lamps.get(i);
+            columns.x[i] = (float) lamp.getX();
+            columns.y[i] = (float) lamp.getY();
+            columns.levels[i] = lamp.getLevel();
+            columns.on.set(i, lamp.isOn());
+            columns.selected.set(i, lamp.isSelected());
+
+            var group = lamp.getGroup();
+            if (group != null)
+                columns.groups[i] = groupIndices.get(group) + 1;
+        }
+
+        // die Spalten nicht geladener Stockwerke werden nur beim Entladen ersetzt, nicht geändert, An/Aus aber schon
+        for (int f = 0; f < floors.size(); f++) {
+            var floor = floors.get(f);
+            columns.floorNames[f] = floor.getName();
+            if (floor.isLoaded()) {
+                columns.activeFloor = f;
+                columns.floorX[f] = columns.floorY[f] = new float[0];
+                columns.floorGroups[f] = columns.floorLevels[f] = new int[0];
+                columns.floorOn[f] = new BitSet();
+                continue;
+            }
+
+            var floorGroups = floor.getGroups();
+            columns.floorX[f] = floor.getX();
+            columns.floorY[f] = floor.getY();
+            columns.floorLevels[f] = floor.getLevels();
+            columns.floorOn[f] = (BitSet) floor.getOn().clone();
+            columns.floorGroups[f] = new int[floorGroups.length];
+            for (int i = 0; i < floorGroups.length; i++) {
+                // entfernte Gruppen zählen nicht mehr
+                var group = floorGroups[i];
+                var index = group == null || group.tree == null ? null : groupIndices.get(group);
+                if (index != null)
+                    columns.floorGroups[f][i] = index + 1;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Der kopierte Zustand eines Containers, in der Reihenfolge der Datei
+     */
+    static class Columns {
+        private final List<Group> groupTable;
+        private final String[] names;
+        private final int[] parents;
+        private final long[] ids;
+        private final int n;
+        private final float[] x;
+        private final float[] y;
+        private final int[] groups;
+        private final int[] levels;
+        private final BitSet on;
+        private final BitSet selected;
+
+        private final String[] floorNames;
+        private int activeFloor = 0;
+        private final float[][] floorX;
+        private final float[][] floorY;
+        private final int[][] floorGroups;
+        private final int[][] floorLevels;
+        private final BitSet[] floorOn;
+
+        private Columns(List<Group> groupTable, int n, int floorCount) {
+            this.groupTable = groupTable;
+            // die Namen gleich mitnehmen, sie könnten sich vor dem Schreiben noch ändern
+            names = new String[groupTable.size()];
+            parents = new int[groupTable.size()];
+            ids = new long[groupTable.size()];
+            var groupIndices = new IdentityHashMap<Group, Integer>();
+            for (int i = 0; i < names.length; i++) {
+                names[i] = groupTable.get(i).getName();
+                ids[i] = groupTable.get(i).getId();
+                groupIndices.put(groupTable.get(i), i);
+            }
+            for (int i = 0; i < parents.length; i++) {
+                var parent = groupIndices.get(groupTable.get(i).getParent());
+                parents[i] = parent == null ? 0 : parent + 1;
+            }
+            this.n = n;
+            x = new float[n];
+            y = new float[n];
+            groups = new int[n];
+            levels = new int[n];
+            on = new BitSet(n);
+            selected = new BitSet(n);
+            floorNames = new String[floorCount];
+            floorX = new float[floorCount][];
+            floorY = new float[floorCount][];
+            floorGroups = new int[floorCount][];
+            floorLevels = new int[floorCount][];
+            floorOn = new BitSet[floorCount];
+        }
+
+        /**
+         * Gibt die Gruppen in der Reihenfolge der Datei zurück
+         * @return die Gruppentabelle
+         */
+        List<Group> getGroupTable() {
+            return groupTable;
+        }
+
+        /**
+         * Schreibt die Spalten, darf in einem anderen Thread aufgerufen werden
+         * @param path die Datei
+         * @return die Kennung des gespeicherten Stands
+         * @throws IOException wenn die Datei nicht geschrieben werden kann
+         */
+        long write(Path path) throws IOException {
+            var encodedNames = new ArrayList<byte[]>(names.length);
+            long size = 4 * 4 + 8;
+            for (var name : names) {
+                var bytes = name.getBytes(StandardCharsets.UTF_8);
+                encodedNames.add(bytes);
+                size += 4 + bytes.length + 4 + 8;
+            }
+            var bitWords = (n + 63) / 64;
+            size += (long) n * (4 + 4 + 4 + 4) + 2L * bitWords * 8;
+
+            var encodedFloorNames = new ArrayList<byte[]>(floorNames.length);
+            size += 4 + 4;
+            for (int f = 0; f < floorNames.length; f++) {
+                var bytes = floorNames[f].getBytes(StandardCharsets.UTF_8);
+                encodedFloorNames.add(bytes);
+                var m = floorX[f].length;
+                size += 4 + bytes.length + 4 + (long) m * (4 + 4 + 4 + 4) + (m + 63) / 64 * 8L;
+            }
+
+            long stamp;
+            do {
+                stamp = STAMPS.nextLong();
+            } while (stamp == 0);
+
+            var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (var channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putLong(stamp);
+
+                buffer.putInt(encodedNames.size());
+                for (int i = 0; i < encodedNames.size(); i++) {
+                    var name = encodedNames.get(i);
+                    buffer.putInt(name.length);
+                    buffer.put(name);
+                    buffer.putInt(parents[i]);
+                    buffer.putLong(ids[i]);
+                }
+
+                buffer.putInt(n);
+                buffer.asFloatBuffer().put(x);
+                buffer.position(buffer.position() + n * 4);
+                buffer.asFloatBuffer().put(y);
+                buffer.position(buffer.position() + n * 4);
+                buffer.asIntBuffer().put(groups);
+                buffer.position(buffer.position() + n * 4);
+                buffer.asIntBuffer().put(levels);
+                buffer.position(buffer.position() + n * 4);
+                putBits(buffer, on, bitWords);
+                putBits(buffer, selected, bitWords);
+
+                buffer.putInt(floorNames.length);
+                buffer.putInt(activeFloor);
+                for (int f = 0; f < floorNames.length; f++) {
+                    var name = encodedFloorNames.get(f);
+                    buffer.putInt(name.length);
+                    buffer.put(name);
+                    var m = floorX[f].length;
+                    buffer.putInt(m);
+                    buffer.asFloatBuffer().put(floorX[f]);
+                    buffer.position(buffer.position() + m * 4);
+                    buffer.asFloatBuffer().put(floorY[f]);
+                    buffer.position(buffer.position() + m * 4);
+                    buffer.asIntBuffer().put(floorGroups[f]);
+                    buffer.position(buffer.position() + m * 4);
+                    buffer.asIntBuffer().put(floorLevels[f]);
+                    buffer.position(buffer.position() + m * 4);
+                    putBits(buffer, floorOn[f], (m + 63) / 64);
+                }
+
+                buffer.force();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return stamp;
+        }
+    }
+
+    /**
+     * Lädt Gruppen und Lampen aus einer Datei
+     * @param path die Datei
+     * @return die geladenen Gruppen und Lampen
+     * @throws IOException wenn die Datei nicht gelesen werden kann oder kein gültiges Format hat
+     */
+    public static LayoutSnapshot read(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return read(buffer);
+            } catch (RuntimeException e) { // z.B. BufferUnderflowException bei abgeschnittenen Dateien
+                throw new IOException("Ungültige Datei: " + path, e);
+            }
+        }
+    }
+
+    private static LayoutSnapshot read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Keine Lampen-Datei");
+
+        var version = buffer.getInt();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Nicht unterstützte Version: " + version);
+        var stamp = version == 1 ? 0 : buffer.getLong();
+
+        // Gruppen
+        var groupCount = buffer.getInt();
+        var groups = new ArrayList<Group>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            var name = new byte[buffer.getInt()];
+            buffer.get(name);
+            // die Obergruppe steht davor, verknüpft wird sie erst in einem GroupTree
+            var parent = version >= 3 ? buffer.getInt() : 0;
+            // ältere Dateien kennen keine Kennungen, die Gruppen erhalten dann neue
+            var group = version >= 5
+                    ? new Group(buffer.getLong(), new String(name, StandardCharsets.UTF_8))
+                    : new Group(new String(name, StandardCharsets.UTF_8));
+            groups.add(group);
+
+            if (parent > 0 && parent <= i)
+                group.setParent(groups.get(parent - 1));
+        }
+
+        // Spalten der Lampen
+        var n = buffer.getInt();
+        var x = new float[n];
+        var y = new float[n];
+        var lampGroups = new int[n];
+        buffer.asFloatBuffer().get(x);
+        buffer.position(buffer.position() + n * 4);
+        buffer.asFloatBuffer().get(y);
+        buffer.position(buffer.position() + n * 4);
+        buffer.asIntBuffer().get(lampGroups);
+        buffer.position(buffer.position() + n * 4);
+        var levels = new int[n];
+        if (version >= 4) {
+            buffer.asIntBuffer().get(levels);
+            buffer.position(buffer.position() + n * 4);
+        } else {
+            Arrays.fill(levels, LampModel.DEFAULT_LEVEL);
+        }
+        var bitWords = (n + 63) / 64;
+        var on = getBits(buffer, bitWords);
+        var selected = getBits(buffer, bitWords);
+
+        // alle Lampen in einem gemeinsamen Modell vorbereiten, ohne Listener
+        var model = new LampModel(false, n);
+        var lamps = new ArrayList<Lamp>(n);
+        var selectedLamps = new ArrayList<Lamp>(selected.cardinality());
+        for (int i = 0; i < n; i++) {
+            var lamp = new Lamp(model);
+            var slot = lamp.getSlot();
+            model.setPosition(slot, x[i], y[i]);
+            model.setOn(slot, on.get(i));
+            model.setLevel(slot, levels[i]);
+            if (lampGroups[i] != 0)
+                model.setGroup(slot, groups.get(lampGroups[i] - 1));
+
+            lamps.add(lamp);
+            if (selected.get(i))
+                selectedLamps.add(lamp);
+        }
+
+        // Stockwerke, die Lampen oben gehören zum angezeigten
+        var floors = new ArrayList<LampFloor>();
+        var floorCount = version >= 6 ? buffer.getInt() : 0;
+        var activeFloor = version >= 6 ? buffer.getInt() : 0;
+        if (floorCount > 0 && (activeFloor < 0 || activeFloor >= floorCount))
+            throw new IOException("Ungültiges angezeigtes Stockwerk: " + activeFloor);
+        for (int f = 0; f < floorCount; f++) {
+            var name = new byte[buffer.getInt()];
+            buffer.get(name);
+            var m = buffer.getInt();
+            var floorX = new float[m];
+            var floorY = new float[m];
+            var floorGroupIndices = new int[m];
+            var floorLevels = new int[m];
+            buffer.asFloatBuffer().get(floorX);
+            buffer.position(buffer.position() + m * 4);
+            buffer.asFloatBuffer().get(floorY);
+            buffer.position(buffer.position() + m * 4);
+            buffer.asIntBuffer().get(floorGroupIndices);
+            buffer.position(buffer.position() + m * 4);
+            buffer.asIntBuffer().get(floorLevels);
+            buffer.position(buffer.position() + m * 4);
+            var floorOn = getBits(buffer, (m + 63) / 64);
+
+            if (f == activeFloor) {
+                floors.add(LampFloor.loaded(new String(name, StandardCharsets.UTF_8)));
+                continue;
+            }
+            var floorGroups = new Group[m];
+            for (int i = 0; i < m; i++) {
+                if (floorGroupIndices[i] != 0)
+                    floorGroups[i] = groups.get(floorGroupIndices[i] - 1);
+            }
+            floors.add(new LampFloor(new String(name, StandardCharsets.UTF_8),
+                    floorX, floorY, floorGroups, floorLevels, floorOn));
+        }
+        if (floors.isEmpty())
+            floors.add(LampFloor.loaded(LampFloor.defaultName(1)));
+
+        return new LayoutSnapshot(groups, lamps, selectedLamps, floors, stamp);
+    }
+
+    private static void putBits(ByteBuffer buffer, BitSet bits, int words) {
+        var longs = Arrays.copyOf(bits.toLongArray(), words);
+        buffer.asLongBuffer().put(longs);
+        buffer.position(buffer.position() + words * 8);
+    }
+
+    private static BitSet getBits(ByteBuffer buffer, int words) {
+        var longs = new long[words];
+        buffer.asLongBuffer().get(longs);
+        buffer.position(buffer.position() + words * 8);
+        return BitSet.valueOf(longs);
+    }
+}
@@ -0,0 +1,107 @@
+package lamps;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.Slider;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Ein Regler für die Helligkeit oder die Farbtemperatur vieler Lampen, z.B. der Auswahl oder einer Gruppe.
+ * <p>
+ * Der Regler meldet beim Ziehen oft mehrere Werte pro Bild. Übernommen wird nur der letzte, höchstens einmal pro Bild
+ * und mit einer einzigen Massenoperation in einem {@link LampsContainer#batch(Runnable)}, sodass Farbe und Schein
+ * aller Lampen gemeinsam im nächsten Puls aktualisiert werden.
+ * Ein ganzes Ziehen wird als ein einziger Eintrag im Verlauf aufgenommen.
+ */
+class LevelSlider extends Slider {
+    private final LampsContainer container;
+    private final Supplier<BitSet> targets;
+    private final ObjIntConsumer<BitSet> apply;
+
+    /**
+     * die Plätze der Lampen, die gerade geregelt werden, und ihre Werte davor, oder null
+     */
+    private BitSet slots = null;
+    private int[] oldLevels;
+
+    private boolean pending = false;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            flush();
+        }
+    };
+
+    /**
+     * Erstellt einen Regler für die Helligkeit
+     * @param container der Container der Lampen
+     * @param targets gibt beim Beginn des Ziehens die Plätze der Lampen zurück, die geregelt werden
+     * @return der Regler
+     */
+    static LevelSlider brightness(LampsContainer container, Supplier<BitSet> targets) {
+        var model = container.getModel();
+        return new LevelSlider(container, 0, LampModel.MAX_BRIGHTNESS, LampModel.MAX_BRIGHTNESS,
+                targets, model::setBrightness);
+    }
+
+    /**
+     * Erstellt einen Regler für die Farbtemperatur
+     * @param container der Container der Lampen
+     * @param targets gibt beim Beginn des Ziehens die Plätze der Lampen zurück, die geregelt werden
+     * @return der Regler
+     */
+    static LevelSlider colorTemperature(LampsContainer container, Supplier<BitSet> targets) {
+        var model = container.getModel();
+        return new LevelSlider(container, LampModel.MIN_COLOR_TEMPERATURE, LampModel.MAX_COLOR_TEMPERATURE,
+                LampModel.DEFAULT_COLOR_TEMPERATURE, targets, model::setColorTemperature);
+    }
+
+    private LevelSlider(LampsContainer container, int min, int max, int value,
+                        Supplier<BitSet> targets, ObjIntConsumer<BitSet> apply) {
+        super(min, max, value);
+        this.container = container;
+        this.targets = targets;
+        this.apply = apply;
+
+        valueProperty().addListener(observable -> {
+            pending = true;
+            timer.start();
+        });
+        // nach dem Loslassen den Eintrag im Verlauf abschließen
+        valueChangingProperty().addListener((observable, oldValue, changing) -> {
+            if (!changing)
+                timer.start();
+        });
+    }
+
+    /**
+     * Übernimmt den letzten Wert und schließt den Eintrag ab, wenn nicht mehr gezogen wird
+     */
+    private void flush() {
+        timer.stop();
+        var model = container.getModel();
+
+        if (pending) {
+            pending = false;
+            if (slots == null) {
+                slots = (BitSet) targets.get().clone();
+                slots.and(model.getUsedSlots());
+                oldLevels = model.getLevels(slots);
+            }
+            var value = (int) Math.round(getValue());
+            container.batch(() -> apply.accept(slots, value));
+        }
+
+        if (!isValueChanging() && slots != null) {
+            var newLevels = model.getLevels(slots);
+            if (!Arrays.equals(oldLevels, newLevels))
+                container.getHistory().add(new LampHistory.LevelEdit(model, slots, oldLevels, newLevels));
+            slots = null;
+            oldLevels = null;
+        }
+    }
+}
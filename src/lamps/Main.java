@@ -1,20 +1,48 @@
 package lamps;
 
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.Observable;
 import javafx.beans.binding.Bindings;
+import javafx.beans.binding.BooleanBinding;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.TextFieldListCell;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Die Hauptklasse der Anwendung
@@ -22,14 +50,77 @@ import java.util.stream.Collectors;
 public class Main extends Application {
     private final ObservableList<Group> groups = FXCollections.observableArrayList();
 
+    /**
+     * ordnet die Gruppen zu einem Baum
+     */
+    private final GroupTree groupTree = new GroupTree(groups);
+
     private final SimpleObjectProperty<Group> selectedGroup = new SimpleObjectProperty<>(null);
+    private final TextField groupFilter = new TextField();
+    private TreeView<Group> groupsView;
 
     private LampsContainer lampsContainer;
 
     /**
-     * Der Einstiegspunkt der Anwendung
+     * die Stockwerke, nur die Lampen des angezeigten liegen im Container
+     */
+    private final ObservableList<LampFloor> floors =
+            FXCollections.observableArrayList(LampFloor.loaded(LampFloor.defaultName(1)));
+    private final SimpleObjectProperty<LampFloor> activeFloor = new SimpleObjectProperty<>(floors.get(0));
+
+    /**
+     * ob gerade die Lampen eines Stockwerks im Hintergrund erstellt werden
+     */
+    private final SimpleBooleanProperty floorLoading = new SimpleBooleanProperty(false);
+    private ComboBox<LampFloor> floorBox;
+
+    /**
+     * zeichnet alle Änderungen neben der zuletzt geöffneten oder gespeicherten Datei auf, oder null
+     */
+    private LampJournal journal = null;
+
+    /**
+     * nimmt Befehle von anderen Programmen entgegen, oder null
+     */
+    private ControlServer controlServer = null;
+
+    /**
+     * schaltet Lampen und Gruppen zu festgelegten Zeiten
+     */
+    private LampScheduler scheduler;
+
+    /**
+     * spielt Lichteffekte auf Gruppen oder der Auswahl ab
      */
-    public static void main(String[] args) {
+    private LampEffectEngine effectEngine;
+
+    /**
+     * zeigt die Messwerte an, wenn sie eingeschaltet sind
+     */
+    private LampMetricsOverlay metricsOverlay;
+
+    /**
+     * wählt Lampen über Abfragen aus der Abfrageleiste aus
+     */
+    private LampQueryEngine queryEngine;
+
+    /**
+     * zeichnet die Bedienschritte für {@link LampLoadDriver} auf, solange "Aufzeichnen" eingeschaltet ist
+     */
+    private final LampTrace.Recorder recorder = new LampTrace.Recorder();
+
+    /**
+     * Der Einstiegspunkt der Anwendung.
+     * Mit {@code --replay=<aufzeichnung>} wird statt des Fensters eine Aufzeichnung abgespielt und ausgemessen,
+     * siehe {@link LampLoadDriver}.
+     */
+    public static void main(String[] args) throws Exception {
+        for (var arg : args) {
+            if (arg.startsWith("--replay=")) {
+                LampLoadDriver.run(Paths.get(arg.substring("--replay=".length())), List.of(args).contains("--paced"));
+                return;
+            }
+        }
         launch(args); // JavaFX starten
     }
 
@@ -39,22 +130,63 @@ public class Main extends Application {
     @Override
     public void start(Stage primaryStage) {
         lampsContainer = new LampsContainer();
+        scheduler = new LampScheduler(lampsContainer, Clock.systemDefaultZone());
+        scheduler.start();
+        effectEngine = new LampEffectEngine(lampsContainer);
+        // ein Effekt schaltet in jedem Bild viele Lampen, ins Journal kommt nur der Zustand an seinem Ende
+        effectEngine.runningProperty().addListener((observable, wasRunning, running) -> {
+            if (journal == null)
+                return;
+            if (running)
+                journal.holdSwitches();
+            else
+                journal.releaseSwitches();
+        });
+        queryEngine = new LampQueryEngine(lampsContainer, groupTree);
 
-        // Toolbar und Gruppenpanel erstellen
+        // Toolbar, Abfrageleiste und Gruppenpanel erstellen
         var toolbar = createToolbar();
+        var queryBar = createQueryBar();
         var groupsPane = createGroupsPane();
 
         // Alles zu einem Layout zusammenfügen
+        // die Messwerte liegen über den Lampen
+        metricsOverlay = new LampMetricsOverlay();
+        var lampsPane = new StackPane(lampsContainer, metricsOverlay);
+        StackPane.setAlignment(metricsOverlay, Pos.TOP_LEFT);
+
         var rootPane = new BorderPane(
-                lampsContainer,
+                new BorderPane(lampsPane, queryBar, null, null, null),
                 toolbar,
                 groupsPane,
                 null,
                 null
         );
 
+        // Strg + C kopiert die ausgewählten Lampen, Strg + V fügt sie ein, Strg + D dupliziert sie
+        lampsContainer.addEventHandler(KeyEvent.KEY_PRESSED, event -> {
+            if (!event.isShortcutDown())
+                return;
+
+            if (event.getCode() == KeyCode.C)
+                recorder.run(LampTrace.Operation.COPY, lampsContainer::copySelection);
+            else if (event.getCode() == KeyCode.V)
+                recorder.run(LampTrace.Operation.PASTE, lampsContainer::paste);
+            else if (event.getCode() == KeyCode.D)
+                recorder.run(LampTrace.Operation.DUPLICATE, lampsContainer::duplicateSelection);
+        });
+
         // In eine Szene einfügen
         var scene = new Scene(rootPane);
+        LampMetrics.watchPulses(scene);
+
+        // Strg + Z macht rückgängig, Strg + Y oder Strg + Umschalt + Z wiederholt
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN), this::undo);
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN), this::redo);
+        scene.getAccelerators().put(
+                new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN),
+                this::redo
+        );
         primaryStage.setScene(scene);
 
         // Das Fenster anzeigen
@@ -62,56 +194,584 @@ public class Main extends Application {
         primaryStage.setWidth(650);
         primaryStage.setTitle("Lampen");
         primaryStage.show();
+
+        // eine als Parameter übergebene Datei direkt öffnen
+        var files = getParameters().getUnnamed();
+        if (!files.isEmpty())
+            openLayout(Paths.get(files.get(0)));
+
+        // mit --control-port=n können andere Programme die Lampen steuern
+        var controlPort = getParameters().getNamed().get("control-port");
+        if (controlPort != null) {
+            try {
+                controlServer = ControlServer.start(Integer.parseInt(controlPort), lampsContainer, groupTree);
+            } catch (IOException | NumberFormatException e) {
+                showError("Die Steuerung konnte nicht gestartet werden", e);
+            }
+        }
+    }
+
+    /**
+     * Wird beim Beenden des Programms aufgerufen
+     */
+    @Override
+    public void stop() {
+        if (controlServer != null)
+            controlServer.close();
+        scheduler.close();
+        effectEngine.stop();
+        closeJournal();
+        stopRecording();
+    }
+
+    /**
+     * Lädt Gruppen und Lampen aus einer Datei und ersetzt den aktuellen Zustand.
+     * Die Änderungen aus dem Journal der Datei werden dabei übernommen.
+     * @param path die Datei
+     */
+    private void openLayout(Path path) {
+        closeJournal();
+        try {
+            var snapshot = LayoutSnapshot.read(path);
+            var recovered = LampJournal.replay(path, snapshot);
+            groups.setAll(recovered.getGroups());
+            recovered.applyTo(lampsContainer);
+            activeFloor.set(recovered.getActiveFloor());
+            floors.setAll(recovered.getFloors());
+            lampsContainer.getHistory().clear(); // die alten Einträge beziehen sich auf die vorherigen Lampen
+
+            // der wiederhergestellte Zustand wird der neue Stand, auf den sich das neue Journal bezieht
+            var stamp = recovered == snapshot
+                    ? snapshot.getStamp()
+                    : LayoutSnapshot.write(path, groupTree.getGroupsInOrder(), lampsContainer, floors);
+            startJournal(path, stamp);
+        } catch (IOException e) {
+            showError("Die Datei konnte nicht geöffnet werden", e);
+        }
+    }
+
+    /**
+     * Speichert Gruppen und Lampen in eine Datei, alle weiteren Änderungen werden daneben aufgezeichnet
+     * @param path die Datei
+     */
+    private void saveLayout(Path path) {
+        closeJournal();
+        try {
+            var stamp = LayoutSnapshot.write(path, groupTree.getGroupsInOrder(), lampsContainer, floors);
+            startJournal(path, stamp);
+        } catch (IOException e) {
+            showError("Die Datei konnte nicht gespeichert werden", e);
+        }
+    }
+
+    /**
+     * Beginnt ein neues Journal neben einer gerade geöffneten oder gespeicherten Datei
+     * @param path die Datei
+     * @param stamp die Kennung des Stands in der Datei
+     * @throws IOException wenn das Journal nicht angelegt werden kann
+     */
+    private void startJournal(Path path, long stamp) throws IOException {
+        journal = LampJournal.start(path, stamp, groupTree, lampsContainer, floors);
+        if (effectEngine.isRunning())
+            journal.holdSwitches();
+    }
+
+    /**
+     * Beendet die Aufzeichnung der Änderungen
+     */
+    private void closeJournal() {
+        if (journal == null)
+            return;
+
+        try {
+            journal.close();
+        } catch (IOException e) {
+            showError("Die Änderungen konnten nicht aufgezeichnet werden", e);
+        } finally {
+            journal = null;
+        }
+    }
+
+    /**
+     * Fordert nach einer Änderung an nicht geladenen Stockwerken einen neuen Stand im Journal an,
+     * denn das Journal zeichnet nur die Lampen im Container auf
+     */
+    private void floorsChanged() {
+        if (journal != null)
+            journal.compact();
+    }
+
+    /**
+     * Wechselt das angezeigte Stockwerk. Die Lampen des neuen Stockwerks werden im Hintergrund erstellt,
+     * solange bleibt das bisherige angezeigt und bedienbar.
+     * @param target das Stockwerk
+     */
+    private void switchFloor(LampFloor target) {
+        if (target == null || target == activeFloor.get() || floorLoading.get())
+            return;
+
+        floorLoading.set(true);
+        CompletableFuture.supplyAsync(target::prepare).whenComplete((prepared, e) -> Platform.runLater(() -> {
+            floorLoading.set(false);
+            // inzwischen könnte eine andere Datei geöffnet worden sein
+            if (e != null || !floors.contains(target) || target.isLoaded()) {
+                if (e != null)
+                    showError("Das Stockwerk konnte nicht geladen werden", e.getCause());
+                floorBox.setValue(activeFloor.get());
+                return;
+            }
+
+            effectEngine.stop();
+            recorder.run(LampTrace.Operation.SWITCH_FLOOR, Integer.toString(floors.indexOf(target)), () -> {
+                var active = activeFloor.get();
+                // der Wechsel ersetzt alle Lampen, das Journal übernimmt ihn als neuen Stand im Hintergrund
+                if (journal != null)
+                    journal.compactAfter(() -> showFloor(lampsContainer, active, target, prepared));
+                else
+                    showFloor(lampsContainer, active, target, prepared);
+            });
+            activeFloor.set(target);
+        }));
+    }
+
+    /**
+     * Zeigt ein anderes Stockwerk an: entlädt das bisherige und übernimmt die Lampen des neuen in den Container,
+     * mit einer einzigen Änderung der Liste. Der Verlauf wird geleert, er bezieht sich auf die bisherigen Lampen.
+     * @param container der Container
+     * @param active das bisher angezeigte Stockwerk
+     * @param target das neue Stockwerk, nicht geladen
+     * @param prepared die Lampen aus {@link LampFloor#prepare()} des neuen Stockwerks
+     */
+    static void showFloor(LampsContainer container, LampFloor active, LampFloor target, List<Lamp> prepared) {
+        active.unload(container);
+        target.load(prepared);
+        container.batch(() -> {
+            container.getSelectedLamps().clear();
+            container.getLamps().setAll(prepared);
+        });
+        container.getHistory().clear();
+    }
+
+    /**
+     * Fügt ein neues, leeres Stockwerk hinzu und wechselt zu ihm
+     * @param name der Name
+     */
+    private void addFloor(String name) {
+        var floor = new LampFloor(name);
+        recorder.run(LampTrace.Operation.ADD_FLOOR, name, () -> floors.add(floor));
+        switchFloor(floor);
+    }
+
+    /**
+     * Beendet die Aufzeichnung der Bedienschritte
+     */
+    private void stopRecording() {
+        try {
+            recorder.stop();
+        } catch (IOException e) {
+            showError("Die Bedienschritte konnten nicht aufgezeichnet werden", e);
+        }
+    }
+
+    /**
+     * Macht die letzte Änderung rückgängig, wie "Rückgängig" und Strg + Z
+     */
+    private void undo() {
+        recorder.run(LampTrace.Operation.UNDO, () -> {
+            clearGroupFocus();
+            lampsContainer.getHistory().undo();
+        });
+    }
+
+    /**
+     * Wiederholt die zuletzt rückgängig gemachte Änderung, wie "Wiederholen" und Strg + Y
+     */
+    private void redo() {
+        recorder.run(LampTrace.Operation.REDO, () -> {
+            clearGroupFocus();
+            lampsContainer.getHistory().redo();
+        });
+    }
+
+    /**
+     * Zeigt eine Fehlermeldung an
+     * @param message die Meldung
+     * @param e der aufgetretene Fehler
+     */
+    private void showError(String message, Throwable e) {
+        var alert = new Alert(Alert.AlertType.ERROR, e.getMessage());
+        alert.setHeaderText(message);
+        alert.showAndWait();
+    }
+
+    /**
+     * Erstellt einen Dateiauswahldialog für Lampen-Dateien
+     * @return der Dialog
+     */
+    private FileChooser createFileChooser() {
+        var fileChooser = new FileChooser();
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Lampen", "*.lamps"));
+        return fileChooser;
     }
 
     /**
      * Toggles multiple lamps
-     * @param lamps the lamps to toggle
+     * @param slots the slots of the lamps to toggle
+     * @param allOn whether all of those lamps are turned on, taken from the counters of the model or the groups
      */
-    private void toggleLamps(List<Lamp> lamps) {
+    private void toggleLamps(BitSet slots, boolean allOn) {
+        toggleLamps(lampsContainer, slots, allOn);
+    }
+
+    /**
+     * Toggles multiple lamps of a container
+     * @param container the container of the lamps
+     * @param slots the slots of the lamps to toggle
+     * @param allOn whether all of those lamps are turned on
+     */
+    static void toggleLamps(LampsContainer container, BitSet slots, boolean allOn) {
         // The lamps get turned off if all of them are turned on
         // if any of them is turned off, they are turned on to ensure they have the same state
-        var newState = !lamps.stream().allMatch(Lamp::isOn);
+        var newState = !allOn;
+
+        var event = new LampMetrics.ToggleEvent();
+        event.begin();
+
+        // nur die tatsächlich geschalteten Lampen kommen in den Verlauf
+        var model = container.getModel();
+        var switched = switchedSlots(model, slots, newState);
+
+        // alle Lampen im Modell auf einmal umschalten
+        container.batch(() -> model.setOn(switched, newState));
+        if (!switched.isEmpty())
+            container.getHistory().add(new LampHistory.SwitchEdit(model, switched));
+
+        if (event.shouldCommit()) {
+            event.lamps = slots.cardinality();
+            event.on = newState;
+            event.commit();
+        }
+    }
+
+    /**
+     * Gibt die Plätze der Lampen zurück, die beim Schalten ihren Zustand ändern würden
+     * @param model das Modell
+     * @param slots die Plätze der Lampen
+     * @param newState der neue Zustand
+     * @return die Plätze der Lampen, die nicht schon so geschaltet sind
+     */
+    private static BitSet switchedSlots(LampModel model, BitSet slots, boolean newState) {
+        var switched = new BitSet();
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+            if (model.isOn(slot) != newState)
+                switched.set(slot);
+        }
+        return switched;
+    }
+
+    /**
+     * Ordnet Lampen einer Gruppe zu, wie "Zur Gruppe hinzufügen" und "Aus Gruppe entfernen"
+     * @param container der Container der Lampen
+     * @param lamps die Lampen
+     * @param group die Gruppe oder null, um die Lampen aus ihren Gruppen zu nehmen
+     */
+    static void assignGroup(LampsContainer container, Collection<Lamp> lamps, Group group) {
+        var event = new LampMetrics.GroupAssignEvent();
+        event.begin();
+
+        var edit = createAssignEdit(container, lamps, group);
+        container.batch(edit::redo);
+        if (!edit.isEmpty())
+            container.getHistory().add(edit);
+
+        if (event.shouldCommit()) {
+            event.lamps = lamps.size();
+            event.group = group == null ? null : group.getName();
+            event.commit();
+        }
+    }
+
+    /**
+     * Schaltet alle Lampen in den Gruppen und ihren Untergruppen um, wie der Knopf "Umschalten" der Gruppentoolbar
+     * @param container der Container der Lampen
+     * @param selectedGroups die Gruppen
+     */
+    static void toggleGroups(LampsContainer container, Collection<Group> selectedGroups) {
+        // Lampen ermitteln, jede Gruppe kennt ihre Lampen und wie viele davon in ihrem Teilbaum an sind
+        var slots = new BitSet();
+        var allOn = true;
+        for (var group : selectedGroups) {
+            allOn &= group.isSubtreeAllOn();
+            group.collectSubtreeSlots(slots);
+        }
 
-        for (Lamp lamp : lamps) {
-            lamp.setOn(newState);
+        // Lampen umschalten
+        toggleLamps(container, slots, allOn);
+    }
+
+    /**
+     * Schaltet alle Lampen in den Gruppen und ihren Untergruppen auf allen Stockwerken um.
+     * Nicht geladene Stockwerke werden dabei nicht geladen, nur ihre Spalten geändert.
+     * @param container der Container mit den Lampen des angezeigten Stockwerks
+     * @param floors alle Stockwerke
+     * @param selectedGroups die Gruppen
+     * @param floorsChanged wird aufgerufen, wenn sich nicht geladene Stockwerke geändert haben,
+     *                      auch beim Rückgängigmachen und Wiederholen
+     */
+    static void toggleGroups(LampsContainer container, List<LampFloor> floors, Collection<Group> selectedGroups,
+                             Runnable floorsChanged) {
+        // die Gruppen der Teilbäume, auf den nicht geladenen Stockwerken gibt es keine Zähler
+        var members = Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>());
+        var slots = new BitSet();
+        var allOn = true;
+        for (var group : selectedGroups) {
+            allOn &= group.isSubtreeAllOn();
+            group.collectSubtreeSlots(slots);
+            members.addAll(group.getSubtree());
+        }
+
+        var affected = new ArrayList<LampFloor>();
+        var indices = new ArrayList<BitSet>();
+        for (var floor : floors) {
+            if (floor.isLoaded())
+                continue;
+
+            var found = floor.collect(members);
+            if (found.isEmpty())
+                continue;
+            affected.add(floor);
+            indices.add(found);
+            allOn &= floor.allOn(found);
+        }
+        if (affected.isEmpty()) {
+            toggleLamps(container, slots, allOn);
+            return;
+        }
+
+        var newState = !allOn;
+        var event = new LampMetrics.ToggleEvent();
+        event.begin();
+
+        var model = container.getModel();
+        var switched = switchedSlots(model, slots, newState);
+        container.batch(() -> model.setOn(switched, newState));
+        var floorSwitched = new BitSet[affected.size()];
+        var count = slots.cardinality();
+        for (int i = 0; i < floorSwitched.length; i++) {
+            floorSwitched[i] = affected.get(i).setOn(indices.get(i), newState);
+            count += indices.get(i).cardinality();
+        }
+        container.getHistory().add(new LampHistory.FloorSwitchEdit(new LampHistory.SwitchEdit(model, switched),
+                affected.toArray(new LampFloor[0]), floorSwitched, floorsChanged));
+        floorsChanged.run();
+
+        if (event.shouldCommit()) {
+            event.lamps = count;
+            event.on = newState;
+            event.commit();
         }
     }
 
+    /**
+     * Entfernt Gruppen mit allen Untergruppen und nimmt ihre Lampen aus ihnen heraus,
+     * wie der Knopf "Entfernen" der Gruppentoolbar
+     * @param container der Container der Lampen
+     * @param tree der Baum mit allen Gruppen
+     * @param groupsToRemove die zu entfernenden Gruppen, darf keine Ansicht der Gruppen sein
+     */
+    static void removeGroups(LampsContainer container, GroupTree tree, Collection<Group> groupsToRemove) {
+        // die Teilbäume, jede Gruppe nur einmal und jede Obergruppe vor ihren Untergruppen
+        var selected = Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>());
+        selected.addAll(groupsToRemove);
+        var toRemove = Collections.newSetFromMap(new IdentityHashMap<Group, Boolean>());
+        var subtrees = new ArrayList<Group>();
+        for (var group : groupsToRemove) {
+            if (!isBelowAny(group, selected)) {
+                for (var member : group.getSubtree()) {
+                    if (toRemove.add(member))
+                        subtrees.add(member);
+                }
+            }
+        }
+
+        // die Stellen im Baum für das Rückgängigmachen merken, aufsteigend nach der Stelle unter der Obergruppe
+        var placed = new Group[subtrees.size()];
+        var parents = new Group[placed.length];
+        var childIndices = new int[placed.length];
+        var positions = new IdentityHashMap<Group, Integer>(); // jede Liste von Untergruppen nur einmal durchgehen
+        var count = 0;
+        for (var group : subtrees) {
+            var parent = group.getParent();
+            if (parent == null || !toRemove.contains(parent)) {
+                if (!positions.containsKey(group)) {
+                    var siblings = parent == null ? tree.getRoots() : parent.getChildren();
+                    for (int i = 0; i < siblings.size(); i++) {
+                        positions.put(siblings.get(i), i);
+                    }
+                }
+                placed[count] = group;
+                parents[count] = parent;
+                childIndices[count] = positions.get(group);
+                count++;
+            }
+            var children = group.getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                placed[count] = children.get(i);
+                parents[count] = group;
+                childIndices[count] = i;
+                count++;
+            }
+        }
+        var order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(childIndices[a], childIndices[b]));
+        var sortedPlaced = new Group[count];
+        var sortedParents = new Group[count];
+        var sortedIndices = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedPlaced[i] = placed[order[i]];
+            sortedParents[i] = parents[order[i]];
+            sortedIndices[i] = childIndices[order[i]];
+        }
+
+        // remove all lamps from those groups
+        var lamps = new ArrayList<Lamp>(); // Kopie, da sich die Lampen der Gruppen dabei ändern
+        for (var group : subtrees) {
+            lamps.addAll(group.getLamps());
+        }
+        var edit = new LampHistory.RemoveGroupsEdit(tree, subtrees.toArray(new Group[0]),
+                sortedPlaced, sortedParents, sortedIndices, createAssignEdit(container, lamps, null));
+        container.batch(edit::redo);
+        container.getHistory().add(edit);
+    }
+
+    /**
+     * Gibt zurück, ob eine Obergruppe einer Gruppe in einer Menge liegt
+     */
+    private static boolean isBelowAny(Group group, Set<Group> ancestors) {
+        for (var parent = group.getParent(); parent != null; parent = parent.getParent()) {
+            if (ancestors.contains(parent))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merkt sich die Gruppen von Lampen, bevor sie einer anderen Gruppe zugeordnet werden
+     */
+    private static LampHistory.AssignEdit createAssignEdit(LampsContainer container, Collection<Lamp> lamps, Group group) {
+        var slots = new BitSet();
+        for (var lamp : lamps) {
+            slots.set(lamp.getSlot());
+        }
+        return new LampHistory.AssignEdit(container.getModel(), slots, group);
+    }
+
     /**
      * Erstellt die Toolbar
      * @return die erstellte Toolbar
      */
     private ToolBar createToolbar() {
         // conditions
-        var noLamp = Bindings.isEmpty(lampsContainer.getSelectedLamps());
+        var selection = lampsContainer.getSelectedLamps();
+        var noLamp = createBooleanBinding(selection::isEmpty, selection);
 
         // löst eine Änderung aus, wenn sich die Gruppe einer ausgewählten Lampe geändert hat
-        var groupsChange = new GroupsChangeObservable(lampsContainer.getSelectedLamps());
+        var groupsChange = new GroupsChangeObservable(lampsContainer);
+
+        // files
+
+        // öffnet eine gespeicherte Datei
+        var openButton = new Button("Öffnen");
+        openButton.setOnAction(event -> {
+            var file = createFileChooser().showOpenDialog(lampsContainer.getScene().getWindow());
+            if (file != null)
+                openLayout(file.toPath());
+        });
+
+        // speichert alle Gruppen und Lampen
+        var saveButton = new Button("Speichern");
+        saveButton.setOnAction(event -> {
+            var file = createFileChooser().showSaveDialog(lampsContainer.getScene().getWindow());
+            if (file != null)
+                saveLayout(file.toPath());
+        });
+
+        // floors
+
+        // zeigt ein anderes Stockwerk an, gesperrt, solange eines geladen wird
+        floorBox = new ComboBox<>(floors);
+        floorBox.setValue(activeFloor.get());
+        activeFloor.addListener((observable, oldFloor, floor) -> floorBox.setValue(floor));
+        floorBox.setOnAction(event -> switchFloor(floorBox.getValue()));
+        floorBox.disableProperty().bind(floorLoading);
+
+        // fügt ein leeres Stockwerk hinzu und zeigt es an
+        var addFloorButton = new Button("Neues Stockwerk");
+        addFloorButton.disableProperty().bind(floorLoading);
+        addFloorButton.setOnAction(event -> {
+            var dialog = new TextInputDialog(LampFloor.defaultName(floors.size() + 1));
+            dialog.setTitle("Neues Stockwerk");
+            dialog.setHeaderText("Ein leeres Stockwerk hinzufügen");
+            dialog.setContentText("Name:");
+            dialog.showAndWait().filter(name -> !name.isBlank()).ifPresent(name -> addFloor(name.strip()));
+        });
+
+        // undo and redo
+
+        var history = lampsContainer.getHistory();
+        var undoButton = new Button("Rückgängig");
+        undoButton.disableProperty().bind(history.undoableProperty().not());
+        undoButton.setOnAction(event -> undo());
+
+        var redoButton = new Button("Wiederholen");
+        redoButton.disableProperty().bind(history.redoableProperty().not());
+        redoButton.setOnAction(event -> redo());
 
         // toggle
 
         // schaltet alle ausgewählten Lampen um
         var toggleButton = new Button("Umschalten");
         toggleButton.disableProperty().bind(noLamp); // deaktivieren, wenn nichts ausgewählt ist
-        toggleButton.setOnAction(event -> toggleLamps(lampsContainer.getSelectedLamps()));
+        toggleButton.setOnAction(event -> recorder.run(LampTrace.Operation.TOGGLE, () -> {
+            var model = lampsContainer.getModel();
+            toggleLamps(model.getSelectedSlots(), model.countSelectedOn() == model.countSelected());
+        }));
 
         // add and remove
 
-        // fügt eine neue Lampe ein
+        // fügt eine neue Lampe in der Mitte des sichtbaren Ausschnitts ein
         var addButton = new Button("Neu");
         addButton.setOnAction(event -> {
             var lamp = new Lamp();
-            lampsContainer.getLamps().add(lamp);
+            lamp.setPosition(lampsContainer.toContentX(lampsContainer.getWidth() / 2),
+                    lampsContainer.toContentY(lampsContainer.getHeight() / 2));
+            recorder.run(LampTrace.Operation.ADD_LAMPS, "1", () -> lampsContainer.addLamps(List.of(lamp)));
+        });
+
+        // erzeugt viele Lampen auf einmal, beginnend an der linken oberen Ecke des sichtbaren Ausschnitts
+        var generateButton = new Button("Erzeugen …");
+        generateButton.setOnAction(event -> {
+            var dialog = new LampGeneratorDialog(
+                    lampsContainer.toContentX(LampGenerator.DEFAULT_SPACING),
+                    lampsContainer.toContentY(LampGenerator.DEFAULT_SPACING));
+            dialog.showAndWait().ifPresent(lamps -> recorder.run(LampTrace.Operation.GENERATE,
+                    Integer.toString(lamps.size()), () -> lampsContainer.addAndSelectLamps(lamps)));
         });
 
+        // fügt verschobene Kopien der ausgewählten Lampen mit ihren Gruppen ein
+        var duplicateButton = new Button("Duplizieren");
+        duplicateButton.disableProperty().bind(noLamp);
+        duplicateButton.setOnAction(event -> recorder.run(LampTrace.Operation.DUPLICATE,
+                lampsContainer::duplicateSelection));
+
         // entfernt alle ausgewählten Lampen
         var removeButton = new Button("Entfernen");
         removeButton.disableProperty().bind(noLamp); // deaktivieren, wenn nichts ausgewählt ist
-        removeButton.setOnAction(event -> {
-            lampsContainer.getLamps().removeAll(lampsContainer.getSelectedLamps());
-            lampsContainer.getSelectedLamps().clear();
-        });
+        removeButton.setOnAction(event -> recorder.run(LampTrace.Operation.REMOVE_LAMPS,
+                () -> lampsContainer.removeLamps(selection.getLamps()))); // entfernte Lampen sind nicht mehr ausgewählt
 
         // group related buttons
 
@@ -119,137 +779,438 @@ public class Main extends Application {
         var addToGroupButton = new Button("Zur Gruppe hinzufügen");
         addToGroupButton.setOnAction(event -> {
             var group = selectedGroup.get();
-            for (var lamp : lampsContainer.getSelectedLamps()) {
-                lamp.setGroup(group);
-            }
+            recorder.run(LampTrace.Operation.ASSIGN_GROUP, LampTrace.formatId(group),
+                    () -> assignGroup(lampsContainer, selection.getLamps(), group));
         });
 
         // disable the button if there are either no lamps or groups selected
         // or all lamps are already in the selected group
-        addToGroupButton.disableProperty().bind(Bindings.createBooleanBinding(() -> {
+        addToGroupButton.disableProperty().bind(createBooleanBinding(() -> {
             var group = selectedGroup.get();
-            var lamps = lampsContainer.getSelectedLamps();
+            var model = lampsContainer.getModel();
 
-            return group == null || lamps.isEmpty() || lamps.stream().allMatch(lamp -> lamp.getGroup() == group);
-        }, selectedGroup, lampsContainer.getSelectedLamps(), groupsChange));
+            return group == null || selection.isEmpty() || model.countSelected(group) == model.countSelected();
+        }, selectedGroup, selection, groupsChange));
 
         // entfernt alle ausgewählten Lampen aus ihren Gruppen
         var removeFromGroupButton = new Button("Aus Gruppe entfernen");
-        removeFromGroupButton.setOnAction(event -> {
-            for (var lamp : lampsContainer.getSelectedLamps()) {
-                lamp.setGroup(null);
-            }
-        });
+        removeFromGroupButton.setOnAction(event -> recorder.run(LampTrace.Operation.ASSIGN_GROUP, "-",
+                () -> assignGroup(lampsContainer, selection.getLamps(), null)));
 
         // disable the button if none of the selected lamps have a group
-        removeFromGroupButton.disableProperty().bind(Bindings.createBooleanBinding(
-                () -> lampsContainer.getSelectedLamps().stream().allMatch(lamp -> lamp.getGroup() == null),
-                lampsContainer.getSelectedLamps(), groupsChange
+        removeFromGroupButton.disableProperty().bind(createBooleanBinding(() -> {
+            var model = lampsContainer.getModel();
+            return model.countSelected(null) == model.countSelected();
+        }, selection, groupsChange));
+
+        // effects
+
+        // spielt einen Effekt auf den ausgewählten Lampen ab, ohne Auswahl auf der ausgewählten Gruppe
+        var effectButton = new MenuButton("Effekt");
+        effectButton.getItems().addAll(
+                createEffectItem("Lauflicht", LampEffect.chase(4, 10)),
+                createEffectItem("Welle", LampEffect.wave(400, 30, 200)),
+                createEffectItem("Funkeln", LampEffect.twinkle(0.2, 8)),
+                createEffectItem("Blenden", LampEffect.fade(4)),
+                new SeparatorMenuItem()
+        );
+        var stopEffectItem = new MenuItem("Beenden");
+        stopEffectItem.setOnAction(event -> effectEngine.stop());
+        stopEffectItem.disableProperty().bind(effectEngine.runningProperty().not());
+        effectButton.getItems().add(stopEffectItem);
+        effectButton.disableProperty().bind(createBooleanBinding(
+                () -> selection.isEmpty() && selectedGroup.get() == null && !effectEngine.isRunning(),
+                selection, selectedGroup, effectEngine.runningProperty()
         ));
 
+        // dimmt die ausgewählten Lampen, ohne Auswahl die ausgewählte Gruppe
+        var noTarget = createBooleanBinding(() -> selection.isEmpty() && selectedGroup.get() == null,
+                selection, selectedGroup);
+        var brightnessSlider = LevelSlider.brightness(lampsContainer, this::getLevelTargets);
+        brightnessSlider.setPrefWidth(100);
+        brightnessSlider.disableProperty().bind(noTarget);
+        var colorTemperatureSlider = LevelSlider.colorTemperature(lampsContainer, this::getLevelTargets);
+        colorTemperatureSlider.setPrefWidth(100);
+        colorTemperatureSlider.disableProperty().bind(noTarget);
+
+        // zeigt, wie viel der Zeit eines Bildes der Effekt braucht
+        var effectBudgetLabel = new Label();
+        effectBudgetLabel.textProperty().bind(Bindings.format("%.0f %%", effectEngine.budgetUsageProperty().multiply(100)));
+        effectBudgetLabel.visibleProperty().bind(effectEngine.runningProperty());
+
+        // rendering
+
+        // wechselt zwischen Lampen-Knoten und der Zeichenfläche, um beide Darstellungen vergleichen zu können
+        var canvasButton = new ToggleButton("Canvas");
+        canvasButton.selectedProperty().addListener((observable, oldValue, canvas) -> lampsContainer.setRenderMode(
+                canvas ? LampsContainer.RenderMode.CANVAS : LampsContainer.RenderMode.NODES
+        ));
+
+        // blendet die Messwerte ein und zählt nur solange mit
+        var metricsButton = new ToggleButton("Messwerte");
+        metricsButton.selectedProperty().addListener((observable, oldValue, show) -> {
+            LampMetrics.setEnabled(show);
+            metricsOverlay.setVisible(show);
+        });
+
+        // zeichnet die folgenden Bedienschritte auf, um sie mit --replay ohne Fenster abzuspielen
+        var recordButton = new ToggleButton("Aufzeichnen");
+        recordButton.setOnAction(event -> {
+            if (!recordButton.isSelected()) {
+                stopRecording();
+                return;
+            }
+
+            var fileChooser = new FileChooser();
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Aufzeichnungen", "*.trace"));
+            var file = fileChooser.showSaveDialog(lampsContainer.getScene().getWindow());
+            try {
+                if (file != null)
+                    recorder.start(file.toPath(), groupTree, lampsContainer, floors);
+            } catch (IOException e) {
+                showError("Die Aufzeichnung konnte nicht gestartet werden", e);
+            }
+            recordButton.setSelected(recorder.isRecording());
+        });
+
         // create the toolbar
 
         return new ToolBar(
+                openButton,
+                saveButton,
+                new Separator(),
+                floorBox,
+                addFloorButton,
+                new Separator(),
+                undoButton,
+                redoButton,
+                new Separator(),
                 toggleButton,
                 new Separator(),
                 addButton,
+                generateButton,
+                duplicateButton,
                 removeButton,
                 new Separator(),
                 addToGroupButton,
-                removeFromGroupButton
+                removeFromGroupButton,
+                new Separator(),
+                effectButton,
+                effectBudgetLabel,
+                new Separator(),
+                new Label("Helligkeit"),
+                brightnessSlider,
+                new Label("Farbe"),
+                colorTemperatureSlider,
+                new Separator(),
+                canvasButton,
+                metricsButton,
+                recordButton
         );
     }
 
+    /**
+     * Erstellt die Abfrageleiste über den Lampen.
+     * Enter ersetzt die Auswahl durch die Treffer, Umschalt + Enter fügt sie hinzu.
+     * @return die Abfrageleiste
+     */
+    private HBox createQueryBar() {
+        var queryField = new TextField();
+        queryField.setPromptText("Abfrage, z.B. group:Flur on:true x<400");
+        HBox.setHgrow(queryField, Priority.ALWAYS);
+
+        // zeigt die Anzahl der Treffer oder den Fehler in der Abfrage
+        var resultLabel = new Label();
+        queryField.setOnKeyPressed(event -> {
+            if (event.getCode() != KeyCode.ENTER)
+                return;
+
+            event.consume();
+            try {
+                var query = LampQuery.parse(queryField.getText());
+                var extend = event.isShiftDown();
+                recorder.run(LampTrace.Operation.QUERY, (extend ? "+ " : "= ") + queryField.getText(), () -> {
+                    var count = queryEngine.select(query, extend);
+                    resultLabel.setText(count + (count == 1 ? " Lampe" : " Lampen"));
+                });
+            } catch (IllegalArgumentException e) {
+                resultLabel.setText(e.getMessage());
+            }
+        });
+        queryField.textProperty().addListener(observable -> resultLabel.setText(""));
+
+        var queryBar = new HBox(5, queryField, resultLabel);
+        queryBar.setAlignment(Pos.CENTER_LEFT);
+        queryBar.setPadding(new Insets(2, 5, 2, 5));
+        return queryBar;
+    }
+
+    /**
+     * Wie {@link Bindings#createBooleanBinding(Callable, Observable...)}, zählt aber jede Berechnung für die Messwerte
+     */
+    private static BooleanBinding createBooleanBinding(Callable<Boolean> func, Observable... dependencies) {
+        return Bindings.createBooleanBinding(() -> {
+            LampMetrics.count(LampMetrics.Counter.BINDING_COMPUTATIONS);
+            return func.call();
+        }, dependencies);
+    }
+
+    /**
+     * Gibt die Lampen zurück, die die Regler für Helligkeit und Farbtemperatur ändern:
+     * die ausgewählten Lampen, ohne Auswahl die der ausgewählten Gruppe und ihrer Untergruppen
+     * @return die Plätze der Lampen
+     */
+    private BitSet getLevelTargets() {
+        var model = lampsContainer.getModel();
+        if (model.countSelected() > 0)
+            return model.getSelectedSlots();
+
+        var slots = new BitSet();
+        if (selectedGroup.get() != null)
+            selectedGroup.get().collectSubtreeSlots(slots);
+        return slots;
+    }
+
+    /**
+     * Erstellt einen Menüeintrag, der einen Effekt auf den ausgewählten Lampen oder der ausgewählten Gruppe startet
+     * @param name der Name des Effekts
+     * @param effect der Effekt
+     * @return der Menüeintrag
+     */
+    private MenuItem createEffectItem(String name, LampEffect effect) {
+        var item = new MenuItem(name);
+        item.setOnAction(event -> {
+            var model = lampsContainer.getModel();
+            if (model.countSelected() > 0)
+                effectEngine.start(effect, model.getSelectedSlots());
+            else if (selectedGroup.get() != null)
+                effectEngine.start(effect, selectedGroup.get());
+        });
+        return item;
+    }
+
     /**
      * Erstellt das Gruppenpanel
      * @return das Gruppenpanel
      */
     private BorderPane createGroupsPane() {
-        // die Liste der Gruppen
-        var listView = new ListView<Group>();
-        listView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
-        listView.setItems(groups);
-        listView.setEditable(true);
+        // der Baum der Gruppen, die Wurzel selbst ist unsichtbar
+        var root = new GroupTreeItem(null, groupTree.getRoots());
+        var treeView = groupsView = new TreeView<>(root);
+        treeView.setShowRoot(false);
+        treeView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        treeView.setEditable(true);
 
         // selectedGroup soll immer die zuletzt gewählte Gruppe enthalten
-        selectedGroup.bind(listView.getSelectionModel().selectedItemProperty());
-
-        // Die Zellen sollen bearbeitbar sein
-        listView.setCellFactory(list -> {
-            var cell = new TextFieldListCell<Group>();
-            cell.updateListView(list);
-            cell.setConverter(new GroupNameStringConverter(cell));
-            return cell;
+        var selectionModel = treeView.getSelectionModel();
+        selectedGroup.bind(Bindings.createObjectBinding(() -> {
+            var item = selectionModel.getSelectedItem();
+            return item == null ? null : item.getValue();
+        }, selectionModel.selectedItemProperty()));
+
+        // Die Zellen sollen bearbeitbar sein, zeigen an, wie viele Lampen der Gruppe an sind,
+        // und Gruppen können auf andere gezogen werden
+        treeView.setCellFactory(tree -> new GroupTreeCell(groupTree, lampsContainer.getHistory(), recorder));
+
+        // bei einer Suche zeigt der Baum statt der Hierarchie nur die passenden Gruppen als Liste
+        groupFilter.setPromptText("Gruppen suchen");
+        groupFilter.textProperty().addListener((observable, oldText, text) -> {
+            if (text.isBlank()) {
+                treeView.setRoot(root);
+                return;
+            }
+            var search = text.strip().toLowerCase(Locale.ROOT);
+            var matches = new FilteredList<>(groupTree.getGroups(),
+                    group -> group.getName().toLowerCase(Locale.ROOT).contains(search));
+            treeView.setRoot(new GroupTreeItem(null, matches, false));
         });
 
         // Toolbar erstellen
-        var toolbar = createGroupsToolBar(listView);
+        var toolbar = createGroupsToolBar(treeView);
 
         // Zum Layout zusammenfügen und zurückgeben
-        return new BorderPane(listView, null, null, toolbar, null);
+        return new BorderPane(treeView, groupFilter, null, toolbar, null);
+    }
+
+    /**
+     * Gibt die ausgewählten Gruppen des Baums zurück
+     * @param treeView der Baum
+     * @return eine Kopie der ausgewählten Gruppen
+     */
+    private static List<Group> getSelectedGroups(TreeView<Group> treeView) {
+        var selected = new ArrayList<Group>();
+        for (var item : treeView.getSelectionModel().getSelectedItems()) {
+            if (item != null && item.getValue() != null)
+                selected.add(item.getValue());
+        }
+        return selected;
+    }
+
+    /**
+     * Hebt den Fokus im Gruppenbaum auf, bevor sich viele Listen von Untergruppen auf einmal ändern können.
+     * Sonst sucht der Baum nach jeder geänderten Liste die fokussierte Zeile neu, das dauert bei vielen Gruppen.
+     */
+    private void clearGroupFocus() {
+        groupsView.getFocusModel().focus(-1);
+    }
+
+    /**
+     * Gibt den Eintrag einer Gruppe im ungefilterten Baum zurück, gefunden über ihre Obergruppen
+     * @param root die Wurzel des Baums
+     * @param group die Gruppe oder null für die Wurzel
+     * @return der Eintrag
+     */
+    private TreeItem<Group> findItem(TreeItem<Group> root, Group group) {
+        if (group == null)
+            return root;
+
+        var parent = group.getParent();
+        var siblings = parent == null ? groupTree.getRoots() : parent.getChildren();
+        return findItem(root, parent).getChildren().get(siblings.indexOf(group));
+    }
+
+    /**
+     * Erstellt eine neue Gruppe und beginnt, ihren Namen zu bearbeiten. Eine Suche wird dafür beendet.
+     * @param treeView der Baum der Gruppen
+     * @param parent die Obergruppe oder null für eine oberste Gruppe
+     */
+    private void addGroup(TreeView<Group> treeView, Group parent) {
+        groupFilter.clear();
+
+        var group = new Group("Neue Gruppe");
+        recorder.run(LampTrace.Operation.ADD_GROUP,
+                group.getId() + " " + LampTrace.formatId(parent) + " " + group.getName(), () -> {
+                    group.setParent(parent); // wird beim Einfügen als letzte Untergruppe eingehängt
+                    groups.add(group);
+                });
+
+        // der Eintrag ist dabei als letztes Kind entstanden
+        var parentItem = findItem(treeView.getRoot(), parent);
+        parentItem.setExpanded(true);
+        var items = parentItem.getChildren();
+        var item = items.get(items.size() - 1);
+        var row = treeView.getRow(item);
+        treeView.scrollTo(row);
+        treeView.getSelectionModel().clearAndSelect(row); // replace the current selection
+        // die Gruppe soll direkt bearbeitet werden, die Zelle beginnt damit, sobald sie beim nächsten Layout entsteht
+        treeView.edit(item);
+    }
+
+    /**
+     * Benennt Gruppen um und nimmt das als einen Eintrag in den Verlauf auf, wie der Knopf "Umbenennen"
+     * @param history der Verlauf
+     * @param groupsToRename die Gruppen
+     * @param name der neue Name; bei mehreren Gruppen wird darin {@code #} durch eine fortlaufende Nummer ab 1 ersetzt
+     */
+    static void renameGroups(LampHistory history, List<Group> groupsToRename, String name) {
+        var renamed = new ArrayList<Group>();
+        var oldNames = new ArrayList<String>();
+        var newNames = new ArrayList<String>();
+        for (int i = 0; i < groupsToRename.size(); i++) {
+            var group = groupsToRename.get(i);
+            var newName = groupsToRename.size() > 1 ? name.replace("#", Integer.toString(i + 1)) : name;
+            if (!newName.equals(group.getName())) {
+                renamed.add(group);
+                oldNames.add(group.getName());
+                newNames.add(newName);
+                group.setName(newName);
+            }
+        }
+
+        if (!renamed.isEmpty())
+            history.add(new LampHistory.RenameEdit(renamed.toArray(new Group[0]),
+                    oldNames.toArray(new String[0]), newNames.toArray(new String[0])));
     }
 
     /**
      * Erstellt die Gruppentoolbar
-     * @param listView die Liste der Gruppen
+     * @param treeView der Baum der Gruppen
      * @return die erstellte Toolbar
      */
-    private ToolBar createGroupsToolBar(ListView<Group> listView) {
+    private ToolBar createGroupsToolBar(TreeView<Group> treeView) {
         // conditions
-        var noGroup = Bindings.isEmpty(listView.getSelectionModel().getSelectedItems());
+        var noGroup = Bindings.isEmpty(treeView.getSelectionModel().getSelectedItems());
 
         // toggle
 
-        // schaltet alle Lampen in allem ausgewählten Gruppen um
+        // schaltet alle Lampen in allen ausgewählten Gruppen und ihren Untergruppen um
         var toggleButton = new Button("Umschalten");
         toggleButton.disableProperty().bind(noGroup);
         toggleButton.setOnAction(event -> {
-            // Lampen ermitteln
-            var selectedGroups = listView.getSelectionModel().getSelectedItems();
-            var selectedLamps = lampsContainer.getLamps().stream()
-                    .filter(lamp -> selectedGroups.contains(lamp.getGroup()))
-                    .collect(Collectors.toList());
-
-            // Lampen umschalten
-            toggleLamps(selectedLamps);
+            var selected = getSelectedGroups(treeView);
+            recorder.run(LampTrace.Operation.TOGGLE_GROUPS, LampTrace.formatIds(selected),
+                    () -> toggleGroups(lampsContainer, floors, selected, this::floorsChanged));
+        });
+
+        // schaltet die ausgewählten Gruppen täglich zu festen Zeiten an und aus
+        var scheduleButton = new Button("Zeitplan");
+        scheduleButton.disableProperty().bind(noGroup);
+        scheduleButton.setOnAction(event -> {
+            var dialog = new TextInputDialog("06:00-22:00");
+            dialog.setTitle("Zeitplan");
+            dialog.setHeaderText("Die ausgewählten Gruppen täglich an- und ausschalten");
+            dialog.setContentText("an-aus:");
+            dialog.showAndWait().ifPresent(text -> {
+                try {
+                    var times = text.split("-");
+                    var on = LocalTime.parse(times[0].trim());
+                    var off = LocalTime.parse(times[times.length - 1].trim());
+                    for (var group : getSelectedGroups(treeView)) {
+                        scheduler.scheduleDaily(on, group, true);
+                        scheduler.scheduleDaily(off, group, false);
+                    }
+                } catch (DateTimeParseException e) {
+                    showError("Die Uhrzeiten konnten nicht gelesen werden", e);
+                }
+            });
         });
 
         // add and remove
 
-        // fügt eine neue Gruppe ein
+        // fügt eine neue oberste Gruppe ein
         var addButton = new Button("Neu");
-        addButton.setOnAction(event -> {
-            var group = new Group("Neue Gruppe");
-            groups.add(group);
-
-            var itemIndex = groups.indexOf(group);
-            listView.layout(); // necessary to update the ListView before editing the item
-            listView.scrollTo(itemIndex);
-            listView.getSelectionModel().clearAndSelect(itemIndex); // replace the current selection
-            listView.edit(itemIndex); // die Gruppe soll direkt bearbeitet werden
-        });
+        addButton.setOnAction(event -> addGroup(treeView, null));
+
+        // fügt eine neue Untergruppe unter der zuletzt gewählten Gruppe ein
+        var addChildButton = new Button("Untergruppe");
+        addChildButton.disableProperty().bind(selectedGroup.isNull());
+        addChildButton.setOnAction(event -> addGroup(treeView, selectedGroup.get()));
 
-        // entfernt alle ausgewählten Gruppen
+        // entfernt alle ausgewählten Gruppen mit ihren Untergruppen
         var removeButton = new Button("Entfernen");
         removeButton.disableProperty().bind(noGroup);
         removeButton.setOnAction(event -> {
-            // create a copy of the current selection
-            var groupsToRemove = new ArrayList<>(listView.getSelectionModel().getSelectedItems());
-
-            // remove groups
-            groupsToRemove.forEach(groups::remove);
+            var selected = getSelectedGroups(treeView);
+            treeView.getSelectionModel().clearSelection();
+            clearGroupFocus();
+            recorder.run(LampTrace.Operation.REMOVE_GROUPS, LampTrace.formatIds(selected),
+                    () -> removeGroups(lampsContainer, groupTree, selected));
+        });
 
-            // remove all lamps from those groups
-            lampsContainer.getLamps().stream()
-                    .filter(lamp -> groupsToRemove.contains(lamp.getGroup()))
-                    .forEach(lamp -> lamp.setGroup(null));
+        // benennt die ausgewählten Gruppen um, mehrere mit fortlaufender Nummer
+        var renameButton = new Button("Umbenennen");
+        renameButton.disableProperty().bind(noGroup);
+        renameButton.setOnAction(event -> {
+            var selected = getSelectedGroups(treeView);
+            var dialog = new TextInputDialog(selected.size() > 1 ? "Raum #" : selected.get(0).getName());
+            dialog.setTitle("Umbenennen");
+            dialog.setHeaderText(selected.size() > 1
+                    ? "Die " + selected.size() + " ausgewählten Gruppen umbenennen, # wird durch 1, 2, 3, … ersetzt"
+                    : "Die ausgewählte Gruppe umbenennen");
+            dialog.setContentText("Name:");
+            dialog.showAndWait().ifPresent(name -> recorder.run(LampTrace.Operation.RENAME_GROUPS,
+                    LampTrace.formatIds(selected) + " " + name,
+                    () -> renameGroups(lampsContainer.getHistory(), selected, name)));
         });
 
         // Toolbar erstellen und zurückgeben
         return new ToolBar(
                 toggleButton,
+                scheduleButton,
                 new Separator(),
                 addButton,
+                addChildButton,
+                renameButton,
                 removeButton
         );
     }
@@ -0,0 +1,289 @@
+package lamps;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Ein hierarchisches Zeitrad: Einträge werden nach ihrem Fälligkeitszeitpunkt (in Ticks) auf Fächer verteilt.
+ * Die unterste Stufe hat ein Fach pro Tick, jede weitere Stufe fasst 64 Fächer der darunterliegenden zusammen.
+ * Erreicht die Zeit ein Fach einer höheren Stufe, werden dessen Einträge auf die tieferen Stufen verteilt.
+ * Einfügen kostet dadurch immer gleich viel, unabhängig von der Anzahl der Einträge.
+ * <p>
+ * Die Einträge liegen in einfachen Arrays und sind über Indizes verkettet, damit auch Millionen Einträge wenig
+ * Speicher brauchen. Welche Fächer belegt sind, steht je Stufe in einem long, so werden leere Ticks übersprungen.
+ * Abgebrochene Einträge bleiben bis zu ihrem Tick im Fach liegen und werden dann nur freigegeben.
+ * Die Klasse ist nicht threadsicher.
+ *
+ * @param <T> die Art der Einträge
+ */
+class TimerWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+
+    private static final int NONE = -1;
+
+    /**
+     * steht statt des Eintrags in items, wenn er abgebrochen wurde
+     */
+    private static final Object CANCELLED = new Object();
+
+    /**
+     * der erste und der letzte Eintrag jedes Fachs, Index: Stufe * SLOTS + Fach.
+     * Neue Einträge kommen ans Ende, so laufen Einträge mit demselben Tick in der Reihenfolge des Hinzufügens ab.
+     */
+    private final int[] heads = new int[LEVELS * SLOTS];
+    private final int[] tails = new int[LEVELS * SLOTS];
+
+    /**
+     * die belegten Fächer jeder Stufe als Bits
+     */
+    private final long[] occupied = new long[LEVELS];
+
+    /**
+     * Einträge, die weiter in der Zukunft liegen, als die oberste Stufe reicht
+     */
+    private int overflow = NONE;
+    private int overflowTail = NONE;
+
+    // die Einträge
+    private long[] due = new long[16];
+    private Object[] items = new Object[16];
+    private int[] next = new int[16];
+    private int firstFree = NONE;
+    private int used = 0;
+
+    /**
+     * wird beim Freigeben erhöht, damit die Kennung eines alten Eintrags nicht für einen neuen gilt
+     */
+    private int[] generations = new int[16];
+
+    private int size = 0;
+
+    /**
+     * abgebrochene Einträge, die noch in einem Fach liegen
+     */
+    private int cancelled = 0;
+
+    /**
+     * alle Einträge bis einschließlich zu diesem Tick sind abgelaufen
+     */
+    private long currentTick;
+
+    /**
+     * Erstellt ein leeres Zeitrad
+     * @param currentTick der aktuelle Tick
+     */
+    TimerWheel(long currentTick) {
+        this.currentTick = currentTick;
+        Arrays.fill(heads, NONE);
+    }
+
+    /**
+     * Gibt die Anzahl der noch nicht abgelaufenen Einträge zurück
+     * @return die Anzahl
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gibt den Tick zurück, bis zu dem alle Einträge abgelaufen sind
+     * @return der aktuelle Tick
+     */
+    long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Fügt einen Eintrag hinzu. Bereits vergangene Zeitpunkte laufen beim nächsten Tick ab.
+     * @param tick der Tick, zu dem der Eintrag abläuft
+     * @param item der Eintrag
+     * @return die Kennung für {@link #cancel(long)}
+     */
+    long schedule(long tick, T item) {
+        var entry = allocate();
+        due[entry] = Math.max(tick, currentTick + 1);
+        items[entry] = item;
+        insert(entry);
+        size++;
+        return (long) generations[entry] << 32 | entry;
+    }
+
+    /**
+     * Bricht einen Eintrag ab, der noch nicht abgelaufen ist
+     * @param id die Kennung aus {@link #schedule(long, Object)}
+     * @return ob der Eintrag abgebrochen wurde, false wenn er schon abgelaufen oder abgebrochen ist
+     */
+    boolean cancel(long id) {
+        var entry = (int) id;
+        if (entry < 0 || entry >= used || generations[entry] != (int) (id >>> 32))
+            return false;
+        if (items[entry] == null || items[entry] == CANCELLED)
+            return false;
+
+        items[entry] = CANCELLED;
+        size--;
+        cancelled++;
+        return true;
+    }
+
+    /**
+     * Gibt einen Tick zurück, vor dem sicher kein Eintrag abläuft, z.B. um bis dahin zu schlafen.
+     * Das ist der nächste Tick, zu dem ein Fach irgendeiner Stufe erreicht wird, in dem Einträge liegen.
+     * @return der Tick oder {@link Long#MAX_VALUE}, wenn es keine Einträge gibt
+     */
+    long nextTickLowerBound() {
+        if (size + cancelled == 0)
+            return Long.MAX_VALUE;
+
+        var best = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            // belegt sein können nur Fächer hinter dem aktuellen, die übrigen sind schon abgelaufen oder verteilt
+            var shift = BITS * level;
+            var position = (int) ((currentTick >>> shift) & MASK);
+            if (position == MASK)
+                continue;
+
+            var ahead = occupied[level] >>> (position + 1);
+            if (ahead != 0) {
+                var slot = position + 1 + Long.numberOfTrailingZeros(ahead);
+                var rotation = (currentTick >>> (shift + BITS)) << (shift + BITS);
+                best = Math.min(best, rotation | ((long) slot << shift));
+            }
+        }
+        if (overflow != NONE) {
+            var shift = BITS * LEVELS;
+            best = Math.min(best, ((currentTick >>> shift) + 1) << shift);
+        }
+        return best;
+    }
+
+    /**
+     * Dreht das Rad bis zu einem Tick weiter und übergibt alle abgelaufenen Einträge in der Reihenfolge ihrer Ticks.
+     * Ticks ohne Einträge werden übersprungen.
+     * @param tick der neue Tick
+     * @param expired erhält die abgelaufenen Einträge
+     */
+    void advanceTo(long tick, Consumer<? super T> expired) {
+        while (currentTick < tick) {
+            var nextTick = nextTickLowerBound();
+            if (nextTick > tick) {
+                currentTick = tick;
+                return;
+            }
+
+            // zuerst die höheren Stufen verteilen, deren Fach mit diesem Tick beginnt, dann ablaufen lassen
+            currentTick = nextTick;
+            cascade(nextTick);
+            var slot = (int) (nextTick & MASK);
+            if (heads[slot] != NONE)
+                expire(slot, expired);
+        }
+    }
+
+    /**
+     * Verteilt die Einträge der höheren Stufen, deren Fach mit diesem Tick beginnt
+     */
+    private void cascade(long tick) {
+        // von oben nach unten, damit Einträge mehrere Stufen in einem Schritt herabsteigen können
+        if ((tick & ((1L << (BITS * LEVELS)) - 1)) == 0) {
+            var entry = overflow;
+            overflow = overflowTail = NONE;
+            reinsert(entry);
+        }
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            if ((tick & ((1L << (BITS * level)) - 1)) != 0)
+                continue;
+
+            var slot = (int) ((tick >>> (BITS * level)) & MASK);
+            var index = level * SLOTS + slot;
+            var entry = heads[index];
+            heads[index] = NONE;
+            occupied[level] &= ~(1L << slot);
+            reinsert(entry);
+        }
+    }
+
+    private void reinsert(int entry) {
+        while (entry != NONE) {
+            var following = next[entry];
+            insert(entry);
+            entry = following;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expire(int slot, Consumer<? super T> expired) {
+        var entry = heads[slot];
+        heads[slot] = NONE;
+        occupied[0] &= ~(1L << slot);
+
+        // zuerst ablösen, der Empfänger darf neue Einträge hinzufügen
+        while (entry != NONE) {
+            var following = next[entry];
+            var item = items[entry];
+            free(entry);
+            if (item == CANCELLED) {
+                cancelled--;
+            } else {
+                size--;
+                expired.accept((T) item);
+            }
+            entry = following;
+        }
+    }
+
+    /**
+     * Legt einen Eintrag in das Fach der niedrigsten Stufe, deren Umdrehung er mit dem aktuellen Tick teilt
+     */
+    private void insert(int entry) {
+        var tick = due[entry];
+        for (int level = 0; level < LEVELS; level++) {
+            var shift = BITS * (level + 1);
+            if ((tick >>> shift) == (currentTick >>> shift)) {
+                var slot = (int) ((tick >>> (BITS * level)) & MASK);
+                var index = level * SLOTS + slot;
+                next[entry] = NONE;
+                if (heads[index] == NONE)
+                    heads[index] = entry;
+                else
+                    next[tails[index]] = entry;
+                tails[index] = entry;
+                occupied[level] |= 1L << slot;
+                return;
+            }
+        }
+
+        next[entry] = NONE;
+        if (overflow == NONE)
+            overflow = entry;
+        else
+            next[overflowTail] = entry;
+        overflowTail = entry;
+    }
+
+    private int allocate() {
+        if (firstFree != NONE) {
+            var entry = firstFree;
+            firstFree = next[entry];
+            return entry;
+        }
+        if (used == due.length) {
+            var capacity = due.length * 2;
+            due = Arrays.copyOf(due, capacity);
+            items = Arrays.copyOf(items, capacity);
+            next = Arrays.copyOf(next, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+        }
+        return used++;
+    }
+
+    private void free(int entry) {
+        items[entry] = null;
+        generations[entry]++;
+        next[entry] = firstFree;
+        firstFree = entry;
+    }
+}
@@ -0,0 +1,164 @@
+package lamps;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LampSchedulerTest {
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+
+    /**
+     * Eine Uhr, die nur weitergeht, wenn sie gestellt wird
+     */
+    private static class TestClock extends Clock {
+        private volatile Instant instant;
+
+        TestClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        void set(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZONE;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+
+    private final ZonedDateTime start = ZonedDateTime.of(2026, 10, 18, 0, 0, 0, 0, ZONE);
+    private final TestClock clock = new TestClock(start.toInstant());
+
+    private LampScheduler scheduler;
+    private Group floor, hall;
+    private final List<Lamp> hallLamps = new ArrayList<>();
+    private final List<Lamp> otherLamps = new ArrayList<>();
+
+    @BeforeAll
+    static void startFx() throws InterruptedException {
+        var latch = new CountDownLatch(1);
+        try {
+            Platform.startup(latch::countDown);
+        } catch (IllegalStateException e) {
+            return; // läuft schon
+        }
+        latch.await();
+        Platform.setImplicitExit(false);
+    }
+
+    @BeforeEach
+    void setUp() {
+        fx(() -> {
+            var container = new LampsContainer();
+            floor = new Group("Erdgeschoss");
+            hall = new Group("Flur");
+            new GroupTree(FXCollections.observableArrayList(floor, hall)).move(hall, floor, 0);
+
+            for (int i = 0; i < 100; i++) {
+                var lamp = new Lamp();
+                if (i % 2 == 0) {
+                    lamp.setGroup(hall);
+                    hallLamps.add(lamp);
+                } else {
+                    otherLamps.add(lamp);
+                }
+            }
+            container.addLamps(hallLamps);
+            container.addLamps(otherLamps);
+            scheduler = new LampScheduler(container, clock);
+            return null;
+        });
+    }
+
+    @Test
+    void dailyOverSeveralDays() {
+        scheduler.scheduleDaily(LocalTime.of(6, 0), floor, true);
+        var off = scheduler.scheduleDaily(LocalTime.of(22, 0), floor, false);
+        assertEquals(2, scheduler.size());
+
+        // drei Tage in Schritten von 10 Minuten, am dritten Tag wird das Ausschalten abgebrochen
+        for (var time = start; time.isBefore(start.plusDays(3)); time = time.plus(Duration.ofMinutes(10))) {
+            if (time.equals(start.plusDays(2)))
+                off.run();
+
+            advanceTo(time);
+            var day = time.getDayOfMonth() - start.getDayOfMonth();
+            var hour = time.getHour();
+            var expected = hour >= 6 && (hour < 22 || day == 2);
+            assertEquals(expected, allOn(hallLamps), time.toString());
+            assertEquals(expected, anyOn(hallLamps), time.toString());
+            assertFalse(anyOn(otherLamps));
+            assertEquals(day == 2 ? 1 : 2, scheduler.size(), "jeden Tag neu eingeplant");
+        }
+    }
+
+    @Test
+    void cancelGroup() {
+        var time = start.plusHours(1);
+        var id = scheduler.scheduleGroup(time.toInstant().toEpochMilli(), hall, true);
+        scheduler.scheduleGroup(time.plusMinutes(1).toInstant().toEpochMilli(), hall, false);
+
+        assertTrue(scheduler.cancel(id));
+        advanceTo(time);
+        assertFalse(anyOn(hallLamps));
+        assertEquals(1, scheduler.size());
+        assertFalse(scheduler.cancel(id));
+    }
+
+    /**
+     * Stellt die Uhr und wartet, bis die fälligen Aktionen im JavaFX-Thread ausgeführt sind
+     */
+    private void advanceTo(ZonedDateTime time) {
+        clock.set(time.toInstant());
+        scheduler.advance();
+        // läuft nach dem applyDue aus advance()
+        fx(() -> null);
+    }
+
+    private boolean allOn(List<Lamp> lamps) {
+        return fx(() -> lamps.stream().allMatch(Lamp::isOn));
+    }
+
+    private boolean anyOn(List<Lamp> lamps) {
+        return fx(() -> lamps.stream().anyMatch(Lamp::isOn));
+    }
+
+    private static <T> T fx(Supplier<T> action) {
+        var task = new FutureTask<>(action::get);
+        Platform.runLater(task);
+        try {
+            return task.get();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
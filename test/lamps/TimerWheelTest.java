@@ -0,0 +1,185 @@
+package lamps;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+    /**
+     * ein Tag in Ticks von {@link LampScheduler#TICK_MILLIS} ms
+     */
+    private static final long DAY = 24 * 60 * 60 * 1000 / LampScheduler.TICK_MILLIS;
+
+    /**
+     * die Grenze, ab der die oberste Stufe nicht mehr reicht
+     */
+    private static final long TOP = 1L << 36;
+
+    /**
+     * Ein Eintrag mit dem Tick, zu dem er fällig ist, und seiner Nummer in der Reihenfolge des Hinzufügens
+     */
+    private static class Item {
+        final long tick;
+        final int number;
+
+        Item(long tick, int number) {
+            this.tick = tick;
+            this.number = number;
+        }
+    }
+
+    /**
+     * Sammelt die abgelaufenen Einträge und prüft, dass jeder genau zu seinem Tick und in der richtigen Reihenfolge
+     * abläuft
+     */
+    private static class Expired {
+        final TimerWheel<Item> wheel;
+        final List<Item> items = new ArrayList<>();
+
+        Expired(TimerWheel<Item> wheel) {
+            this.wheel = wheel;
+        }
+
+        void accept(Item item) {
+            assertEquals(item.tick, wheel.getCurrentTick(), "zu früh oder zu spät abgelaufen");
+            if (!items.isEmpty()) {
+                var previous = items.get(items.size() - 1);
+                assertTrue(previous.tick < item.tick || previous.tick == item.tick && previous.number < item.number,
+                        "falsche Reihenfolge");
+            }
+            items.add(item);
+        }
+    }
+
+    @Test
+    void fullDayInOrder() {
+        // ein echter Tag ab Mitternacht, so werden Fächer aller Stufen erreicht
+        var start = 1_792_281_600_000L / LampScheduler.TICK_MILLIS;
+        var wheel = new TimerWheel<Item>(start);
+        var expired = new Expired(wheel);
+        var random = new Random(42);
+
+        var count = 200_000;
+        for (int i = 0; i < count; i++) {
+            // viele Einträge teilen sich einen Tick, z.B. volle Minuten
+            var tick = start + 1 + (i % 4 == 0 ? random.nextInt(24 * 60) * 6000L : (long) (random.nextDouble() * DAY));
+            wheel.schedule(tick, new Item(tick, i));
+        }
+        assertEquals(count, wheel.size());
+
+        // wie der Thread des Zeitplans: bis zum nächsten belegten Tick oder in unregelmäßigen Schritten
+        var end = start + DAY + 1;
+        while (wheel.getCurrentTick() < end) {
+            var next = wheel.nextTickLowerBound();
+            assertTrue(next > wheel.getCurrentTick());
+            var target = random.nextBoolean() ? next : wheel.getCurrentTick() + 1 + random.nextInt(60_000);
+            wheel.advanceTo(Math.min(target, end), expired::accept);
+        }
+
+        assertEquals(count, expired.items.size());
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextTickLowerBound());
+    }
+
+    @Test
+    void wrapAround() {
+        var start = TOP - 3;
+        var wheel = new TimerWheel<Item>(start);
+        var expired = new Expired(wheel);
+
+        // um die Grenzen aller Stufen herum und weiter als die oberste Stufe reicht
+        var ticks = new long[] {
+                TOP + (1L << 30) + 1, TOP - 1, TOP, TOP + 1, TOP + 63, TOP + 64, TOP + 4095, TOP + 4096,
+                TOP + (1L << 18), TOP + (1L << 24) - 1, TOP + (1L << 30), 2 * TOP, 2 * TOP + 5, 3 * TOP + 7
+        };
+        for (int i = 0; i < ticks.length; i++) {
+            wheel.schedule(ticks[i], new Item(ticks[i], i));
+        }
+
+        // in einem Schritt über die halbe Strecke, dann Tick für Tick bis zum nächsten Eintrag
+        wheel.advanceTo(TOP + (1L << 24), expired::accept);
+        assertEquals(9, expired.items.size());
+        while (wheel.size() > 0) {
+            wheel.advanceTo(wheel.nextTickLowerBound(), expired::accept);
+        }
+
+        assertEquals(ticks.length, expired.items.size());
+        assertEquals(3 * TOP + 7, expired.items.get(ticks.length - 1).tick);
+    }
+
+    @Test
+    void pastTicksExpireNext() {
+        var wheel = new TimerWheel<Item>(1000);
+        var expired = new ArrayList<Item>();
+        wheel.schedule(10, new Item(10, 0));
+        wheel.schedule(1000, new Item(1000, 1));
+
+        wheel.advanceTo(1000, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advanceTo(1001, expired::add);
+        assertEquals(2, expired.size());
+    }
+
+    @Test
+    void rescheduleWhileExpiring() {
+        var wheel = new TimerWheel<Item>(0);
+        var expired = new Expired(wheel);
+
+        // jeder Eintrag plant sich für den nächsten Tag neu ein, wie LampScheduler#scheduleDaily
+        wheel.schedule(6 * DAY / 24, new Item(6 * DAY / 24, 0));
+        for (int day = 0; day < 7; day++) {
+            wheel.advanceTo((day + 1) * DAY, item -> {
+                expired.accept(item);
+                var tick = item.tick + DAY;
+                wheel.schedule(tick, new Item(tick, item.number + 1));
+            });
+            assertEquals(day + 1, expired.items.size());
+            assertEquals(1, wheel.size());
+        }
+    }
+
+    @Test
+    void cancel() {
+        var wheel = new TimerWheel<Item>(0);
+        var expired = new Expired(wheel);
+
+        var first = wheel.schedule(100, new Item(100, 0));
+        var second = wheel.schedule(100, new Item(100, 1));
+        var third = wheel.schedule(100, new Item(100, 2));
+        var far = wheel.schedule(TOP + 1, new Item(TOP + 1, 3));
+        assertEquals(4, wheel.size());
+
+        assertTrue(wheel.cancel(second));
+        assertFalse(wheel.cancel(second), "zweimal abgebrochen");
+        assertTrue(wheel.cancel(far));
+        assertEquals(2, wheel.size());
+
+        wheel.advanceTo(2 * TOP, expired::accept);
+        assertEquals(2, expired.items.size());
+        assertEquals(0, expired.items.get(0).number);
+        assertEquals(2, expired.items.get(1).number);
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextTickLowerBound());
+
+        // abgelaufene Einträge lassen sich nicht mehr abbrechen, auch wenn ihr Platz wiederverwendet wird
+        assertFalse(wheel.cancel(first));
+        var reused = new ArrayList<Long>();
+        for (int i = 0; i < 4; i++) {
+            reused.add(wheel.schedule(2 * TOP + 10, new Item(2 * TOP + 10, 4 + i)));
+        }
+        assertFalse(wheel.cancel(first));
+        assertFalse(wheel.cancel(third));
+        assertFalse(wheel.cancel(far));
+        assertEquals(4, wheel.size());
+
+        assertTrue(wheel.cancel(reused.get(3)));
+        wheel.advanceTo(2 * TOP + 10, expired::accept);
+        assertEquals(5, expired.items.size());
+    }
+}